@@ -0,0 +1,70 @@
+package com.example.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared, deterministic inputs for the benchmarks.
+ *
+ * Resources (src/main/resources/bench):
+ *   vocabulary.txt   argument words of 10-output/mi, most frequent first
+ *   verbs.txt        verbs of the test predicates, most frequent first
+ *   group-sizes.tsv  recorded (slot,word) group sizes of 10-output/mi: size \t #groups
+ */
+public final class BenchData {
+
+    public static final long SEED = 42L;
+
+    private BenchData() {}
+
+    public static List<String> lines(String resource) throws IOException {
+        List<String> out = new ArrayList<>();
+        InputStream in = BenchData.class.getResourceAsStream("/bench/" + resource);
+        if (in == null) throw new IOException("missing resource bench/" + resource);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                out.add(line);
+            }
+        }
+        return out;
+    }
+
+    public static List<String> vocabulary() throws IOException {
+        return lines("vocabulary.txt");
+    }
+
+    public static List<String> verbs() throws IOException {
+        return lines("verbs.txt");
+    }
+
+    /** Draw n group sizes from the recorded distribution. */
+    public static int[] groupSizes(Random rnd, int n) throws IOException {
+        List<String> rows = lines("group-sizes.tsv");
+        int[] sizes = new int[rows.size()];
+        long[] cum = new long[rows.size()];
+        long total = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            String[] f = rows.get(i).split("\t");
+            sizes[i] = Integer.parseInt(f[0]);
+            total += Long.parseLong(f[1]);
+            cum[i] = total;
+        }
+
+        int[] out = new int[n];
+        for (int k = 0; k < n; k++) {
+            long r = (long) (rnd.nextDouble() * total);
+            int i = 0;
+            while (cum[i] <= r) i++;
+            out[k] = sizes[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs all benchmarks with the GC (allocation) profiler and compares them with a baseline.
+ *
+ * Usage:
+ *   java -jar bench/target/benchmarks.jar [-o results.csv] [-b baseline.csv]
+ *                                         [-t timeTolerancePct] [-a allocTolerancePct] [regex]
+ *
+ * Compared metrics: time per op (ns/op, default tolerance 10%) and allocation per op
+ * (gc.alloc.rate.norm in B/op, default tolerance 5%). Allocation is deterministic, so it is
+ * the reliable signal on shared/noisy machines; time needs a quiet reference machine.
+ * Exit code 1 if any metric is worse than the baseline by more than its tolerance.
+ *
+ * The checked-in baseline lives in bench/baseline/baseline.csv. Refresh it with
+ *   java -jar bench/target/benchmarks.jar -o bench/baseline/baseline.csv
+ * on the reference machine, after an intentional change.
+ */
+public class BenchMain {
+
+    public static void main(String[] args) throws Exception {
+        String out = "bench-results.csv";
+        String baseline = null;
+        double timeTolerance = 10.0;
+        double allocTolerance = 5.0;
+        String include = "com\\.example\\.bench\\..*Bench\\..*";
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) out = args[++i];
+            else if ("-b".equals(args[i]) && i + 1 < args.length) baseline = args[++i];
+            else if ("-t".equals(args[i]) && i + 1 < args.length) timeTolerance = Double.parseDouble(args[++i]);
+            else if ("-a".equals(args[i]) && i + 1 < args.length) allocTolerance = Double.parseDouble(args[++i]);
+            else include = args[i];
+        }
+
+        ChainedOptionsBuilder opt = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.CSV)
+                .result(out);
+        new Runner(opt.build()).run();
+
+        if (baseline == null) return;
+
+        int regressions = compare(load(new File(baseline)), load(new File(out)), timeTolerance, allocTolerance);
+        if (regressions > 0) {
+            System.err.println(regressions + " regression(s)");
+            System.exit(1);
+        }
+    }
+
+    /** key (benchmark + params + unit) -> score, for ns/op and B/op rows only */
+    static Map<String, Double> load(File csv) throws IOException {
+        Map<String, Double> out = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8))) {
+            String header = br.readLine();
+            if (header == null) return out;
+            List<String> cols = splitCsv(header);
+            int iBench = cols.indexOf("Benchmark");
+            int iScore = cols.indexOf("Score");
+            int iUnit = cols.indexOf("Unit");
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                List<String> f = splitCsv(line);
+                if (f.size() < cols.size()) continue;
+                String unit = f.get(iUnit);
+                if (!"ns/op".equals(unit) && !"B/op".equals(unit)) continue;
+
+                StringBuilder key = new StringBuilder(f.get(iBench));
+                for (int c = iUnit + 1; c < f.size(); c++) key.append(' ').append(f.get(c));
+                key.append(" [").append(unit).append(']');
+                out.put(key.toString(), Double.parseDouble(f.get(iScore)));
+            }
+        }
+        return out;
+    }
+
+    static int compare(Map<String, Double> base, Map<String, Double> now, double timeTolerancePct, double allocTolerancePct) {
+        int regressions = 0;
+        System.out.println(String.format("%-70s %14s %14s %9s", "benchmark", "baseline", "current", "change"));
+        for (Map.Entry<String, Double> e : now.entrySet()) {
+            Double b = base.get(e.getKey());
+            if (b == null) {
+                System.out.println(String.format("%-70s %14s %14.2f %9s", e.getKey(), "-", e.getValue(), "new"));
+                continue;
+            }
+            double change = b == 0 ? (e.getValue() == 0 ? 0 : 100) : (e.getValue() - b) * 100.0 / b;
+            // allocation below 1 B/op is noise (escape analysis, TLAB accounting)
+            boolean alloc = e.getKey().endsWith("[B/op]");
+            boolean tiny = alloc && Math.max(b, e.getValue()) < 1.0;
+            boolean worse = change > (alloc ? allocTolerancePct : timeTolerancePct) && !tiny;
+            if (worse) regressions++;
+            System.out.println(String.format("%-70s %14.2f %14.2f %8.1f%%%s",
+                    e.getKey(), b, e.getValue(), change, worse ? "  <-- REGRESSION" : ""));
+        }
+        return regressions;
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else cur.append(c);
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.bench;
+
+import com.example.helpers.TestData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TestData.canonicalPairKey over realistic predicate templates (both orientations). Score is per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairKeyBench {
+
+    static final int N = 1024;
+
+    private String[] left;
+    private String[] right;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rnd = new Random(BenchData.SEED);
+        List<String> verbs = BenchData.verbs();
+        String[] preps = {"", "in ", "of ", "from ", "with ", "by "};
+
+        left = new String[N];
+        right = new String[N];
+        for (int i = 0; i < N; i++) {
+            left[i] = "X " + verbs.get(rnd.nextInt(verbs.size())) + " " + preps[rnd.nextInt(preps.length)] + "Y";
+            right[i] = "X " + verbs.get(rnd.nextInt(verbs.size())) + " " + preps[rnd.nextInt(preps.length)] + "Y";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void canonicalPairKey(Blackhole bh) {
+        for (int i = 0; i < N; i++) bh.consume(TestData.canonicalPairKey(left[i], right[i]));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.bench;
+
+import com.example.helpers.Parser;
+import com.example.helpers.PorterStemmer;
+import com.example.jobs.Step1_ExtractAndTotals;
+import com.example.tools.Zipf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Step1 mapper kernels: biarc parsing, predicate extraction and the clean-up filters.
+ * Scores are per line / per word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench {
+
+    static final int N = 1024;
+
+    private String[] lines;
+    private Parser.ParsedLine[] parsed;
+    private String[] templates;
+    private String[] words;
+
+    private final PorterStemmer stemmer = new PorterStemmer();
+
+    @Setup
+    public void setup() throws IOException {
+        Random rnd = new Random(BenchData.SEED);
+        List<String> vocab = BenchData.vocabulary();
+        List<String> verbs = BenchData.verbs();
+        Zipf nounZipf = new Zipf(vocab.size(), 1.1);
+        Zipf verbZipf = new Zipf(verbs.size(), 1.0);
+        String[] preps = {"in", "of", "from", "with", "to", "by", "for", "into", "on"};
+
+        lines = new String[N];
+        parsed = new Parser.ParsedLine[N];
+        templates = new String[N];
+        words = new String[N];
+
+        for (int i = 0; i < N; i++) {
+            String v = verbs.get(verbZipf.next(rnd));
+            String x = vocab.get(nounZipf.next(rnd));
+            String y = vocab.get(nounZipf.next(rnd));
+            int count = 1 + rnd.nextInt(200);
+
+            // same mix as the real biarcs: direct object, prepositional object, and extra modifiers
+            String arcs;
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    arcs = v + "/VBZ/ROOT/0 " + x + "/NNS/nsubj/1 " + y + "/NN/dobj/1";
+                    break;
+                case 1:
+                    arcs = v + "/VBD/ROOT/0 " + x + "/NN/nsubj/1 " + preps[rnd.nextInt(preps.length)] +
+                           "/IN/prep/1 " + y + "/NNS/pobj/3";
+                    break;
+                default:
+                    arcs = "the/DT/det/2 " + x + "/NN/nsubj/3 " + v + "/VBP/ROOT/0 " +
+                           "new/JJ/amod/5 " + y + "/NN/dobj/3";
+            }
+            lines[i] = v + "\t" + arcs + "\t" + count + "\t1998," + (count / 2) + "\t2005," + (count - count / 2);
+            parsed[i] = Parser.parseLine(lines[i]);
+            templates[i] = "X " + v + (i % 2 == 0 ? " " : " " + preps[i % preps.length] + " ") + "Y";
+            words[i] = (i % 7 == 0) ? x + "'s" : (i % 11 == 0 ? x + "1" : x);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void parseLine(Blackhole bh) {
+        for (String l : lines) bh.consume(Parser.parseLine(l));
+    }
+
+    /** findRootVerb + extractPredicate (stemming) + cleanTemplate + isCleanWord, as in the Step1 mapper. */
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void extractPredicate(Blackhole bh) {
+        for (Parser.ParsedLine pl : parsed) bh.consume(Step1_ExtractAndTotals.extractClean(pl, stemmer));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void cleanTemplate(Blackhole bh) {
+        for (String t : templates) bh.consume(Step1_ExtractAndTotals.cleanTemplate(t));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void isCleanWord(Blackhole bh) {
+        for (String w : words) bh.consume(Step1_ExtractAndTotals.isCleanWord(w));
+    }
+}
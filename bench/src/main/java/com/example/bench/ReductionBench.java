@@ -0,0 +1,257 @@
+package com.example.bench;
+
+import com.example.helpers.PairTable;
+import com.example.helpers.PostingBuffer;
+import com.example.helpers.TestSet;
+import com.example.index.PredicateIndex;
+import com.example.index.PredicateIndexBuilder;
+import com.example.jobs.Step2_ComputeMI;
+import com.example.jobs.Step4_IntersectionContrib;
+import com.example.tools.Zipf;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reducer-side reductions:
+ *  - step2MiGroup:    MI + output line for every predicate of one (slot,word) group  (per group)
+ *  - step4PairLoop:   Step4 pair enumeration + test-pair filter for one group          (per group)
+ *  - step4Group:      Step4 reducer group: ContribReducer.reduce() through a Hadoop reduce
+ *                     context (Posting deserialization, testPredicate, PostingBuffer,
+ *                     pair loop, output keys + measure terms)                          (per group)
+ *  - step4GroupCapped: the same with dirt.step4.feature.cap=CAP (the PostingCap branch) (per group)
+ *  - indexSimilarity: PredicateIndex merge-intersect similarity                       (per pair)
+ *
+ * Group sizes are drawn from the recorded distribution of 10-output/mi.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReductionBench {
+
+    static final int GROUPS = 256;
+    static final int PAIRS = 1024;
+    static final int PREDICATES = 300;
+    static final int CAP = 4;
+
+    // Step2 groups: per group csw + (cpsw, cps) per predicate
+    private String[][] groupPreds;
+    private long[][] groupCpsw;
+    private long[][] groupCps;
+    private long[] groupCsw;
+
+    // Step4 groups: id buffers (pair loop) and the serialized map output of every group (reducer)
+    private PostingBuffer[] pairGroups;
+    private TestSet testSet;
+    private PairTable pairTable;
+    private Step4Reduce step4;
+    private Step4Reduce step4Capped;
+
+    // index
+    private File indexDir;
+    private PredicateIndex index;
+    private int[] simA;
+    private int[] simB;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random rnd = new Random(BenchData.SEED);
+        List<String> verbs = BenchData.verbs();
+        List<String> vocab = BenchData.vocabulary();
+        String[] preps = {"", "in ", "of ", "from ", "with ", "by "};
+
+        // predicate pool + test pairs (~10 per predicate)
+        String[] pool = new String[PREDICATES];
+        for (int i = 0; i < PREDICATES; i++) {
+            pool[i] = "X " + verbs.get(i % verbs.size()) + " " + preps[(i / verbs.size()) % preps.length] + "Y";
+        }
+        // the test pairs as a pair file -> TestSet (normalized names) + PairTable, as the reducer loads them
+        indexDir = Files.createTempDirectory("bench-index").toFile();
+        File positive = new File(indexDir, "positive.txt");
+        File negative = new File(indexDir, "negative.txt");
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(positive), StandardCharsets.UTF_8))) {
+            for (int i = 0; i < PREDICATES * 10; i++) {
+                w.write(pool[rnd.nextInt(PREDICATES)] + "\t" + pool[rnd.nextInt(PREDICATES)] + "\n");
+            }
+        }
+        negative.createNewFile();
+        testSet = TestSet.read(new Configuration(), new Path(positive.toURI()), new Path(negative.toURI()));
+        pairTable = new PairTable(testSet);
+
+        Zipf predZipf = new Zipf(PREDICATES, 0.8);
+        int[] sizes = BenchData.groupSizes(rnd, GROUPS);
+
+        groupPreds = new String[GROUPS][];
+        groupCpsw = new long[GROUPS][];
+        groupCps = new long[GROUPS][];
+        groupCsw = new long[GROUPS];
+        pairGroups = new PostingBuffer[GROUPS];
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        Step4_IntersectionContrib.Posting posting = new Step4_IntersectionContrib.Posting();
+        DataOutputBuffer out = new DataOutputBuffer();
+
+        for (int g = 0; g < GROUPS; g++) {
+            int n = sizes[g];
+            groupPreds[g] = new String[n];
+            groupCpsw[g] = new long[n];
+            groupCps[g] = new long[n];
+
+            Set<String> seen = new HashSet<>();
+            pairGroups[g] = new PostingBuffer();
+            byte[] key = serialized(new Text((g % 2 == 0 ? "X" : "Y") + "\t" + vocab.get(g % vocab.size()) + g), out);
+            long csw = 0;
+            for (int i = 0; i < n; i++) {
+                int pi = predZipf.next(rnd);
+                String p = pool[pi];
+                groupPreds[g][i] = p;
+                groupCpsw[g][i] = 1 + rnd.nextInt(50);
+                groupCps[g][i] = 1000 + rnd.nextInt(100000);
+                csw += groupCpsw[g][i];
+                if (seen.add(p)) {
+                    int id = pi % testSet.predicateCount();
+                    double m = 0.1 + 8 * rnd.nextDouble();
+                    pairGroups[g].add(id, m);
+                    keys.add(key);
+                    values.add(serialized(posting.set(testSet.predicate(id), m, -1), out));
+                }
+            }
+            groupCsw[g] = csw + rnd.nextInt(1000);
+        }
+
+        // the reducer loads the test set from the cached pair files, as in a task
+        Configuration conf = new Configuration();
+        conf.set(MRJobConfig.CACHE_FILES, positive.toURI() + "," + negative.toURI());
+        byte[][] k = keys.toArray(new byte[0][]);
+        byte[][] v = values.toArray(new byte[0][]);
+        try {
+            step4 = new Step4Reduce(conf, k, v);
+            conf.setInt(Step4_IntersectionContrib.CAP_KEY, CAP);
+            step4Capped = new Step4Reduce(conf, k, v);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+
+        // synthetic MI table -> index
+        File mi = new File(indexDir, "mi.txt");
+        Zipf wordZipf = new Zipf(vocab.size(), 1.0);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mi), StandardCharsets.UTF_8))) {
+            for (String p : pool) {
+                for (String slot : new String[]{"X", "Y"}) {
+                    int features = 20 + rnd.nextInt(2000);
+                    Set<String> ws = new HashSet<>();
+                    for (int f = 0; f < features; f++) ws.add(vocab.get(wordZipf.next(rnd)));
+                    for (String word : ws) {
+                        w.write(Step2_ComputeMI.miLine(p, slot, word, 0.01 + 6 * rnd.nextDouble()));
+                        w.write('\n');
+                    }
+                }
+            }
+        }
+        File dir = new File(indexDir, "index");
+        PredicateIndexBuilder.build(new Configuration(), new Path(mi.toURI()), null, dir);
+        index = PredicateIndex.open(dir);
+
+        simA = new int[PAIRS];
+        simB = new int[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            simA[i] = rnd.nextInt(index.size());
+            simB[i] = rnd.nextInt(index.size());
+        }
+    }
+
+    private static byte[] serialized(Writable w, DataOutputBuffer out) throws IOException {
+        out.reset();
+        w.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        index.close();
+        deleteRecursively(indexDir);
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) deleteRecursively(c);
+        f.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    public void step2MiGroup(Blackhole bh) {
+        long cslot = 50_000_000L;
+        for (int g = 0; g < GROUPS; g++) {
+            String[] preds = groupPreds[g];
+            for (int i = 0; i < preds.length; i++) {
+                double mi = Step2_ComputeMI.mi(groupCpsw[g][i], cslot, groupCps[g][i], groupCsw[g]);
+                bh.consume(Step2_ComputeMI.miLine(preds[i], "X", "drug", mi));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    public void step4PairLoop(Blackhole bh) throws Exception {
+        Step4_IntersectionContrib.PairSink sink = (pair, miFirst, miSecond) -> bh.consume(miFirst + miSecond);
+        for (int g = 0; g < GROUPS; g++) {
+            Step4_IntersectionContrib.forEachAllowedPair(pairGroups[g], pairTable, sink);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    public void step4Group(Blackhole bh) throws Exception {
+        bh.consume(step4.next(GROUPS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    public void step4GroupCapped(Blackhole bh) throws Exception {
+        bh.consume(step4Capped.next(GROUPS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void indexSimilarity(Blackhole bh) {
+        for (int i = 0; i < PAIRS; i++) bh.consume(index.similarity(simA[i], simB[i]));
+    }
+}
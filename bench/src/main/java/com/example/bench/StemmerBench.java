@@ -0,0 +1,58 @@
+package com.example.bench;
+
+import com.example.helpers.PorterStemmer;
+import com.example.tools.Zipf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PorterStemmer.stem over a Zipf-distributed vocabulary with inflected forms. Score is per word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StemmerBench {
+
+    static final int N = 4096;
+
+    private String[] words;
+    private final PorterStemmer stemmer = new PorterStemmer();
+
+    @Setup
+    public void setup() throws IOException {
+        Random rnd = new Random(BenchData.SEED);
+        List<String> vocab = BenchData.vocabulary();
+        Zipf zipf = new Zipf(vocab.size(), 1.1);
+        String[] suffixes = {"", "", "s", "ed", "ing", "ation", "ness", "ly"};
+
+        words = new String[N];
+        for (int i = 0; i < N; i++) {
+            words[i] = vocab.get(zipf.next(rnd)) + suffixes[rnd.nextInt(suffixes.length)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void stem(Blackhole bh) {
+        for (String w : words) bh.consume(stemmer.stem(w));
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.bench;
+
+import com.example.helpers.DoubleVectorWritable;
+import com.example.jobs.Step4_IntersectionContrib;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.util.Progress;
+
+import java.io.IOException;
+
+/**
+ * Step4's ContribReducer as the framework runs it, without a cluster: setup() once, then
+ * reduce() per group through a real ReduceContextImpl, which deserializes the Postings from
+ * the serialized map output and groups them by key.
+ *
+ * The shuffled records (key, value bytes, grouped by key) are replayed in a cycle, so one
+ * context serves every benchmark invocation; next(groups) reduces the next groups and returns
+ * a checksum of what the reducer wrote.
+ */
+final class Step4Reduce {
+
+    private final Reducer reducer = new Reducer();
+    private final Reducer.Context ctx;
+    private final Counters counters = new Counters();
+    private long written;
+
+    /** ContribReducer with its protected lifecycle opened up to the bench */
+    private static final class Reducer extends Step4_IntersectionContrib.ContribReducer {
+        void open(Context ctx) throws IOException {
+            setup(ctx);
+        }
+
+        void group(Context ctx) throws IOException, InterruptedException {
+            reduce(ctx.getCurrentKey(), ctx.getValues(), ctx);
+        }
+    }
+
+    /**
+     * @param conf job settings of Step4 (mapreduce.job.cache.files = the pair files,
+     *             dirt.step4.feature.cap, ...)
+     * @param keys serialized Text key of each record, equal keys adjacent
+     * @param values serialized Posting of each record
+     */
+    Step4Reduce(Configuration conf, byte[][] keys, byte[][] values) throws IOException, InterruptedException {
+        ReduceContextImpl<Text, Step4_IntersectionContrib.Posting, Text, DoubleVectorWritable> impl =
+                new ReduceContextImpl<>(new JobConf(conf), new TaskAttemptID(),
+                        new Cycle(keys, values),
+                        counters.findCounter("bench", "KEYS"), counters.findCounter("bench", "VALUES"),
+                        new RecordWriter<Text, DoubleVectorWritable>() {
+                            @Override
+                            public void write(Text k, DoubleVectorWritable v) {
+                                written += k.getLength() + (long) v.values()[0];
+                            }
+
+                            @Override
+                            public void close(TaskAttemptContext c) {
+                            }
+                        },
+                        null, new Reporter(counters), new Text.Comparator(),
+                        Text.class, Step4_IntersectionContrib.Posting.class);
+        ctx = new WrappedReducer<Text, Step4_IntersectionContrib.Posting, Text, DoubleVectorWritable>()
+                .getReducerContext(impl);
+        reducer.open(ctx);
+    }
+
+    long next(int groups) throws IOException, InterruptedException {
+        for (int g = 0; g < groups; g++) {
+            ctx.nextKey();
+            reducer.group(ctx);
+        }
+        return written;
+    }
+
+    /** the task's counters so far (Step4.reject / emit / groupSize) */
+    Counters counters() {
+        return counters;
+    }
+
+    /** the records over and over; records are never empty, so next() is always true */
+    private static final class Cycle implements RawKeyValueIterator {
+        private final byte[][] keys;
+        private final byte[][] values;
+        private final DataInputBuffer key = new DataInputBuffer();
+        private final DataInputBuffer value = new DataInputBuffer();
+        private final Progress progress = new Progress();
+        private int i = -1;
+
+        Cycle(byte[][] keys, byte[][] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public DataInputBuffer getKey() {
+            return key;
+        }
+
+        @Override
+        public DataInputBuffer getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean next() {
+            i = (i + 1) % keys.length;
+            key.reset(keys[i], keys[i].length);
+            value.reset(values[i], values[i].length);
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Progress getProgress() {
+            return progress;
+        }
+    }
+
+    private static final class Reporter extends StatusReporter {
+        private final Counters counters;
+
+        Reporter(Counters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+}
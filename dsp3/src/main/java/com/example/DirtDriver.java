@@ -1,22 +1,97 @@
 package com.example;
 
+import com.example.helpers.CountMinSketch;
+import com.example.helpers.Metrics;
+import com.example.helpers.PrCurve;
+import com.example.helpers.PredicateBloom;
+import com.example.helpers.TestData;
+import com.example.helpers.SkewPlan;
+import com.example.helpers.TestSet;
+import com.example.jobs.SkewSampler;
+import com.example.jobs.Step0_Ingest;
 import com.example.jobs.Step1_ExtractAndTotals;
 import com.example.jobs.Step2_ComputeMI;
 import com.example.jobs.Step3_ComputeDenom;
 import com.example.jobs.Step4_IntersectionContrib;
 import com.example.jobs.Step5_FinalSimilarity;
+import com.example.jobs.Step6_SortBySimilarity;
+import com.example.jobs.Step7_EvaluateThresholds;
+import com.example.jobs.Step8_ExportParquet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
 public class DirtDriver extends Configured implements Tool {
 
+    /** One finished (or failed) job of a run: the Job (counters) + wall time of waitForCompletion. */
+    public static class StepRun {
+        public final String step;
+        public final Job job;
+        public final long wallMs;
+        public final boolean succeeded;
+
+        StepRun(String step, Job job, long wallMs, boolean succeeded) {
+            this.step = step;
+            this.job = job;
+            this.wallMs = wallMs;
+            this.succeeded = succeeded;
+        }
+    }
+
+    private final java.util.List<StepRun> stepRuns = new java.util.ArrayList<>();
+
+    /** Jobs of the last run(), in execution order (used by tools.PipelineBenchmark). */
+    public java.util.List<StepRun> getStepRuns() {
+        return stepRuns;
+    }
+
+    private Path metricsDir;
+
+    /** Runs one job, records it and dumps its metrics to <workDir>/metrics/<step>.json */
+    private boolean runStep(String step, Job job) throws Exception {
+        long t0 = System.currentTimeMillis();
+        boolean ok = job.waitForCompletion(true);
+        long wallMs = System.currentTimeMillis() - t0;
+        stepRuns.add(new StepRun(step, job, wallMs, ok));
+        try {
+            Metrics.writeJson(job, step, wallMs, new Path(metricsDir, step + ".json"));
+        } catch (Exception e) {
+            System.err.println("WARN: could not write metrics of " + step + ": " + e);
+        }
+        return ok;
+    }
+
+    /** Step8 for one table, when -D dirt.export.parquet=true; false if the job failed */
+    private boolean exportParquet(Configuration conf, Step8_ExportParquet.Table table,
+                                  Path input, Path exportDir, int reducers) throws Exception {
+        if (!conf.getBoolean(Step8_ExportParquet.ENABLED_KEY, false)) return true;
+        Path out = new Path(exportDir, table.dirName);
+        Job j8 = Step8_ExportParquet.buildJob(conf, table, input, out, reducers);
+        if (!runStep("Step8-" + table.dirName, j8)) return false;
+        System.out.println("Parquet " + table.dirName + " table at: " + out);
+        return true;
+    }
+
+    /** error bound of the C(p,slot,w) of an approximate Step1 (see helpers.CountMinSketch) */
+    private static void reportSketch(Configuration conf, Job j1) throws Exception {
+        CountMinSketch sketch = CountMinSketch.fromConf(conf);
+        Counters c = j1.getCounters();
+        long mass = c.findCounter("Step1.emit", Step1_ExtractAndTotals.SKETCH_MASS).getValue();
+        long triples = c.findCounter("Step1.emit", Step1_ExtractAndTotals.SKETCHED_TRIPLES).getValue();
+        long mappers = c.findCounter("Step1.emit", Step1_ExtractAndTotals.SKETCHED_MAPPERS).getValue();
+        System.out.println(String.format(java.util.Locale.US,
+                "Step1 sketch: %d x %d cells, %d triples evicted by %d mappers, sketched PSW mass N = %d; " +
+                "C(p,slot,w) is over-estimated by at most epsilon * N = %.1f (epsilon = %.2g) with probability >= %.4f",
+                sketch.depth(), sketch.width(), triples, mappers, mass,
+                sketch.epsilon() * mass, sketch.epsilon(), 1 - sketch.delta()));
+    }
+
     private static void deleteIfExists(Configuration conf, Path p) throws Exception {
         FileSystem fs = p.getFileSystem(conf);
         if (fs.exists(p)) fs.delete(p, true);
@@ -25,10 +100,61 @@ public class DirtDriver extends Configured implements Tool {
     private static void usage() {
         System.err.println(
             "Usage:\n" +
-            "  hadoop jar <jar> com.example.DirtDriver <input> <workDir> <positive> <negative> <reducers>\n\n" +
+            "  hadoop jar <jar> com.example.DirtDriver [-D dirt.mode=full|index|score] <input> <workDir> <positive> <negative> <reducers>\n\n" +
             "Notes:\n" +
             "  - <input> can be a single path OR multiple paths separated by commas.\n" +
-            "    Example: s3a://b1/p/,s3a://b2/p/,s3a://b3/p/\n\n" +
+            "    Example: s3a://b1/p/,s3a://b2/p/,s3a://b3/p/\n" +
+            "  - dirt.mode:\n" +
+            "      full  (default) Steps 1-5, MI/denominators only for the test predicates.\n" +
+            "      index Steps 1-3 for ALL predicates; persists step2_mi + step3_denom in <workDir>.\n" +
+            "      score Steps 4-5 only, reusing step2_mi + step3_denom of a previous index run\n" +
+            "            in the same <workDir> (<input> is ignored). For a quick local run use\n" +
+            "            com.example.LocalScorer instead.\n" +
+            "  - -D dirt.skew=true runs a sampling pre-pass (jobs.SkewSampler) after Step1 and salts the\n" +
+            "    hot (slot, word) features over several reducers in Steps 2 and 4.\n" +
+            "    Tuning: dirt.skew.sample.rate (0.05), dirt.skew.threshold (auto), dirt.skew.max.fanout (reducers).\n" +
+            "  - -D dirt.measures=dirt,lin,cosine,jaccard,weeds computes several similarity measures in the\n" +
+            "    same pass (default: dirt = geometric mean of the X-slot and Y-slot Lin similarities).\n" +
+            "    The first is the similarity column; the rest follow the label column. LocalScorer,\n" +
+            "    index.PredicateIndex and serve.SimilarityServer take the same list as a JVM -D property.\n" +
+            "  - -D dirt.ingest=true adds Step0: the (gzip, unsplittable) input shards are copied once into\n" +
+            "    block-compressed SequenceFiles (dirt.ingest.format=sequence) or bzip2 text (=bzip2) at\n" +
+            "    dirt.ingest.dir (<workDir>/step0_ingest), which later runs reuse while its _MANIFEST (path,\n" +
+            "    length, mtime of each input file) matches <input>; Step1 then gets one mapper per split instead\n" +
+            "    of one per shard. Step1 also detects such a dir given as <input>.\n" +
+            "  - -D dirt.input.combine=true packs many small input files into combined Step1 splits of up to\n" +
+            "    dirt.input.combine.split.size bytes (256 MB), node-local first: few mappers for many shards.\n" +
+            "  - -D dirt.step1.filter=true: Step1 emits PSW / PS records only for the test predicates (Bloom\n" +
+            "    filter, false-positive rate dirt.step1.filter.fpp = 0.01); SW / SLOT stay corpus-wide, so the\n" +
+            "    scores are unchanged while Step1+ outputs shrink. Not in index mode.\n" +
+            "  - -D dirt.step1.approx=true: each Step1 mapper keeps exact PSW counts only for its\n" +
+            "    dirt.step1.approx.capacity (100000) heaviest triples (SpaceSaving) and sketches the rest in a\n" +
+            "    Count-Min sketch (dirt.step1.approx.epsilon = 1e-3, dirt.step1.approx.delta = 0.01) that Step2\n" +
+            "    adds back; triples no mapper kept get no MI. The driver prints the resulting error bound.\n" +
+            "  - pruning (helpers.Pruning, off by default): -D dirt.prune.min.psw=<n> (C(p,slot,w)),\n" +
+            "    dirt.prune.min.sw=<n> (C(slot,w)), dirt.prune.min.preds=<n> (predicates per feature, all of them),\n" +
+            "    dirt.prune.min.mi=<x>; applied in the Step1 reducer / Step2, counted as PRUNED_MIN_* rejects.\n" +
+            "  - -D dirt.step4.feature.cap=<n> keeps at most n predicates per (slot, word) feature in Step4:\n" +
+            "    dirt.step4.feature.cap.strategy=topmi (highest MI, default) or sample (deterministic hash\n" +
+            "    sample); dropped postings and MI mass are counted in metrics/Step4.json.\n" +
+            "  - the test pairs are parsed once into <workDir>/testset.bin (helpers.TestSet), which the tasks\n" +
+            "    memory-map from the distributed cache; -D dirt.testset.binary=false ships the text files.\n" +
+            "  - after every job its counters, rejection reasons, group-size histogram, setup timings,\n" +
+            "    hot keys and compression ratios are written to <workDir>/metrics/StepN.json.\n" +
+            "  - compression (helpers.CompressionPolicy): snappy shuffle, block-compressed snappy SequenceFiles\n" +
+            "    (Step0, 1, 3, 4), Step2 MI text and final outputs plain (splittable); a codec that cannot be\n" +
+            "    loaded fails the job. Keys: dirt.compress (true),\n" +
+            "    dirt.compress.shuffle.codec, dirt.compress.output.codec, dirt.compress.<StepN>.{shuffle,output}.codec\n" +
+            "    (none, snappy, lz4, zstd, deflate, gzip, bzip2 or a codec class).\n" +
+            "  - -D dirt.sort.output=true adds Step6: <workDir>/step6_sorted holds the final lines sorted by\n" +
+            "    similarity, descending, over all part files (total order; concatenate them in name order).\n" +
+            "  - -D dirt.evaluate=true adds Step7: <workDir>/step7_eval holds the precision/recall/F1 curve\n" +
+            "    over all distinct thresholds (part-r-00000, CSV) and summary.json (best F1, average precision);\n" +
+            "    with Step6 it is one streaming pass over step6_sorted, else a one-reducer job over step5_final.\n" +
+            "    Locally: java -cp <jar> com.example.tools.ThresholdSweep <workDir>/step5_final\n" +
+            "  - -D dirt.export.parquet=true adds Step8: the MI table (Steps 1-3) and the scores (Step5) are also\n" +
+            "    written as Parquet to <workDir>/step8_parquet/{mi,scores}, sorted by predicate, dictionary encoded,\n" +
+            "    with row-group statistics for predicate pushdown. Codec: dirt.export.parquet.codec (snappy).\n\n" +
             "Example:\n" +
             "  hadoop jar target/dsp2-1.0.0.jar com.example.DirtDriver \\\n" +
             "    s3a://BUCKET/input/biarcs/ s3a://BUCKET/output/run1/ \\\n" +
@@ -69,64 +195,191 @@ public class DirtDriver extends Configured implements Tool {
         }
 
         Configuration conf = getConf();
+        stepRuns.clear();
 
         Path workDir  = new Path(workDirStr);
         Path positive = new Path(positiveStr);
         Path negative = new Path(negativeStr);
 
+        String mode = conf.get("dirt.mode", "full");
+        boolean runExtract = !"score".equals(mode);   // Steps 1-3
+        boolean runScore   = !"index".equals(mode);   // Steps 4-5
+        if (!"full".equals(mode) && !"index".equals(mode) && !"score".equals(mode)) {
+            System.err.println("ERROR: unknown dirt.mode: " + mode);
+            usage();
+            return 1;
+        }
+
+        // index mode: MI + denominators for ALL predicates (reusable by any pair file)
+        if ("index".equals(mode)) conf.setBoolean(TestData.ALL_PREDS_KEY, true);
+
         // outputs (5 steps)
         Path out1 = new Path(workDir, "step1_totals");  // Sequence
         Path out2 = new Path(workDir, "step2_mi");      // Text
         Path out3 = new Path(workDir, "step3_denom");   // Sequence
         Path out4 = new Path(workDir, "step4_pairs");   // Sequence
         Path out5 = new Path(workDir, "step5_final");   // Text
+        Path out6 = new Path(workDir, "step6_sorted");  // Text (only with dirt.sort.output=true)
+        Path out7 = new Path(workDir, "step7_eval");    // CSV + summary.json (only with dirt.evaluate=true)
+        Path out8 = new Path(workDir, "step8_parquet"); // Parquet mi/ + scores/ (only with dirt.export.parquet=true)
+        Path outSkew = new Path(workDir, "step1_skew"); // Text (SkewPlan, only with dirt.skew=true)
+        boolean skew = conf.getBoolean(SkewPlan.ENABLED_KEY, false);
+
+        // per-step metrics JSON (+ hot-key side files of the running job)
+        metricsDir = new Path(workDir, "metrics");
+        conf.set(Metrics.DIR_KEY, new Path(metricsDir, "_hotkeys").toString());
+
+        if (runExtract) {
+            deleteIfExists(conf, out1);
+            deleteIfExists(conf, out2);
+            deleteIfExists(conf, out3);
+            deleteIfExists(conf, outSkew);
+            deleteIfExists(conf, new Path(out8, Step8_ExportParquet.Table.MI.dirName));
+        } else {
+            FileSystem fs = workDir.getFileSystem(conf);
+            if (!fs.exists(out2) || !fs.exists(out3)) {
+                System.err.println("ERROR: score mode needs " + out2 + " and " + out3 +
+                                   " (run once with -D dirt.mode=index)");
+                return 1;
+            }
+        }
+        if (runScore) {
+            deleteIfExists(conf, out4);
+            deleteIfExists(conf, out5);
+            deleteIfExists(conf, new Path(workDir, out5.getName() + "_testpairs"));
+            deleteIfExists(conf, out6);
+            deleteIfExists(conf, new Path(workDir, out6.getName() + "_partitions"));
+            deleteIfExists(conf, out7);
+            deleteIfExists(conf, new Path(out8, Step8_ExportParquet.Table.SCORES.dirName));
+        }
 
-        deleteIfExists(conf, out1);
-        deleteIfExists(conf, out2);
-        deleteIfExists(conf, out3);
-        deleteIfExists(conf, out4);
-        deleteIfExists(conf, out5);
-
-        // ------------------------------------------------------------
-        // INPUTS: single path OR comma-separated list of paths
-        // ------------------------------------------------------------
-        String[] rawInputs = inputStr.split(",");
-        java.util.List<Path> inputPaths = new java.util.ArrayList<>();
-
-        for (String s : rawInputs) {
-            if (s == null) continue;
-            s = s.trim();
-            if (!s.isEmpty()) inputPaths.add(new Path(s));
+        // test set: parsed and stemmed once here, memory-mapped by the tasks (helpers.TestSet)
+        if (conf.getBoolean(TestSet.ENABLED_KEY, true) && conf.get(TestSet.PATH_KEY) == null) {
+            Path testSet = new Path(workDir, TestSet.CACHE_NAME);
+            int pairs = TestSet.write(conf, positive, negative, testSet);
+            conf.set(TestSet.PATH_KEY, testSet.toString());
+            System.out.println("Test set: " + pairs + " pairs at " + testSet);
         }
 
-        if (inputPaths.isEmpty()) {
-            System.err.println("ERROR: empty input");
-            usage();
-            return 1;
+        // filtered Step1: only the test predicates' PSW / PS records (MI needs them for no other)
+        if (runExtract && conf.getBoolean(Step1_ExtractAndTotals.FILTER_KEY, false)) {
+            if (conf.getBoolean(TestData.ALL_PREDS_KEY, false)) {
+                System.err.println("WARN: " + Step1_ExtractAndTotals.FILTER_KEY + " is ignored in index mode");
+                conf.setBoolean(Step1_ExtractAndTotals.FILTER_KEY, false);
+            } else {
+                Path bloom = new Path(workDir, PredicateBloom.CACHE_NAME);
+                int preds = PredicateBloom.write(conf, positive, negative, bloom);
+                conf.set(PredicateBloom.PATH_KEY, bloom.toString());
+                System.out.println("Step1 filter: " + preds + " test predicates at " + bloom);
+            }
         }
 
-        // Step 1: Extract + Totals (SequenceFile output)
-        Job j1 = Step1_ExtractAndTotals.buildJob(conf, inputPaths.get(0), out1, reducers);
-        for (int i = 1; i < inputPaths.size(); i++) {
-            FileInputFormat.addInputPath(j1, inputPaths.get(i));
+        if (runExtract) {
+            // ------------------------------------------------------------
+            // INPUTS: single path OR comma-separated list of paths
+            // ------------------------------------------------------------
+            String[] rawInputs = inputStr.split(",");
+            java.util.List<Path> inputPaths = new java.util.ArrayList<>();
+
+            for (String s : rawInputs) {
+                if (s == null) continue;
+                s = s.trim();
+                if (!s.isEmpty()) inputPaths.add(new Path(s));
+            }
+
+            if (inputPaths.isEmpty()) {
+                System.err.println("ERROR: empty input");
+                usage();
+                return 1;
+            }
+
+            // optional Step 0: gz shards -> splittable layout, written once and reused
+            if (conf.getBoolean(Step0_Ingest.ENABLED_KEY, false)) {
+                Path out0 = new Path(conf.get(Step0_Ingest.DIR_KEY, new Path(workDir, "step0_ingest").toString()));
+                FileSystem fs0 = out0.getFileSystem(conf);
+                if (conf.getBoolean(Step0_Ingest.OVERWRITE_KEY, false) || !Step0_Ingest.isCurrent(conf, inputPaths, out0)) {
+                    if (fs0.exists(new Path(out0, "_SUCCESS"))) {
+                        System.out.println("Ingested input at " + out0 + " does not match the inputs (" +
+                                Step0_Ingest.MANIFEST + "), ingesting again");
+                    }
+                    deleteIfExists(conf, out0);
+                    Job j0 = Step0_Ingest.buildJob(conf, inputPaths, out0);
+                    if (!runStep("Step0", j0)) return 2;
+                    Step0_Ingest.writeManifest(conf, inputPaths, out0);
+                } else {
+                    System.out.println("Reusing ingested input at: " + out0);
+                }
+                inputPaths = java.util.Collections.singletonList(out0);
+            }
+
+            // Step 1: Extract + Totals (SequenceFile output), text or ingested input
+            Job j1 = Step1_ExtractAndTotals.buildJob(conf, inputPaths, out1, reducers);
+            if (!runStep("Step1", j1)) return 2;
+            if (conf.getBoolean(Step1_ExtractAndTotals.APPROX_KEY, false)) reportSketch(conf, j1);
+
+            // optional: sample the hot (slot, word) features -> salting plan for Steps 2 and 4
+            if (skew) {
+                Job js = SkewSampler.buildJob(conf, out1, outSkew, positive, negative, reducers);
+                if (!runStep("SkewSampler", js)) return 2;
+                conf.set(SkewPlan.PLAN_KEY, outSkew.toString());
+            }
+
+            // Step 2: Compute MI (Sequence -> Text)
+            Job j2 = Step2_ComputeMI.buildJob(conf, out1, out2, positive, negative, reducers);
+            if (!runStep("Step2", j2)) return 3;
+
+            // Step 3: Compute Denom (Text -> Sequence)
+            Job j3 = Step3_ComputeDenom.buildJob(conf, out2, out3, positive, negative, reducers);
+            if (!runStep("Step3", j3)) return 4;
+
+            // optional Step 8 (MI table): Text -> Parquet
+            if (!exportParquet(conf, Step8_ExportParquet.Table.MI, out2, out8, reducers)) return 9;
         }
-        if (!j1.waitForCompletion(true)) return 2;
 
-        // Step 2: Compute MI (Sequence -> Text)
-        Job j2 = Step2_ComputeMI.buildJob(conf, out1, out2, positive, negative, reducers);
-        if (!j2.waitForCompletion(true)) return 3;
+        if (!runScore) {
+            System.out.println("DONE. MI index at: " + out2 + " , denominators at: " + out3);
+            return 0;
+        }
 
-        // Step 3: Compute Denom (Text -> Sequence)
-        Job j3 = Step3_ComputeDenom.buildJob(conf, out2, out3, positive, negative, reducers);
-        if (!j3.waitForCompletion(true)) return 4;
+        // score mode: reuse the plan of the index run
+        if (skew && conf.get(SkewPlan.PLAN_KEY) == null && outSkew.getFileSystem(conf).exists(outSkew)) {
+            conf.set(SkewPlan.PLAN_KEY, outSkew.toString());
+        }
 
         // Step 4: Intersection Contrib (Text -> Sequence)
         Job j4 = Step4_IntersectionContrib.buildJob(conf, out2, out4, positive, negative, reducers);
-        if (!j4.waitForCompletion(true)) return 5;
+        if (!runStep("Step4", j4)) return 5;
 
         // Step 5: Final Similarity (Sequence + denom Sequence -> Text)
         Job j5 = Step5_FinalSimilarity.buildJob(conf, out4, out3, out5, positive, negative, reducers);
-        if (!j5.waitForCompletion(true)) return 6;
+        if (!runStep("Step5", j5)) return 6;
+
+        // optional Step 6: globally sorted by similarity (Text -> Text)
+        boolean sorted = conf.getBoolean(Step6_SortBySimilarity.ENABLED_KEY, false);
+        if (sorted) {
+            Job j6 = Step6_SortBySimilarity.buildJob(conf, out5, out6, reducers);
+            if (!runStep("Step6", j6)) return 7;
+            System.out.println("Sorted by similarity at: " + out6);
+        }
+
+        // optional Step 7: PR / F1 curve over all thresholds (Text -> CSV + summary)
+        // (after Step 6 a streaming pass over the ranking, else the one-reducer job)
+        if (conf.getBoolean(Step7_EvaluateThresholds.ENABLED_KEY, false)) {
+            if (sorted) {
+                long t0 = System.currentTimeMillis();
+                long[] skipped = new long[1];
+                PrCurve curve = Step7_EvaluateThresholds.evaluateSorted(conf, out6, out7, skipped);
+                System.out.println("Step7 streamed from " + out6 + ": " + curve.size() + " thresholds, " +
+                                   skipped[0] + " lines skipped, " + (System.currentTimeMillis() - t0) + " ms");
+            } else {
+                Job j7 = Step7_EvaluateThresholds.buildJob(conf, out5, out7);
+                if (!runStep("Step7", j7)) return 8;
+            }
+            System.out.println("Threshold sweep at: " + out7);
+        }
+
+        // optional Step 8 (scores table): Text -> Parquet
+        if (!exportParquet(conf, Step8_ExportParquet.Table.SCORES, out5, out8, reducers)) return 9;
 
         System.out.println("DONE. Final output at: " + out5);
         return 0;
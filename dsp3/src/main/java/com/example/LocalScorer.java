@@ -0,0 +1,192 @@
+package com.example;
+
+import com.example.helpers.Denoms;
+import com.example.helpers.MiRecord;
+import com.example.helpers.PorterStemmer;
+import com.example.helpers.TestData;
+import com.example.similarity.Measures;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LocalScorer: score a pair file against a persisted MI table, without MapReduce.
+ *
+ * Intended for the output of an index run (-D dirt.mode=index), where step2_mi and
+ * step3_denom cover ALL predicates, but it works on any MI table (e.g. 10-output/mi).
+ *
+ * It streams the MI table once and keeps only the features of predicates that appear
+ * in the pair files, so the cost is one sequential read + O(test features) memory.
+ *
+ * Output (same format as Step5_FinalSimilarity):
+ *   pred1 \t pred2 \t similarity \t label [\t similarity of the 2nd measure ...]
+ * scored by the same Measures as Step5 (dirt.measures, default dirt), per test pair orientation.
+ *
+ * Usage:
+ *   java [-Ddirt.measures=dirt,lin] -cp <jar> com.example.LocalScorer \
+ *        <miPath> <denomDir|-> <positive> <negative> [output]
+ *
+ *  - <denomDir> = "-" (or a missing dir): the predicate aggregates are summed from the MI table
+ *    itself (the values Step3 computes). Test predicates the Step3 table does not cover are
+ *    summed the same way, per predicate. A Step3 table of another width is rejected
+ *    (Denoms.WrongWidth).
+ *  - without [output] the scores go to stdout.
+ */
+public class LocalScorer {
+
+    /** per test predicate: "slot index \t word" -> mi (positive MI of the X and Y slots, like Step4) */
+    private final Map<String, Map<String, Double>> features = new HashMap<>();
+
+    /** per-slot predicate aggregates (from Step3 output, else summed while streaming) */
+    private final Map<String, double[]> stats = new HashMap<>();
+
+    private final Map<String, List<TestData.PairInfo>> testPairs;
+    private final Set<String> testPreds = new HashSet<>();
+
+    private final Measures measures;
+    private final double[] packed;
+    private final double[] left = new double[Measures.predicateWidth()];
+    private final double[] right = new double[Measures.predicateWidth()];
+    private final double[] scores;
+
+    public LocalScorer(Map<String, List<TestData.PairInfo>> testPairs, Measures measures) {
+        this.testPairs = testPairs;
+        this.measures = measures;
+        this.packed = new double[measures.pairWidth()];
+        this.scores = new double[measures.size()];
+        for (List<TestData.PairInfo> infos : testPairs.values()) {
+            for (TestData.PairInfo info : infos) {
+                testPreds.add(info.p1);
+                testPreds.add(info.p2);
+            }
+        }
+    }
+
+    public void load(Configuration conf, Path miPath, Path denomDir) throws IOException {
+        if (denomDir != null && denomDir.getFileSystem(conf).exists(denomDir)) {
+            Denoms.loadStats(conf, denomDir, testPreds, stats);
+        }
+        // predicates without a Step3 row get the aggregates Step3 would have computed
+        final Set<String> fromDenoms = new HashSet<>(stats.keySet());
+        final double[] terms = new double[Measures.predicateWidth()];
+
+        MiRecord.readAll(conf, miPath, r -> {
+            int slot = Measures.slotIndex(r.slot);
+            if (r.mi <= 0 || slot < 0) return;
+            if (!testPreds.contains(r.pred)) return;
+
+            features.computeIfAbsent(r.pred, k -> new HashMap<>())
+                    .put(slot + "\t" + r.word, r.mi);
+
+            if (!fromDenoms.contains(r.pred)) {
+                Measures.predicateTerms(slot, r.mi, terms);
+                double[] row = stats.computeIfAbsent(r.pred, k -> new double[terms.length]);
+                for (int i = 0; i < terms.length; i++) row[i] += terms[i];
+            }
+        });
+    }
+
+    /** score of the first measure for p1 -> p2 (the "similarity" column) */
+    public double similarity(String p1, String p2) {
+        return scores(p1, p2)[0];
+    }
+
+    /**
+     * Scores of all measures for p1 -> p2, as Step4 + Step5 compute them (0.0 without a shared
+     * feature). The array is reused by the next call.
+     */
+    public double[] scores(String p1, String p2) {
+        Arrays.fill(packed, 0.0);
+        Map<String, Double> f1 = features.get(p1);
+        Map<String, Double> f2 = features.get(p2);
+        if (f1 != null && f2 != null) {
+            // iterate the smaller vector, keep (mi of p1, mi of p2) in that order
+            boolean swap = f1.size() > f2.size();
+            Map<String, Double> small = swap ? f2 : f1;
+            Map<String, Double> large = swap ? f1 : f2;
+            for (Map.Entry<String, Double> e : small.entrySet()) {
+                Double other = large.get(e.getKey());
+                if (other == null) continue;
+                int slot = e.getKey().charAt(0) - '0';
+                measures.addPairTerms(slot, swap ? other : e.getValue(), swap ? e.getValue() : other, packed, 0);
+            }
+        }
+        measures.score(packed, false, row(p1, left), row(p2, right), scores);
+        return scores;
+    }
+
+    private double[] row(String pred, double[] out) {
+        double[] row = stats.get(pred);
+        if (row == null) Arrays.fill(out, 0.0);
+        else System.arraycopy(row, 0, out, 0, out.length);
+        return out;
+    }
+
+    /** Print ALL test pairs (duplicates + orientation), pairs without shared features get 0.0. */
+    public int write(Writer out) throws IOException {
+        int n = 0;
+        for (List<TestData.PairInfo> infos : testPairs.values()) {
+            for (TestData.PairInfo info : infos) {
+                double[] s = scores(info.p1, info.p2);
+                StringBuilder sb = new StringBuilder();
+                sb.append(info.p1).append('\t').append(info.p2).append('\t')
+                  .append(s[0]).append('\t').append(info.label);
+                for (int m = 1; m < s.length; m++) sb.append('\t').append(s[m]);
+                out.write(sb.append('\n').toString());
+                n++;
+            }
+        }
+        out.flush();
+        return n;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: [-Ddirt.measures=dirt,lin] LocalScorer <miPath> <denomDir|-> <positive> <negative> [output]");
+            System.exit(1);
+        }
+
+        long t0 = System.currentTimeMillis();
+        Configuration conf = new Configuration();
+
+        Path miPath   = new Path(args[0]);
+        Path denomDir = "-".equals(args[1]) ? null : new Path(args[1]);
+        Path positive = new Path(args[2]);
+        Path negative = new Path(args[3]);
+
+        Map<String, List<TestData.PairInfo>> pairs =
+                TestData.loadPairsWithDuplicates(conf, positive, negative, new PorterStemmer());
+
+        LocalScorer scorer = new LocalScorer(pairs,
+                Measures.of(System.getProperty(Measures.KEY, Measures.DEFAULT).split(",")));
+        scorer.load(conf, miPath, denomDir);
+
+        int n;
+        if (args.length >= 5) {
+            Path outPath = new Path(args[4]);
+            FileSystem fs = outPath.getFileSystem(conf);
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(fs.create(outPath, true), StandardCharsets.UTF_8))) {
+                n = scorer.write(w);
+            }
+        } else {
+            Writer w = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            n = scorer.write(w);
+        }
+
+        System.err.println("Scored " + n + " pairs (" + pairs.size() + " distinct) in " +
+                    (System.currentTimeMillis() - t0) + " ms");
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.ZStandardCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Shuffle and output compression of one DIRT step, applied by every buildJob.
+ *
+ * Keys (defaults in brackets):
+ *   dirt.compress                  [true]    master switch
+ *   dirt.compress.shuffle.codec    [snappy]  map output (shuffle) codec
+ *   dirt.compress.output.codec     [snappy]  codec of the intermediate SequenceFiles (Step0, 1, 3, 4)
+ *   dirt.compress.output.type      [BLOCK]   SequenceFile compression type (RECORD / BLOCK)
+ *   dirt.compress.<step>.shuffle.codec / dirt.compress.<step>.output.codec
+ *                                            per-step override, e.g. dirt.compress.Step2.output.codec=bzip2
+ *
+ * Codec names: none, snappy, lz4, zstd, deflate, gzip, bzip2, or a CompressionCodec class name.
+ *
+ * Text outputs stay plain unless a per-step output codec is set: the Step2 MI table, because a
+ * compressed text stream cannot be split (only bzip2 can), so Steps 3, 4 and 8 would get one
+ * mapper per Step2 part file; the final outputs (Step5 and later, the skew plan), so they can be
+ * read with cat. A compressed text output gets the codec's file extension, and every reader
+ * (TextInputFormat, DataFiles.open) decompresses by that extension.
+ *
+ * snappy and deflate work everywhere (snappy-java is on the Hadoop 3 classpath). zstd needs the
+ * native libhadoop on every node and lz4 needs lz4-java: a codec the submitting JVM cannot load
+ * fails the job at submission (IllegalArgumentException), never silently becomes another codec.
+ */
+public class CompressionPolicy {
+
+    public static final String ENABLED_KEY = "dirt.compress";
+    public static final String SHUFFLE_CODEC_KEY = "dirt.compress.shuffle.codec";
+    public static final String OUTPUT_CODEC_KEY = "dirt.compress.output.codec";
+    public static final String OUTPUT_TYPE_KEY = "dirt.compress.output.type";
+    private static final String PREFIX = "dirt.compress.";
+
+    /** What a step writes. */
+    public enum Output {
+        SEQUENCE,   // intermediate SequenceFile: block compressed
+        TEXT,       // intermediate text (Step2 MI): plain (splittable) unless overridden per step
+        FINAL       // results for people / other tools: plain unless overridden per step
+    }
+
+    public static final String DEFAULT_OUTPUT_CODEC = "snappy";
+
+    public static void apply(Job job, String step, Output kind) {
+        Configuration conf = job.getConfiguration();
+        if (!conf.getBoolean(ENABLED_KEY, true)) return;
+
+        Class<? extends CompressionCodec> shuffle =
+                resolve(conf, conf.get(PREFIX + step + ".shuffle.codec", conf.get(SHUFFLE_CODEC_KEY, "snappy")), step);
+        if (shuffle != null) {
+            conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+            conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, shuffle, CompressionCodec.class);
+        }
+
+        String outName = conf.get(PREFIX + step + ".output.codec");
+        if (outName == null) outName = kind == Output.SEQUENCE ? conf.get(OUTPUT_CODEC_KEY, DEFAULT_OUTPUT_CODEC) : "none";
+        Class<? extends CompressionCodec> output = resolve(conf, outName, step);
+        if (output != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, output);
+            if (kind == Output.SEQUENCE) {
+                SequenceFileOutputFormat.setOutputCompressionType(job,
+                        SequenceFile.CompressionType.valueOf(conf.get(OUTPUT_TYPE_KEY, "BLOCK").toUpperCase()));
+            }
+        }
+    }
+
+    /**
+     * codec class of a name, null for "none"
+     * @throws IllegalArgumentException for an unknown codec or one this JVM cannot load
+     */
+    static Class<? extends CompressionCodec> resolve(Configuration conf, String name, String step) {
+        String n = name == null ? "none" : name.trim();
+        String cls;
+        switch (n.toLowerCase()) {
+            case "":
+            case "none":    return null;
+            case "snappy":  cls = "org.apache.hadoop.io.compress.SnappyCodec"; break;
+            case "lz4":     cls = "org.apache.hadoop.io.compress.Lz4Codec"; break;
+            case "zstd":    cls = "org.apache.hadoop.io.compress.ZStandardCodec"; break;
+            case "deflate": cls = "org.apache.hadoop.io.compress.DefaultCodec"; break;
+            case "gzip":    cls = "org.apache.hadoop.io.compress.GzipCodec"; break;
+            case "bzip2":   cls = "org.apache.hadoop.io.compress.BZip2Codec"; break;
+            default:        cls = n;
+        }
+        Class<? extends CompressionCodec> c;
+        try {
+            c = conf.getClassByName(cls).asSubclass(CompressionCodec.class);
+        } catch (ClassNotFoundException | ClassCastException | LinkageError e) {
+            throw new IllegalArgumentException("unknown codec " + n + " for " + step + ": " + e, e);
+        }
+        if (!usable(c)) {
+            throw new IllegalArgumentException("codec " + n + " for " + step + " cannot be loaded here" +
+                    (c == ZStandardCodec.class ? " (needs the native libhadoop with zstd on every node)" : "") +
+                    "; choose another one with " + PREFIX + step + ".output.codec / .shuffle.codec");
+        }
+        return c;
+    }
+
+    private static boolean usable(Class<? extends CompressionCodec> c) {
+        try {
+            if (c == ZStandardCodec.class) return ZStandardCodec.isNativeCodeLoaded();
+            if (c.getName().endsWith(".Lz4Codec")) Class.forName("net.jpountz.lz4.LZ4Factory");
+            if (c.getName().endsWith(".SnappyCodec")) Class.forName("org.xerial.snappy.Snappy");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Uncompressed / compressed size of (the start of) the first data file of a job output:
+     * up to maxBytes of compressed input are read back. 1.0 for uncompressed output, NaN when
+     * there is nothing to sample.
+     */
+    public static double sampleOutputRatio(Configuration conf, Path outputDir, long maxBytes) throws IOException {
+        List<Path> files = DataFiles.list(conf, outputDir);
+        if (files.isEmpty()) return Double.NaN;
+        Path f = files.get(0);
+
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(f))) {
+            if (!reader.isCompressed()) return 1.0;
+            Writable k = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), conf);
+            Writable v = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), conf);
+            DataOutputBuffer buf = new DataOutputBuffer();
+            long start = reader.getPosition();
+            long raw = 0;
+            while (reader.next(k, v)) {
+                buf.reset();
+                k.write(buf);
+                v.write(buf);
+                raw += buf.getLength();
+                if (reader.getPosition() - start >= maxBytes) break;
+            }
+            long compressed = reader.getPosition() - start;
+            return compressed > 0 ? (double) raw / compressed : Double.NaN;
+        } catch (IOException notSequenceFile) {
+            // text output
+        }
+
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(f);
+        if (codec == null) return 1.0;
+        try (FSDataInputStream in = f.getFileSystem(conf).open(f);
+             InputStream dec = codec.createInputStream(in)) {
+            byte[] b = new byte[64 * 1024];
+            long raw = 0;
+            int n;
+            while ((n = dec.read(b)) > 0) {
+                raw += n;
+                if (in.getPos() >= maxBytes) break;
+            }
+            return in.getPos() > 0 ? (double) raw / in.getPos() : Double.NaN;
+        }
+    }
+}
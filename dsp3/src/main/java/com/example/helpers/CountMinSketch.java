@@ -0,0 +1,143 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Count-Min sketch of string keys, for Step1's approximate mode (-D dirt.step1.approx=true):
+ * the long tail of the PSW counts that the mappers' SpaceSaving tables do not keep.
+ *
+ * depth rows of width counters; a key adds its count to one cell per row and its estimate is
+ * the smallest of those cells. Estimates never undercount; with probability >= 1 - delta they
+ * overcount by at most epsilon * N, where N is the total count added to the sketch,
+ * width = ceil(e / epsilon) and depth = ceil(ln(1 / delta)).
+ *
+ * Sketches with the same width and depth merge by adding their cells, so each cell travels as
+ * a Step1 record "CMS \t row \t col -> count" and Step1's SumReducer merges the mappers'
+ * sketches. The row hashes are murmur double hashing (h1 + row * h2), the same in every task.
+ *
+ * Keys:
+ *   dirt.step1.approx.epsilon [1e-3]  additive error, relative to the sketched mass N
+ *   dirt.step1.approx.delta   [0.01]  probability of exceeding it
+ *
+ * The defaults give 5 x 2719 cells (~106 KB), which every Step1 mapper holds and every Step2 task
+ * reloads; the cell count grows as 1 / epsilon, so 1e-5 already means ~1.36M cells (~11 MB).
+ */
+public class CountMinSketch {
+
+    public static final String EPSILON_KEY = "dirt.step1.approx.epsilon";
+    public static final String DELTA_KEY = "dirt.step1.approx.delta";
+    public static final double DEFAULT_EPSILON = 1e-3;
+    public static final double DEFAULT_DELTA = 0.01;
+
+    /** prefix of the cell records in the Step1 output */
+    public static final String RECORD_PREFIX = "CMS\t";
+
+    private static final Hash MURMUR = Hash.getInstance(Hash.MURMUR_HASH);
+
+    private final int width;
+    private final int depth;
+    private final long[] cells;
+
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0 || (long) width * depth > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("sketch of " + depth + " x " + width + " cells");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.cells = new long[width * depth];
+    }
+
+    /** The sketch sized by dirt.step1.approx.epsilon / .delta (identical in every task of a run). */
+    public static CountMinSketch fromConf(Configuration conf) {
+        double epsilon = Math.min(1, Math.max(1e-8, conf.getDouble(EPSILON_KEY, DEFAULT_EPSILON)));
+        double delta = Math.min(0.5, Math.max(1e-9, conf.getDouble(DELTA_KEY, DEFAULT_DELTA)));
+        int width = (int) Math.ceil(Math.E / epsilon);
+        int depth = (int) Math.ceil(Math.log(1 / delta));
+        return new CountMinSketch(width, depth);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /** additive error factor: estimates exceed the count by at most epsilon() * total() ... */
+    public double epsilon() {
+        return Math.E / width;
+    }
+
+    /** ... except with this probability */
+    public double delta() {
+        return Math.exp(-depth);
+    }
+
+    public void add(String key, long count) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        int h1 = MURMUR.hash(b, b.length, 0);
+        int h2 = MURMUR.hash(b, b.length, h1);
+        for (int row = 0; row < depth; row++) {
+            cells[row * width + column(h1, h2, row)] += count;
+        }
+    }
+
+    public long estimate(String key) {
+        byte[] b = key.getBytes(StandardCharsets.UTF_8);
+        int h1 = MURMUR.hash(b, b.length, 0);
+        int h2 = MURMUR.hash(b, b.length, h1);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, cells[row * width + column(h1, h2, row)]);
+        }
+        return min;
+    }
+
+    private int column(int h1, int h2, int row) {
+        return ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+    }
+
+    /** merges one cell record; false if it does not fit this sketch's size */
+    public boolean addCell(int row, int col, long count) {
+        if (row < 0 || row >= depth || col < 0 || col >= width) return false;
+        cells[row * width + col] += count;
+        return true;
+    }
+
+    public long cell(int row, int col) {
+        return cells[row * width + col];
+    }
+
+    /** total count added (every row sums to it) */
+    public long total() {
+        long sum = 0;
+        for (int col = 0; col < width; col++) sum += cells[col];
+        return sum;
+    }
+
+    /** "CMS \t row \t col" key of a cell record */
+    public static String recordKey(int row, int col) {
+        return RECORD_PREFIX + row + "\t" + col;
+    }
+
+    /**
+     * Merges a Step1 record if it is a cell record ("CMS \t row \t col").
+     * @return false if the key is not a valid cell of this sketch
+     */
+    public boolean addRecord(String key, long count) {
+        if (!key.startsWith(RECORD_PREFIX)) return false;
+        int tab = key.indexOf('\t', RECORD_PREFIX.length());
+        if (tab < 0) return false;
+        try {
+            int row = Integer.parseInt(key.substring(RECORD_PREFIX.length(), tab));
+            int col = Integer.parseInt(key.substring(tab + 1));
+            return addCell(row, col, count);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lists the data files of a job output.
+ *
+ * A path can be:
+ *  - a single file (e.g. a downloaded "10-output/mi")
+ *  - an output directory (part-r-00000, part-r-00001, ...)
+ *
+ * Hidden/bookkeeping files (_SUCCESS, .crc, ...) are skipped.
+ *
+ * Text outputs may be compressed (see CompressionPolicy): open() decompresses by file extension.
+ */
+public class DataFiles {
+
+    public static List<Path> list(Configuration conf, Path p) throws IOException {
+        List<Path> out = new ArrayList<>();
+        FileSystem fs = p.getFileSystem(conf);
+        if (!fs.exists(p)) return out;
+
+        FileStatus st = fs.getFileStatus(p);
+        if (st.isFile()) {
+            out.add(st.getPath());
+            return out;
+        }
+
+        FileStatus[] statuses = fs.listStatus(p);
+        if (statuses == null) return out;
+
+        Arrays.sort(statuses);
+        for (FileStatus s : statuses) {
+            if (isData(s.getPath()) && s.isFile()) out.add(s.getPath());
+        }
+        return out;
+    }
+
+    /** False for hidden/bookkeeping names (_SUCCESS, _MANIFEST, .crc, ...), as FileInputFormat. */
+    public static boolean isData(Path p) {
+        String name = p.getName();
+        return !name.startsWith("_") && !name.startsWith(".");
+    }
+
+    /** Opens a data file, decompressing it if its extension names a codec (.zst, .deflate, ...). */
+    public static InputStream open(Configuration conf, Path f) throws IOException {
+        InputStream in = f.getFileSystem(conf).open(f);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(f);
+        if (codec == null) return in;
+        try {
+            return codec.createInputStream(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
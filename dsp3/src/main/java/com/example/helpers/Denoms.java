@@ -0,0 +1,132 @@
+package com.example.helpers;
+
+import com.example.similarity.Measures;
+import com.example.similarity.SimilarityMeasure;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Reader for the denominator table written by Step3_ComputeDenom:
+ *   SequenceFile (Text pred -> DoubleVectorWritable predicate aggregates per slot)
+ *
+ * Tables of older runs (Text pred -> DoubleWritable denom, both slots pooled) are still read by
+ * load(); loadStats() cannot split them by slot and rejects them (see WrongWidth).
+ */
+public class Denoms {
+
+    /**
+     * A table whose rows are not Measures.predicateWidth() wide (a legacy pooled table, or one
+     * written with another aggregate layout): scoring against it would give NaN for every pair,
+     * so the reader fails instead. Re-run Step3 to rebuild it.
+     */
+    public static class WrongWidth extends IOException {
+        public WrongWidth(Path file, int width, int expected) {
+            super(file + ": " + (width < 0 ? "pooled (legacy) denominators" : width + " aggregates per predicate")
+                    + ", expected " + expected + "; re-run Step3 for this measure layout");
+        }
+    }
+
+    /**
+     * Load all predicate aggregates from a Step3 output dir.
+     *
+     * @param keep if not null, only these predicates are kept in memory
+     *             (Step3 may have been run over ALL predicates, see TestData.ALL_PREDS_KEY)
+     * @return number of files that could not be read as SequenceFiles
+     */
+    public static int loadStats(Configuration conf, Path denomDir, Set<String> keep, Map<String, double[]> out)
+            throws IOException {
+        return loadStats(conf, denomDir, keep == null ? null : keep::contains, (pred, stats) -> out.put(pred, stats.clone()));
+    }
+
+    /**
+     * Streams the predicate aggregates of a Step3 output dir into sink (the array is reused
+     * between calls).
+     *
+     * @param keep if not null, only the predicates it accepts are passed on
+     * @return number of files that could not be read as SequenceFiles
+     * @throws WrongWidth on the first row that is not Measures.predicateWidth() wide
+     */
+    public static int loadStats(Configuration conf, Path denomDir, Predicate<String> keep,
+                                BiConsumer<String, double[]> sink) throws IOException {
+        int unreadable = 0;
+        int width = Measures.predicateWidth();
+        double[] stats = new double[width];
+
+        Text k = new Text();
+        for (Path f : DataFiles.list(conf, denomDir)) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(f))) {
+                if (DoubleWritable.class.equals(reader.getValueClass())) throw new WrongWidth(f, -1, width);
+                DoubleVectorWritable v = new DoubleVectorWritable();
+                while (reader.next(k, v)) {
+                    if (v.length() != width) throw new WrongWidth(f, v.length(), width);
+                    String pred = k.toString();
+                    if (keep != null && !keep.test(pred)) continue;
+
+                    System.arraycopy(v.values(), 0, stats, 0, width);
+                    sink.accept(pred, stats);
+                }
+            } catch (WrongWidth e) {
+                throw e;
+            } catch (Exception e) {
+                // tolerate non-seq files if exist
+                unreadable++;
+            }
+        }
+        return unreadable;
+    }
+
+    /**
+     * Load the pooled Lin denominators (sum of positive MI over both slots) from a Step3 output dir.
+     *
+     * @param keep if not null, only these predicates are kept in memory
+     * @return number of files that could not be read as SequenceFiles
+     */
+    public static int load(Configuration conf, Path denomDir, Set<String> keep, Map<String, Double> out)
+            throws IOException {
+        int unreadable = 0;
+        int sum = SimilarityMeasure.PredicateAggregate.SUM.ordinal();
+        int perSlot = SimilarityMeasure.PredicateAggregate.values().length;
+
+        Text k = new Text();
+        for (Path f : DataFiles.list(conf, denomDir)) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(f))) {
+                boolean legacy = DoubleWritable.class.equals(reader.getValueClass());
+                Writable v = legacy ? new DoubleWritable() : new DoubleVectorWritable();
+                while (reader.next(k, v)) {
+                    String pred = k.toString();
+                    if (keep != null && !keep.contains(pred)) continue;
+                    if (legacy) {
+                        out.put(pred, ((DoubleWritable) v).get());
+                    } else {
+                        DoubleVectorWritable dv = (DoubleVectorWritable) v;
+                        double d = 0.0;
+                        for (int i = sum; i < dv.length(); i += perSlot) d += dv.get(i);
+                        out.put(pred, d);
+                    }
+                }
+            } catch (Exception e) {
+                // tolerate non-seq files if exist
+                unreadable++;
+            }
+        }
+        return unreadable;
+    }
+
+    public static Map<String, Double> load(Configuration conf, Path denomDir, Set<String> keep) throws IOException {
+        Map<String, Double> out = new HashMap<>();
+        load(conf, denomDir, keep, out);
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.helpers;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A short vector of doubles (vint length + raw doubles): the partial aggregates of the
+ * similarity measures (similarity.Measures). The backing array is reused between records.
+ */
+public class DoubleVectorWritable implements Writable {
+
+    private double[] values = new double[0];
+    private int length;
+
+    public DoubleVectorWritable() {
+    }
+
+    public DoubleVectorWritable(int length) {
+        setLength(length);
+    }
+
+    /** resizes to n values, all 0.0 */
+    public void setLength(int n) {
+        if (values.length < n) values = new double[n];
+        else Arrays.fill(values, 0, n, 0.0);
+        length = n;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /** backing array; only the first length() values are meaningful */
+    public double[] values() {
+        return values;
+    }
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    public void set(double[] v, int n) {
+        if (values.length < n) values = new double[n];
+        System.arraycopy(v, 0, values, 0, n);
+        length = n;
+    }
+
+    /** element-wise this += other (over the shorter of the two) */
+    public void add(DoubleVectorWritable other) {
+        int n = Math.min(length, other.length);
+        for (int i = 0; i < n; i++) values[i] += other.values[i];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, length);
+        for (int i = 0; i < length; i++) out.writeDouble(values[i]);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int n = WritableUtils.readVInt(in);
+        if (values.length < n) values = new double[n];
+        for (int i = 0; i < n; i++) values[i] = in.readDouble();
+        length = n;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(values, length));
+    }
+}
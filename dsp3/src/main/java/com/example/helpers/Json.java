@@ -0,0 +1,35 @@
+package com.example.helpers;
+
+/**
+ * Minimal JSON writing helpers (no JSON library on the cluster classpath).
+ */
+public class Json {
+
+    /** @return s as a quoted, escaped JSON string ("null" for null) */
+    public static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /** JSON has no NaN/Infinity: write them as null. */
+    public static String number(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+        return String.valueOf(d);
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormatCounter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Per-task metrics of one DIRT step, on top of Hadoop counters (so the framework aggregates
+ * them over all tasks) plus a small side file for the heaviest reduce groups.
+ *
+ * Counter groups, for a step named e.g. "Step2":
+ *   Step2.reject     reason   -> records dropped for that reason
+ *   Step2.emit       key type -> records written
+ *   Step2.error      failure  -> swallowed failures (unreadable side files, ...)
+ *   Step2.groupSize  LE_2^k   -> reduce groups with 2^(k-1) < size <= 2^k;  GROUPS, VALUES
+ *   Step2.setup      <what>_MS / <what>_LOADS -> summed setup-load time / number of loads
+ *
+ * Hot keys: each task keeps its dirt.metrics.hotkeys (default 20) largest groups and writes them
+ * to <dirt.metrics.dir>/<step>/<task attempt>.tsv in close(). DirtDriver merges counters and hot
+ * keys into <workDir>/metrics/<step>.json after every job (see writeJson), together with the
+ * shuffle / output codecs and compression ratios of the job (see CompressionPolicy).
+ *
+ * Counters are looked up once per name and cached, so the per-record cost is a map lookup on a
+ * constant string + an add.
+ */
+public class Metrics {
+
+    public static final String DIR_KEY = "dirt.metrics.dir";
+    public static final String HOT_KEYS_KEY = "dirt.metrics.hotkeys";
+
+    private static final int BUCKETS = 31;
+
+    private static class HotKey {
+        final String key;
+        final long size;
+
+        HotKey(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    private final TaskInputOutputContext<?, ?, ?, ?> ctx;
+    private final String step;
+
+    private final Map<String, Counter> rejects = new HashMap<>();
+    private final Map<String, Counter> emits = new HashMap<>();
+    private final Map<String, Counter> errors = new HashMap<>();
+    private final Counter[] buckets = new Counter[BUCKETS + 1];
+    private Counter groups;
+    private Counter values;
+
+    private final int hotK;
+    private final PriorityQueue<HotKey> hot = new PriorityQueue<>((a, b) -> Long.compare(a.size, b.size));
+
+    public Metrics(TaskInputOutputContext<?, ?, ?, ?> ctx, String step) {
+        this.ctx = ctx;
+        this.step = step;
+        this.hotK = ctx.getConfiguration().getInt(HOT_KEYS_KEY, 20);
+    }
+
+    private Counter counter(Map<String, Counter> cache, String kind, String name) {
+        Counter c = cache.get(name);
+        if (c == null) {
+            c = ctx.getCounter(step + "." + kind, name);
+            cache.put(name, c);
+        }
+        return c;
+    }
+
+    public void reject(String reason) {
+        counter(rejects, "reject", reason).increment(1);
+    }
+
+    public void reject(String reason, long n) {
+        if (n != 0) counter(rejects, "reject", reason).increment(n);
+    }
+
+    public void emit(String keyType) {
+        counter(emits, "emit", keyType).increment(1);
+    }
+
+    public void emit(String keyType, long n) {
+        counter(emits, "emit", keyType).increment(n);
+    }
+
+    public void error(String failure) {
+        error(failure, 1);
+    }
+
+    public void error(String failure, long n) {
+        if (n != 0) counter(errors, "error", failure).increment(n);
+    }
+
+    public void setupTime(String what, long ms) {
+        ctx.getCounter(step + ".setup", what + "_MS").increment(ms);
+        ctx.getCounter(step + ".setup", what + "_LOADS").increment(1);
+    }
+
+    /** One reduce group (or any keyed batch) of the given size. */
+    public void group(Object key, long size) {
+        int b = size <= 1 ? 0 : Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(size - 1));
+        if (buckets[b] == null) {
+            buckets[b] = ctx.getCounter(step + ".groupSize", String.format("LE_2^%02d", b));
+            if (groups == null) {
+                groups = ctx.getCounter(step + ".groupSize", "GROUPS");
+                values = ctx.getCounter(step + ".groupSize", "VALUES");
+            }
+        }
+        buckets[b].increment(1);
+        groups.increment(1);
+        values.increment(size);
+
+        if (hotK <= 0) return;
+        if (hot.size() < hotK) {
+            hot.add(new HotKey(key.toString(), size));
+        } else if (size > hot.peek().size) {
+            hot.poll();
+            hot.add(new HotKey(key.toString(), size));
+        }
+    }
+
+    /** Call from cleanup(): writes this task's hot keys (if dirt.metrics.dir is set). */
+    public void close() throws IOException {
+        String dir = ctx.getConfiguration().get(DIR_KEY);
+        if (dir == null || hot.isEmpty()) return;
+
+        Path out = new Path(new Path(dir, step), ctx.getTaskAttemptID().toString() + ".tsv");
+        FileSystem fs = out.getFileSystem(ctx.getConfiguration());
+        try (Writer w = new OutputStreamWriter(fs.create(out, true), StandardCharsets.UTF_8)) {
+            for (HotKey h : hot) w.write(h.key.replace('\t', ' ') + "\t" + h.size + "\n");
+        } catch (IOException e) {
+            // metrics must never fail the task
+            error("HOT_KEYS_WRITE");
+        }
+    }
+
+    /**
+     * Dump one finished job: the step's counter groups, the merged hot keys (largest first)
+     * and all framework counters. The hot-key side files of the step are deleted afterwards.
+     */
+    public static void writeJson(Job job, String step, long wallMs, Path out) throws IOException {
+        Configuration conf = job.getConfiguration();
+        Counters counters = job.getCounters();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"step\": ").append(Json.quote(step))
+          .append(",\n  \"job\": ").append(Json.quote(job.getJobName()))
+          .append(",\n  \"jobId\": ").append(Json.quote(String.valueOf(job.getJobID())))
+          .append(",\n  \"succeeded\": ").append(job.isSuccessful())
+          .append(",\n  \"wallMs\": ").append(wallMs);
+
+        List<CounterGroup> framework = new ArrayList<>();
+        sb.append(",\n  \"metrics\": {");
+        boolean first = true;
+        if (counters != null) {
+            for (CounterGroup g : counters) {
+                if (!g.getName().startsWith(step + ".")) {
+                    framework.add(g);
+                    continue;
+                }
+                sb.append(first ? "\n    " : ",\n    ")
+                  .append(Json.quote(g.getName().substring(step.length() + 1))).append(": ");
+                appendGroup(sb, g);
+                first = false;
+            }
+        }
+        sb.append(first ? "}" : "\n  }");
+
+        sb.append(",\n  \"hotKeys\": [");
+        List<HotKey> hotKeys = mergeHotKeys(conf, step, conf.getInt(HOT_KEYS_KEY, 20));
+        for (int i = 0; i < hotKeys.size(); i++) {
+            HotKey h = hotKeys.get(i);
+            sb.append(i == 0 ? "\n    " : ",\n    ")
+              .append("{\"key\": ").append(Json.quote(h.key)).append(", \"size\": ").append(h.size).append('}');
+        }
+        sb.append(hotKeys.isEmpty() ? "]" : "\n  ]");
+
+        appendCompression(sb, job, counters);
+
+        sb.append(",\n  \"counters\": {");
+        for (int i = 0; i < framework.size(); i++) {
+            sb.append(i == 0 ? "\n    " : ",\n    ").append(Json.quote(framework.get(i).getName())).append(": ");
+            appendGroup(sb, framework.get(i));
+        }
+        sb.append(framework.isEmpty() ? "}" : "\n  }");
+        sb.append("\n}\n");
+
+        FileSystem fs = out.getFileSystem(conf);
+        try (Writer w = new OutputStreamWriter(fs.create(out, true), StandardCharsets.UTF_8)) {
+            w.write(sb.toString());
+        }
+    }
+
+    /**
+     * Codecs of the job and the ratios they achieved (uncompressed / compressed bytes):
+     * shuffle from the map output counters, output from a sample of the first output file.
+     */
+    private static void appendCompression(StringBuilder sb, Job job, Counters counters) {
+        Configuration conf = job.getConfiguration();
+        boolean shuffle = conf.getBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, false);
+        boolean output = FileOutputFormat.getCompressOutput(job);
+
+        double shuffleRatio = Double.NaN;
+        long outputBytes = -1;
+        if (counters != null) {
+            long raw = counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+            long materialized = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+            if (materialized > 0) shuffleRatio = (double) raw / materialized;
+            outputBytes = counters.findCounter(FileOutputFormatCounter.BYTES_WRITTEN).getValue();
+        }
+        double outputRatio = Double.NaN;
+        Path outDir = FileOutputFormat.getOutputPath(job);
+        if (outDir != null) {
+            try {
+                outputRatio = CompressionPolicy.sampleOutputRatio(conf, outDir, 16L << 20);
+            } catch (IOException | RuntimeException e) {
+                // the report must not fail a finished job
+            }
+        }
+
+        sb.append(",\n  \"compression\": {")
+          .append("\n    \"shuffleCodec\": ")
+          .append(Json.quote(shuffle ? conf.get(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC) : null))
+          .append(",\n    \"shuffleRatio\": ").append(Json.number(shuffleRatio))
+          .append(",\n    \"outputCodec\": ")
+          .append(Json.quote(output ? conf.get(FileOutputFormat.COMPRESS_CODEC) : null))
+          .append(",\n    \"outputBytes\": ").append(outputBytes)
+          .append(",\n    \"outputRatio\": ").append(Json.number(outputRatio))
+          .append("\n  }");
+    }
+
+    private static void appendGroup(StringBuilder sb, CounterGroup g) {
+        sb.append('{');
+        boolean first = true;
+        for (Counter c : g) {
+            sb.append(first ? "" : ", ").append(Json.quote(c.getName())).append(": ").append(c.getValue());
+            first = false;
+        }
+        sb.append('}');
+    }
+
+    private static List<HotKey> mergeHotKeys(Configuration conf, String step, int k) throws IOException {
+        List<HotKey> out = new ArrayList<>();
+        String dir = conf.get(DIR_KEY);
+        if (dir == null || k <= 0) return out;
+
+        // a key can be reported twice by a retried / speculative attempt: keep it once
+        Path stepDir = new Path(dir, step);
+        Map<String, Long> sizes = new HashMap<>();
+        for (Path f : DataFiles.list(conf, stepDir)) {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(f.getFileSystem(conf).open(f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int tab = line.lastIndexOf('\t');
+                    if (tab <= 0) continue;
+                    sizes.merge(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)), Math::max);
+                }
+            }
+        }
+        FileSystem fs = stepDir.getFileSystem(conf);
+        if (fs.exists(stepDir)) fs.delete(stepDir, true);
+
+        for (Map.Entry<String, Long> e : sizes.entrySet()) out.add(new HotKey(e.getKey(), e.getValue()));
+        out.sort((a, b) -> Long.compare(b.size, a.size));
+        return out.size() > k ? new ArrayList<>(out.subList(0, k)) : out;
+    }
+}
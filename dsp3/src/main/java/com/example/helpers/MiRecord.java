@@ -0,0 +1,86 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One line of the MI table written by Step2_ComputeMI:
+ *   pred \t slot \t word \t mi
+ *
+ * Parsing tolerates CRLF and trailing tabs (same rules as the Step3/Step4 mappers).
+ * Used by the local (non-MapReduce) readers of the MI table.
+ */
+public class MiRecord {
+    public final String pred;
+    public final String slot;
+    public final String word;
+    public final double mi;
+
+    public MiRecord(String pred, String slot, String word, double mi) {
+        this.pred = pred;
+        this.slot = slot;
+        this.word = word;
+        this.mi = mi;
+    }
+
+    /** Callback for {@link #readAll}. */
+    public interface Sink {
+        void accept(MiRecord r) throws IOException;
+    }
+
+    /** @return parsed record, or null if the line is empty/malformed */
+    public static MiRecord parse(String line) {
+        if (line == null) return null;
+        if (line.indexOf('\r') >= 0) line = line.replace("\r", "");
+        if (line.trim().isEmpty()) return null;
+
+        String[] parts = line.split("\t", -1);
+        if (parts.length < 4) return null;
+
+        String pred = parts[0].trim();
+        String slot = parts[1].trim();
+        String word = parts[2].trim();
+        if (pred.isEmpty() || slot.isEmpty() || word.isEmpty()) return null;
+
+        String miStr = null;
+        for (int i = parts.length - 1; i >= 3; i--) {
+            String s = parts[i].trim();
+            if (!s.isEmpty()) { miStr = s; break; }
+        }
+        if (miStr == null) return null;
+
+        double mi;
+        try { mi = Double.parseDouble(miStr); }
+        catch (Exception e) { return null; }
+
+        return new MiRecord(pred, slot, word, mi);
+    }
+
+    /**
+     * Stream every MI record under a file or output directory.
+     * @return number of malformed lines that were skipped
+     */
+    public static long readAll(Configuration conf, Path miPath, Sink sink) throws IOException {
+        long bad = 0;
+        for (Path f : DataFiles.list(conf, miPath)) {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(DataFiles.open(conf, f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    MiRecord r = parse(line);
+                    if (r == null) {
+                        if (!line.trim().isEmpty()) bad++;
+                        continue;
+                    }
+                    sink.accept(r);
+                }
+            }
+        }
+        return bad;
+    }
+}
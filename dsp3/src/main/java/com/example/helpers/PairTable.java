@@ -0,0 +1,104 @@
+package com.example.helpers;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap grouping of the test pairs of a TestSet by canonical predicate-id pair, instead of a
+ * HashMap<String, List<PairInfo>> of every pair (Step5 writes its test pair input from it).
+ *
+ * Direct buffers, no per-pair objects:
+ *   keys   long[K]   distinct canonical pairs (id1 << 32 | id2, id1 <= id2), ascending
+ *   start  int[K+1]  the pairs of key k are order[start[k] .. start[k+1])
+ *   order  int[N]    TestSet pair indices grouped by key, in test set order within a key
+ *
+ * Orientation and label of a pair stay in the (memory-mapped) TestSet.
+ */
+public class PairTable {
+
+    private final LongBuffer keys;
+    private final IntBuffer start;
+    private final IntBuffer order;
+    private final int size;
+
+    public PairTable(TestSet testSet) {
+        int n = testSet.size();
+
+        // heap scratch only while building
+        long[] pairKeys = new long[n];
+        for (int i = 0; i < n; i++) pairKeys[i] = key(testSet.left(i), testSet.right(i));
+        long[] distinct = pairKeys.clone();
+        Arrays.sort(distinct);
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (k == 0 || distinct[i] != distinct[k - 1]) distinct[k++] = distinct[i];
+        }
+        size = k;
+
+        keys = ByteBuffer.allocateDirect(Math.max(1, k) * 8).asLongBuffer();
+        for (int i = 0; i < k; i++) keys.put(i, distinct[i]);
+
+        // counting sort of the pairs by key (stable: keeps test set order within a key)
+        int[] slot = new int[n];
+        int[] count = new int[k + 1];
+        for (int i = 0; i < n; i++) {
+            slot[i] = Arrays.binarySearch(distinct, 0, k, pairKeys[i]);
+            count[slot[i] + 1]++;
+        }
+        start = ByteBuffer.allocateDirect((k + 1) * 4).asIntBuffer();
+        for (int i = 0; i < k; i++) count[i + 1] += count[i];
+        for (int i = 0; i <= k; i++) start.put(i, count[i]);
+        order = ByteBuffer.allocateDirect(Math.max(1, n) * 4).asIntBuffer();
+        for (int i = 0; i < n; i++) order.put(count[slot[i]]++, i);
+    }
+
+    /** canonical key of an (unordered) id pair */
+    public static long key(int id1, int id2) {
+        int a = Math.min(id1, id2);
+        int b = Math.max(id1, id2);
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    /** number of distinct canonical pairs */
+    public int size() {
+        return size;
+    }
+
+    /** index of the canonical pair of two predicate ids, -1 when it is not a test pair */
+    public int find(int id1, int id2) {
+        if (id1 < 0 || id2 < 0) return -1;
+        long key = key(id1, id2);
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long v = keys.get(mid);
+            if (v < key) lo = mid + 1;
+            else if (v > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** smaller predicate id of key k */
+    public int first(int k) {
+        return (int) (keys.get(k) >>> 32);
+    }
+
+    /** larger predicate id of key k */
+    public int second(int k) {
+        return (int) keys.get(k);
+    }
+
+    /** number of test pairs (duplicates, both orientations) of key k */
+    public int count(int k) {
+        return start.get(k + 1) - start.get(k);
+    }
+
+    /** TestSet index of the j-th pair of key k */
+    public int pair(int k, int j) {
+        return order.get(start.get(k) + j);
+    }
+}
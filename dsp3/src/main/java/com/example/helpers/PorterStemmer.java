@@ -426,7 +426,7 @@ public class PorterStemmer
       }
    }
 
-    String stem(String toLowerCase) {
+    public String stem(String toLowerCase) {
         // reset the stemmer
         this.i = 0;
         this.i_end = 0;
@@ -0,0 +1,52 @@
+package com.example.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Growable (predicate id, MI) postings of one reduce group, as parallel primitive arrays.
+ *
+ * One buffer lives for the whole reduce task and is clear()ed per group: it grows to the
+ * largest group once, after which a group costs no allocation (no String / Double per value,
+ * no list resizing). Ids are TestSet predicate ids.
+ */
+public final class PostingBuffer {
+
+    private int[] ids;
+    private double[] mis;
+    private int size;
+
+    public PostingBuffer() {
+        this(64);
+    }
+
+    public PostingBuffer(int capacity) {
+        ids = new int[Math.max(1, capacity)];
+        mis = new double[ids.length];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int id, double mi) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            mis = Arrays.copyOf(mis, size * 2);
+        }
+        ids[size] = id;
+        mis[size] = mi;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public double mi(int i) {
+        return mis[i];
+    }
+}
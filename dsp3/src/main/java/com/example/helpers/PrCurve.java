@@ -0,0 +1,152 @@
+package com.example.helpers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Precision / recall / F1 over every distinct similarity threshold, built in one pass over the
+ * scored test pairs in DESCENDING similarity order (Step6 output, or the Step7 single reducer).
+ *
+ * A pair is predicted positive at threshold t iff sim >= t, so after all pairs with sim >= t
+ * have been added, tp / fp are the running label counts. Only (t, tp, fp) is kept per distinct
+ * threshold: O(#thresholds) memory. recall needs the total number of positives, so the curve
+ * is computed by finish().
+ *
+ * CSV (writeCsv): threshold,precision,recall,f1   (same columns as Reports/Analysis/pr_*.csv + f1)
+ * Summary (summaryJson): totals, best-F1 point and average precision (area under the PR steps).
+ */
+public class PrCurve {
+
+    private double[] thresholds = new double[64];
+    private long[] tps = new long[64];
+    private long[] fps = new long[64];
+    private int n;
+
+    private long tp;
+    private long fp;
+    private boolean finished;
+
+    /** Adds count pairs of one label; sims must not increase between calls. */
+    public void add(double sim, boolean positive, long count) {
+        if (positive) add(sim, count, 0);
+        else add(sim, 0, count);
+    }
+
+    /** Adds pos positive and neg negative pairs with this similarity. */
+    public void add(double sim, long pos, long neg) {
+        if (finished) throw new IllegalStateException("curve already finished");
+        if (n > 0 && Double.compare(sim, thresholds[n - 1]) > 0) {
+            throw new IllegalArgumentException("similarities must be added in descending order: " +
+                                               sim + " after " + thresholds[n - 1]);
+        }
+        tp += pos;
+        fp += neg;
+        if (n == 0 || Double.compare(sim, thresholds[n - 1]) != 0) {
+            if (n == thresholds.length) {
+                thresholds = Arrays.copyOf(thresholds, n * 2);
+                tps = Arrays.copyOf(tps, n * 2);
+                fps = Arrays.copyOf(fps, n * 2);
+            }
+            thresholds[n++] = sim;
+        }
+        tps[n - 1] = tp;
+        fps[n - 1] = fp;
+    }
+
+    public PrCurve finish() {
+        finished = true;
+        return this;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public long positives() {
+        return tp;
+    }
+
+    public long negatives() {
+        return fp;
+    }
+
+    public double threshold(int i) {
+        return thresholds[i];
+    }
+
+    public double precision(int i) {
+        long predicted = tps[i] + fps[i];
+        return predicted == 0 ? 0.0 : (double) tps[i] / predicted;
+    }
+
+    public double recall(int i) {
+        return tp == 0 ? 0.0 : (double) tps[i] / tp;
+    }
+
+    public double f1(int i) {
+        double p = precision(i);
+        double r = recall(i);
+        return p + r == 0 ? 0.0 : 2 * p * r / (p + r);
+    }
+
+    /** index of the highest F1 (the highest threshold on ties), -1 for an empty curve */
+    public int best() {
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            if (best < 0 || f1(i) > f1(best)) best = i;
+        }
+        return best;
+    }
+
+    /** sum over thresholds of (recall step) * precision */
+    public double averagePrecision() {
+        double ap = 0;
+        double prevRecall = 0;
+        for (int i = 0; i < n; i++) {
+            double r = recall(i);
+            ap += (r - prevRecall) * precision(i);
+            prevRecall = r;
+        }
+        return ap;
+    }
+
+    public static String csvHeader() {
+        return "threshold,precision,recall,f1";
+    }
+
+    public String csvLine(int i) {
+        return threshold(i) + "," + precision(i) + "," + recall(i) + "," + f1(i);
+    }
+
+    public void writeCsv(Writer w) throws IOException {
+        w.write(csvHeader());
+        w.write('\n');
+        for (int i = 0; i < n; i++) {
+            w.write(csvLine(i));
+            w.write('\n');
+        }
+    }
+
+    public String summaryJson() {
+        int b = best();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"pairs\": ").append(tp + fp)
+          .append(",\n  \"positives\": ").append(tp)
+          .append(",\n  \"negatives\": ").append(fp)
+          .append(",\n  \"thresholds\": ").append(n)
+          .append(",\n  \"averagePrecision\": ").append(Json.number(averagePrecision()));
+        if (b >= 0) {
+            sb.append(",\n  \"best\": {\"threshold\": ").append(Json.number(threshold(b)))
+              .append(", \"precision\": ").append(Json.number(precision(b)))
+              .append(", \"recall\": ").append(Json.number(recall(b)))
+              .append(", \"f1\": ").append(Json.number(f1(b)))
+              .append(", \"tp\": ").append(tps[b])
+              .append(", \"fp\": ").append(fps[b])
+              .append(", \"fn\": ").append(tp - tps[b])
+              .append(", \"tn\": ").append(fp - fps[b]).append('}');
+        }
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bloom filter of the test predicates, for Step1's filtered mode (-D dirt.step1.filter=true).
+ *
+ * DirtDriver writes it once (write) next to the outputs; Step1 ships it through the
+ * distributed cache as "testpreds.bloom" and its mappers only emit the PSW / PS records of
+ * templates that may be test predicates. False positives (dirt.step1.filter.fpp, default 1%)
+ * only cost some extra records: Steps 2-5 still filter by the exact test set.
+ *
+ * Serialized as Hadoop's org.apache.hadoop.util.bloom.BloomFilter (murmur hash).
+ */
+public class PredicateBloom {
+
+    public static final String PATH_KEY = "dirt.step1.filter.path";
+    public static final String FPP_KEY = "dirt.step1.filter.fpp";
+    public static final String CACHE_NAME = "testpreds.bloom";
+
+    private final BloomFilter filter;
+    private final Key key = new Key();
+
+    private PredicateBloom(BloomFilter filter) {
+        this.filter = filter;
+    }
+
+    /** @return number of predicates in the filter */
+    public static int write(Configuration conf, Path positive, Path negative, Path out) throws IOException {
+        Set<String> preds = new HashSet<>();
+        Map<String, List<TestData.PairInfo>> pairs =
+                TestData.loadPairsWithDuplicates(conf, positive, negative, new PorterStemmer());
+        for (List<TestData.PairInfo> infos : pairs.values()) {
+            for (TestData.PairInfo info : infos) {
+                preds.add(info.p1);
+                preds.add(info.p2);
+            }
+        }
+
+        // optimal size for n keys at false-positive rate p: m = -n ln p / ln^2 2, k = m/n ln 2
+        double p = Math.min(0.5, Math.max(1e-9, conf.getDouble(FPP_KEY, 0.01)));
+        int n = Math.max(1, preds.size());
+        int bits = (int) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        int hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+
+        BloomFilter filter = new BloomFilter(Math.max(64, bits), hashes, Hash.MURMUR_HASH);
+        for (String pred : preds) filter.add(new Key(pred.getBytes(StandardCharsets.UTF_8)));
+
+        FileSystem fs = out.getFileSystem(conf);
+        try (FSDataOutputStream os = fs.create(out, true)) {
+            filter.write(os);
+        }
+        return preds.size();
+    }
+
+    /** The filter in the task's cache, or null when the job did not ship one. */
+    public static PredicateBloom fromCache(URI[] cacheFiles) throws IOException {
+        if (cacheFiles == null) return null;
+        for (URI uri : cacheFiles) {
+            if (!CACHE_NAME.equals(uri.getFragment())) continue;
+            BloomFilter filter = new BloomFilter();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(CACHE_NAME)))) {
+                filter.readFields(in);
+            }
+            return new PredicateBloom(filter);
+        }
+        return null;
+    }
+
+    /** false: certainly not a test predicate */
+    public boolean mightContain(String pred) {
+        key.set(pred.getBytes(StandardCharsets.UTF_8), 1.0);
+        return filter.membershipTest(key);
+    }
+}
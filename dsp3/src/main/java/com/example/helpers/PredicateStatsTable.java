@@ -0,0 +1,46 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * Off-heap replacement of a Map<String, double[]> of predicate aggregates (Step3 denominators):
+ * one row of `width` doubles per TestSet predicate id, in a direct buffer. Predicates without
+ * a row read as zeros (the same as a missing map entry).
+ */
+public class PredicateStatsTable {
+
+    private final DoubleBuffer values;
+    private final int width;
+
+    public PredicateStatsTable(int predicates, int width) {
+        this.width = width;
+        this.values = ByteBuffer.allocateDirect(Math.max(1, predicates * width) * 8).asDoubleBuffer();
+    }
+
+    /**
+     * Loads the rows of the test set's predicates from a Step3 output dir (see Denoms.loadStats).
+     *
+     * @return number of files that could not be read as SequenceFiles
+     * @throws Denoms.WrongWidth if the table's rows do not have this table's width
+     */
+    public int load(Configuration conf, Path denomDir, TestSet testSet) throws IOException {
+        return Denoms.loadStats(conf, denomDir,
+                pred -> testSet.indexOf(pred) >= 0,
+                (pred, stats) -> set(testSet.indexOf(pred), stats));
+    }
+
+    public void set(int id, double[] stats) {
+        for (int i = 0; i < width; i++) values.put(id * width + i, stats[i]);
+    }
+
+    /** copies the row of id into out (zeros for an unknown id) */
+    public double[] get(int id, double[] out) {
+        for (int i = 0; i < width; i++) out[i] = id < 0 ? 0.0 : values.get(id * width + i);
+        return out;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Pruning thresholds of the MI table, each enforced by the first task that sees the final
+ * value it tests (all off by default: every count >= 1 and every MI are kept).
+ *
+ *   dirt.prune.min.psw    [1]  C(p,slot,w) >= n   Step1 reducer (PSW records); Step2 mapper
+ *                                                 again after the approximate-mode correction
+ *   dirt.prune.min.sw     [1]  C(slot,w) >= n     Step1 reducer (SW records), so Step2 never
+ *                                                 groups the feature's PSW records with a total
+ *   dirt.prune.min.preds  [1]  predicates with    Step1 reducer, per feature (its PSW and SW
+ *                              the feature >= n   records, grouped by FeatureComparator): counts
+ *                                                 the distinct PSW records that passed min.psw, of
+ *                                                 every predicate, before Step2 keeps the test
+ *                                                 ones (with dirt.step1.filter: those that pass
+ *                                                 the Bloom filter)
+ *   dirt.prune.min.mi     [unset]  MI >= x        Step2 reducer, before the line is written
+ *
+ * The Step1 combiner never prunes: it only sees partial sums. Pruned records are counted in the
+ * step's reject counters (PRUNED_MIN_PSW, PRUNED_MIN_SW, PRUNED_MIN_PREDS, PRUNED_MIN_MI).
+ * Steps 3 and 4 only read Step2's output, so the denominators and the pair expansion shrink
+ * with it.
+ */
+public class Pruning {
+
+    public static final String MIN_PSW_KEY = "dirt.prune.min.psw";
+    public static final String MIN_SW_KEY = "dirt.prune.min.sw";
+    public static final String MIN_PREDS_KEY = "dirt.prune.min.preds";
+    public static final String MIN_MI_KEY = "dirt.prune.min.mi";
+
+    public final long minPsw;
+    public final long minSw;
+    public final int minPreds;
+    public final double minMi;   // -Infinity = off
+
+    private Pruning(long minPsw, long minSw, int minPreds, double minMi) {
+        this.minPsw = minPsw;
+        this.minSw = minSw;
+        this.minPreds = minPreds;
+        this.minMi = minMi;
+    }
+
+    public static Pruning fromConf(Configuration conf) {
+        String mi = conf.getTrimmed(MIN_MI_KEY);
+        return new Pruning(
+                Math.max(1, conf.getLong(MIN_PSW_KEY, 1)),
+                Math.max(1, conf.getLong(MIN_SW_KEY, 1)),
+                Math.max(1, conf.getInt(MIN_PREDS_KEY, 1)),
+                mi == null || mi.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(mi));
+    }
+}
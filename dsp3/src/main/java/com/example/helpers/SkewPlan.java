@@ -0,0 +1,169 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hot (slot, word) features and how Step2 / Step4 split them (written by jobs.SkewSampler).
+ *
+ * Plan file (TEXT, one hot feature per line):
+ *   slot \t word \t estimatedGroupSize \t fanout \t blocks
+ *
+ * Step2 (linear reduce): a hot feature's records go to "slot \t word \t #salt",
+ *   salt = bucket(pred, fanout); the S record (C(slot,w)) is copied to every salt.
+ * Step4 (pair loop, quadratic): predicates are split into <blocks> blocks by bucket(pred, blocks),
+ *   and every block pair (a <= c) is one cell "slot \t word \t #cell". A predicate of block a is
+ *   sent to the b cells (min(a,c), max(a,c)); the reducer of cell (a,c) forms the pairs within a
+ *   (a == c) or across a and c (a < c), so each pair is still formed exactly once.
+ *
+ * SaltedPartitioner sends the salts / cells of one feature to consecutive reducers, and unsalted
+ * keys exactly where the default HashPartitioner would.
+ */
+public class SkewPlan {
+
+    public static final String ENABLED_KEY = "dirt.skew";
+    public static final String PLAN_KEY = "dirt.skew.plan";
+
+    private static final String SALT = "\t#";
+
+    /** feature -> {fanout, blocks} */
+    private final Map<String, int[]> hot = new HashMap<>();
+
+    public static final SkewPlan EMPTY = new SkewPlan();
+
+    /** Plan named by dirt.skew.plan, or EMPTY when skew handling is off. */
+    public static SkewPlan load(Configuration conf) throws IOException {
+        String dir = conf.get(PLAN_KEY);
+        if (dir == null) return EMPTY;
+
+        SkewPlan plan = new SkewPlan();
+        for (Path f : DataFiles.list(conf, new Path(dir))) {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(DataFiles.open(conf, f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = line.split("\t", -1);
+                    if (p.length != 5) continue;
+                    plan.hot.put(p[0] + "\t" + p[1], new int[]{Integer.parseInt(p[3]), Integer.parseInt(p[4])});
+                }
+            }
+        }
+        return plan;
+    }
+
+    public int size() {
+        return hot.size();
+    }
+
+    /** Step2 salts of a feature (1 = not hot) */
+    public int fanout(String feature) {
+        int[] h = hot.get(feature);
+        return h == null ? 1 : h[0];
+    }
+
+    /** Step4 predicate blocks of a feature (1 = not hot) */
+    public int blocks(String feature) {
+        int[] h = hot.get(feature);
+        return h == null ? 1 : h[1];
+    }
+
+    public static String line(String feature, long estimate, int fanout, int blocks) {
+        return feature + "\t" + estimate + "\t" + fanout + "\t" + blocks;
+    }
+
+    // ---- keys ----
+
+    public static String salted(String feature, int salt) {
+        return feature + SALT + salt;
+    }
+
+    /** feature of a (possibly salted) key */
+    public static String feature(String key) {
+        int i = key.lastIndexOf(SALT);
+        return i < 0 ? key : key.substring(0, i);
+    }
+
+    /** salt / cell of a key, -1 if not salted */
+    public static int salt(String key) {
+        int i = key.lastIndexOf(SALT);
+        return i < 0 ? -1 : Integer.parseInt(key.substring(i + SALT.length()));
+    }
+
+    /** index of the "\t#<digits>" suffix in a key's bytes b[0, len), -1 if the key is not salted */
+    public static int saltStart(byte[] b, int len) {
+        int i = len - 1;
+        while (i >= 0 && b[i] >= '0' && b[i] <= '9') i--;
+        return i >= 1 && i < len - 1 && b[i] == '#' && b[i - 1] == '\t' ? i - 1 : -1;
+    }
+
+    /** salt / cell of a key's bytes, -1 if not salted (salt(String) without decoding the key) */
+    public static int salt(byte[] b, int len) {
+        int start = saltStart(b, len);
+        if (start < 0) return -1;
+        int salt = 0;
+        for (int k = start + SALT.length(); k < len; k++) salt = salt * 10 + (b[k] - '0');
+        return salt;
+    }
+
+    /** deterministic bucket of a predicate in [0, n) */
+    public static int bucket(String pred, int n) {
+        return (pred.hashCode() & Integer.MAX_VALUE) % n;
+    }
+
+    /** number of Step4 cells for b blocks */
+    public static int cells(int b) {
+        return b * (b + 1) / 2;
+    }
+
+    /** cell index of the block pair (a, c), a <= c < b */
+    public static int cell(int a, int c, int b) {
+        // cells of the rows before a: b + (b-1) + ... + (b-a+1)
+        return a * b - a * (a - 1) / 2 + (c - a);
+    }
+
+    /** inverse of cell(): {a, c} */
+    public static int[] blockPair(int cell, int b) {
+        int a = 0;
+        while (cell >= b - a) {
+            cell -= b - a;
+            a++;
+        }
+        return new int[]{a, a + cell};
+    }
+
+    /** largest b with cells(b) <= maxCells */
+    public static int maxBlocks(int maxCells) {
+        int b = 1;
+        while (cells(b + 1) <= maxCells) b++;
+        return b;
+    }
+
+    /**
+     * Partitions "feature \t #salt" keys to (hash(feature) + salt) % reducers, so the salts of a
+     * hot feature land on distinct reducers; any other key as HashPartitioner would.
+     */
+    public static class SaltedPartitioner<V> extends Partitioner<Text, V> {
+        @Override
+        public int getPartition(Text key, V value, int numPartitions) {
+            byte[] b = key.getBytes();
+            int len = key.getLength();
+
+            int start = saltStart(b, len);
+            if (start >= 0) {
+                int h = WritableComparator.hashBytes(b, start) & Integer.MAX_VALUE;
+                return (int) ((h + (long) salt(b, len)) % numPartitions);
+            }
+            return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+}
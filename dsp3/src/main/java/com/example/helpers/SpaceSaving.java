@@ -0,0 +1,109 @@
+package com.example.helpers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Weighted SpaceSaving (Metwally et al.) over at most capacity keys, for Step1's approximate
+ * mode: the heavy hitters of one mapper keep exact counts, everything else spills.
+ *
+ * A key that is not in a full table replaces the key with the smallest count and takes over
+ * that count as its error (count = min + c, error = min), so any key with more than
+ * total / capacity of the mass is guaranteed to stay. Unlike the textbook version the replaced
+ * key's mass is not lost: its exact part (count - error, what it gained since it entered)
+ * goes to the spill consumer (the Count-Min sketch). Every added unit is therefore either in
+ * exact(key) of exactly one table entry or spilled once.
+ *
+ * Updates cost O(log capacity) (TreeSet by count).
+ */
+public class SpaceSaving {
+
+    private static final class Entry implements Comparable<Entry> {
+        final String key;
+        final long seq;   // tie-break: of equal counts the oldest entry goes first
+        long count;
+        long error;
+
+        Entry(String key, long seq, long count, long error) {
+            this.key = key;
+            this.seq = seq;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int c = Long.compare(count, o.count);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final int capacity;
+    private final ObjLongConsumer<String> spill;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> byCount = new TreeSet<>();
+    private long seq;
+    private long spilledKeys;
+    private long spilledMass;
+
+    /** @param spill gets (key, exact count) of every replaced key */
+    public SpaceSaving(int capacity, ObjLongConsumer<String> spill) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity " + capacity);
+        this.capacity = capacity;
+        this.spill = spill;
+    }
+
+    public void add(String key, long count) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            byCount.remove(e);
+            e.count += count;
+            byCount.add(e);
+            return;
+        }
+
+        long min = 0;
+        if (entries.size() >= capacity) {
+            Entry out = byCount.pollFirst();
+            entries.remove(out.key);
+            min = out.count;
+            spill.accept(out.key, out.count - out.error);
+            spilledKeys++;
+            spilledMass += out.count - out.error;
+        }
+        e = new Entry(key, seq++, min + count, min);
+        entries.put(key, e);
+        byCount.add(e);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** number of replacements so far */
+    public long spilledKeys() {
+        return spilledKeys;
+    }
+
+    /** total exact count handed to the spill consumer */
+    public long spilledMass() {
+        return spilledMass;
+    }
+
+    /** receives (key, exact count since the key entered the table); may write task output */
+    public interface ExactCounts {
+        void accept(String key, long count) throws IOException, InterruptedException;
+    }
+
+    /** the kept keys, largest count first */
+    public void forEachExact(ExactCounts out) throws IOException, InterruptedException {
+        for (Iterator<Entry> it = byCount.descendingIterator(); it.hasNext(); ) {
+            Entry e = it.next();
+            out.accept(e.key, e.count - e.error);
+        }
+    }
+}
@@ -4,20 +4,35 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
 
 public class TestData {
 
     public static final String SEP = "\t";
 
+    /**
+     * When true, Step2/Step3 do NOT filter by the test predicates:
+     * MI and denominators are computed for every predicate in the corpus,
+     * so any later pair file can be scored against the same outputs.
+     */
+    public static final String ALL_PREDS_KEY = "dirt.all.preds";
+
     public static class PairInfo {
         public final String p1;
         public final String p2;
@@ -52,9 +67,37 @@ public class TestData {
                 || s.equals("must") || s.equals("shall") || s.equals("should");
     }
 
+    /**
+     * Ships the test set to the tasks of a job: the binary TestSet when DirtDriver wrote one
+     * (TestSet.PATH_KEY), else the two pair files (as positive.txt / negative.txt).
+     */
+    public static void addCacheFiles(Job job, Path positive, Path negative) throws IOException {
+        Configuration conf = job.getConfiguration();
+        conf.setBoolean("mapreduce.job.cache.symlink.create", true);
+
+        String testSet = conf.get(TestSet.PATH_KEY);
+        if (testSet != null) {
+            job.addCacheFile(qualified(conf, new Path(testSet), TestSet.CACHE_NAME));
+            return;
+        }
+        job.addCacheFile(qualified(conf, positive, "positive.txt"));
+        job.addCacheFile(qualified(conf, negative, "negative.txt"));
+    }
+
+    private static URI qualified(Configuration conf, Path p, String link) throws IOException {
+        URI u = p.getFileSystem(conf).makeQualified(p).toUri();
+        try {
+            return new URI(u.getScheme(), u.getAuthority(), u.getPath(), null, link);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(p.toString(), e);
+        }
+    }
+
     public static Set<String> loadTestPredicates(URI[] cacheFiles, PorterStemmer stemmer) throws IOException {
         Set<String> preds = new HashSet<>();
         if (cacheFiles == null) return preds;
+        TestSet testSet = TestSet.fromCache(cacheFiles);
+        if (testSet != null) return testSet.predicates();
 
         for (URI uri : cacheFiles) {
             int label = labelFromUri(uri);
@@ -80,6 +123,8 @@ public class TestData {
     public static Map<String, PairInfo> loadPairs(URI[] cacheFiles, PorterStemmer stemmer) throws IOException {
         Map<String, PairInfo> map = new HashMap<>();
         if (cacheFiles == null) return map;
+        TestSet testSet = TestSet.fromCache(cacheFiles);
+        if (testSet != null) return testSet.pairs();
 
         for (URI uri : cacheFiles) {
             int label = labelFromUri(uri);
@@ -107,26 +152,60 @@ public class TestData {
     public static Map<String, List<PairInfo>> loadPairsWithDuplicates(URI[] cacheFiles, PorterStemmer stemmer) throws IOException {
         Map<String, List<PairInfo>> map = new HashMap<>();
         if (cacheFiles == null) return map;
+        TestSet testSet = TestSet.fromCache(cacheFiles);
+        if (testSet != null) return testSet.pairsWithDuplicates();
 
         for (URI uri : cacheFiles) {
             int label = labelFromUri(uri);
             if (label == -1) continue;
 
             try (BufferedReader br = openCached(uri)) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    PairParsed pp = parsePairLineFlexible(line, stemmer);
-                    if (pp == null) continue;
+                readPairsWithDuplicates(br, label, stemmer, map);
+            }
+        }
+        return map;
+    }
 
-                    String key = canonicalPairKey(pp.p1, pp.p2);
-                    map.computeIfAbsent(key, k -> new ArrayList<>())
-                       .add(new PairInfo(pp.p1, pp.p2, label));
-                }
+    /**
+     * Same as {@link #loadPairsWithDuplicates(URI[], PorterStemmer)} but reads the pair files
+     * directly from any FileSystem (local, hdfs, s3a), with explicit labels instead of
+     * guessing them from the file name. Used outside MapReduce (e.g. LocalScorer).
+     * Keeps file order.
+     */
+    public static Map<String, List<PairInfo>> loadPairsWithDuplicates(Configuration conf,
+                                                                      Path positive,
+                                                                      Path negative,
+                                                                      PorterStemmer stemmer) throws IOException {
+        Map<String, List<PairInfo>> map = new LinkedHashMap<>();
+        Path[] files = {positive, negative};
+        int[] labels = {1, 0};
+
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] == null) continue;
+            FileSystem fs = files[i].getFileSystem(conf);
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(fs.open(files[i]), StandardCharsets.UTF_8))) {
+                readPairsWithDuplicates(br, labels[i], stemmer, map);
             }
         }
         return map;
     }
 
+    private static void readPairsWithDuplicates(BufferedReader br,
+                                                int label,
+                                                PorterStemmer stemmer,
+                                                Map<String, List<PairInfo>> map) throws IOException {
+        String line;
+        while ((line = br.readLine()) != null) {
+            PairParsed pp = parsePairLineFlexible(line, stemmer);
+            if (pp == null) continue;
+
+            String key = canonicalPairKey(pp.p1, pp.p2);
+            map.computeIfAbsent(key, k -> new ArrayList<>())
+               .add(new PairInfo(pp.p1, pp.p2, label));
+        }
+    }
+
     public static PairParsed parsePairLineFlexible(String line, PorterStemmer stemmer) {
         if (line == null) return null;
         line = line.trim();
@@ -172,7 +251,7 @@ public class TestData {
         return sb.toString().trim();
     }
 
-    private static String normalizePredicate(String pred, PorterStemmer stemmer) {
+    public static String normalizePredicate(String pred, PorterStemmer stemmer) {
         pred = pred.trim().replaceAll("\\s+", " ");
         String[] t = pred.split(" ");
         if (t.length < 3) return pred;
@@ -0,0 +1,291 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The normalized test set (positive + negative pair files) as one compact binary file, written
+ * once by DirtDriver and memory-mapped by the tasks from the distributed cache, so they no
+ * longer re-read and re-stem the pair files in every setup().
+ *
+ * Layout (big endian):
+ *   int     MAGIC ("DTS1")
+ *   int     P                 number of distinct predicates
+ *   int[P+1] offsets          into the name bytes; predicate id i = bytes [off[i], off[i+1])
+ *   byte[]  names             UTF-8, sorted by String order (ids follow that order)
+ *   int     N                 number of pairs
+ *   N x (int left, int right, byte label)
+ *                             positive pairs first, orientation as in the files,
+ *                             duplicates kept
+ *
+ * TestData.loadTestPredicates / loadPairs / loadPairsWithDuplicates read it instead of the pair
+ * files when it is in the cache (see TestData.addCacheFiles), with the same results.
+ *
+ * Keys:
+ *   dirt.testset.binary [true]  build and ship the binary test set
+ *   dirt.testset               path of the file (set by DirtDriver)
+ */
+public class TestSet {
+
+    public static final String ENABLED_KEY = "dirt.testset.binary";
+    public static final String PATH_KEY = "dirt.testset";
+    public static final String CACHE_NAME = "testset.bin";
+
+    private static final int MAGIC = ('D' << 24) | ('T' << 16) | ('S' << 8) | '1';
+    private static final int PAIR_BYTES = 9;
+
+    private final String[] preds;
+    private final byte[][] predBytes;   // UTF-8 names
+    private final int[] byBytes;        // open addressing: hash of the name bytes -> id + 1 (0 = empty)
+    private final ByteBuffer pairs;
+    private final int pairCount;
+
+    private TestSet(String[] preds, ByteBuffer pairs, int pairCount) {
+        this.preds = preds;
+        this.pairs = pairs;
+        this.pairCount = pairCount;
+
+        predBytes = new byte[preds.length][];
+        byBytes = new int[Integer.highestOneBit(Math.max(1, preds.length) * 2) * 2];
+        for (int id = 0; id < preds.length; id++) {
+            predBytes[id] = preds[id].getBytes(StandardCharsets.UTF_8);
+            int i = hash(predBytes[id], 0, predBytes[id].length) & (byBytes.length - 1);
+            while (byBytes[i] != 0) i = (i + 1) & (byBytes.length - 1);
+            byBytes[i] = id + 1;
+        }
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) h = 31 * h + b[i];
+        return h ^ (h >>> 16);
+    }
+
+    /** Parses the pair files once (TestData rules) and writes the binary test set to out. */
+    public static int write(Configuration conf, Path positive, Path negative, Path out) throws IOException {
+        List<TestData.PairInfo> all =
+                flatten(TestData.loadPairsWithDuplicates(conf, positive, negative, new PorterStemmer()));
+        FileSystem fs = out.getFileSystem(conf);
+        try (OutputStream os = fs.create(out, true)) {
+            os.write(encode(all));
+        }
+        return all.size();
+    }
+
+    /** Parses the pair files (TestData rules) into an in-memory test set, outside MapReduce. */
+    public static TestSet read(Configuration conf, Path positive, Path negative) throws IOException {
+        return direct(flatten(TestData.loadPairsWithDuplicates(conf, positive, negative, new PorterStemmer())));
+    }
+
+    /** Reads a binary test set written by write() (any file system), outside MapReduce. */
+    public static TestSet read(Configuration conf, Path file) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        long len = fs.getFileStatus(file).getLen();
+        if (len > Integer.MAX_VALUE) throw new IOException("not a test set file: " + file);
+        byte[] bytes = new byte[(int) len];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(0, bytes);
+        }
+        return direct(bytes, file.toString());
+    }
+
+    /** The test set in the task's cache, or null when the job did not ship one. */
+    public static TestSet fromCache(URI[] cacheFiles) throws IOException {
+        if (cacheFiles == null) return null;
+        for (URI uri : cacheFiles) {
+            if (CACHE_NAME.equals(uri.getFragment())) return open(new File(CACHE_NAME));
+        }
+        return null;
+    }
+
+    /**
+     * The test set of a task: the cached binary file, or else the cached pair files encoded
+     * into a direct buffer (-D dirt.testset.binary=false).
+     */
+    public static TestSet load(URI[] cacheFiles, PorterStemmer stemmer) throws IOException {
+        TestSet cached = fromCache(cacheFiles);
+        if (cached != null) return cached;
+        return direct(flatten(TestData.loadPairsWithDuplicates(cacheFiles, stemmer)));
+    }
+
+    private static TestSet direct(List<TestData.PairInfo> all) throws IOException {
+        return direct(encode(all), "pair files");
+    }
+
+    private static TestSet direct(byte[] bytes, String what) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        return parse(buf, what);
+    }
+
+    public static TestSet open(File f) throws IOException {
+        ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+             FileChannel ch = raf.getChannel()) {
+            // the mapping outlives the channel; tasks on one node share the cached file's pages
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        return parse(buf, f.toString());
+    }
+
+    // positives before negatives, as the jobs read the pair files (the last duplicate wins in loadPairs)
+    private static List<TestData.PairInfo> flatten(Map<String, List<TestData.PairInfo>> byKey) {
+        List<TestData.PairInfo> all = new ArrayList<>();
+        for (int label = 1; label >= 0; label--) {
+            for (List<TestData.PairInfo> infos : byKey.values()) {
+                for (TestData.PairInfo info : infos) {
+                    if (info.label == label) all.add(info);
+                }
+            }
+        }
+        return all;
+    }
+
+    private static byte[] encode(List<TestData.PairInfo> all) throws IOException {
+        TreeSet<String> sorted = new TreeSet<>();
+        for (TestData.PairInfo info : all) {
+            sorted.add(info.p1);
+            sorted.add(info.p2);
+        }
+        String[] preds = sorted.toArray(new String[0]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(MAGIC);
+        dos.writeInt(preds.length);
+        byte[][] names = new byte[preds.length][];
+        int off = 0;
+        dos.writeInt(0);
+        for (int i = 0; i < preds.length; i++) {
+            names[i] = preds[i].getBytes(StandardCharsets.UTF_8);
+            off += names[i].length;
+            dos.writeInt(off);
+        }
+        for (byte[] n : names) dos.write(n);
+
+        dos.writeInt(all.size());
+        for (TestData.PairInfo info : all) {
+            dos.writeInt(Arrays.binarySearch(preds, info.p1));
+            dos.writeInt(Arrays.binarySearch(preds, info.p2));
+            dos.writeByte(info.label);
+        }
+        dos.flush();
+        return bytes.toByteArray();
+    }
+
+    private static TestSet parse(ByteBuffer buf, String what) throws IOException {
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC) throw new IOException("not a test set file: " + what);
+
+        int p = buf.getInt();
+        int[] off = new int[p + 1];
+        for (int i = 0; i <= p; i++) off[i] = buf.getInt();
+        byte[] names = new byte[off[p]];
+        buf.get(names);
+        String[] preds = new String[p];
+        for (int i = 0; i < p; i++) preds[i] = new String(names, off[i], off[i + 1] - off[i], StandardCharsets.UTF_8);
+
+        int n = buf.getInt();
+        if (buf.remaining() < (long) n * PAIR_BYTES) throw new IOException("truncated test set file: " + what);
+        return new TestSet(preds, buf.slice(), n);
+    }
+
+    public int predicateCount() {
+        return preds.length;
+    }
+
+    public String predicate(int id) {
+        return preds[id];
+    }
+
+    /**
+     * id of a predicate, negative when it is not in the test set. Ids follow String order, so
+     * id(a) < id(b) exactly when a.compareTo(b) < 0 (the canonical pair order).
+     */
+    public int indexOf(String pred) {
+        return Arrays.binarySearch(preds, pred);
+    }
+
+    /** UTF-8 bytes of a predicate (shared: do not modify) */
+    public byte[] predicateBytes(int id) {
+        return predBytes[id];
+    }
+
+    /** id of the predicate with these UTF-8 bytes, negative when it is not in the test set (no allocation) */
+    public int indexOf(byte[] b, int off, int len) {
+        int i = hash(b, off, len) & (byBytes.length - 1);
+        for (int id; (id = byBytes[i] - 1) >= 0; i = (i + 1) & (byBytes.length - 1)) {
+            byte[] name = predBytes[id];
+            if (name.length != len) continue;
+            int k = 0;
+            while (k < len && name[k] == b[off + k]) k++;
+            if (k == len) return id;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return pairCount;
+    }
+
+    public int left(int i) {
+        return pairs.getInt(i * PAIR_BYTES);
+    }
+
+    public int right(int i) {
+        return pairs.getInt(i * PAIR_BYTES + 4);
+    }
+
+    public int label(int i) {
+        return pairs.get(i * PAIR_BYTES + 8);
+    }
+
+    /** same as TestData.loadTestPredicates */
+    public Set<String> predicates() {
+        return new HashSet<>(Arrays.asList(preds));
+    }
+
+    /** same as TestData.loadPairs: canonical key -> pair, the last duplicate wins */
+    public Map<String, TestData.PairInfo> pairs() {
+        Map<String, TestData.PairInfo> map = new HashMap<>();
+        for (int i = 0; i < pairCount; i++) {
+            TestData.PairInfo info = info(i);
+            map.put(TestData.canonicalPairKey(info.p1, info.p2), info);
+        }
+        return map;
+    }
+
+    /** same as TestData.loadPairsWithDuplicates */
+    public Map<String, List<TestData.PairInfo>> pairsWithDuplicates() {
+        Map<String, List<TestData.PairInfo>> map = new HashMap<>();
+        for (int i = 0; i < pairCount; i++) {
+            TestData.PairInfo info = info(i);
+            map.computeIfAbsent(TestData.canonicalPairKey(info.p1, info.p2), k -> new ArrayList<>()).add(info);
+        }
+        return map;
+    }
+
+    private TestData.PairInfo info(int i) {
+        return new TestData.PairInfo(preds[left(i)], preds[right(i)], label(i));
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.index;
+
+import com.example.helpers.PorterStemmer;
+import com.example.helpers.TestData;
+import com.example.similarity.Measures;
+import com.example.similarity.SimilarityMeasure;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+/**
+ * Read-only, memory-mapped predicate feature index (built by {@link PredicateIndexBuilder}).
+ *
+ * Layout (one directory, all numbers big-endian):
+ *   preds.txt        sorted predicates, id = line number
+ *   words.txt        sorted argument words, id = line number
+ *   fwd_offsets.bin  long[2*P+1]  vector v = pred*2 + slot (X=0, Y=1) spans [off[v], off[v+1])
+ *   fwd_ids.bin      int[]        word ids, sorted inside each vector
+ *   fwd_mi.bin       double[]     MI as Step2 wrote it, parallel to fwd_ids
+ *   inv_offsets.bin  long[2*W+1]  feature f = word*2 + slot spans [off[f], off[f+1])
+ *   inv_ids.bin      int[]        predicate ids, sorted inside each feature
+ *   inv_mi.bin       double[]     MI, parallel to inv_ids
+ *   stats.bin        double[P*4]  Step3 predicate aggregates per slot
+ *                                 [X: sum, sum of squares | Y: ...] (Measures.predicateWidth())
+ *
+ * Scores are those of Step4 + Step5 with the same measures (default "dirt": Lin per slot,
+ * combined by the geometric mean): the X vectors and the Y vectors are merge-intersected into
+ * per-slot pair aggregates (Measures.pairTerms) and scored by Measures.score against the
+ * per-slot predicate aggregates. They agree with Step5 up to the order of the floating point
+ * sums (a few ulps).
+ *
+ * Instances are thread-safe (only absolute reads on the mapped buffers; each thread scores
+ * with its own Measures). Each file is a single mapping, so one file must stay below 2GB
+ * (~250M entries).
+ */
+public class PredicateIndex implements Closeable {
+
+    /** 2: double MI and per-slot stats.bin (1: float MI, pooled denoms.bin) */
+    public static final int VERSION = 2;
+
+    static final String META = "index.properties";
+    static final String PREDS = "preds.txt";
+    static final String WORDS = "words.txt";
+    static final String FWD_OFFSETS = "fwd_offsets.bin";
+    static final String FWD_IDS = "fwd_ids.bin";
+    static final String FWD_MI = "fwd_mi.bin";
+    static final String INV_OFFSETS = "inv_offsets.bin";
+    static final String INV_IDS = "inv_ids.bin";
+    static final String INV_MI = "inv_mi.bin";
+    static final String STATS = "stats.bin";
+
+    /** One inference rule candidate returned by {@link #topRules}. */
+    public static class Rule {
+        public final String pred;
+        public final double score;
+
+        public Rule(String pred, double score) {
+            this.pred = pred;
+            this.score = score;
+        }
+    }
+
+    /** per-thread Measures and buffers (Measures reuses scratch arrays) */
+    private static final class Scratch {
+        final Measures measures;
+        final double[] packed;
+        final double[] left = new double[Measures.predicateWidth()];
+        final double[] right = new double[Measures.predicateWidth()];
+        final double[] scores;
+
+        // topRules: packed pair vector per candidate, sparse reset via the touched list
+        double[] acc;
+        boolean[] seen;
+        int[] touched;
+
+        Scratch(Measures measures) {
+            this.measures = measures;
+            this.packed = new double[measures.pairWidth()];
+            this.scores = new double[measures.size()];
+        }
+    }
+
+    private final String[] preds;
+    private final int numWords;
+
+    private final LongBuffer fwdOff;
+    private final IntBuffer fwdIds;
+    private final DoubleBuffer fwdMi;
+    private final LongBuffer invOff;
+    private final IntBuffer invIds;
+    private final DoubleBuffer invMi;
+    private final DoubleBuffer stats;
+
+    private final String[] measureNames;
+    private final ThreadLocal<Scratch> scratch;
+
+    private final PorterStemmer stemmer = new PorterStemmer();
+
+    private PredicateIndex(File dir, String[] measureNames) throws IOException {
+        Properties meta = new Properties();
+        try (FileInputStream in = new FileInputStream(new File(dir, META))) {
+            meta.load(in);
+        }
+        if (!String.valueOf(VERSION).equals(meta.getProperty("version"))) {
+            throw new IOException("index version " + meta.getProperty("version") + " in " + dir
+                    + ", expected " + VERSION + "; rebuild it with PredicateIndexBuilder");
+        }
+
+        preds = readLines(new File(dir, PREDS));
+        numWords = readLines(new File(dir, WORDS)).length;
+
+        fwdOff = map(new File(dir, FWD_OFFSETS)).asLongBuffer();
+        fwdIds = map(new File(dir, FWD_IDS)).asIntBuffer();
+        fwdMi  = map(new File(dir, FWD_MI)).asDoubleBuffer();
+        invOff = map(new File(dir, INV_OFFSETS)).asLongBuffer();
+        invIds = map(new File(dir, INV_IDS)).asIntBuffer();
+        invMi  = map(new File(dir, INV_MI)).asDoubleBuffer();
+        stats  = map(new File(dir, STATS)).asDoubleBuffer();
+
+        if (fwdOff.capacity() != 2 * preds.length + 1
+                || stats.capacity() != preds.length * Measures.predicateWidth()
+                || invOff.capacity() != 2 * numWords + 1) {
+            throw new IOException("inconsistent index in " + dir);
+        }
+
+        // fails here, not in the first query, on an unknown measure name
+        List<SimilarityMeasure> list = Measures.of(measureNames).list();
+        this.measureNames = new String[list.size()];
+        for (int m = 0; m < list.size(); m++) this.measureNames[m] = list.get(m).name();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(Measures.of(measureNames)));
+    }
+
+    /** index scored with the default measure (Measures.DEFAULT, as Step5) */
+    public static PredicateIndex open(File dir) throws IOException {
+        return open(dir, Measures.DEFAULT);
+    }
+
+    /**
+     * @param measures dirt.measures names; similarity() and topRules() use the first one, as
+     *                 the "similarity" column of Step5
+     */
+    public static PredicateIndex open(File dir, String... measures) throws IOException {
+        return new PredicateIndex(dir, measures);
+    }
+
+    public int size() {
+        return preds.length;
+    }
+
+    public String predicate(int id) {
+        return preds[id];
+    }
+
+    /** @return id of an exact (already normalized) predicate, or -1 */
+    public int id(String pred) {
+        int i = Arrays.binarySearch(preds, pred);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * Like {@link #id} but also accepts raw templates ("X controls Y"),
+     * normalized the same way as the test pair files.
+     */
+    public int lookup(String pred) {
+        if (pred == null) return -1;
+        int i = id(pred.trim());
+        if (i >= 0) return i;
+        synchronized (stemmer) {
+            return id(TestData.normalizePredicate(pred, stemmer));
+        }
+    }
+
+    /** names of the measures, scores() order */
+    public String[] measures() {
+        return measureNames.clone();
+    }
+
+    /** per-slot predicate aggregates of id (Measures.predicateWidth() doubles) */
+    public double[] stats(int id, double[] out) {
+        int w = Measures.predicateWidth();
+        for (int i = 0; i < w; i++) out[i] = stats.get(id * w + i);
+        return out;
+    }
+
+    /** @return similarity, 0.0 if a predicate is unknown (same as Step5 for missing pairs) */
+    public double similarity(String p1, String p2) {
+        int a = lookup(p1);
+        int b = lookup(p2);
+        if (a < 0 || b < 0) return 0.0;
+        return similarity(a, b);
+    }
+
+    /** score of the first measure for a -> b */
+    public double similarity(int a, int b) {
+        return scores(a, b)[0];
+    }
+
+    /**
+     * Scores of all measures for a -> b (directional measures: a is pred1). The array is the
+     * calling thread's scratch: it is overwritten by the next call.
+     */
+    public double[] scores(int a, int b) {
+        Scratch s = scratch.get();
+        Arrays.fill(s.packed, 0.0);
+        sharedTerms(a * 2, b * 2, 0, s);
+        sharedTerms(a * 2 + 1, b * 2 + 1, 1, s);
+        s.measures.score(s.packed, false, stats(a, s.left), stats(b, s.right), s.scores);
+        return s.scores;
+    }
+
+    /** Merge-intersect two sorted vectors of one slot, add the pair terms of every shared word id. */
+    private void sharedTerms(int va, int vb, int slot, Scratch s) {
+        int i = (int) fwdOff.get(va), iEnd = (int) fwdOff.get(va + 1);
+        int j = (int) fwdOff.get(vb), jEnd = (int) fwdOff.get(vb + 1);
+
+        while (i < iEnd && j < jEnd) {
+            int wi = fwdIds.get(i);
+            int wj = fwdIds.get(j);
+            if (wi < wj) i++;
+            else if (wi > wj) j++;
+            else {
+                s.measures.addPairTerms(slot, fwdMi.get(i), fwdMi.get(j), s.packed, 0);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Top-k predicates q by similarity of pred -> q (first measure), among the predicates that
+     * share at least one feature and score above 0 (with "dirt": share a feature in both slots).
+     * The pair aggregates are accumulated feature-at-a-time over the inverted lists, into one
+     * packed vector per candidate (Measures.pairWidth() doubles per predicate and thread).
+     */
+    public List<Rule> topRules(String pred, int k) {
+        int p = lookup(pred);
+        if (p < 0 || k <= 0) return Collections.emptyList();
+        return topRules(p, k);
+    }
+
+    public List<Rule> topRules(int p, int k) {
+        Scratch s = scratch.get();
+        int pw = s.packed.length;
+        if (s.acc == null) {
+            s.acc = new double[preds.length * pw];
+            s.seen = new boolean[preds.length];
+            s.touched = new int[preds.length];
+        }
+        double[] acc = s.acc;
+        int numSeen = 0;
+
+        for (int slot = 0; slot < 2; slot++) {
+            int v = p * 2 + slot;
+            int end = (int) fwdOff.get(v + 1);
+            for (int i = (int) fwdOff.get(v); i < end; i++) {
+                int f = fwdIds.get(i) * 2 + slot;
+                double miP = fwdMi.get(i);
+
+                int jEnd = (int) invOff.get(f + 1);
+                for (int j = (int) invOff.get(f); j < jEnd; j++) {
+                    int q = invIds.get(j);
+                    if (q == p) continue;
+                    if (!s.seen[q]) {
+                        s.seen[q] = true;
+                        s.touched[numSeen++] = q;
+                    }
+                    s.measures.addPairTerms(slot, miP, invMi.get(j), acc, q * pw);
+                }
+            }
+        }
+
+        // min-heap of the best k
+        PriorityQueue<Rule> heap = new PriorityQueue<>(k + 1, (x, y) -> Double.compare(x.score, y.score));
+        stats(p, s.left);
+        for (int n = 0; n < numSeen; n++) {
+            int q = s.touched[n];
+            System.arraycopy(acc, q * pw, s.packed, 0, pw);
+            Arrays.fill(acc, q * pw, (q + 1) * pw, 0.0);
+            s.seen[q] = false;
+
+            s.measures.score(s.packed, false, s.left, stats(q, s.right), s.scores);
+            double sim = s.scores[0];
+            if (!(sim > 0.0)) continue;
+
+            if (heap.size() < k) heap.add(new Rule(preds[q], sim));
+            else if (sim > heap.peek().score) {
+                heap.poll();
+                heap.add(new Rule(preds[q], sim));
+            }
+        }
+
+        List<Rule> out = new ArrayList<>(heap);
+        out.sort((x, y) -> Double.compare(y.score, x.score));
+        return out;
+    }
+
+    @Override
+    public void close() {
+        // mappings are released by the GC; nothing else is held open
+    }
+
+    private static MappedByteBuffer map(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel ch = raf.getChannel()) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(f + " is larger than a single 2GB mapping");
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    private static String[] readLines(File f) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) out.add(line);
+        }
+        return out.toArray(new String[0]);
+    }
+
+    /**
+     * Quick CLI (scored with -Ddirt.measures, default dirt):
+     *   PredicateIndex <indexDir> sim "<pred1>" "<pred2>"
+     *   PredicateIndex <indexDir> rules "<pred>" [k]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: PredicateIndex <indexDir> sim <pred1> <pred2> | rules <pred> [k]");
+            System.exit(1);
+        }
+
+        try (PredicateIndex index = open(new File(args[0]),
+                System.getProperty(Measures.KEY, Measures.DEFAULT).split(","))) {
+            long t0 = System.nanoTime();
+            if ("sim".equals(args[1]) && args.length >= 4) {
+                double sim = index.similarity(args[2], args[3]);
+                long us = (System.nanoTime() - t0) / 1000;
+                System.out.println(sim);
+                System.err.println("(" + us + " us)");
+            } else if ("rules".equals(args[1])) {
+                int k = args.length >= 4 ? Integer.parseInt(args[3]) : 10;
+                List<Rule> rules = index.topRules(args[2], k);
+                long us = (System.nanoTime() - t0) / 1000;
+                for (Rule r : rules) System.out.println(r.pred + "\t" + r.score);
+                System.err.println("(" + us + " us)");
+            } else {
+                System.err.println("unknown command: " + args[1]);
+                System.exit(1);
+            }
+        }
+    }
+}
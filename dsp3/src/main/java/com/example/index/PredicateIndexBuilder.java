@@ -0,0 +1,238 @@
+package com.example.index;
+
+import com.example.helpers.Denoms;
+import com.example.helpers.MiRecord;
+import com.example.similarity.Measures;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Builds the on-disk predicate feature index (see {@link PredicateIndex}) from Step2 output.
+ *
+ * Input:
+ *  - MI table (file or dir):  pred \t slot \t word \t mi
+ *  - optional Step3 denominators (SequenceFile pred -> per-slot predicate aggregates); for
+ *    predicates it does not cover, the aggregates are summed from the MI table (same values,
+ *    Measures.predicateTerms). A table of another width is rejected (Denoms.WrongWidth).
+ *
+ * Only positive MI features are indexed (same rule as Step3/Step4).
+ *
+ * Two passes over the MI table:
+ *  1) dictionaries (sorted predicates + sorted words) and entry count
+ *  2) fill primitive arrays, then bucket by vector and sort each bucket
+ *
+ * MI values are kept as the doubles Step2 wrote, so index scores match Step5's.
+ *
+ * Usage:
+ *   java -cp <jar> com.example.index.PredicateIndexBuilder <miPath> <outDir> [denomDir]
+ */
+public class PredicateIndexBuilder {
+
+    public static void build(Configuration conf, Path miPath, Path denomDir, File outDir) throws IOException {
+        // ---------- pass 1: dictionaries ----------
+        final TreeSet<String> predSet = new TreeSet<>();
+        final TreeSet<String> wordSet = new TreeSet<>();
+        final long[] total = {0};
+
+        MiRecord.readAll(conf, miPath, r -> {
+            if (r.mi <= 0 || slotIndex(r.slot) < 0) return;
+            predSet.add(r.pred);
+            wordSet.add(r.word);
+            total[0]++;
+        });
+
+        if (total[0] > Integer.MAX_VALUE - 8) {
+            throw new IOException("too many MI entries for one index: " + total[0]);
+        }
+
+        final String[] preds = predSet.toArray(new String[0]);
+        final String[] words = wordSet.toArray(new String[0]);
+        predSet.clear();
+        wordSet.clear();
+
+        final Map<String, Integer> predIds = new HashMap<>();
+        for (int i = 0; i < preds.length; i++) predIds.put(preds[i], i);
+        final Map<String, Integer> wordIds = new HashMap<>();
+        for (int i = 0; i < words.length; i++) wordIds.put(words[i], i);
+
+        // ---------- pass 2: entries ----------
+        final int n = (int) total[0];
+        final int[] vec = new int[n];      // pred*2 + slot
+        final int[] wid = new int[n];
+        final double[] mi = new double[n];
+        final int width = Measures.predicateWidth();
+        final double[] stats = new double[preds.length * width];
+        final double[] terms = new double[width];
+        final int[] pos = {0};
+
+        MiRecord.readAll(conf, miPath, r -> {
+            int slot = slotIndex(r.slot);
+            if (r.mi <= 0 || slot < 0) return;
+            int i = pos[0]++;
+            int p = predIds.get(r.pred);
+            vec[i] = p * 2 + slot;
+            wid[i] = wordIds.get(r.word);
+            mi[i] = r.mi;
+            Measures.predicateTerms(slot, r.mi, terms);
+            for (int t = 0; t < width; t++) stats[p * width + t] += terms[t];
+        });
+        predIds.clear();
+        wordIds.clear();
+
+        // forward: vector (pred,slot) -> sorted word ids
+        int[] fwdIds = new int[n];
+        double[] fwdMi = new double[n];
+        long[] fwdOff = bucket(vec, wid, mi, 2 * preds.length, fwdIds, fwdMi);
+
+        // inverted: feature (word,slot) -> sorted pred ids
+        int[] feat = new int[n];
+        int[] pid = new int[n];
+        for (int i = 0; i < n; i++) {
+            feat[i] = wid[i] * 2 + (vec[i] & 1);
+            pid[i] = vec[i] >>> 1;
+        }
+        int[] invIds = new int[n];
+        double[] invMi = new double[n];
+        long[] invOff = bucket(feat, pid, mi, 2 * words.length, invIds, invMi);
+
+        // predicate aggregates: reuse Step3 output when available
+        final int[] fromStep3 = {0};
+        if (denomDir != null && denomDir.getFileSystem(conf).exists(denomDir)) {
+            Denoms.loadStats(conf, denomDir, null, (pred, row) -> {
+                int p = Arrays.binarySearch(preds, pred);
+                if (p < 0) return;
+                System.arraycopy(row, 0, stats, p * width, width);
+                fromStep3[0]++;
+            });
+        }
+
+        // ---------- write ----------
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("cannot create " + outDir);
+        }
+        writeLines(new File(outDir, PredicateIndex.PREDS), preds);
+        writeLines(new File(outDir, PredicateIndex.WORDS), words);
+        writeLongs(new File(outDir, PredicateIndex.FWD_OFFSETS), fwdOff);
+        writeEntries(new File(outDir, PredicateIndex.FWD_IDS), new File(outDir, PredicateIndex.FWD_MI), fwdIds, fwdMi, fwdOff);
+        writeLongs(new File(outDir, PredicateIndex.INV_OFFSETS), invOff);
+        writeEntries(new File(outDir, PredicateIndex.INV_IDS), new File(outDir, PredicateIndex.INV_MI), invIds, invMi, invOff);
+        try (DataOutputStream out = open(new File(outDir, PredicateIndex.STATS))) {
+            for (double d : stats) out.writeDouble(d);
+        }
+
+        Properties meta = new Properties();
+        meta.setProperty("version", String.valueOf(PredicateIndex.VERSION));
+        meta.setProperty("predicates", String.valueOf(preds.length));
+        meta.setProperty("words", String.valueOf(words.length));
+        meta.setProperty("entries", String.valueOf(fwdOff[fwdOff.length - 1]));
+        meta.setProperty("denoms.fromStep3", String.valueOf(fromStep3[0]));
+        try (FileOutputStream out = new FileOutputStream(new File(outDir, PredicateIndex.META))) {
+            meta.store(out, "DIRT predicate feature index");
+        }
+    }
+
+    private static int slotIndex(String slot) {
+        if ("X".equals(slot)) return 0;
+        if ("Y".equals(slot)) return 1;
+        return -1;
+    }
+
+    /**
+     * Counting-sort entries into buckets, then sort each bucket by id.
+     * Each entry is packed as (id << 32 | entry index) so a plain long sort orders by id and
+     * the MI is looked up by the index. Duplicate ids inside a bucket are dropped (first wins).
+     *
+     * @return offsets[numBuckets + 1] into the (compacted) outIds / outMi arrays
+     */
+    private static long[] bucket(int[] bucketOf, int[] ids, double[] mi, int numBuckets,
+                                 int[] outIds, double[] outMi) {
+        int n = bucketOf.length;
+        int[] start = new int[numBuckets + 1];
+        for (int i = 0; i < n; i++) start[bucketOf[i] + 1]++;
+        for (int b = 0; b < numBuckets; b++) start[b + 1] += start[b];
+
+        long[] packed = new long[n];
+        int[] fill = Arrays.copyOf(start, numBuckets);
+        for (int i = 0; i < n; i++) {
+            packed[fill[bucketOf[i]]++] = ((long) ids[i] << 32) | i;
+        }
+
+        long[] off = new long[numBuckets + 1];
+        int w = 0;
+        for (int b = 0; b < numBuckets; b++) {
+            off[b] = w;
+            Arrays.sort(packed, start[b], start[b + 1]);
+            int lastId = -1;
+            for (int i = start[b]; i < start[b + 1]; i++) {
+                int id = (int) (packed[i] >>> 32);
+                if (id == lastId) continue;
+                outIds[w] = id;
+                outMi[w] = mi[(int) packed[i]];
+                w++;
+                lastId = id;
+            }
+        }
+        off[numBuckets] = w;
+        return off;
+    }
+
+    private static DataOutputStream open(File f) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+    }
+
+    private static void writeLines(File f, String[] lines) throws IOException {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))) {
+            for (String s : lines) {
+                w.write(s);
+                w.write('\n');
+            }
+        }
+    }
+
+    private static void writeLongs(File f, long[] values) throws IOException {
+        try (DataOutputStream out = open(f)) {
+            for (long v : values) out.writeLong(v);
+        }
+    }
+
+    private static void writeEntries(File idsFile, File miFile, int[] outIds, double[] outMi, long[] off)
+            throws IOException {
+        int n = (int) off[off.length - 1];
+        try (DataOutputStream ids = open(idsFile); DataOutputStream mis = open(miFile)) {
+            for (int i = 0; i < n; i++) {
+                ids.writeInt(outIds[i]);
+                mis.writeDouble(outMi[i]);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PredicateIndexBuilder <miPath> <outDir> [denomDir]");
+            System.exit(1);
+        }
+        long t0 = System.currentTimeMillis();
+        Path denomDir = args.length >= 3 ? new Path(args[2]) : null;
+        File outDir = new File(args[1]);
+
+        build(new Configuration(), new Path(args[0]), denomDir, outDir);
+
+        System.out.println("Index written to " + outDir + " in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+}
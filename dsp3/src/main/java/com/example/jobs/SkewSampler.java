@@ -0,0 +1,216 @@
+package com.example.jobs;
+
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.Metrics;
+import com.example.helpers.PorterStemmer;
+import com.example.helpers.SkewPlan;
+import com.example.helpers.TestData;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+
+/**
+ * SkewSampler: sampling pre-pass that finds the hot (slot, word) features of Step2 / Step4.
+ *
+ * Input (SequenceFile) from Step1_ExtractAndTotals; only PSW records are used:
+ *   PSW \t pred \t slot \t word -> cpsw
+ *
+ * The group size of a feature in Step2 and Step4 is its number of (kept) predicates, i.e. its
+ * number of PSW keys. A deterministic hash sample of the PSW keys (dirt.skew.sample.rate) is
+ * counted per feature and scaled back up.
+ *
+ * Output (TEXT, single reducer): the SkewPlan file
+ *   slot \t word \t estimatedGroupSize \t fanout \t blocks
+ *
+ * A feature is hot when its estimate reaches the threshold: dirt.skew.threshold, or by default
+ * max(dirt.skew.min.size, estimatedTotal / (4 * reducers)), i.e. a quarter of a fair reducer share.
+ *   fanout = min(maxFanout, ceil(estimate / threshold))                   (Step2 salts)
+ *   blocks = min(maxBlocks(maxFanout), ceil(estimate / threshold))        (Step4, cells = b(b+1)/2)
+ * with maxFanout = dirt.skew.max.fanout (default: number of reducers).
+ *
+ * Only test predicates are sampled, unless dirt.all.preds=true (index mode).
+ */
+public class SkewSampler {
+
+    public static final String RATE_KEY = "dirt.skew.sample.rate";
+    public static final String THRESHOLD_KEY = "dirt.skew.threshold";
+    public static final String MIN_SIZE_KEY = "dirt.skew.min.size";
+    public static final String MAX_FANOUT_KEY = "dirt.skew.max.fanout";
+    private static final String REDUCERS_KEY = "dirt.skew.reducers";
+
+    /** sorts before every feature key, so the single reducer sees the total first */
+    private static final String TOTAL_KEY = "\u0000TOTAL";
+
+    private static final int SAMPLE_SCALE = 1 << 20;
+
+    public static class SampleMapper extends Mapper<Text, LongWritable, Text, LongWritable> {
+        private final Text outKey = new Text();
+        private final LongWritable one = new LongWritable(1);
+        private final PorterStemmer stemmer = new PorterStemmer();
+
+        private Set<String> testPreds;
+        private int cutoff;
+        private long sampled;
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) throws IOException {
+            Configuration conf = ctx.getConfiguration();
+            metrics = new Metrics(ctx, "SkewSampler");
+            cutoff = (int) (conf.getDouble(RATE_KEY, 0.05) * SAMPLE_SCALE);
+
+            // null = keep every predicate (index mode)
+            if (!conf.getBoolean(TestData.ALL_PREDS_KEY, false)) {
+                long t0 = System.currentTimeMillis();
+                URI[] files = ctx.getCacheFiles();
+                testPreds = TestData.loadTestPredicates(files, stemmer);
+                metrics.setupTime("MAP_TEST_PREDS", System.currentTimeMillis() - t0);
+            }
+        }
+
+        @Override
+        protected void map(Text key, LongWritable value, Context ctx) throws IOException, InterruptedException {
+            String ks = key.toString();
+            if (!ks.startsWith("PSW\t")) return;
+
+            // deterministic sample of the (pred, slot, word) keys
+            if ((ks.hashCode() & (SAMPLE_SCALE - 1)) >= cutoff) return;
+
+            String[] p = ks.split("\t", -1);
+            if (p.length != 4) {
+                metrics.reject("MALFORMED_PSW");
+                return;
+            }
+            if (testPreds != null && !testPreds.contains(p[1].trim())) return;
+
+            outKey.set(p[2].trim() + "\t" + p[3].trim());
+            ctx.write(outKey, one);
+            sampled++;
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException, InterruptedException {
+            outKey.set(TOTAL_KEY);
+            ctx.write(outKey, new LongWritable(sampled));
+            metrics.emit("SAMPLED", sampled);
+            metrics.close();
+        }
+    }
+
+    public static class SumCombiner extends Reducer<Text, LongWritable, Text, LongWritable> {
+        private final LongWritable out = new LongWritable();
+
+        @Override
+        protected void reduce(Text key, Iterable<LongWritable> vals, Context ctx) throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable v : vals) sum += v.get();
+            out.set(sum);
+            ctx.write(key, out);
+        }
+    }
+
+    public static class PlanReducer extends Reducer<Text, LongWritable, Text, NullWritable> {
+        private double rate;
+        private int maxFanout;
+        private int maxBlocks;
+        private long threshold = -1;
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) {
+            Configuration conf = ctx.getConfiguration();
+            metrics = new Metrics(ctx, "SkewSampler");
+            rate = conf.getDouble(RATE_KEY, 0.05);
+            maxFanout = Math.max(1, conf.getInt(MAX_FANOUT_KEY, conf.getInt(REDUCERS_KEY, 1)));
+            maxBlocks = SkewPlan.maxBlocks(maxFanout);
+            long fixed = conf.getLong(THRESHOLD_KEY, 0);
+            if (fixed > 0) threshold = fixed;
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<LongWritable> vals, Context ctx) throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable v : vals) sum += v.get();
+            long estimate = Math.round(sum / rate);
+
+            if (TOTAL_KEY.equals(key.toString())) {
+                if (threshold < 0) {
+                    Configuration conf = ctx.getConfiguration();
+                    int reducers = Math.max(1, conf.getInt(REDUCERS_KEY, 1));
+                    threshold = Math.max(conf.getLong(MIN_SIZE_KEY, 1000), estimate / (4L * reducers));
+                }
+                ctx.getCounter("SkewSampler.plan", "THRESHOLD").setValue(threshold);
+                ctx.getCounter("SkewSampler.plan", "ESTIMATED_TOTAL").setValue(estimate);
+                return;
+            }
+            if (threshold < 0) threshold = ctx.getConfiguration().getLong(MIN_SIZE_KEY, 1000);
+
+            metrics.group(key, estimate);
+            if (estimate < threshold) return;
+
+            long parts = (estimate + threshold - 1) / threshold;
+            int fanout = (int) Math.min(maxFanout, parts);
+            int blocks = (int) Math.min(maxBlocks, parts);
+            if (fanout < 2 && blocks < 2) return;
+
+            ctx.write(new Text(SkewPlan.line(key.toString(), estimate, fanout, blocks)), NullWritable.get());
+            metrics.emit("HOT_FEATURE");
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
+
+    public static Job buildJob(Configuration conf,
+                               Path step1TotalsDir,
+                               Path output,
+                               Path positive,
+                               Path negative,
+                               int reducers) throws Exception {
+
+        Job job = Job.getInstance(conf, "SkewSampler");
+        job.setJarByClass(SkewSampler.class);
+
+        job.getConfiguration().setInt(REDUCERS_KEY, reducers);
+        job.getConfiguration().set("mapreduce.output.textoutputformat.separator", "");
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        FileInputFormat.addInputPath(job, step1TotalsDir);
+
+        job.setMapperClass(SampleMapper.class);
+        job.setCombinerClass(SumCombiner.class);
+        job.setReducerClass(PlanReducer.class);
+        job.setNumReduceTasks(1);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(LongWritable.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        FileOutputFormat.setOutputPath(job, output);
+
+        // test predicates: the binary TestSet, or the pair files
+        TestData.addCacheFiles(job, positive, negative);
+
+        CompressionPolicy.apply(job, "SkewSampler", CompressionPolicy.Output.FINAL);
+
+        return job;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.jobs;
+
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.DataFiles;
+import com.example.helpers.Metrics;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Step0: Ingest (optional, -D dirt.ingest=true)
+ *
+ * Input (TEXT): the biarc shards, usually .gz. Gzip cannot be split, so a job reading them
+ * directly gets exactly one mapper per shard, however large the shard and the cluster.
+ *
+ * Map only: every line is copied unchanged into a splittable layout (dirt.ingest.format):
+ *   sequence (default)  SequenceFile (LongWritable offset -> Text line), BLOCK compressed
+ *                       with the CompressionPolicy output codec of "Step0"
+ *   bzip2               text, bzip2 compressed (slower to write and read, but plain files)
+ *
+ * Output: dirt.ingest.dir (default <workDir>/step0_ingest). The layout does not depend on the
+ * test set or the run, so once written it is reused by later runs over the same dir. The
+ * driver writes a _MANIFEST of the ingested files (path, length, mtime) next to _SUCCESS and
+ * reuses the dir only while the manifest matches the run's inputs (isCurrent); otherwise, or
+ * with -D dirt.ingest.overwrite=true, the input is ingested again.
+ *
+ * Step1 reads either layout with one mapper per split (inputFormatOf): the number of mappers
+ * follows the split size (mapreduce.input.fileinputformat.split.maxsize, the block size).
+ */
+public class Step0_Ingest {
+
+    public static final String ENABLED_KEY = "dirt.ingest";
+    public static final String DIR_KEY = "dirt.ingest.dir";
+    public static final String FORMAT_KEY = "dirt.ingest.format";
+    public static final String OVERWRITE_KEY = "dirt.ingest.overwrite";
+
+    /** Bookkeeping file of the ingest dir (skipped as input like _SUCCESS): one line per ingested file. */
+    public static final String MANIFEST = "_MANIFEST";
+
+    /** Mapper: line -> the same line (keyed by its offset for SequenceFiles) */
+    public static class CopyMapper extends Mapper<LongWritable, Text, Writable, Text> {
+        private boolean text;
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) {
+            text = "bzip2".equals(ctx.getConfiguration().get(FORMAT_KEY, "sequence"));
+            metrics = new Metrics(ctx, "Step0");
+        }
+
+        @Override
+        protected void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+            ctx.write(text ? NullWritable.get() : key, value);
+            metrics.emit("LINE");
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Input format Step1 should use for a path: SequenceFileInputFormat when its first data
+     * file is a SequenceFile (a Step0 output), TextInputFormat otherwise (splits .bz2 itself).
+     */
+    public static Class<? extends InputFormat> inputFormatOf(Configuration conf, Path input) {
+        try {
+            List<Path> files = DataFiles.list(conf, input);
+            if (files.isEmpty()) return TextInputFormat.class;   // globs, missing paths
+            byte[] magic = new byte[3];
+            try (FSDataInputStream in = files.get(0).getFileSystem(conf).open(files.get(0))) {
+                in.readFully(magic);
+            }
+            if (magic[0] == 'S' && magic[1] == 'E' && magic[2] == 'Q') return SequenceFileInputFormat.class;
+        } catch (IOException | RuntimeException e) {
+            // short / unreadable file: let the job report it
+        }
+        return TextInputFormat.class;
+    }
+
+    /**
+     * The files the job reads for these inputs, as sorted "path \t length \t mtime" lines:
+     * globs are expanded and directories listed one level deep, skipping _ and . files, like
+     * FileInputFormat. A path that matches nothing is listed as "path \t missing".
+     */
+    public static List<String> manifest(Configuration conf, List<Path> inputs) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Path p : inputs) {
+            FileSystem fs = p.getFileSystem(conf);
+            FileStatus[] matches = fs.globStatus(p, DataFiles::isData);
+            if (matches == null || matches.length == 0) {
+                lines.add(fs.makeQualified(p) + "\tmissing");
+                continue;
+            }
+            for (FileStatus m : matches) {
+                if (m.isDirectory()) {
+                    for (FileStatus f : fs.listStatus(m.getPath(), DataFiles::isData)) {
+                        if (f.isFile()) lines.add(line(f));
+                    }
+                } else {
+                    lines.add(line(m));
+                }
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    private static String line(FileStatus f) {
+        return f.getPath() + "\t" + f.getLen() + "\t" + f.getModificationTime();
+    }
+
+    /** Records the inputs of a finished ingest in output/_MANIFEST. */
+    public static void writeManifest(Configuration conf, List<Path> inputs, Path output) throws IOException {
+        Path file = new Path(output, MANIFEST);
+        try (Writer w = new OutputStreamWriter(file.getFileSystem(conf).create(file, true), StandardCharsets.UTF_8)) {
+            for (String l : manifest(conf, inputs)) w.write(l + "\n");
+        }
+    }
+
+    /**
+     * True when output holds a finished ingest (_SUCCESS) whose _MANIFEST lists exactly the
+     * files of these inputs, with the same lengths and mtimes.
+     */
+    public static boolean isCurrent(Configuration conf, List<Path> inputs, Path output) throws IOException {
+        FileSystem fs = output.getFileSystem(conf);
+        Path file = new Path(output, MANIFEST);
+        if (!fs.exists(new Path(output, "_SUCCESS")) || !fs.exists(file)) return false;
+        List<String> written = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            for (String l; (l = r.readLine()) != null; ) {
+                if (!l.isEmpty()) written.add(l);
+            }
+        }
+        return written.equals(manifest(conf, inputs));
+    }
+
+    public static Job buildJob(Configuration conf, List<Path> inputs, Path output) throws Exception {
+        Job job = Job.getInstance(conf, "Step0-Ingest");
+        job.setJarByClass(Step0_Ingest.class);
+
+        job.setMapperClass(CopyMapper.class);
+        job.setNumReduceTasks(0);
+
+        job.setInputFormatClass(TextInputFormat.class);
+        for (Path p : inputs) FileInputFormat.addInputPath(job, p);
+        FileOutputFormat.setOutputPath(job, output);
+
+        String format = conf.get(FORMAT_KEY, "sequence");
+        if ("bzip2".equals(format)) {
+            job.setOutputFormatClass(TextOutputFormat.class);
+            job.setOutputKeyClass(NullWritable.class);
+            job.setOutputValueClass(Text.class);
+            // always bzip2: the only splittable stream codec of Hadoop
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
+        } else if ("sequence".equals(format)) {
+            job.setOutputFormatClass(SequenceFileOutputFormat.class);
+            job.setOutputKeyClass(LongWritable.class);
+            job.setOutputValueClass(Text.class);
+            CompressionPolicy.apply(job, "Step0", CompressionPolicy.Output.SEQUENCE);
+        } else {
+            throw new IllegalArgumentException("unknown " + FORMAT_KEY + ": " + format + " (sequence or bzip2)");
+        }
+
+        return job;
+    }
+}
@@ -4,17 +4,32 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.input.CombineSequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.CountMinSketch;
+import com.example.helpers.Metrics;
 import com.example.helpers.Parser;
+import com.example.helpers.PredicateBloom;
 import com.example.helpers.PorterStemmer;
+import com.example.helpers.Pruning;
+import com.example.helpers.SpaceSaving;
 import com.example.helpers.TestData;
 import com.example.helpers.Token;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
@@ -23,19 +38,60 @@ import java.util.regex.Pattern;
  *
  * Input (TEXT): biarc line
  *   head_word \t syntactic-ngram \t total_count \t counts_by_year
+ * or the same lines re-laid out by Step0_Ingest (SequenceFile: LongWritable -> Text), detected per input.
  *
  * Output (SequenceFile: Text -> LongWritable):
  *   PSW \t pred \t slot \t word   -> C(p,slot,w)
  *   PS  \t pred \t slot           -> C(p,slot)
  *   SW  \t slot \t word           -> C(slot,w)
  *   SLOT\t slot                   -> C(slot)
+ *
+ * Filtered mode (-D dirt.step1.filter=true, not in index mode): PSW and PS are only emitted for
+ * templates in the test-predicate Bloom filter (PredicateBloom); SW and SLOT are still counted
+ * over the whole corpus, so the MI of the test predicates is unchanged.
+ *
+ * Approximate mode (-D dirt.step1.approx=true): each mapper keeps the PSW counts of its
+ * dirt.step1.approx.capacity heaviest triples in a SpaceSaving table and writes them exactly in
+ * cleanup(); the mass of the triples it had to drop goes into a Count-Min sketch, written as
+ * cell records that the combiner / reducer add up (the merged sketch of all mappers):
+ *   CMS \t row \t col            -> sketch cell
+ * Step2 adds the sketch's estimate to the exact C(p,slot,w) of every PSW record. Triples that
+ * no mapper kept have no PSW record (no MI entry). PS, SW and SLOT stay exact.
+ *
+ * Pruning (helpers.Pruning): the reducer drops PSW records below dirt.prune.min.psw (not in
+ * approximate mode, where Step2 checks the corrected count) and SW records below
+ * dirt.prune.min.sw. With dirt.prune.min.preds > 1 it also drops every feature with fewer
+ * distinct predicates (its PSW records that survived dirt.prune.min.psw, test predicates or
+ * not): the feature's PSW records and its SW record, so they never leave Step1. For that,
+ * FeaturePartitioner sends the PSW and SW records of a feature to the same reducer and
+ * FeatureComparator sorts them feature by feature, PSW keys first, so the reducer holds only
+ * the current feature's PSW sums. The combiner sums only.
  */
 public class Step1_ExtractAndTotals {
 
+    /** pack many small input files into combined splits (one mapper per ~split size, node-local first) */
+    public static final String COMBINE_KEY = "dirt.input.combine";
+    public static final String COMBINE_SPLIT_SIZE_KEY = "dirt.input.combine.split.size";
+    public static final long DEFAULT_COMBINE_SPLIT_SIZE = 256L << 20;
+
+    /** only emit PSW / PS of (possible) test predicates, see PredicateBloom; SW / SLOT stay complete */
+    public static final String FILTER_KEY = "dirt.step1.filter";
+
+    /** heavy-hitter PSW counts per mapper + Count-Min sketch of the rest (see CountMinSketch) */
+    public static final String APPROX_KEY = "dirt.step1.approx";
+    public static final String APPROX_CAPACITY_KEY = "dirt.step1.approx.capacity";
+    public static final int DEFAULT_APPROX_CAPACITY = 100_000;
+
+    /** Step1.emit counter: total PSW count that went into the sketches (N of the error bound) */
+    public static final String SKETCH_MASS = "CMS_MASS";
+    /** Step1.emit counters: triples evicted from the SpaceSaving tables / mappers that evicted any */
+    public static final String SKETCHED_TRIPLES = "PSW_SKETCHED";
+    public static final String SKETCHED_MAPPERS = "MAPPERS_SKETCHED";
+
     private static final Pattern CLEAN_WORD =
             Pattern.compile("^[A-Za-z](?:[A-Za-z]|['-](?=[A-Za-z])){1,}$"); // length >=2
 
-    private static String cleanTemplate(String t) {
+    public static String cleanTemplate(String t) {
         if (t == null) return "";
         String s = t.replaceAll("[^A-Za-zXY_ ]+", " ");
         s = s.replaceAll("\\s+", " ").trim();
@@ -48,70 +104,146 @@ public class Step1_ExtractAndTotals {
         return w.trim();
     }
 
-    private static boolean isCleanWord(String w) {
+    public static boolean isCleanWord(String w) {
         if (w == null) return false;
         String s = w.trim();
         if (s.isEmpty()) return false;
         return CLEAN_WORD.matcher(s).matches();
     }
 
+    /**
+     * All Step1 filters for one parsed line (everything except the count check).
+     *
+     * @return instance with the CLEANED template and lower-cased argument stems,
+     *         where xWordStem / yWordStem is null if that argument is not a clean word;
+     *         or null if the line yields no predicate.
+     */
+    public static Parser.PredicateInstance extractClean(Parser.ParsedLine pl, PorterStemmer stemmer) {
+        return extractClean(pl, stemmer, null);
+    }
+
+    /** Same as {@link #extractClean(Parser.ParsedLine, PorterStemmer)}, recording why a line is rejected. */
+    public static Parser.PredicateInstance extractClean(Parser.ParsedLine pl, PorterStemmer stemmer, Metrics metrics) {
+        if (pl == null || pl.tokens == null || pl.tokens.isEmpty()) return reject(metrics, "NO_TOKENS");
+
+        Token root = Parser.findRootVerb(pl.tokens);
+        if (root == null) return reject(metrics, "NO_ROOT");
+
+        String rootWord = norm(root.word);
+        if (!isCleanWord(rootWord)) return reject(metrics, "UNCLEAN_ROOT");
+
+        // skip auxiliary verbs
+        if (TestData.isAuxiliary(rootWord.toLowerCase(), stemmer)) return reject(metrics, "AUXILIARY_ROOT");
+
+        Optional<Parser.PredicateInstance> instOpt = Parser.extractPredicate(pl.tokens, root, stemmer);
+        if (!instOpt.isPresent()) return reject(metrics, "NO_SUBJECT_OR_OBJECT");
+
+        Parser.PredicateInstance inst = instOpt.get();
+
+        String pred = cleanTemplate(inst.template);
+        if (pred.isEmpty()) return reject(metrics, "EMPTY_TEMPLATE");
+
+        String x = norm(inst.xWordStem);
+        String y = norm(inst.yWordStem);
+
+        boolean cleanX = isCleanWord(x);
+        boolean cleanY = isCleanWord(y);
+        if (!cleanX) reject(metrics, "UNCLEAN_X_WORD");
+        if (!cleanY) reject(metrics, "UNCLEAN_Y_WORD");
+
+        return new Parser.PredicateInstance(pred,
+                cleanX ? x.toLowerCase() : null,
+                cleanY ? y.toLowerCase() : null);
+    }
+
+    private static Parser.PredicateInstance reject(Metrics metrics, String reason) {
+        if (metrics != null) metrics.reject(reason);
+        return null;
+    }
+
     public static class MergedMapper extends Mapper<LongWritable, Text, Text, LongWritable> {
         private final Text outKey = new Text();
         private final LongWritable outVal = new LongWritable();
         private final PorterStemmer stemmer = new PorterStemmer();
+        private PredicateBloom filter;
+        private Metrics metrics;
+
+        // approximate mode: exact heavy hitters, sketched tail (both null otherwise)
+        private SpaceSaving heavy;
+        private CountMinSketch tail;
+
+        @Override
+        protected void setup(Context ctx) throws IOException {
+            metrics = new Metrics(ctx, "Step1");
+            long t0 = System.currentTimeMillis();
+            filter = PredicateBloom.fromCache(ctx.getCacheFiles());
+            if (filter != null) metrics.setupTime("MAP_TEST_PREDS", System.currentTimeMillis() - t0);
+
+            Configuration conf = ctx.getConfiguration();
+            if (conf.getBoolean(APPROX_KEY, false)) {
+                tail = CountMinSketch.fromConf(conf);
+                heavy = new SpaceSaving(conf.getInt(APPROX_CAPACITY_KEY, DEFAULT_APPROX_CAPACITY), tail::add);
+            }
+        }
 
         @Override
         protected void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
             String line = value.toString();
-            if (line == null || line.isEmpty()) return;
+            if (line == null || line.isEmpty()) {
+                metrics.reject("EMPTY_LINE");
+                return;
+            }
 
             Parser.ParsedLine pl;
             try {
                 pl = Parser.parseLine(line);
             } catch (Exception e) {
-                ctx.getCounter("Step1", "MALFORMED_LINE").increment(1);
+                metrics.reject("MALFORMED_LINE");
                 return;
             }
 
-            if (pl == null || pl.tokens == null || pl.tokens.isEmpty()) return;
-
-            Token root = Parser.findRootVerb(pl.tokens);
-            if (root == null) return;
-
-            String rootWord = norm(root.word);
-            if (!isCleanWord(rootWord)) return;
-
-            // skip auxiliary verbs
-            if (TestData.isAuxiliary(rootWord.toLowerCase(), stemmer)) return;
-
-            Optional<Parser.PredicateInstance> instOpt = Parser.extractPredicate(pl.tokens, root, stemmer);
-            if (!instOpt.isPresent()) return;
-
-            Parser.PredicateInstance inst = instOpt.get();
+            if (pl == null || pl.tokens == null || pl.tokens.isEmpty()) {
+                metrics.reject("NO_TOKENS");
+                return;
+            }
 
             long c = pl.count;
-            if (c <= 0) return;
-
-            String pred = cleanTemplate(inst.template);
-            if (pred.isEmpty()) return;
+            if (c <= 0) {
+                metrics.reject("NON_POSITIVE_COUNT");
+                return;
+            }
 
-            String x = norm(inst.xWordStem);
-            String y = norm(inst.yWordStem);
+            Parser.PredicateInstance inst = extractClean(pl, stemmer, metrics);
+            if (inst == null) return;
 
             outVal.set(c);
 
-            if (isCleanWord(x)) emitAll(ctx, pred, "X", x.toLowerCase(), c);
-            if (isCleanWord(y)) emitAll(ctx, pred, "Y", y.toLowerCase(), c);
-        }
+            // filtered mode: the marginals (SW, SLOT) still count every predicate
+            boolean keep = filter == null || filter.mightContain(inst.template);
+            if (!keep) metrics.reject("NOT_TEST_PREDICATE");
 
-        private void emitAll(Context ctx, String pred, String slot, String word, long c) throws IOException, InterruptedException {
-            // PSW
-            outKey.set("PSW\t" + pred + "\t" + slot + "\t" + word);
-            ctx.write(outKey, outVal);
+            if (inst.xWordStem != null) emitAll(ctx, inst.template, "X", inst.xWordStem, keep);
+            if (inst.yWordStem != null) emitAll(ctx, inst.template, "Y", inst.yWordStem, keep);
+        }
 
-            // PS
-            outKey.set("PS\t" + pred + "\t" + slot);
-            ctx.write(outKey, outVal);
+        private void emitAll(Context ctx, String pred, String slot, String word, boolean withPred)
+                throws IOException, InterruptedException {
+            // one argument = one record of each key type (PSW, PS, SW, SLOT): count per slot
+            metrics.emit(slot);
+
+            if (withPred) {
+                // PSW (approximate mode: counted in the mapper, written in cleanup)
+                if (heavy != null) {
+                    heavy.add(pred + "\t" + slot + "\t" + word, outVal.get());
+                } else {
+                    outKey.set("PSW\t" + pred + "\t" + slot + "\t" + word);
+                    ctx.write(outKey, outVal);
+                }
+
+                // PS
+                outKey.set("PS\t" + pred + "\t" + slot);
+                ctx.write(outKey, outVal);
+            }
 
             // SW
             outKey.set("SW\t" + slot + "\t" + word);
@@ -121,6 +253,34 @@ public class Step1_ExtractAndTotals {
             outKey.set("SLOT\t" + slot);
             ctx.write(outKey, outVal);
         }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException, InterruptedException {
+            if (heavy != null) {
+                heavy.forEachExact((triple, count) -> {
+                    outKey.set("PSW\t" + triple);
+                    outVal.set(count);
+                    ctx.write(outKey, outVal);
+                    metrics.emit("PSW_EXACT");
+                });
+
+                // only the non-empty cells: a mapper with a small tail writes a small sketch
+                for (int row = 0; row < tail.depth(); row++) {
+                    for (int col = 0; col < tail.width(); col++) {
+                        long c = tail.cell(row, col);
+                        if (c == 0) continue;
+                        outKey.set(CountMinSketch.recordKey(row, col));
+                        outVal.set(c);
+                        ctx.write(outKey, outVal);
+                        metrics.emit("CMS_CELL");
+                    }
+                }
+                metrics.emit(SKETCHED_TRIPLES, heavy.spilledKeys());
+                metrics.emit(SKETCHED_MAPPERS, heavy.spilledKeys() > 0 ? 1 : 0);
+                metrics.emit(SKETCH_MASS, heavy.spilledMass());
+            }
+            metrics.close();
+        }
     }
 
     public static class SumReducer extends Reducer<Text, LongWritable, Text, LongWritable> {
@@ -135,16 +295,211 @@ public class Step1_ExtractAndTotals {
         }
     }
 
+    /**
+     * "PSW \t pred \t slot \t word" and "SW \t slot \t word" by their feature "slot \t word", every
+     * other key by its hash (set only with dirt.prune.min.preds > 1, see TotalsReducer).
+     */
+    public static class FeaturePartitioner extends Partitioner<Text, LongWritable> {
+        @Override
+        public int getPartition(Text key, LongWritable value, int numPartitions) {
+            byte[] b = key.getBytes();
+            int f = featureStart(b, 0, key.getLength());
+            int h = f >= 0 ? WritableComparator.hashBytes(b, f, key.getLength() - f) : key.hashCode();
+            return (h & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    /**
+     * Sort order with dirt.prune.min.preds > 1: feature after feature, the PSW keys of a feature
+     * and then its SW key; every other key (PS, SLOT, CMS) before them, by bytes. Only equal
+     * bytes compare equal, so the groups are still single keys.
+     */
+    public static class FeatureComparator extends WritableComparator {
+        public FeatureComparator() {
+            super(Text.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+            int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+            return compareKeys(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            Text x = (Text) a;
+            Text y = (Text) b;
+            return compareKeys(x.getBytes(), 0, x.getLength(), y.getBytes(), 0, y.getLength());
+        }
+    }
+
+    static int compareKeys(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int f1 = featureStart(b1, s1, l1);
+        int f2 = featureStart(b2, s2, l2);
+        if (f1 < 0 || f2 < 0) {
+            if (f1 >= 0) return 1;
+            if (f2 >= 0) return -1;
+            return WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2);
+        }
+        int c = WritableComparator.compareBytes(b1, f1, s1 + l1 - f1, b2, f2, s2 + l2 - f2);
+        if (c != 0) return c;
+        boolean sw1 = b1[s1] == 'S';
+        boolean sw2 = b2[s2] == 'S';
+        if (sw1 != sw2) return sw1 ? 1 : -1;
+        return WritableComparator.compareBytes(b1, s1, l1, b2, s2, l2);
+    }
+
+    /** offset of "slot \t word" in a PSW or SW key (bytes b[s, s + l)), -1 for any other key */
+    static int featureStart(byte[] b, int s, int l) {
+        if (startsWith(b, s, l, "SW\t")) return s + 3;
+        if (!startsWith(b, s, l, "PSW\t")) return -1;
+        for (int i = s + 4; i < s + l; i++) {
+            if (b[i] == '\t') return i + 1;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] b, int s, int l, String prefix) {
+        if (l < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (b[s + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** SumReducer + the pruning thresholds on the final counts */
+    public static class TotalsReducer extends Reducer<Text, LongWritable, Text, LongWritable> {
+        private final LongWritable out = new LongWritable();
+        private long minPsw;
+        private long minSw;
+        private int minPreds;
+        private Metrics metrics;
+
+        // dirt.prune.min.preds: the surviving PSW records of the current feature, written or dropped
+        // together with its SW record, which FeatureComparator sorts right after them
+        private final List<Text> featureKeys = new ArrayList<>();   // reused across features
+        private long[] featureSums = new long[64];
+        private int buffered;
+        private final Text feature = new Text();
+
+        @Override
+        protected void setup(Context ctx) {
+            Configuration conf = ctx.getConfiguration();
+            Pruning prune = Pruning.fromConf(conf);
+            // approximate mode: the exact part of a PSW count is only a lower bound, Step2 prunes
+            minPsw = conf.getBoolean(APPROX_KEY, false) ? 1 : prune.minPsw;
+            minSw = prune.minSw;
+            minPreds = prune.minPreds;
+            metrics = new Metrics(ctx, "Step1");
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<LongWritable> vals, Context ctx) throws IOException, InterruptedException {
+            long sum = 0;
+            for (LongWritable v : vals) sum += v.get();
+
+            byte[] b = key.getBytes();
+            int len = key.getLength();
+            if (startsWith(b, 0, len, "PSW\t")) {
+                if (sum < minPsw) {
+                    metrics.reject("PRUNED_MIN_PSW");
+                    return;
+                }
+                int f = featureStart(b, 0, len);
+                if (minPreds > 1 && f >= 0) {
+                    buffer(key, f, sum, ctx);
+                    return;
+                }
+            } else if (startsWith(b, 0, len, "SW\t")) {
+                if (minPreds > 1) {
+                    closeFeature(key, sum, ctx);
+                    return;
+                }
+                if (sum < minSw) {
+                    metrics.reject("PRUNED_MIN_SW");
+                    return;
+                }
+            }
+            out.set(sum);
+            ctx.write(key, out);
+        }
+
+        private void buffer(Text key, int f, long sum, Context ctx) throws IOException, InterruptedException {
+            if (buffered > 0 && !isCurrentFeature(key.getBytes(), f, key.getLength())) flushWithoutTotal(ctx);
+            if (buffered == 0) feature.set(key.getBytes(), f, key.getLength() - f);
+            if (buffered == featureKeys.size()) featureKeys.add(new Text());
+            if (buffered == featureSums.length) featureSums = Arrays.copyOf(featureSums, 2 * buffered);
+            featureKeys.get(buffered).set(key);
+            featureSums[buffered++] = sum;
+        }
+
+        /** the SW key of a feature: its buffered PSW records and itself pass or go together */
+        private void closeFeature(Text key, long sum, Context ctx) throws IOException, InterruptedException {
+            if (buffered > 0 && !isCurrentFeature(key.getBytes(), 3, key.getLength())) flushWithoutTotal(ctx);
+            int preds = buffered;
+            buffered = 0;
+
+            String reason = sum < minSw ? "PRUNED_MIN_SW" : preds < minPreds ? "PRUNED_MIN_PREDS" : null;
+            if (reason != null) {
+                metrics.reject(reason, 1 + preds);
+                return;
+            }
+            for (int i = 0; i < preds; i++) {
+                out.set(featureSums[i]);
+                ctx.write(featureKeys.get(i), out);
+            }
+            out.set(sum);
+            ctx.write(key, out);
+        }
+
+        private boolean isCurrentFeature(byte[] b, int f, int len) {
+            return WritableComparator.compareBytes(feature.getBytes(), 0, feature.getLength(), b, f, len - f) == 0;
+        }
+
+        /** PSW records whose feature has no SW record (every mapper writes both): kept, as without min.preds */
+        private void flushWithoutTotal(Context ctx) throws IOException, InterruptedException {
+            metrics.error("PSW_WITHOUT_SW", buffered);
+            for (int i = 0; i < buffered; i++) {
+                out.set(featureSums[i]);
+                ctx.write(featureKeys.get(i), out);
+            }
+            buffered = 0;
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException, InterruptedException {
+            if (buffered > 0) flushWithoutTotal(ctx);
+            metrics.close();
+        }
+    }
+
     public static Job buildJob(Configuration conf, Path input, Path output, int reducers) throws Exception {
+        return buildJob(conf, Collections.singletonList(input), output, reducers);
+    }
+
+    /**
+     * Each input is read as raw biarc text (TextInputFormat: .gz gives one mapper per file, .bz2
+     * and plain text are split) or, when it is a Step0_Ingest SequenceFile output, with
+     * SequenceFileInputFormat (split by block). Mixed inputs go through MultipleInputs.
+     *
+     * With dirt.input.combine=true the Combine* variant of each format is used: small files (and
+     * blocks of large ones) are packed into splits of up to dirt.input.combine.split.size bytes,
+     * grouped by node, then by rack, so a run over many small shards starts few mappers.
+     */
+    public static Job buildJob(Configuration conf, List<Path> inputs, Path output, int reducers) throws Exception {
         Job job = Job.getInstance(conf, "Step1-ExtractAndTotals");
         job.setJarByClass(Step1_ExtractAndTotals.class);
 
         job.setMapperClass(MergedMapper.class);
         job.setCombinerClass(SumReducer.class);
-        job.setReducerClass(SumReducer.class);
+        job.setReducerClass(TotalsReducer.class);
         job.setNumReduceTasks(reducers);
-
-        job.setInputFormatClass(TextInputFormat.class);
+        if (Pruning.fromConf(conf).minPreds > 1) {
+            job.setPartitionerClass(FeaturePartitioner.class);
+            job.setSortComparatorClass(FeatureComparator.class);
+        }
 
         job.setMapOutputKeyClass(Text.class);
         job.setMapOutputValueClass(LongWritable.class);
@@ -153,8 +508,40 @@ public class Step1_ExtractAndTotals {
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(LongWritable.class);
 
-        FileInputFormat.addInputPath(job, input);
+        boolean combine = conf.getBoolean(COMBINE_KEY, false);
+        if (combine) {
+            job.getConfiguration().setLong(FileInputFormat.SPLIT_MAXSIZE,
+                    conf.getLong(COMBINE_SPLIT_SIZE_KEY, DEFAULT_COMBINE_SPLIT_SIZE));
+        }
+
+        List<Class<? extends InputFormat>> formats = new ArrayList<>();
+        for (Path p : inputs) {
+            Class<? extends InputFormat> f = Step0_Ingest.inputFormatOf(conf, p);
+            if (combine) {
+                f = f == SequenceFileInputFormat.class ? CombineSequenceFileInputFormat.class : CombineTextInputFormat.class;
+            }
+            formats.add(f);
+        }
+        if (new HashSet<>(formats).size() == 1) {
+            job.setInputFormatClass(formats.get(0));
+            for (Path p : inputs) FileInputFormat.addInputPath(job, p);
+        } else {
+            for (int i = 0; i < inputs.size(); i++) {
+                MultipleInputs.addInputPath(job, inputs.get(i), formats.get(i), MergedMapper.class);
+            }
+        }
         FileOutputFormat.setOutputPath(job, output);
+
+        String filter = conf.getBoolean(FILTER_KEY, false) ? conf.get(PredicateBloom.PATH_KEY) : null;
+        if (filter != null) {
+            Path p = new Path(filter);
+            URI u = p.getFileSystem(conf).makeQualified(p).toUri();
+            job.getConfiguration().setBoolean("mapreduce.job.cache.symlink.create", true);
+            job.addCacheFile(new URI(u.getScheme(), u.getAuthority(), u.getPath(), null, PredicateBloom.CACHE_NAME));
+        }
+
+        CompressionPolicy.apply(job, "Step1", CompressionPolicy.Output.SEQUENCE);
+
         return job;
     }
 }
@@ -1,6 +1,11 @@
 package com.example.jobs;
 
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.CountMinSketch;
+import com.example.helpers.Metrics;
 import com.example.helpers.PorterStemmer;
+import com.example.helpers.Pruning;
+import com.example.helpers.SkewPlan;
 import com.example.helpers.TestData;
 
 import org.apache.hadoop.conf.Configuration;
@@ -24,18 +29,47 @@ import java.util.*;
  *   PS  \t pred \t slot           -> cps
  *   SW  \t slot \t word           -> csw
  *   SLOT\t slot                   -> cslot
+ *   CMS \t row \t col             -> sketch cell (Step1 approximate mode only)
  *
  * Output (TEXT, one line per record):
  *   pred \t slot \t word \t mi
+ *
+ * Only test predicates are kept, unless dirt.all.preds=true (index mode).
+ *
+ * Hot features of the SkewPlan (dirt.skew.plan) are salted: "slot \t word \t #salt" with
+ * salt = bucket(pred, fanout), and the S record is copied to every salt.
+ *
+ * After a Step1 in approximate mode (dirt.step1.approx=true) the mappers also load the merged
+ * Count-Min sketch with the PS totals, and C(p,slot,w) = exact PSW count + the sketch's estimate
+ * for the triple, capped at C(p,slot).
+ *
+ * Pruning (helpers.Pruning): the mapper drops PSW records below dirt.prune.min.psw, the reducer
+ * features below dirt.prune.min.sw and MI values below dirt.prune.min.mi. Features below
+ * dirt.prune.min.preds never get here: Step1 counts the predicates of every feature (before
+ * this mapper keeps only the test ones) and drops the feature's records.
  */
 public class Step2_ComputeMI {
 
+    /** MI = log( (C(p,slot,w) * C(slot)) / (C(p,slot) * C(slot,w)) ) */
+    public static double mi(long cpsw, long cslot, long cps, long csw) {
+        return Math.log(((double) cpsw * (double) cslot) / ((double) cps * (double) csw));
+    }
+
+    /** One output line: pred \t slot \t word \t mi (6 decimals) */
+    public static String miLine(String pred, String slot, String word, double mi) {
+        return pred + "\t" + slot + "\t" + word + "\t" + String.format(Locale.US, "%.6f", mi);
+    }
+
     public static class MergedMapper extends Mapper<Text, LongWritable, Text, Text> {
         private final Text outKey = new Text();
         private final Text outVal = new Text();
 
         private final PorterStemmer stemmer = new PorterStemmer();
         private Set<String> testPreds;
+        private SkewPlan skew;
+        private CountMinSketch sketch;   // Step1 approximate mode, else null
+        private long minPsw;
+        private Metrics metrics;
 
         // PS totals for ONLY test predicates: key = pred\tslot -> cps
         private final Map<String, Long> psTotals = new HashMap<>();
@@ -46,15 +80,34 @@ public class Step2_ComputeMI {
 
         @Override
         protected void setup(Context ctx) throws IOException {
-            URI[] files = ctx.getCacheFiles();
-            testPreds = TestData.loadTestPredicates(files, stemmer);
-
             Configuration conf = ctx.getConfiguration();
+            metrics = new Metrics(ctx, "Step2");
+
+            // null = keep every predicate (index mode)
+            if (!conf.getBoolean(TestData.ALL_PREDS_KEY, false)) {
+                long t0 = System.currentTimeMillis();
+                URI[] files = ctx.getCacheFiles();
+                testPreds = TestData.loadTestPredicates(files, stemmer);
+                metrics.setupTime("MAP_TEST_PREDS", System.currentTimeMillis() - t0);
+            }
+
+            if (conf.getBoolean(Step1_ExtractAndTotals.APPROX_KEY, false)) sketch = CountMinSketch.fromConf(conf);
+
+            long t0 = System.currentTimeMillis();
             Path totalsDir = new Path(conf.get("dirt.step1.dir"));
-            loadPSTotals(ctx, conf, totalsDir);
+            loadPSTotals(conf, totalsDir);
+            metrics.setupTime("MAP_PS_TOTALS", System.currentTimeMillis() - t0);
+
+            skew = SkewPlan.load(conf);
+            minPsw = Pruning.fromConf(conf).minPsw;
         }
 
-        private void loadPSTotals(Context ctx, Configuration conf, Path dir) throws IOException {
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+
+        private void loadPSTotals(Configuration conf, Path dir) throws IOException {
             FileSystem fs = dir.getFileSystem(conf);
             if (!fs.exists(dir)) return;
 
@@ -71,6 +124,10 @@ public class Step2_ComputeMI {
                 try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(st.getPath()))) {
                     while (reader.next(k, v)) {
                         String ks = k.toString();
+                        if (sketch != null && ks.startsWith(CountMinSketch.RECORD_PREFIX)) {
+                            if (!sketch.addRecord(ks, v.get())) metrics.error("BAD_SKETCH_CELL");
+                            continue;
+                        }
                         if (!ks.startsWith("PS\t")) continue;
 
                         // "PS\tpred\tslot"
@@ -86,7 +143,7 @@ public class Step2_ComputeMI {
                         psTotals.put(psKey(pred, slot), v.get());
                     }
                 } catch (Exception e) {
-                    ctx.getCounter("Step2", "PS_TOTALS_READ_ERROR").increment(1);
+                    metrics.error("PS_TOTALS_READ_ERROR");
                 }
             }
         }
@@ -99,40 +156,90 @@ public class Step2_ComputeMI {
             // 1) SW: "SW\t<slot>\t<word>" -> csw
             if (ks.startsWith("SW\t")) {
                 String[] p = ks.split("\t", -1);
-                if (p.length != 3) return;
+                if (p.length != 3) {
+                    metrics.reject("MALFORMED_SW");
+                    return;
+                }
 
                 String slot = p[1].trim();
                 String word = p[2].trim();
-                if (slot.isEmpty() || word.isEmpty()) return;
+                if (slot.isEmpty() || word.isEmpty()) {
+                    metrics.reject("MALFORMED_SW");
+                    return;
+                }
 
-                outKey.set(slot + "\t" + word);
+                String feature = slot + "\t" + word;
                 outVal.set("S\t" + value.get());
+                int fanout = skew.fanout(feature);
+                if (fanout > 1) {
+                    // every salt needs C(slot,w)
+                    for (int salt = 0; salt < fanout; salt++) {
+                        outKey.set(SkewPlan.salted(feature, salt));
+                        ctx.write(outKey, outVal);
+                    }
+                    metrics.emit("S_SALTED", fanout);
+                    return;
+                }
+                outKey.set(feature);
                 ctx.write(outKey, outVal);
+                metrics.emit("S");
                 return;
             }
 
             // 2) PSW: "PSW\t<pred>\t<slot>\t<word>" -> cpsw
             if (ks.startsWith("PSW\t")) {
                 String[] p = ks.split("\t", -1);
-                if (p.length != 4) return;
+                if (p.length != 4) {
+                    metrics.reject("MALFORMED_PSW");
+                    return;
+                }
 
                 String pred = p[1].trim();
                 String slot = p[2].trim();
                 String word = p[3].trim();
 
-                if (pred.isEmpty() || slot.isEmpty() || word.isEmpty()) return;
+                if (pred.isEmpty() || slot.isEmpty() || word.isEmpty()) {
+                    metrics.reject("MALFORMED_PSW");
+                    return;
+                }
 
-                if (testPreds != null && !testPreds.contains(pred)) return;
+                if (testPreds != null && !testPreds.contains(pred)) {
+                    metrics.reject("NOT_TEST_PREDICATE");
+                    return;
+                }
 
                 Long cps = psTotals.get(psKey(pred, slot));
-                if (cps == null || cps <= 0) return;
+                if (cps == null || cps <= 0) {
+                    metrics.reject("MISSING_PS_TOTAL");
+                    return;
+                }
 
                 long cpsw = value.get();
-                if (cpsw <= 0) return;
+                if (cpsw <= 0) {
+                    metrics.reject("NON_POSITIVE_COUNT");
+                    return;
+                }
+                if (sketch != null) {
+                    // the mass of this triple that some mappers only sketched (over-estimated)
+                    long tail = sketch.estimate(pred + "\t" + slot + "\t" + word);
+                    if (tail > 0) metrics.emit("P_SKETCHED");
+                    cpsw += tail;
+                    if (cpsw > cps) {
+                        cpsw = cps;
+                        metrics.emit("P_SKETCH_CAPPED");
+                    }
+                }
+                if (cpsw < minPsw) {
+                    metrics.reject("PRUNED_MIN_PSW");
+                    return;
+                }
 
-                outKey.set(slot + "\t" + word);
+                String feature = slot + "\t" + word;
+                int fanout = skew.fanout(feature);
+                outKey.set(fanout > 1 ? SkewPlan.salted(feature, SkewPlan.bucket(pred, fanout)) : feature);
                 outVal.set("P\t" + pred + "\t" + cpsw + "\t" + cps);
                 ctx.write(outKey, outVal);
+                metrics.emit("P");
             }
         }
     }
@@ -141,10 +248,28 @@ public class Step2_ComputeMI {
 
         private long cSlotX = 1;
         private long cSlotY = 1;
+        private Pruning prune;
+        private Metrics metrics;
 
         @Override
         protected void setup(Context ctx) throws IOException {
             Configuration conf = ctx.getConfiguration();
+            metrics = new Metrics(ctx, "Step2");
+            prune = Pruning.fromConf(conf);
+            long t0 = System.currentTimeMillis();
+            try {
+                loadSlotTotals(conf);
+            } finally {
+                metrics.setupTime("REDUCE_SLOT_TOTALS", System.currentTimeMillis() - t0);
+            }
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+
+        private void loadSlotTotals(Configuration conf) throws IOException {
             Path totalsDir = new Path(conf.get("dirt.step1.dir"));
             FileSystem fs = totalsDir.getFileSystem(conf);
 
@@ -166,7 +291,7 @@ public class Step2_ComputeMI {
                         else if ("SLOT\tY".equals(ks)) cSlotY = count;
                     }
                 } catch (Exception e) {
-                    ctx.getCounter("Step2", "SLOT_TOTALS_READ_ERROR").increment(1);
+                    metrics.error("SLOT_TOTALS_READ_ERROR");
                 }
             }
         }
@@ -186,23 +311,46 @@ public class Step2_ComputeMI {
         protected void reduce(Text key, Iterable<Text> vals, Context ctx) throws IOException, InterruptedException {
             Long csw = null; // C(slot,w)
             List<String[]> preds = new ArrayList<>(); // (pred, cpsw, cps)
+            long size = 0;
 
             for (Text t : vals) {
+                size++;
                 String[] p = t.toString().split("\t", -1);
-                if (p.length < 2) continue;
+                if (p.length < 2) {
+                    metrics.reject("MALFORMED_VALUE");
+                    continue;
+                }
 
                 if ("S".equals(p[0])) {
-                    try { csw = Long.parseLong(lastNonEmpty(p)); } catch (Exception ignored) {}
+                    try { csw = Long.parseLong(lastNonEmpty(p)); } catch (Exception e) { metrics.reject("BAD_CSW"); }
                 } else if ("P".equals(p[0]) && p.length == 4) {
                     preds.add(new String[]{p[1], p[2], p[3]});
+                } else {
+                    metrics.reject("MALFORMED_VALUE");
                 }
             }
+            metrics.group(key, size);
 
-            if (csw == null || csw <= 0) return;
+            if (csw == null || csw <= 0) {
+                // P records without their S total cannot get an MI (Step1 drops S below dirt.prune.min.sw)
+                if (!preds.isEmpty()) {
+                    if (prune.minSw > 1) metrics.reject("PRUNED_MIN_SW", preds.size());
+                    else metrics.reject("MISSING_CSW");
+                }
+                return;
+            }
+            if (csw < prune.minSw) {
+                metrics.reject("PRUNED_MIN_SW", preds.size());
+                return;
+            }
 
-            // key = "<slot>\t<word>"
-            String[] sw = key.toString().split("\t", 2);
-            if (sw.length != 2) return;
+            // key = "<slot>\t<word>" (or "<slot>\t<word>\t#<salt>" for a hot feature)
+            String ks = key.toString();
+            String[] sw = SkewPlan.feature(ks).split("\t", 2);
+            if (sw.length != 2) {
+                metrics.reject("MALFORMED_KEY");
+                return;
+            }
 
             String slot = sw[0];
             String word = sw[1];
@@ -210,7 +358,10 @@ public class Step2_ComputeMI {
             long cslot;
             if ("X".equals(slot)) cslot = cSlotX;
             else if ("Y".equals(slot)) cslot = cSlotY;
-            else return;
+            else {
+                metrics.reject("UNKNOWN_SLOT");
+                return;
+            }
 
             if (cslot <= 0) return;
 
@@ -218,16 +369,27 @@ public class Step2_ComputeMI {
                 String pred = r[0];
 
                 long cpsw, cps;
-                try { cpsw = Long.parseLong(r[1]); } catch (Exception e) { continue; }
-                try { cps  = Long.parseLong(r[2]); } catch (Exception e) { continue; }
+                try {
+                    cpsw = Long.parseLong(r[1]);
+                    cps  = Long.parseLong(r[2]);
+                } catch (Exception e) {
+                    metrics.reject("BAD_COUNT");
+                    continue;
+                }
 
-                if (cpsw <= 0 || cps <= 0) continue;
+                if (cpsw <= 0 || cps <= 0) {
+                    metrics.reject("BAD_COUNT");
+                    continue;
+                }
 
-                // MI = log( (C(p,slot,w) * C(slot)) / (C(p,slot) * C(slot,w)) )
-                double mi = Math.log(((double) cpsw * (double) cslot) / ((double) cps * (double) csw));
+                double mi = mi(cpsw, cslot, cps, csw);
+                if (mi < prune.minMi) {
+                    metrics.reject("PRUNED_MIN_MI");
+                    continue;
+                }
 
-                String line = pred + "\t" + slot + "\t" + word + "\t" + String.format(Locale.US, "%.6f", mi);
-                ctx.write(new Text(line), NullWritable.get());
+                ctx.write(new Text(miLine(pred, slot, word, mi)), NullWritable.get());
+                metrics.emit(mi > 0 ? "MI_POSITIVE" : "MI_NON_POSITIVE");
             }
         }
     }
@@ -254,6 +416,7 @@ public class Step2_ComputeMI {
 
         job.setMapperClass(MergedMapper.class);
         job.setReducerClass(MIReducer.class);
+        job.setPartitionerClass(SkewPlan.SaltedPartitioner.class);
         job.setNumReduceTasks(reducers);
 
         job.setMapOutputKeyClass(Text.class);
@@ -266,10 +429,10 @@ public class Step2_ComputeMI {
 
         FileOutputFormat.setOutputPath(job, output);
 
-        // cache test files (to load test predicates)
-        job.getConfiguration().setBoolean("mapreduce.job.cache.symlink.create", true);
-        job.addCacheFile(new URI(positive.toString() + "#positive.txt"));
-        job.addCacheFile(new URI(negative.toString() + "#negative.txt"));
+        // test predicates: the binary TestSet, or the pair files
+        TestData.addCacheFiles(job, positive, negative);
+
+        CompressionPolicy.apply(job, "Step2", CompressionPolicy.Output.TEXT);
 
         return job;
     }
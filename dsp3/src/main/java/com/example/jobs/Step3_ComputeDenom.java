@@ -1,13 +1,15 @@
 package com.example.jobs;
 
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.DoubleVectorWritable;
+import com.example.helpers.Metrics;
 import com.example.helpers.PorterStemmer;
 import com.example.helpers.TestData;
+import com.example.similarity.Measures;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
@@ -38,21 +40,40 @@ import java.util.Set;
  *
  * Output (SequenceFile):
  *   key   = pred
- *   value = denom = sum of positive MI values for that predicate
+ *   value = DoubleVectorWritable of the predicate aggregates of the similarity measures
+ *           over the positive MI values, per slot (similarity.Measures layout):
+ *             [X: sum of MI, sum of MI^2 | Y: sum of MI, sum of MI^2]
+ *           Always all of them, so the table can be reused by any dirt.measures.
+ *           The per-slot sums of MI are the two DIRT denominators.
+ *
+ * Only test predicates are kept, unless dirt.all.preds=true (index mode).
  */
 public class Step3_ComputeDenom {
 
-    public static class DenomMapper extends Mapper<LongWritable, Text, Text, DoubleWritable> {
+    public static class DenomMapper extends Mapper<LongWritable, Text, Text, DoubleVectorWritable> {
         private final Text outKey = new Text();
-        private final DoubleWritable outVal = new DoubleWritable();
+        private final DoubleVectorWritable outVal = new DoubleVectorWritable(Measures.predicateWidth());
 
         private Set<String> testPreds;
         private final PorterStemmer stemmer = new PorterStemmer();
+        private Metrics metrics;
 
         @Override
         protected void setup(Context ctx) throws IOException {
+            metrics = new Metrics(ctx, "Step3");
+
+            // null = keep every predicate (index mode)
+            if (ctx.getConfiguration().getBoolean(TestData.ALL_PREDS_KEY, false)) return;
+
+            long t0 = System.currentTimeMillis();
             URI[] files = ctx.getCacheFiles();
             testPreds = TestData.loadTestPredicates(files, stemmer);
+            metrics.setupTime("MAP_TEST_PREDS", System.currentTimeMillis() - t0);
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
         }
 
         private static String lastNonEmpty(String[] arr) {
@@ -82,11 +103,13 @@ public class Step3_ComputeDenom {
             String[] parts = line.split("\t", -1);
 
             String pred = null;
+            String slot = null;
             String miStr = null;
 
             // Common: pred \t slot \t word \t mi (or with trailing tabs)
             if (parts.length >= 4) {
                 pred = parts[0] == null ? null : parts[0].trim();
+                slot = parts[1] == null ? null : parts[1].trim();
                 miStr = lastNonEmpty(parts); // MI should be last meaningful token
             }
             // Fallback: sometimes TextOutputFormat prints "<key>\t<value>"
@@ -95,46 +118,66 @@ public class Step3_ComputeDenom {
                 String keyPart = parts[0] == null ? "" : parts[0].trim();
                 String valPart = parts[1] == null ? "" : parts[1].trim();
 
-                if (keyPart.isEmpty() || valPart.isEmpty()) return;
+                if (keyPart.isEmpty() || valPart.isEmpty()) {
+                    metrics.reject("MALFORMED_LINE");
+                    return;
+                }
 
                 // keyPart might be "pred\tslot\tword" or just "pred"
                 String[] k = keyPart.split("\t", -1);
                 pred = (k.length >= 1) ? k[0].trim() : null;
                 miStr = valPart;
             } else {
+                metrics.reject("MALFORMED_LINE");
                 return;
             }
 
-            if (pred == null || pred.isEmpty() || miStr == null || miStr.isEmpty()) return;
+            if (pred == null || pred.isEmpty() || miStr == null || miStr.isEmpty()) {
+                metrics.reject("MALFORMED_LINE");
+                return;
+            }
 
             // Filter only predicates that exist in test sets (keeps denom small & matches later steps)
-            if (testPreds != null && !testPreds.contains(pred)) return;
+            if (testPreds != null && !testPreds.contains(pred)) {
+                metrics.reject("NOT_TEST_PREDICATE");
+                return;
+            }
 
             double mi;
             try {
                 mi = Double.parseDouble(miStr);
             } catch (Exception e) {
-                ctx.getCounter("Step3", "BAD_MI_PARSE").increment(1);
+                metrics.reject("BAD_MI_PARSE");
                 return;
             }
 
             // denom sums ONLY positive MI
-            if (mi <= 0.0) return;
+            if (mi <= 0.0) {
+                metrics.reject("NON_POSITIVE_MI");
+                return;
+            }
+
+            // per-slot denominators: "<key>\t<value>" lines carry no slot
+            int s = Measures.slotIndex(slot);
+            if (s < 0) {
+                metrics.reject("NO_SLOT");
+                return;
+            }
 
             outKey.set(pred);
-            outVal.set(mi);
+            Measures.predicateTerms(s, mi, outVal.values());
             ctx.write(outKey, outVal);
+            metrics.emit("MI");
         }
     }
 
-    public static class SumReducer extends Reducer<Text, DoubleWritable, Text, DoubleWritable> {
-        private final DoubleWritable out = new DoubleWritable();
+    public static class SumReducer extends Reducer<Text, DoubleVectorWritable, Text, DoubleVectorWritable> {
+        private final DoubleVectorWritable out = new DoubleVectorWritable();
 
         @Override
-        protected void reduce(Text key, Iterable<DoubleWritable> vals, Context ctx) throws IOException, InterruptedException {
-            double sum = 0.0;
-            for (DoubleWritable v : vals) sum += v.get();
-            out.set(sum);
+        protected void reduce(Text key, Iterable<DoubleVectorWritable> vals, Context ctx) throws IOException, InterruptedException {
+            out.setLength(Measures.predicateWidth());
+            for (DoubleVectorWritable v : vals) out.add(v);
             ctx.write(key, out);
         }
     }
@@ -164,26 +207,19 @@ public class Step3_ComputeDenom {
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
         job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(DoubleWritable.class);
+        job.setMapOutputValueClass(DoubleVectorWritable.class);
 
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(DoubleWritable.class);
-
-        // Make cache paths fully-qualified (s3a:// vs hdfs://)
-        FileSystem fsPos = positive.getFileSystem(conf);
-        FileSystem fsNeg = negative.getFileSystem(conf);
+        job.setOutputValueClass(DoubleVectorWritable.class);
 
-        Path fullPositivePath = fsPos.makeQualified(positive);
-        Path fullNegativePath = fsNeg.makeQualified(negative);
-
-        // Enable symlink names (positive.txt / negative.txt) if your loader expects them
-        job.getConfiguration().setBoolean("mapreduce.job.cache.symlink.create", true);
-        job.addCacheFile(new URI(fullPositivePath.toString() + "#positive.txt"));
-        job.addCacheFile(new URI(fullNegativePath.toString() + "#negative.txt"));
+        // test predicates: the binary TestSet, or the pair files
+        TestData.addCacheFiles(job, positive, negative);
 
         FileInputFormat.addInputPath(job, miInput);
         FileOutputFormat.setOutputPath(job, output);
 
+        CompressionPolicy.apply(job, "Step3", CompressionPolicy.Output.SEQUENCE);
+
         return job;
     }
 }
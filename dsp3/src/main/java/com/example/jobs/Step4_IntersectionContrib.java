@@ -1,15 +1,23 @@
 package com.example.jobs;
 
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.DoubleVectorWritable;
+import com.example.helpers.Metrics;
+import com.example.helpers.PairTable;
 import com.example.helpers.PorterStemmer;
+import com.example.helpers.PostingBuffer;
+import com.example.helpers.SkewPlan;
 import com.example.helpers.TestData;
+import com.example.helpers.TestSet;
+import com.example.similarity.Measures;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -20,9 +28,11 @@ import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.hash.Hash;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.net.URI;
 import java.util.*;
 
 /**
@@ -31,18 +41,95 @@ import java.util.*;
  * Input (TEXT): MI lines from Step2_ComputeMI output:
  *   pred \t slot \t word \t mi
  *
- * Output (SequenceFile):
+ * Output (SequenceFile), one record per (test pair, shared feature):
  *   key: pairKey (pred1 \t pred2)  [canonical]
- *   value: contrib (DoubleWritable)
+ *   value: DoubleVectorWritable, the pair-aggregate terms of this feature for the measures of
+ *          dirt.measures, in the half of the feature's slot (similarity.Measures layout);
+ *          with the default "dirt": [mi1 + mi2, 0] for an X feature, [0, mi1 + mi2] for a Y one
  *
- * We only emit pairs that exist in test set (positive/negative).
+ * Shuffle: key "slot \t word", value a Posting (pred, mi as a double). We only emit pairs that
+ * exist in test set (positive/negative): the reducer maps each predicate to its TestSet id (no
+ * allocation, see TestSet.indexOf(byte[], ...)), drops the others, buffers the group as ids +
+ * MI values in a PostingBuffer reused for the whole task, and looks the id pairs up in a
+ * PairTable. Output keys are written from the cached name bytes.
+ *
+ * Hot features of the SkewPlan (dirt.skew.plan) are split into b predicate blocks; the record of a
+ * predicate in block a goes to the b cells (min(a,c), max(a,c)) as "slot \t word \t #cell" with
+ * the block a in its Posting. The reducer of cell (a,c) forms only the pairs within block a
+ * (a == c) or across blocks a and c (a < c), so every pair is still formed exactly once.
+ *
+ * Posting-list cap (-D dirt.step4.feature.cap=N, off by default): a feature shared by more than
+ * N test predicates keeps only N of them (see PostingCap), chosen by
+ * dirt.step4.feature.cap.strategy:
+ *   topmi   (default) the N highest MI values
+ *   sample  a deterministic hash sample of N predicates
+ * The reducer then holds at most N postings per feature and forms at most N(N-1)/2 pairs. A
+ * hot feature's block keeps ceil(N / b) in every cell, the same ones in each. The dropped
+ * postings lose this feature's term in the numerator only (Step3's denominators keep it), and
+ * they are counted: Step4.emit FEATURE_CAPPED (groups, blocks of a hot feature) /
+ * POSTING_DROPPED / DROPPED_MI_MILLI (sum of the dropped MI values x 1000).
  */
 public class Step4_IntersectionContrib {
 
+    public static final String CAP_KEY = "dirt.step4.feature.cap";
+    public static final String CAP_STRATEGY_KEY = "dirt.step4.feature.cap.strategy";
+
+    private static final byte[] TAB = {'\t'};
+
+    /** Map output value: one predicate of a feature group (block >= 0 only in a hot feature's cells). */
+    public static class Posting implements Writable {
+        final Text pred = new Text();
+        double mi;
+        int block = -1;
+
+        public Posting set(String pred, double mi, int block) {
+            this.pred.set(pred);
+            this.mi = mi;
+            this.block = block;
+            return this;
+        }
+
+        /** predicate as UTF-8 bytes (valid up to pred().getLength()) */
+        public Text pred() {
+            return pred;
+        }
+
+        public double mi() {
+            return mi;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            pred.write(out);
+            out.writeDouble(mi);
+            WritableUtils.writeVInt(out, block + 1);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            pred.readFields(in);
+            mi = in.readDouble();
+            block = WritableUtils.readVInt(in) - 1;
+        }
+    }
+
     /** Mapper: reads TEXT lines from MI output */
-    public static class ContribMapper extends Mapper<LongWritable, Text, Text, Text> {
+    public static class ContribMapper extends Mapper<LongWritable, Text, Text, Posting> {
         private final Text outKey = new Text();
-        private final Text outVal = new Text();
+        private final Posting outVal = new Posting();
+        private SkewPlan skew;
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) throws IOException {
+            metrics = new Metrics(ctx, "Step4");
+            skew = SkewPlan.load(ctx.getConfiguration());
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
 
         private static String lastNonEmpty(String[] arr) {
             for (int i = arr.length - 1; i >= 0; i--) {
@@ -68,92 +155,417 @@ public class Step4_IntersectionContrib {
 
             // pred \t slot \t word \t mi  (may have trailing tabs)
             String[] parts = line.split("\t", -1);
-            if (parts.length < 4) return;
+            if (parts.length < 4) {
+                metrics.reject("MALFORMED_LINE");
+                return;
+            }
 
             String pred = parts[0].trim();
             String slot = parts[1].trim();
             String word = parts[2].trim();
 
-            if (pred.isEmpty() || slot.isEmpty() || word.isEmpty()) return;
+            if (pred.isEmpty() || slot.isEmpty() || word.isEmpty()) {
+                metrics.reject("MALFORMED_LINE");
+                return;
+            }
 
             String miStr = lastNonEmpty(parts);
-            if (miStr == null) return;
+            if (miStr == null) {
+                metrics.reject("MALFORMED_LINE");
+                return;
+            }
 
             double mi;
             try { mi = Double.parseDouble(miStr); }
-            catch (Exception e) { return; }
+            catch (Exception e) {
+                metrics.reject("BAD_MI_PARSE");
+                return;
+            }
 
-            if (mi <= 0) return;
+            if (mi <= 0) {
+                metrics.reject("NON_POSITIVE_MI");
+                return;
+            }
 
             // group by feature f = (slot,word)
-            outKey.set(slot + "\t" + word);
-            // value: pred \t mi
-            outVal.set(pred + "\t" + mi);
+            String feature = slot + "\t" + word;
+            int b = skew.blocks(feature);
+            if (b > 1) {
+                // hot feature: one copy per block pair that contains this predicate's block
+                int a = SkewPlan.bucket(pred, b);
+                outVal.set(pred, mi, a);
+                for (int c = 0; c < b; c++) {
+                    outKey.set(SkewPlan.salted(feature, SkewPlan.cell(Math.min(a, c), Math.max(a, c), b)));
+                    ctx.write(outKey, outVal);
+                }
+                metrics.emit("FEATURE_SALTED", b);
+                return;
+            }
+            outKey.set(feature);
+            outVal.set(pred, mi, -1);
             ctx.write(outKey, outVal);
+            metrics.emit("FEATURE");
         }
     }
 
-    public static class ContribReducer extends Reducer<Text, Text, Text, DoubleWritable> {
-        private final DoubleWritable outVal = new DoubleWritable();
+    public static class ContribReducer extends Reducer<Text, Posting, Text, DoubleVectorWritable> {
+        private DoubleVectorWritable outVal;
         private final Text outKey = new Text();
+        private Measures measures;
 
         private final PorterStemmer stemmer = new PorterStemmer();
-        private Set<String> allowedPairs;
+        private TestSet testSet;
+        private PairTable pairTable;
+        private SkewPlan skew;
+
+        // reused for every group of the task
+        private final PostingBuffer postingsA = new PostingBuffer();
+        private final PostingBuffer postingsC = new PostingBuffer();
+        private PostingCap capA;   // null = no cap
+        private PostingCap capC;
+        private int slot;
+        private PairSink sink;
+        private Metrics metrics;
 
         @Override
         protected void setup(Context ctx) throws IOException {
-            URI[] cache = ctx.getCacheFiles();
-            Map<String, TestData.PairInfo> pairs = TestData.loadPairs(cache, stemmer);
-            allowedPairs = pairs.keySet();
+            metrics = new Metrics(ctx, "Step4");
+            skew = SkewPlan.load(ctx.getConfiguration());
+            measures = Measures.load(ctx.getConfiguration());
+            outVal = new DoubleVectorWritable(measures.pairWidth());
+            long t0 = System.currentTimeMillis();
+            testSet = TestSet.load(ctx.getCacheFiles(), stemmer);
+            pairTable = new PairTable(testSet);
+            metrics.setupTime("REDUCE_TEST_PAIRS", System.currentTimeMillis() - t0);
+            capA = PostingCap.fromConf(ctx.getConfiguration(), testSet);
+            capC = PostingCap.fromConf(ctx.getConfiguration(), testSet);
+
+            // one sink for the task (a lambda per group would allocate): writes into the slot's half
+            sink = (pair, miFirst, miSecond) -> {
+                byte[] first = testSet.predicateBytes(pairTable.first(pair));
+                byte[] second = testSet.predicateBytes(pairTable.second(pair));
+                outKey.clear();
+                outKey.append(first, 0, first.length);
+                outKey.append(TAB, 0, 1);
+                outKey.append(second, 0, second.length);
+                measures.pairTerms(slot, miFirst, miSecond, outVal.values());
+                ctx.write(outKey, outVal);
+            };
         }
 
         @Override
-        protected void reduce(Text featureKey, Iterable<Text> vals, Context ctx)
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+
+        @Override
+        protected void reduce(Text featureKey, Iterable<Posting> vals, Context ctx)
                 throws IOException, InterruptedException {
 
-            List<String> preds = new ArrayList<>();
-            List<Double> mis = new ArrayList<>();
+            // slot and salt straight from the key bytes: no String per group
+            byte[] key = featureKey.getBytes();
+            int len = featureKey.getLength();
+            int tab = 0;
+            while (tab < len && key[tab] != '\t') tab++;
+            slot = tab < len ? Measures.slotIndex(key, 0, tab) : -1;
+            if (slot < 0) {
+                metrics.reject("UNKNOWN_SLOT");
+                return;
+            }
+            int cell = SkewPlan.salt(key, len);
+            if (cell >= 0) {
+                reduceCell(featureKey, SkewPlan.saltStart(key, len), cell, vals);
+                return;
+            }
 
-            for (Text t : vals) {
-                String[] p = t.toString().split("\t", -1);
-                if (p.length != 2) continue;
+            postingsA.clear();
+            if (capA != null) capA.reset(key, len, 1);
+            long size = 0;
 
-                String pred = p[0].trim();
-                if (pred.isEmpty()) continue;
+            for (Posting v : vals) {
+                size++;
+                int id = testPredicate(v);
+                if (id < 0) continue;
+                if (capA != null) capA.offer(id, v.mi);
+                else postingsA.add(id, v.mi);
+            }
+            // the pair loop is quadratic in the group size: this is where skew hurts
+            metrics.group(featureKey, size);
+            if (capA != null) {
+                capA.drainTo(postingsA);
+                capA.report(metrics);
+            }
 
-                double mi;
-                try { mi = Double.parseDouble(p[1]); }
-                catch (Exception e) { continue; }
+            int emitted = forEachAllowedPair(postingsA, pairTable, sink);
+            metrics.emit("PAIR", emitted);
+        }
 
-                if (mi <= 0) continue;
+        /** TestSet id of the posting's predicate; negative (and counted) if it cannot be used */
+        private int testPredicate(Posting v) {
+            if (!(v.mi > 0)) {
+                metrics.reject("NON_POSITIVE_MI");
+                return -1;
+            }
+            // not in any test pair: no pair to form
+            int id = testSet.indexOf(v.pred.getBytes(), 0, v.pred.getLength());
+            if (id < 0) metrics.reject("NOT_TEST_PREDICATE");
+            return id;
+        }
 
-                preds.add(pred);
-                mis.add(mi);
+        /**
+         * One cell (a, c) of a hot feature (cellKey = feature \t #cell, the feature ending at
+         * featureEnd): pairs within block a, or across blocks a and c.
+         */
+        private void reduceCell(Text cellKey, int featureEnd, int cell, Iterable<Posting> vals)
+                throws IOException, InterruptedException {
+            byte[] feature = cellKey.getBytes();
+            // the plan is keyed by String; only the few hot cells pay for the decode
+            int b = skew.blocks(Text.decode(feature, 0, featureEnd));
+            if (b < 2) {
+                metrics.error("UNKNOWN_HOT_FEATURE");
+                return;
+            }
+            int[] ac = SkewPlan.blockPair(cell, b);
+
+            postingsA.clear();
+            postingsC.clear();
+            if (capA != null) {
+                // per block, seeded by the feature: block a keeps the same postings in every cell
+                capA.reset(feature, featureEnd, b);
+                capC.reset(feature, featureEnd, b);
+            }
+            long size = 0;
+
+            for (Posting v : vals) {
+                size++;
+                int id = testPredicate(v);
+                if (id < 0) continue;
+                boolean inA = v.block == ac[0];
+                PostingCap cap = inA ? capA : capC;
+                if (cap != null) cap.offer(id, v.mi);
+                else (inA ? postingsA : postingsC).add(id, v.mi);
+            }
+            metrics.group(cellKey, size);
+            if (capA != null) {
+                capA.drainTo(postingsA);
+                capC.drainTo(postingsC);
+                // a block's drops show up in every cell of it: counted in its diagonal cell only
+                capA.report(ac[0] == ac[1] ? metrics : null);
             }
 
-            int n = preds.size();
-            if (n < 2) return;
+            int emitted = ac[0] == ac[1]
+                    ? forEachAllowedPair(postingsA, pairTable, sink)
+                    : forEachAllowedCrossPair(postingsA, postingsC, pairTable, sink);
+            metrics.emit("PAIR", emitted);
+        }
+    }
 
-            for (int i = 0; i < n; i++) {
-                String p1 = preds.get(i);
-                double mi1 = mis.get(i);
+    /**
+     * Bounded posting list of one feature group: keeps the cap best (id, mi) postings while
+     * they stream in, in a binary heap over primitive arrays whose root is the worst kept one.
+     *
+     *   topmi   best = highest MI (ties: smaller predicate, i.e. smaller id)
+     *   sample  best = smallest murmur(pred, seed = hash of the feature): a bottom-k sample,
+     *           uniform over the predicates and independent of the value order (a reservoir
+     *           with a random generator would change with the shuffle's order)
+     */
+    static final class PostingCap {
+        private static final Hash MURMUR = Hash.getInstance(Hash.MURMUR_HASH);
+
+        private final int cap;
+        private final boolean sample;
+        private final TestSet testSet;
+
+        private final int[] ids;
+        private final double[] mis;
+        private final double[] ranks;   // lower is better
+        private int size;
+        private int limit;
+        private int seed;
+        private long dropped;
+        private double droppedMi;
+
+        private PostingCap(int cap, boolean sample, TestSet testSet) {
+            this.cap = cap;
+            this.sample = sample;
+            this.testSet = testSet;
+            ids = new int[cap];
+            mis = new double[cap];
+            ranks = new double[cap];
+        }
 
-                for (int j = i + 1; j < n; j++) {
-                    String p2 = preds.get(j);
-                    double mi2 = mis.get(j);
+        /** null when dirt.step4.feature.cap is not set */
+        static PostingCap fromConf(Configuration conf, TestSet testSet) {
+            int cap = conf.getInt(CAP_KEY, 0);
+            if (cap <= 0) return null;
+            String strategy = conf.getTrimmed(CAP_STRATEGY_KEY, "topmi").toLowerCase(Locale.ROOT);
+            if (!strategy.equals("topmi") && !strategy.equals("sample")) {
+                throw new IllegalArgumentException(CAP_STRATEGY_KEY + " must be topmi or sample: " + strategy);
+            }
+            return new PostingCap(Math.max(2, cap), strategy.equals("sample"), testSet);
+        }
 
-                    String pairKey = TestData.canonicalPairKey(p1, p2);
-                    if (!allowedPairs.contains(pairKey)) continue;
+        /**
+         * next group: feature = "slot \t word" in feature[0, len), its predicates split over
+         * blocks (1 = not hot)
+         */
+        void reset(byte[] feature, int len, int blocks) {
+            size = 0;
+            limit = (cap + blocks - 1) / blocks;
+            // String.hashCode of the feature for ASCII words
+            int h = 0;
+            for (int i = 0; i < len; i++) h = 31 * h + (feature[i] & 0xff);
+            seed = h;
+            dropped = 0;
+            droppedMi = 0;
+        }
 
-                    // contribution for this shared feature
-                    double contrib = mi1 + mi2;
+        void offer(int id, double mi) {
+            double rank;
+            if (sample) {
+                byte[] b = testSet.predicateBytes(id);
+                rank = MURMUR.hash(b, b.length, seed) & 0xffffffffL;
+            } else {
+                rank = -mi;
+            }
+            if (size < limit) {
+                ids[size] = id;
+                mis[size] = mi;
+                ranks[size] = rank;
+                siftUp(size++);
+                return;
+            }
+            double out = mi;
+            if (worse(ranks[0], ids[0], rank, id)) {
+                out = mis[0];
+                ids[0] = id;
+                mis[0] = mi;
+                ranks[0] = rank;
+                siftDown(0);
+            }
+            dropped++;
+            droppedMi += out;
+        }
 
-                    outKey.set(pairKey);
-                    outVal.set(contrib);
-                    ctx.write(outKey, outVal);
-                }
+        // worst first: higher rank, then larger predicate
+        private static boolean worse(double rank1, int id1, double rank2, int id2) {
+            return rank1 != rank2 ? rank1 > rank2 : id1 > id2;
+        }
+
+        private boolean worse(int i, int j) {
+            return worse(ranks[i], ids[i], ranks[j], ids[j]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(i, parent)) return;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int l = 2 * i + 1;
+                if (l >= size) return;
+                int w = l + 1 < size && worse(l + 1, l) ? l + 1 : l;
+                if (!worse(w, i)) return;
+                swap(i, w);
+                i = w;
             }
         }
+
+        private void swap(int i, int j) {
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+            double m = mis[i];
+            mis[i] = mis[j];
+            mis[j] = m;
+            double r = ranks[i];
+            ranks[i] = ranks[j];
+            ranks[j] = r;
+        }
+
+        /** the kept postings, in heap order (the pair loop does not depend on the order) */
+        void drainTo(PostingBuffer out) {
+            for (int i = 0; i < size; i++) out.add(ids[i], mis[i]);
+        }
+
+        void report(Metrics metrics) {
+            if (metrics == null || dropped == 0) return;
+            metrics.emit("FEATURE_CAPPED");
+            metrics.emit("POSTING_DROPPED", dropped);
+            metrics.emit("DROPPED_MI_MILLI", Math.round(droppedMi * 1000));
+        }
+    }
+
+    /**
+     * Receives one (canonical pair, shared feature) from {@link #forEachAllowedPair}: the
+     * PairTable key of the pair and the MI of its first / second (smaller / larger id) predicate.
+     */
+    public interface PairSink {
+        void accept(int pair, double miFirst, double miSecond) throws IOException, InterruptedException;
+    }
+
+    /**
+     * The pair loop of one feature group: every pair (i < j) of predicates sharing the feature,
+     * restricted to the test pairs.
+     *
+     * @return number of pairs emitted
+     */
+    public static int forEachAllowedPair(PostingBuffer group,
+                                         PairTable pairs,
+                                         PairSink sink) throws IOException, InterruptedException {
+        int n = group.size();
+        if (n < 2) return 0;
+
+        int emitted = 0;
+        for (int i = 0; i < n; i++) {
+            int p1 = group.id(i);
+            double mi1 = group.mi(i);
+
+            for (int j = i + 1; j < n; j++) {
+                int p2 = group.id(j);
+                int pair = pairs.find(p1, p2);
+                if (pair < 0) continue;
+
+                // contribution for this shared feature (ids follow the canonical String order)
+                if (p1 <= p2) sink.accept(pair, mi1, group.mi(j));
+                else sink.accept(pair, group.mi(j), mi1);
+                emitted++;
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Pair loop across two blocks of one feature group: every (i in A, j in C), restricted to the
+     * test pairs.
+     *
+     * @return number of pairs emitted
+     */
+    public static int forEachAllowedCrossPair(PostingBuffer a,
+                                              PostingBuffer c,
+                                              PairTable pairs,
+                                              PairSink sink) throws IOException, InterruptedException {
+        int emitted = 0;
+        for (int i = 0; i < a.size(); i++) {
+            int p1 = a.id(i);
+            double mi1 = a.mi(i);
+
+            for (int j = 0; j < c.size(); j++) {
+                int p2 = c.id(j);
+                int pair = pairs.find(p1, p2);
+                if (pair < 0) continue;
+
+                if (p1 <= p2) sink.accept(pair, mi1, c.mi(j));
+                else sink.accept(pair, c.mi(j), mi1);
+                emitted++;
+            }
+        }
+        return emitted;
     }
 
     public static Job buildJob(Configuration conf,
@@ -168,6 +580,7 @@ public class Step4_IntersectionContrib {
 
         job.setMapperClass(ContribMapper.class);
         job.setReducerClass(ContribReducer.class);
+        job.setPartitionerClass(SkewPlan.SaltedPartitioner.class);
         job.setNumReduceTasks(reducers);
 
         // Input = TEXT (MI output)
@@ -177,25 +590,19 @@ public class Step4_IntersectionContrib {
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
         job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(Text.class);
+        job.setMapOutputValueClass(Posting.class);
 
         job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(DoubleWritable.class);
-
-        // cache test files (pairs are built from positive+negative)
-        FileSystem fsPos = positive.getFileSystem(conf);
-        FileSystem fsNeg = negative.getFileSystem(conf);
+        job.setOutputValueClass(DoubleVectorWritable.class);
 
-        Path fullPositivePath = fsPos.makeQualified(positive);
-        Path fullNegativePath = fsNeg.makeQualified(negative);
-
-        job.getConfiguration().setBoolean("mapreduce.job.cache.symlink.create", true);
-        job.addCacheFile(new URI(fullPositivePath.toString() + "#positive.txt"));
-        job.addCacheFile(new URI(fullNegativePath.toString() + "#negative.txt"));
+        // test pairs: the binary TestSet, or the pair files
+        TestData.addCacheFiles(job, positive, negative);
 
         FileInputFormat.addInputPath(job, miInput);
         FileOutputFormat.setOutputPath(job, output);
 
+        CompressionPolicy.apply(job, "Step4", CompressionPolicy.Output.SEQUENCE);
+
         return job;
     }
 }
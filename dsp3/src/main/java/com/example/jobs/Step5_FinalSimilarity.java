@@ -1,17 +1,27 @@
 package com.example.jobs;
 
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.DoubleVectorWritable;
+import com.example.helpers.Metrics;
+import com.example.helpers.PairTable;
+import com.example.helpers.PredicateStatsTable;
 import com.example.helpers.PorterStemmer;
 import com.example.helpers.TestData;
+import com.example.helpers.TestSet;
+import com.example.similarity.Measures;
+import com.example.similarity.SimilarityMeasure;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapreduce.*;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
@@ -19,15 +29,26 @@ import java.util.*;
 /**
  * Step5: FinalSimilarity
  *
- * Input:
+ * Input (reduce-side outer join on the canonical pair, MultipleInputs):
  *  Step4 output (SequenceFile):
  *     key: p1 \t p2          (canonical)
- *     value: contrib (DoubleWritable)
+ *     value: pair-aggregate terms of one shared feature (DoubleVectorWritable)
+ *  Test pairs (SequenceFile, written by buildJob to <output>_testpairs):
+ *     key: p1 \t p2          (canonical)
+ *     value: label + orientation of every test pair with that key (TestPairs)
+ *
+ * Each canonical test pair arrives at exactly one reducer, with its Step4 contributions or
+ * with none (similarity 0.0); Step4 keys without test pairs are dropped.
  *
- * Also loads denom table from denomDir (SequenceFile) in reducer setup.
+ * Also loads the predicate aggregates (denom table) from denomDir (SequenceFile) in reducer setup.
  *
  * Output (TEXT):
- *   pred1 \t pred2 \t similarity \t label
+ *   pred1 \t pred2 \t similarity \t label [\t similarity of the 2nd measure ...]
+ *
+ * similarity is the first measure of dirt.measures (default: dirt, the geometric mean of the
+ * X-slot and Y-slot Lin similarities); every further measure adds one column after the label,
+ * in the same order. Directional measures are scored in the orientation of the test file
+ * (pred1 -> pred2).
  *
  * IMPORTANT:
  *  - prints ALL test pairs from positive+negative files (keeps duplicates and orientation).
@@ -35,142 +56,244 @@ import java.util.*;
  */
 public class Step5_FinalSimilarity {
 
-    /** Mapper: passthrough Step4 records */
-    public static class FinalMapper extends Mapper<Text, DoubleWritable, Text, DoubleWritable> {
-        @Override
-        protected void map(Text key, DoubleWritable value, Context ctx) throws IOException, InterruptedException {
-            ctx.write(key, value);
+    /** Labels and orientations of the test pairs of one canonical key (duplicates kept). */
+    public static class TestPairs implements Writable {
+        private static final int LABEL = 1;
+        private static final int SWAPPED = 2;
+
+        private byte[] flags = new byte[4];
+        private int size;
+
+        public void clear() {
+            size = 0;
         }
-    }
 
-    public static class FinalReducer extends Reducer<Text, DoubleWritable, Text, Text> {
+        /** @param swapped the test file has the pair as (p2, p1) of the canonical key */
+        public void add(int label, boolean swapped) {
+            if (size == flags.length) flags = Arrays.copyOf(flags, size * 2);
+            flags[size++] = (byte) ((label == 1 ? LABEL : 0) | (swapped ? SWAPPED : 0));
+        }
 
-        private final PorterStemmer stemmer = new PorterStemmer();
+        public void addAll(TestPairs other) {
+            for (int i = 0; i < other.size; i++) add(other.label(i), other.swapped(i));
+        }
 
-        // denom[p] from Step3
-        private final Map<String, Double> denomMap = new HashMap<>();
+        public int size() {
+            return size;
+        }
 
-        // all test pairs (positive+negative) keyed by canonical "p1\tp2"
-        // value keeps duplicates + orientation
-        private Map<String, List<TestData.PairInfo>> testPairs = new HashMap<>();
+        public int label(int i) {
+            return flags[i] & LABEL;
+        }
 
-        // which canonical pairs we already printed (those that arrived from Step4)
-        private final Set<String> printedPairs = new HashSet<>();
+        public boolean swapped(int i) {
+            return (flags[i] & SWAPPED) != 0;
+        }
 
         @Override
-        protected void setup(Context ctx) throws IOException {
-            Configuration conf = ctx.getConfiguration();
-
-            // 1) load denomMap from Step3 output dir (SequenceFile)
-            String denomDir = conf.get("dirt.denom.dir");
-            if (denomDir != null) {
-                loadDenoms(conf, new Path(denomDir));
-            }
+        public void write(DataOutput out) throws IOException {
+            WritableUtils.writeVInt(out, size);
+            out.write(flags, 0, size);
+        }
 
-            // 2) load test pairs with DUPLICATES (and labels)
-            URI[] cache = ctx.getCacheFiles();
-            testPairs = TestData.loadPairsWithDuplicates(cache, stemmer);
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            size = WritableUtils.readVInt(in);
+            if (flags.length < size) flags = new byte[size];
+            in.readFully(flags, 0, size);
         }
+    }
 
-        private void loadDenoms(Configuration conf, Path denomDir) throws IOException {
-            FileSystem fs = denomDir.getFileSystem(conf);
-            if (!fs.exists(denomDir)) return;
+    /** Map output: one Step4 contribution or the test pairs of the key. */
+    public static class JoinValue implements Writable {
+        public boolean isPairs;
+        public final DoubleVectorWritable contrib = new DoubleVectorWritable();
+        public final TestPairs pairs = new TestPairs();
 
-            FileStatus[] statuses = fs.listStatus(denomDir);
-            if (statuses == null) return;
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeBoolean(isPairs);
+            if (isPairs) pairs.write(out);
+            else contrib.write(out);
+        }
 
-            Text k = new Text();
-            DoubleWritable v = new DoubleWritable();
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            isPairs = in.readBoolean();
+            if (isPairs) pairs.readFields(in);
+            else contrib.readFields(in);
+        }
+    }
 
-            for (FileStatus st : statuses) {
-                String name = st.getPath().getName();
-                if (name.startsWith("_") || name.startsWith(".")) continue; // _SUCCESS etc.
+    /** Mapper: Step4 records, tagged as contributions */
+    public static class FinalMapper extends Mapper<Text, DoubleVectorWritable, Text, JoinValue> {
+        private final JoinValue out = new JoinValue();
 
-                try (SequenceFile.Reader reader =
-                             new SequenceFile.Reader(conf, SequenceFile.Reader.file(st.getPath()))) {
-                    while (reader.next(k, v)) {
-                        denomMap.put(k.toString(), v.get());
-                    }
-                } catch (Exception ignored) {
-                    // tolerate non-seq files if exist
-                }
-            }
+        @Override
+        protected void map(Text key, DoubleVectorWritable value, Context ctx) throws IOException, InterruptedException {
+            out.isPairs = false;
+            out.contrib.set(value.values(), value.length());
+            ctx.write(key, out);
         }
+    }
 
-        private static String toCanonicalKey(String rawKey) {
-            if (rawKey == null) return "";
-            String[] p = rawKey.split("\t", -1);
-            if (p.length >= 2) return TestData.canonicalPairKey(p[0], p[1]);
-            return rawKey;
-        }
+    /** Mapper: test pair records, tagged as pairs */
+    public static class TestPairMapper extends Mapper<Text, TestPairs, Text, JoinValue> {
+        private final JoinValue out = new JoinValue();
 
         @Override
-        protected void reduce(Text pairKeyTxt, Iterable<DoubleWritable> vals, Context ctx)
-                throws IOException, InterruptedException {
+        protected void map(Text key, TestPairs value, Context ctx) throws IOException, InterruptedException {
+            out.isPairs = true;
+            out.pairs.clear();
+            out.pairs.addAll(value);
+            ctx.write(key, out);
+        }
+    }
 
-            String rawKey = pairKeyTxt.toString();
-            String canonKey = toCanonicalKey(rawKey);
+    public static class FinalReducer extends Reducer<Text, JoinValue, Text, Text> {
 
-            // only pairs in test set
-            List<TestData.PairInfo> infos = testPairs.get(canonKey);
-            if (infos == null || infos.isEmpty()) return;
+        private final PorterStemmer stemmer = new PorterStemmer();
 
-            // sum numerator contributions
-            double num = 0.0;
-            for (DoubleWritable v : vals) num += v.get();
+        // test predicates (ids for the aggregate table)
+        private TestSet testSet;
+        // predicate aggregates per slot [X: denom, sum of squares | Y: ...] from Step3, by id
+        private PredicateStatsTable stats;
+        private final double[] left = new double[Measures.predicateWidth()];
+        private final double[] right = new double[Measures.predicateWidth()];
 
-            // denom uses normalized predicates from PairInfo
-            TestData.PairInfo any = infos.get(0);
-            double d1 = denomMap.getOrDefault(any.p1, 0.0);
-            double d2 = denomMap.getOrDefault(any.p2, 0.0);
-            double denom = d1 + d2;
+        private final TestPairs pairs = new TestPairs();
+        private Measures measures;
+        private double[] pairSum;
+        private double[] scores;
 
-            double sim = 0.0;
-            if (denom > 0.0) sim = num / denom;
+        private Metrics metrics;
 
-            printedPairs.add(canonKey);
+        @Override
+        protected void setup(Context ctx) throws IOException {
+            Configuration conf = ctx.getConfiguration();
+            metrics = new Metrics(ctx, "Step5");
+            measures = Measures.load(conf);
+            pairSum = new double[measures.pairWidth()];
+            scores = new double[measures.size()];
 
-            // print ALL duplicates (preserve direction)
-            for (TestData.PairInfo info : infos) {
-                // key: "p1\tp2", value: "sim\tlabel"  => output has 4 columns
-                ctx.write(new Text(info.p1 + "\t" + info.p2),
-                          new Text(sim + "\t" + info.label));
+            // 1) test predicates (the pairs themselves come in through the join)
+            long t0 = System.currentTimeMillis();
+            URI[] cache = ctx.getCacheFiles();
+            testSet = TestSet.load(cache, stemmer);
+            metrics.setupTime("REDUCE_TEST_PAIRS", System.currentTimeMillis() - t0);
+
+            // 2) load the aggregates from Step3 output dir (SequenceFile),
+            //    only for test predicates (Step3 may cover ALL predicates in index mode);
+            //    a table of another width (e.g. an older index run) fails the task: Denoms.WrongWidth
+            stats = new PredicateStatsTable(testSet.predicateCount(), Measures.predicateWidth());
+            String denomDir = conf.get("dirt.denom.dir");
+            if (denomDir != null) {
+                t0 = System.currentTimeMillis();
+                metrics.error("DENOM_FILE_UNREADABLE", stats.load(conf, new Path(denomDir), testSet));
+                metrics.setupTime("REDUCE_DENOMS", System.currentTimeMillis() - t0);
             }
         }
 
-        /**
-         * Print missing test pairs with similarity=0.0.
-         * Works even with multiple reducers: each reducer prints only the keys that hash to it.
-         */
-        @Override
-        protected void cleanup(Context ctx) throws IOException, InterruptedException {
-            Configuration conf = ctx.getConfiguration();
-            int numReduces = conf.getInt("mapreduce.job.reduces", 1);
+        /** "sim1 \t label [\t sim2 ...]" of one oriented test pair (pairSum all zeros: no shared feature) */
+        private String scoreColumns(int first, int second, int label, boolean swapped) {
+            double[] l = stats.get(swapped ? second : first, left);
+            double[] r = stats.get(swapped ? first : second, right);
+            measures.score(pairSum, swapped, l, r, scores);
 
-            int myReduceId = 0;
-            try {
-                myReduceId = ctx.getTaskAttemptID().getTaskID().getId(); // 0..numReduces-1
-            } catch (Exception ignored) {}
+            StringBuilder sb = new StringBuilder();
+            sb.append(scores[0]).append('\t').append(label);
+            for (int m = 1; m < scores.length; m++) sb.append('\t').append(scores[m]);
+            return sb.toString();
+        }
 
-            for (Map.Entry<String, List<TestData.PairInfo>> e : testPairs.entrySet()) {
-                String canonKey = e.getKey();
-                if (printedPairs.contains(canonKey)) continue;
+        @Override
+        protected void reduce(Text pairKeyTxt, Iterable<JoinValue> vals, Context ctx)
+                throws IOException, InterruptedException {
 
-                // partition responsibility if reducers > 1 (default HashPartitioner behavior)
-                if (numReduces > 1) {
-                    int bucket = (canonKey.hashCode() & Integer.MAX_VALUE) % numReduces;
-                    if (bucket != myReduceId) continue;
+            // sum the pair aggregates over the shared features, collect the test pairs
+            pairs.clear();
+            boolean shared = false;
+            Arrays.fill(pairSum, 0.0);
+            for (JoinValue v : vals) {
+                if (v.isPairs) {
+                    pairs.addAll(v.pairs);
+                    continue;
                 }
+                double[] t = v.contrib.values();
+                for (int i = 0; i < pairSum.length; i++) pairSum[i] += t[i];
+                shared = true;
+            }
+
+            // only pairs in test set
+            if (pairs.size() == 0) {
+                metrics.reject("NOT_TEST_PAIR");
+                return;
+            }
+
+            // canonical key "p1 \t p2"; the test pairs say which way round to print it
+            String rawKey = pairKeyTxt.toString();
+            int tab = rawKey.indexOf('\t');
+            String p1 = rawKey.substring(0, tab);
+            String p2 = rawKey.substring(tab + 1);
+            int first = testSet.indexOf(p1);
+            int second = testSet.indexOf(p2);
+
+            if (shared) {
+                SimilarityMeasure.PredicateAggregate sum = SimilarityMeasure.PredicateAggregate.SUM;
+                double denom = Measures.predicateTotal(stats.get(first, left), sum)
+                             + Measures.predicateTotal(stats.get(second, right), sum);
+                if (!(denom > 0.0)) metrics.reject("ZERO_DENOMINATOR");
+            }
+
+            // print ALL duplicates (preserve direction)
+            Text forward = new Text(rawKey);
+            Text backward = new Text(p2 + "\t" + p1);
+            for (int i = 0; i < pairs.size(); i++) {
+                // key: "p1\tp2", value: "sim\tlabel[\tsim2...]"  => 4 columns (+1 per extra measure)
+                boolean swapped = pairs.swapped(i);
+                ctx.write(swapped ? backward : forward,
+                          new Text(scoreColumns(first, second, pairs.label(i), swapped)));
+            }
+            metrics.emit(shared ? "SCORED" : "NO_SHARED_FEATURES", pairs.size());
+        }
 
-                List<TestData.PairInfo> infos = e.getValue();
-                if (infos == null) continue;
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
 
-                for (TestData.PairInfo info : infos) {
-                    ctx.write(new Text(info.p1 + "\t" + info.p2),
-                              new Text("0.0\t" + info.label));
+    /**
+     * The join's second input: one record per canonical test pair with the labels and
+     * orientations of all its occurrences in the pair files. Read from the binary test set
+     * (dirt.testset, written once by the driver) when there is one, else parsed from the files.
+     *
+     * @return number of canonical pairs written
+     */
+    public static int writeTestPairs(Configuration conf, Path positive, Path negative, Path out) throws IOException {
+        String binary = conf.get(TestSet.PATH_KEY);
+        TestSet testSet = binary != null
+                ? TestSet.read(conf, new Path(binary))
+                : TestSet.read(conf, positive, negative);
+        PairTable table = new PairTable(testSet);
+
+        Text key = new Text();
+        TestPairs value = new TestPairs();
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(out),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(TestPairs.class))) {
+            for (int k = 0; k < table.size(); k++) {
+                value.clear();
+                for (int j = 0; j < table.count(k); j++) {
+                    int pair = table.pair(k, j);
+                    value.add(testSet.label(pair), testSet.left(pair) > testSet.right(pair));
                 }
+                key.set(testSet.predicate(table.first(k)) + TestData.SEP + testSet.predicate(table.second(k)));
+                writer.append(key, value);
             }
         }
+        return table.size();
     }
 
     public static Job buildJob(Configuration conf,
@@ -186,16 +309,17 @@ public class Step5_FinalSimilarity {
 
         job.getConfiguration().set("dirt.denom.dir", denomDir.toString());
 
-        // input: SequenceFile from Step4
-        job.setInputFormatClass(SequenceFileInputFormat.class);
-        FileInputFormat.addInputPath(job, step4Input);
+        // inputs: SequenceFile from Step4 + the test pairs, joined on the canonical pair
+        Path testPairs = new Path(output.getParent(), output.getName() + "_testpairs");
+        writeTestPairs(conf, positive, negative, testPairs);
+        MultipleInputs.addInputPath(job, step4Input, SequenceFileInputFormat.class, FinalMapper.class);
+        MultipleInputs.addInputPath(job, testPairs, SequenceFileInputFormat.class, TestPairMapper.class);
 
-        job.setMapperClass(FinalMapper.class);
         job.setReducerClass(FinalReducer.class);
-        job.setNumReduceTasks(1);
+        job.setNumReduceTasks(reducers);
 
         job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(DoubleWritable.class);
+        job.setMapOutputValueClass(JoinValue.class);
 
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
@@ -203,15 +327,10 @@ public class Step5_FinalSimilarity {
         job.setOutputFormatClass(TextOutputFormat.class);
         FileOutputFormat.setOutputPath(job, output);
 
-        // cache files for labels
-        FileSystem fsPos = positive.getFileSystem(conf);
-        FileSystem fsNeg = negative.getFileSystem(conf);
-        Path fullPositivePath = fsPos.makeQualified(positive);
-        Path fullNegativePath = fsNeg.makeQualified(negative);
+        // test predicates: the binary TestSet, or the pair files
+        TestData.addCacheFiles(job, positive, negative);
 
-        job.getConfiguration().setBoolean("mapreduce.job.cache.symlink.create", true);
-        job.addCacheFile(new URI(fullPositivePath.toString() + "#positive.txt"));
-        job.addCacheFile(new URI(fullNegativePath.toString() + "#negative.txt"));
+        CompressionPolicy.apply(job, "Step5", CompressionPolicy.Output.FINAL);
 
         return job;
     }
@@ -0,0 +1,251 @@
+package com.example.jobs;
+
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.Metrics;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Step6: SortBySimilarity (optional, -D dirt.sort.output=true)
+ *
+ * Input (TEXT) from Step5_FinalSimilarity:
+ *   pred1 \t pred2 \t similarity \t label
+ *
+ * Output (TEXT, same lines): globally sorted by similarity, descending, i.e. part-r-00000,
+ * part-r-00001, ... simply concatenated in order are the full ranking.
+ *
+ * The map key is the similarity (SimilarityInputFormat), ordered by DescendingDoubleComparator.
+ * With more than one reducer a TotalOrderPartitioner gives each reducer one similarity range;
+ * the range boundaries are cut from an InputSampler.RandomSampler sample of the keys:
+ *   dirt.sort.sample.freq   (0.1)    probability of sampling a record
+ *   dirt.sort.sample.size   (10000)  max samples in total
+ *   dirt.sort.sample.splits (10)     max input splits read
+ *
+ * Test pairs that never co-occur all have similarity 0.0 and so end up in the same range
+ * (one key, one reducer); the boundaries that would repeat are nudged apart, leaving empty ranges.
+ * Within one similarity the order of the lines is not defined.
+ */
+public class Step6_SortBySimilarity {
+
+    public static final String ENABLED_KEY = "dirt.sort.output";
+    public static final String SAMPLE_FREQ_KEY = "dirt.sort.sample.freq";
+    public static final String SAMPLE_SIZE_KEY = "dirt.sort.sample.size";
+    public static final String SAMPLE_SPLITS_KEY = "dirt.sort.sample.splits";
+
+    /** Step5 lines keyed by their similarity (3rd column); lines without one are skipped. */
+    public static class SimilarityInputFormat extends FileInputFormat<DoubleWritable, Text> {
+
+        @Override
+        public RecordReader<DoubleWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext ctx) {
+            return new SimilarityRecordReader();
+        }
+
+        @Override
+        protected boolean isSplitable(JobContext ctx, Path file) {
+            CompressionCodec codec = new CompressionCodecFactory(ctx.getConfiguration()).getCodec(file);
+            return codec == null || codec instanceof SplittableCompressionCodec;
+        }
+    }
+
+    public static class SimilarityRecordReader extends RecordReader<DoubleWritable, Text> {
+        private final LineRecordReader lines = new LineRecordReader();
+        private final DoubleWritable key = new DoubleWritable();
+        private TaskAttemptContext ctx;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext ctx) throws IOException {
+            this.ctx = ctx;
+            lines.initialize(split, ctx);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            while (lines.nextKeyValue()) {
+                Text line = lines.getCurrentValue();
+                Double sim = similarity(line);
+                if (sim != null) {
+                    key.set(sim);
+                    return true;
+                }
+                // null while InputSampler reads the split outside of a task
+                Counter bad = ctx.getCounter("Step6.reject", "BAD_SIMILARITY");
+                if (bad != null) bad.increment(1);
+            }
+            return false;
+        }
+
+        private static Double similarity(Text line) {
+            String[] p = line.toString().split("\t", -1);
+            if (p.length < 3) return null;
+            try {
+                double d = Double.parseDouble(p[2].trim());
+                return Double.isNaN(d) ? null : d;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public DoubleWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return lines.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return lines.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+
+    /** Highest similarity first (raw bytes compare, no deserialization). */
+    public static class DescendingDoubleComparator extends DoubleWritable.Comparator {
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return -super.compare(b1, s1, l1, b2, s2, l2);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable a, WritableComparable b) {
+            return -super.compare(a, b);
+        }
+    }
+
+    /** Mapper: identity (the input format already keys the line by its similarity) */
+    public static class SortMapper extends Mapper<DoubleWritable, Text, DoubleWritable, Text> {
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) {
+            metrics = new Metrics(ctx, "Step6");
+        }
+
+        @Override
+        protected void map(DoubleWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+            ctx.write(key, value);
+            metrics.emit("LINE");
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
+
+    /** Reducer: writes the lines back unchanged, in key order */
+    public static class SortReducer extends Reducer<DoubleWritable, Text, Text, NullWritable> {
+        @Override
+        protected void reduce(DoubleWritable key, Iterable<Text> vals, Context ctx) throws IOException, InterruptedException {
+            for (Text v : vals) ctx.write(v, NullWritable.get());
+        }
+    }
+
+    /**
+     * Cuts reducers - 1 boundaries (descending) from a key sample. TotalOrderPartitioner needs
+     * exactly that many, strictly ordered, while InputSampler.writePartitionFile drops repeated
+     * samples and then fails on a long run of equal similarities (the 0.0 pairs). A repeated
+     * boundary is moved just below the previous one instead, which leaves that range empty.
+     */
+    private static void writePartitionFile(Job job, Path partitionFile) throws Exception {
+        Configuration conf = job.getConfiguration();
+        InputSampler.Sampler<DoubleWritable, Text> sampler = new InputSampler.RandomSampler<>(
+                conf.getDouble(SAMPLE_FREQ_KEY, 0.1),
+                conf.getInt(SAMPLE_SIZE_KEY, 10000),
+                conf.getInt(SAMPLE_SPLITS_KEY, 10));
+        // K[] is an Object[] at runtime
+        Object[] samples = sampler.getSample(new SimilarityInputFormat(), job);
+
+        double[] sims = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) sims[i] = ((DoubleWritable) samples[i]).get();
+        Arrays.sort(sims);
+
+        int reducers = job.getNumReduceTasks();
+        FileSystem fs = partitionFile.getFileSystem(conf);
+        if (fs.exists(partitionFile)) fs.delete(partitionFile, false);
+        try (SequenceFile.Writer w = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(partitionFile),
+                SequenceFile.Writer.keyClass(DoubleWritable.class),
+                SequenceFile.Writer.valueClass(NullWritable.class))) {
+            double last = Double.POSITIVE_INFINITY;
+            for (int i = 1; i < reducers; i++) {
+                // i-th quantile from the top; no sample at all (empty input): start at 0.0
+                double cut = sims.length == 0 ? 0.0 : sims[sims.length - 1 - (int) ((long) i * sims.length / reducers)];
+                if (Double.compare(cut, last) >= 0) cut = Math.nextDown(last);
+                w.append(new DoubleWritable(cut), NullWritable.get());
+                last = cut;
+            }
+        }
+    }
+
+    public static Job buildJob(Configuration conf,
+                               Path step5Output,
+                               Path output,
+                               int reducers) throws Exception {
+
+        Job job = Job.getInstance(conf, "Step6_SortBySimilarity");
+        job.setJarByClass(Step6_SortBySimilarity.class);
+
+        job.setInputFormatClass(SimilarityInputFormat.class);
+        FileInputFormat.addInputPath(job, step5Output);
+
+        job.setMapperClass(SortMapper.class);
+        job.setReducerClass(SortReducer.class);
+        job.setNumReduceTasks(Math.max(1, reducers));
+
+        job.setMapOutputKeyClass(DoubleWritable.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setSortComparatorClass(DescendingDoubleComparator.class);
+
+        if (job.getNumReduceTasks() > 1) {
+            Path partitionFile = new Path(output.getParent(), output.getName() + "_partitions");
+            writePartitionFile(job, partitionFile);
+            TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitionFile);
+            job.setPartitionerClass(TotalOrderPartitioner.class);
+        }
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        FileOutputFormat.setOutputPath(job, output);
+
+        CompressionPolicy.apply(job, "Step6", CompressionPolicy.Output.FINAL);
+
+        return job;
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.jobs;
+
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.DataFiles;
+import com.example.helpers.Metrics;
+import com.example.helpers.PrCurve;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Step7: EvaluateThresholds (optional, -D dirt.evaluate=true)
+ *
+ * Input (TEXT) from Step5_FinalSimilarity (or Step6_SortBySimilarity):
+ *   pred1 \t pred2 \t similarity \t label        (label 1 = positive, 0 = negative)
+ *
+ * Map: similarity -> (positives, negatives), summed per similarity by the combiner.
+ * Shuffle: descending similarity (Step6's comparator) to ONE reducer, which feeds the counts to a
+ * PrCurve: one pass, O(#distinct similarities) memory.
+ *
+ * After Step6 the input is already the ranking, so the driver runs evaluateSorted() instead:
+ * one streaming pass over Step6's part files in name order, no shuffle and no sort. The job
+ * above is the fallback for unsorted (Step5) input.
+ *
+ * Output:
+ *   part-r-00000   CSV  threshold,precision,recall,f1   (one row per distinct similarity)
+ *   summary.json   totals, best-F1 threshold and average precision
+ *
+ * tools.ThresholdSweep computes the same files locally from a Step5 / Step6 output.
+ */
+public class Step7_EvaluateThresholds {
+
+    public static final String ENABLED_KEY = "dirt.evaluate";
+    public static final String SUMMARY_FILE = "summary.json";
+
+    /** Number of positive / negative test pairs (of one similarity). */
+    public static class LabelCounts implements Writable {
+        public long pos;
+        public long neg;
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            WritableUtils.writeVLong(out, pos);
+            WritableUtils.writeVLong(out, neg);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            pos = WritableUtils.readVLong(in);
+            neg = WritableUtils.readVLong(in);
+        }
+    }
+
+    /** Mapper: similarity -> label count */
+    public static class LabelMapper extends Mapper<DoubleWritable, Text, DoubleWritable, LabelCounts> {
+        private final LabelCounts out = new LabelCounts();
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) {
+            metrics = new Metrics(ctx, "Step7");
+        }
+
+        @Override
+        protected void map(DoubleWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+            String[] p = value.toString().split("\t", -1);
+            if (p.length < 4) {
+                metrics.reject("NO_LABEL");
+                return;
+            }
+            String label = p[3].trim();
+            if ("1".equals(label)) {
+                out.pos = 1;
+                out.neg = 0;
+            } else if ("0".equals(label)) {
+                out.pos = 0;
+                out.neg = 1;
+            } else {
+                metrics.reject("BAD_LABEL");
+                return;
+            }
+            ctx.write(key, out);
+            metrics.emit(out.pos == 1 ? "POSITIVE" : "NEGATIVE");
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
+
+    /** Combiner: sums the counts of one similarity */
+    public static class SumCombiner extends Reducer<DoubleWritable, LabelCounts, DoubleWritable, LabelCounts> {
+        private final LabelCounts out = new LabelCounts();
+
+        @Override
+        protected void reduce(DoubleWritable key, Iterable<LabelCounts> vals, Context ctx) throws IOException, InterruptedException {
+            out.pos = 0;
+            out.neg = 0;
+            for (LabelCounts v : vals) {
+                out.pos += v.pos;
+                out.neg += v.neg;
+            }
+            ctx.write(key, out);
+        }
+    }
+
+    /** Reducer (single): similarities arrive highest first -> PR curve, written in cleanup */
+    public static class CurveReducer extends Reducer<DoubleWritable, LabelCounts, Text, NullWritable> {
+        private final PrCurve curve = new PrCurve();
+
+        @Override
+        protected void reduce(DoubleWritable key, Iterable<LabelCounts> vals, Context ctx) {
+            long pos = 0;
+            long neg = 0;
+            for (LabelCounts v : vals) {
+                pos += v.pos;
+                neg += v.neg;
+            }
+            curve.add(key.get(), pos, neg);
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException, InterruptedException {
+            curve.finish();
+
+            Text line = new Text(PrCurve.csvHeader());
+            ctx.write(line, NullWritable.get());
+            for (int i = 0; i < curve.size(); i++) {
+                line.set(curve.csvLine(i));
+                ctx.write(line, NullWritable.get());
+            }
+
+            // next to the part file; committed with the task output
+            Path summary = new Path(FileOutputFormat.getWorkOutputPath(ctx), SUMMARY_FILE);
+            FileSystem fs = summary.getFileSystem(ctx.getConfiguration());
+            try (Writer w = new OutputStreamWriter(fs.create(summary, true), StandardCharsets.UTF_8)) {
+                w.write(curve.summaryJson());
+            }
+
+            ctx.getCounter("Step7.curve", "THRESHOLDS").increment(curve.size());
+        }
+    }
+
+    /**
+     * The curve of a Step6 output (part files in name order = highest similarity first), streamed
+     * into a PrCurve; writes the same part-r-00000 and summary.json as the job. Lines without a
+     * similarity or a 0/1 label are skipped and counted in skipped[0].
+     *
+     * @throws IOException if the input is not in descending similarity order
+     */
+    public static PrCurve evaluateSorted(Configuration conf, Path sorted, Path output, long[] skipped)
+            throws IOException {
+        PrCurve curve = new PrCurve();
+        for (Path f : DataFiles.list(conf, sorted)) {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(DataFiles.open(conf, f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = line.split("\t", -1);
+                    String label = p.length < 4 ? "" : p[3].trim();
+                    double sim;
+                    try {
+                        sim = p.length < 4 ? Double.NaN : Double.parseDouble(p[2].trim());
+                    } catch (NumberFormatException e) {
+                        sim = Double.NaN;
+                    }
+                    if (Double.isNaN(sim) || !("1".equals(label) || "0".equals(label))) {
+                        if (skipped != null) skipped[0]++;
+                        continue;
+                    }
+                    try {
+                        curve.add(sim, "1".equals(label), 1);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(f + " is not sorted by similarity: " + e.getMessage());
+                    }
+                }
+            }
+        }
+        curve.finish();
+
+        FileSystem fs = output.getFileSystem(conf);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(
+                fs.create(new Path(output, "part-r-00000"), true), StandardCharsets.UTF_8))) {
+            curve.writeCsv(w);
+        }
+        try (Writer w = new OutputStreamWriter(fs.create(new Path(output, SUMMARY_FILE), true), StandardCharsets.UTF_8)) {
+            w.write(curve.summaryJson());
+        }
+        fs.create(new Path(output, FileOutputCommitter.SUCCEEDED_FILE_NAME), true).close();
+        return curve;
+    }
+
+    public static Job buildJob(Configuration conf,
+                               Path scoredPairs,
+                               Path output) throws Exception {
+
+        Job job = Job.getInstance(conf, "Step7_EvaluateThresholds");
+        job.setJarByClass(Step7_EvaluateThresholds.class);
+
+        job.setInputFormatClass(Step6_SortBySimilarity.SimilarityInputFormat.class);
+        FileInputFormat.addInputPath(job, scoredPairs);
+
+        job.setMapperClass(LabelMapper.class);
+        job.setCombinerClass(SumCombiner.class);
+        job.setReducerClass(CurveReducer.class);
+        job.setNumReduceTasks(1);
+
+        job.setMapOutputKeyClass(DoubleWritable.class);
+        job.setMapOutputValueClass(LabelCounts.class);
+        job.setSortComparatorClass(Step6_SortBySimilarity.DescendingDoubleComparator.class);
+
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+        FileOutputFormat.setOutputPath(job, output);
+
+        CompressionPolicy.apply(job, "Step7", CompressionPolicy.Output.FINAL);
+
+        return job;
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.jobs;
+
+import com.example.helpers.CompressionPolicy;
+import com.example.helpers.Metrics;
+import com.example.similarity.Measures;
+import com.example.similarity.SimilarityMeasure;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ClassUtil;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
+import org.apache.parquet.hadoop.example.ExampleOutputFormat;
+import org.apache.parquet.hadoop.example.GroupWriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Step8: ExportParquet (optional, -D dirt.export.parquet=true)
+ *
+ * Input (TEXT), one job per table:
+ *   mi      Step2_ComputeMI:        pred \t slot \t word \t mi
+ *   scores  Step5_FinalSimilarity:  pred1 \t pred2 \t similarity \t label [\t similarity 2 ...]
+ *
+ * Output (Parquet, one file per reducer):
+ *   mi      predicate: string, slot: string, word: string, mi: double
+ *   scores  pred1: string, pred2: string, similarity: double, label: int32,
+ *           one double column per further measure of dirt.measures (named after the measure)
+ *
+ * Shuffle: the whole line is the key, partitioned by its first column, so every predicate lives
+ * in exactly one file and every file is sorted by (predicate, ...). The min/max statistics of
+ * the row groups and pages then skip most of a file for a predicate filter (Spark / Presto
+ * predicate pushdown). String columns are dictionary encoded (low-cardinality slot and
+ * predicates: a few bits per value).
+ *
+ * Keys:
+ *   dirt.export.parquet        [false]   run the export after the pipeline
+ *   dirt.export.parquet.codec  [snappy]  uncompressed, snappy, gzip, zstd, lz4_raw
+ *   parquet.block.size / parquet.page.size / parquet.dictionary.page.size  Parquet's own keys
+ *
+ * Parquet is not on the Hadoop classpath: buildJob ships its jars with the job (tmpjars, as
+ * -libjars would).
+ */
+public class Step8_ExportParquet {
+
+    public static final String ENABLED_KEY = "dirt.export.parquet";
+    public static final String CODEC_KEY = "dirt.export.parquet.codec";
+
+    /** The exported tables. */
+    public enum Table {
+        MI("mi"),
+        SCORES("scores");
+
+        public final String dirName;
+
+        Table(String dirName) {
+            this.dirName = dirName;
+        }
+    }
+
+    // Parquet and its runtime dependencies (parquet-jackson is runtime only: looked up by name)
+    private static final String[] PARQUET_CLASSES = {
+            "org.apache.parquet.hadoop.ParquetOutputFormat",                       // parquet-hadoop
+            "org.apache.parquet.schema.MessageType",                               // parquet-column
+            "org.apache.parquet.column.values.bitpacking.BytePacker",              // parquet-encoding
+            "org.apache.parquet.bytes.BytesInput",                                 // parquet-common
+            "org.apache.parquet.format.FileMetaData",                              // parquet-format-structures
+            "shaded.parquet.com.fasterxml.jackson.databind.ObjectMapper",          // parquet-jackson
+            "io.airlift.compress.Compressor",                                      // aircompressor (lz4_raw)
+            "org.apache.commons.pool.ObjectPool",                                  // commons-pool
+            "com.github.luben.zstd.Zstd",                                          // zstd-jni
+    };
+
+    /** Parquet schema of a table (the extra measure columns of scores follow dirt.measures). */
+    public static MessageType schema(Configuration conf, Table table) {
+        if (table == Table.MI) {
+            return MessageTypeParser.parseMessageType(
+                    "message mi {\n" +
+                    "  required binary predicate (STRING);\n" +
+                    "  required binary slot (STRING);\n" +
+                    "  required binary word (STRING);\n" +
+                    "  required double mi;\n" +
+                    "}");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("message scores {\n")
+          .append("  required binary pred1 (STRING);\n")
+          .append("  required binary pred2 (STRING);\n")
+          .append("  required double similarity;\n")
+          .append("  required int32 label;\n");
+        List<SimilarityMeasure> measures = Measures.load(conf).list();
+        for (int m = 1; m < measures.size(); m++) {
+            sb.append("  optional double ").append(columnName(measures.get(m).name())).append(";\n");
+        }
+        return MessageTypeParser.parseMessageType(sb.append("}").toString());
+    }
+
+    /** measure name -> Parquet column name (class names of custom measures contain dots) */
+    static String columnName(String measure) {
+        return measure.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_]", "_");
+    }
+
+    /** Mapper: line -> (line, nothing); the reducers get the lines sorted */
+    public static class LineMapper extends Mapper<LongWritable, Text, Text, NullWritable> {
+        @Override
+        protected void map(LongWritable key, Text value, Context ctx) throws IOException, InterruptedException {
+            if (value.getLength() > 0) ctx.write(value, NullWritable.get());
+        }
+    }
+
+    /** Partition by the first column (predicate / pred1) only: one file per predicate. */
+    public static class FirstColumnPartitioner extends Partitioner<Text, NullWritable> {
+        @Override
+        public int getPartition(Text key, NullWritable value, int numPartitions) {
+            byte[] b = key.getBytes();
+            int end = 0;
+            while (end < key.getLength() && b[end] != '\t') end++;
+            int h = 0;
+            for (int i = 0; i < end; i++) h = 31 * h + b[i];
+            return (h & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    /** Reducer: sorted lines -> Parquet rows (duplicate lines stay duplicate rows) */
+    public static class ParquetReducer extends Reducer<Text, NullWritable, Void, Group> {
+        private Table table;
+        private SimpleGroupFactory rows;
+        private int extraMeasures;
+        private Metrics metrics;
+
+        @Override
+        protected void setup(Context ctx) {
+            Configuration conf = ctx.getConfiguration();
+            table = Table.valueOf(conf.get("dirt.export.table"));
+            MessageType schema = GroupWriteSupport.getSchema(conf);
+            rows = new SimpleGroupFactory(schema);
+            extraMeasures = schema.getFieldCount() - 4;
+            metrics = new Metrics(ctx, "Step8");
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<NullWritable> vals, Context ctx) throws IOException, InterruptedException {
+            Group row;
+            try {
+                row = table == Table.MI ? miRow(key.toString()) : scoreRow(key.toString());
+            } catch (NumberFormatException e) {
+                row = null;
+            }
+            for (NullWritable ignored : vals) {
+                if (row == null) {
+                    metrics.reject("MALFORMED");
+                    continue;
+                }
+                ctx.write(null, row);
+                metrics.emit("ROW");
+            }
+        }
+
+        private Group miRow(String line) {
+            String[] p = line.split("\t", -1);
+            if (p.length != 4) return null;
+            return rows.newGroup()
+                    .append("predicate", p[0])
+                    .append("slot", p[1])
+                    .append("word", p[2])
+                    .append("mi", Double.parseDouble(p[3]));
+        }
+
+        private Group scoreRow(String line) {
+            String[] p = line.split("\t", -1);
+            if (p.length < 4) return null;
+            Group row = rows.newGroup()
+                    .append("pred1", p[0])
+                    .append("pred2", p[1])
+                    .append("similarity", Double.parseDouble(p[2]))
+                    .append("label", Integer.parseInt(p[3].trim()));
+            // columns 5.. follow dirt.measures; a shorter line leaves them null
+            for (int m = 0; m < extraMeasures && 4 + m < p.length; m++) {
+                row.add(4 + m, Double.parseDouble(p[4 + m]));
+            }
+            return row;
+        }
+
+        @Override
+        protected void cleanup(Context ctx) throws IOException {
+            metrics.close();
+        }
+    }
+
+    public static Job buildJob(Configuration conf,
+                               Table table,
+                               Path input,
+                               Path output,
+                               int reducers) throws Exception {
+
+        Job job = Job.getInstance(conf, "Step8-ExportParquet-" + table.dirName);
+        job.setJarByClass(Step8_ExportParquet.class);
+        Configuration jc = job.getConfiguration();
+        jc.set("dirt.export.table", table.name());
+
+        job.setInputFormatClass(TextInputFormat.class);
+        FileInputFormat.addInputPath(job, input);
+
+        job.setMapperClass(LineMapper.class);
+        job.setPartitionerClass(FirstColumnPartitioner.class);
+        job.setReducerClass(ParquetReducer.class);
+        job.setNumReduceTasks(reducers);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(NullWritable.class);
+
+        job.setOutputFormatClass(ExampleOutputFormat.class);
+        job.setOutputKeyClass(Void.class);
+        job.setOutputValueClass(Group.class);
+        FileOutputFormat.setOutputPath(job, output);
+
+        CompressionPolicy.apply(job, "Step8", CompressionPolicy.Output.FINAL);
+
+        // after the policy: Parquet compresses its pages itself, the FileOutputFormat codec is unused
+        ExampleOutputFormat.setSchema(job, schema(jc, table));
+        ParquetOutputFormat.setEnableDictionary(job, true);
+        // no _metadata / _common_metadata summary files: readers take the schema from the footers
+        jc.set(ParquetOutputFormat.JOB_SUMMARY_LEVEL, "NONE");
+        ParquetOutputFormat.setCompression(job,
+                CompressionCodecName.fromConf(jc.get(CODEC_KEY, "snappy").toUpperCase(Locale.ROOT)));
+
+        shipParquetJars(jc);
+        return job;
+    }
+
+    /** Adds the jars of the Parquet classes to the job's tmpjars (what -libjars sets). */
+    private static void shipParquetJars(Configuration conf) {
+        Set<String> jars = new LinkedHashSet<>(conf.getTrimmedStringCollection("tmpjars"));
+        for (String name : PARQUET_CLASSES) {
+            try {
+                String jar = ClassUtil.findContainingJar(Class.forName(name));
+                if (jar != null) jars.add(new File(jar).toURI().toString());
+            } catch (ClassNotFoundException e) {
+                // optional codec jar not on the client classpath: that codec is not available
+            }
+        }
+        conf.set("tmpjars", String.join(",", jars));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.serve;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free request latency histogram with power-of-two microsecond buckets.
+ *
+ * bucket b counts latencies in [2^(b-1), 2^b) us (bucket 0 = below 1 us),
+ * so percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long us = Math.max(0, nanos / 1000);
+        int b = us == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+        counts.incrementAndGet(b);
+        total.incrementAndGet();
+        sumMicros.addAndGet(us);
+
+        long max;
+        while (us > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, us)) { /* retry */ }
+    }
+
+    /** @return upper bound (us) of the bucket holding quantile q (0..1) */
+    public long percentileMicros(double q) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank) return b == 0 ? 1 : (1L << b);
+        }
+        return maxMicros.get();
+    }
+
+    public String toJson() {
+        long n = total.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"count\":").append(n)
+          .append(",\"meanMicros\":").append(n == 0 ? 0 : sumMicros.get() / n)
+          .append(",\"p50Micros\":").append(percentileMicros(0.50))
+          .append(",\"p90Micros\":").append(percentileMicros(0.90))
+          .append(",\"p99Micros\":").append(percentileMicros(0.99))
+          .append(",\"maxMicros\":").append(maxMicros.get())
+          .append(",\"buckets\":{");
+        boolean first = true;
+        for (int b = 0; b < BUCKETS; b++) {
+            long c = counts.get(b);
+            if (c == 0) continue;
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("\"le_").append(b == 0 ? 1 : (1L << b)).append("us\":").append(c);
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.serve;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small synchronized LRU cache (access-ordered LinkedHashMap).
+ */
+public class LruCache<K, V> {
+
+    private final Map<K, V> map;
+    private long hits;
+    private long misses;
+
+    public LruCache(final int capacity) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        V v = map.get(key);
+        if (v == null) misses++;
+        else hits++;
+        return v;
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
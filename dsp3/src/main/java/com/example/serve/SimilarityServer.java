@@ -0,0 +1,292 @@
+package com.example.serve;
+
+import com.example.helpers.Json;
+import com.example.index.PredicateIndex;
+import com.example.similarity.Measures;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP service for DIRT inference rules, backed by a {@link PredicateIndex}.
+ *
+ * Endpoints (all answers are JSON):
+ *   GET  /sim?p1=<pred>&p2=<pred>     scores of one pair (every measure of dirt.measures)
+ *   POST /batch                       body: one "pred1 \t pred2" per line -> similarity per pair
+ *                                     (at most MAX_BATCH_LINES pairs, else 413)
+ *   GET  /rules?p=<pred>&k=<n>        top-k rules for a predicate
+ *   GET  /metrics                     latency histograms + cache stats
+ *   GET  /health
+ *
+ * Predicates can be given raw ("X controls Y") or normalized ("X control Y"). Scores are those of
+ * Step5 with the same dirt.measures (default dirt); "similarity" is the first measure.
+ *
+ * Hot predicates are kept in two LRU caches: predicate -> id (skips stemming/normalization)
+ * and (id, k) -> top-k rules (skips the inverted-list scan). Unknown predicates are not cached,
+ * so requests with arbitrary strings cannot evict the hot entries.
+ *
+ * Usage:
+ *   java [-Ddirt.measures=dirt,lin] -cp <jar> com.example.serve.SimilarityServer \
+ *        <indexDir> [port=8080] [threads=16] [cacheSize=10000]
+ */
+public class SimilarityServer {
+
+    /** pairs per /batch request (also StreamingServer's): the answer is built in memory */
+    static final int MAX_BATCH_LINES = 10_000;
+
+    private final PredicateIndex index;
+    private final String[] measureNames;
+    private final LruCache<String, Integer> idCache;
+    private final LruCache<Long, List<PredicateIndex.Rule>> rulesCache;
+    private final Map<String, LatencyHistogram> latency = new LinkedHashMap<>();
+
+    private HttpServer http;
+    private ExecutorService pool;
+
+    public SimilarityServer(PredicateIndex index, int cacheSize) {
+        this.index = index;
+        this.measureNames = index.measures();
+        this.idCache = new LruCache<>(cacheSize);
+        this.rulesCache = new LruCache<>(cacheSize);
+        for (String ep : new String[]{"/sim", "/batch", "/rules", "/metrics"}) {
+            latency.put(ep, new LatencyHistogram());
+        }
+    }
+
+    public void start(int port, int threads) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/sim", timed("/sim", this::handleSim));
+        http.createContext("/batch", timed("/batch", this::handleBatch));
+        http.createContext("/rules", timed("/rules", this::handleRules));
+        http.createContext("/metrics", timed("/metrics", this::handleMetrics));
+        http.createContext("/health", ex -> respond(ex, 200, "{\"status\":\"ok\"}"));
+
+        pool = Executors.newFixedThreadPool(threads);
+        http.setExecutor(pool);
+        http.start();
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (http != null) http.stop(0);
+        if (pool != null) pool.shutdown();
+    }
+
+    // ------------------------------------------------------------
+    // handlers
+    // ------------------------------------------------------------
+
+    interface Handler {
+        String handle(HttpExchange ex) throws IOException;
+    }
+
+    /** Thrown by handlers for 4xx answers (also used by StreamingServer). */
+    static class BadRequest extends IOException {
+        final int status;
+        BadRequest(int status, String msg) {
+            super(msg);
+            this.status = status;
+        }
+    }
+
+    private HttpHandler timed(String name, Handler h) {
+        return timed(latency.get(name), h);
+    }
+
+    /** JSON answer of h, 4xx for a BadRequest, 500 otherwise; the latency goes to hist */
+    static HttpHandler timed(LatencyHistogram hist, Handler h) {
+        return ex -> {
+            long t0 = System.nanoTime();
+            try {
+                String body = h.handle(ex);
+                respond(ex, 200, body);
+            } catch (BadRequest e) {
+                respond(ex, e.status, "{\"error\":" + Json.quote(e.getMessage()) + "}");
+            } catch (Exception e) {
+                respond(ex, 500, "{\"error\":" + Json.quote(String.valueOf(e)) + "}");
+            } finally {
+                hist.record(System.nanoTime() - t0);
+            }
+        };
+    }
+
+    private String handleSim(HttpExchange ex) throws IOException {
+        Map<String, String> q = query(ex);
+        String p1 = required(q, "p1");
+        String p2 = required(q, "p2");
+
+        int a = id(p1);
+        int b = id(p2);
+        boolean known = a >= 0 && b >= 0;
+        double[] scores = known ? index.scores(a, b) : new double[measureNames.length];
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"p1\":").append(Json.quote(p1)).append(",\"p2\":").append(Json.quote(p2))
+          .append(",\"known\":").append(known)
+          .append(",\"similarity\":").append(Json.number(scores[0]))
+          .append(",\"measures\":{");
+        for (int m = 0; m < measureNames.length; m++) {
+            if (m > 0) sb.append(',');
+            sb.append(Json.quote(measureNames[m])).append(':').append(Json.number(scores[m]));
+        }
+        return sb.append("}}").toString();
+    }
+
+    private String handleBatch(HttpExchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+            throw new BadRequest(405, "POST one 'pred1<TAB>pred2' per line");
+        }
+
+        StringBuilder sb = new StringBuilder("{\"results\":[");
+        int n = 0;
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                String[] f = line.split("\t", -1);
+                if (f.length < 2) throw new BadRequest(400, "expected 'pred1<TAB>pred2': " + line);
+                if (n == MAX_BATCH_LINES) throw new BadRequest(413, "at most " + MAX_BATCH_LINES + " pairs per batch");
+
+                int a = id(f[0]);
+                int b = id(f[1]);
+                double sim = (a < 0 || b < 0) ? 0.0 : index.similarity(a, b);
+
+                if (n++ > 0) sb.append(',');
+                sb.append("{\"p1\":").append(Json.quote(f[0]))
+                  .append(",\"p2\":").append(Json.quote(f[1]))
+                  .append(",\"similarity\":").append(Json.number(sim)).append('}');
+            }
+        }
+        return sb.append("],\"count\":").append(n).append('}').toString();
+    }
+
+    private String handleRules(HttpExchange ex) throws IOException {
+        Map<String, String> q = query(ex);
+        String p = required(q, "p");
+
+        int k = 10;
+        if (q.containsKey("k")) {
+            try { k = Integer.parseInt(q.get("k")); }
+            catch (NumberFormatException e) { throw new BadRequest(400, "k must be an integer"); }
+        }
+        if (k <= 0 || k > 10000) throw new BadRequest(400, "k must be in 1..10000");
+
+        int id = id(p);
+        if (id < 0) throw new BadRequest(404, "unknown predicate: " + p);
+
+        long cacheKey = ((long) id << 32) | k;
+        List<PredicateIndex.Rule> rules = rulesCache.get(cacheKey);
+        if (rules == null) {
+            rules = index.topRules(id, k);
+            rulesCache.put(cacheKey, rules);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"pred\":").append(Json.quote(index.predicate(id))).append(",\"rules\":[");
+        for (int i = 0; i < rules.size(); i++) {
+            PredicateIndex.Rule r = rules.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"pred\":").append(Json.quote(r.pred))
+              .append(",\"score\":").append(Json.number(r.score)).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private String handleMetrics(HttpExchange ex) {
+        StringBuilder sb = new StringBuilder("{\"latency\":{");
+        int i = 0;
+        for (Map.Entry<String, LatencyHistogram> e : latency.entrySet()) {
+            if (i++ > 0) sb.append(',');
+            sb.append(Json.quote(e.getKey())).append(':').append(e.getValue().toJson());
+        }
+        sb.append("},\"cache\":{")
+          .append("\"ids\":{\"size\":").append(idCache.size())
+          .append(",\"hits\":").append(idCache.hits())
+          .append(",\"misses\":").append(idCache.misses()).append('}')
+          .append(",\"rules\":{\"size\":").append(rulesCache.size())
+          .append(",\"hits\":").append(rulesCache.hits())
+          .append(",\"misses\":").append(rulesCache.misses()).append('}')
+          .append("},\"predicates\":").append(index.size()).append('}');
+        return sb.toString();
+    }
+
+    // ------------------------------------------------------------
+    // helpers
+    // ------------------------------------------------------------
+
+    /** predicate -> index id (-1 if unknown), through the hot-predicate cache (hits only) */
+    private int id(String pred) {
+        Integer cached = idCache.get(pred);
+        if (cached != null) return cached;
+        int id = index.lookup(pred);
+        if (id >= 0) idCache.put(pred, id);
+        return id;
+    }
+
+    static String required(Map<String, String> q, String name) throws BadRequest {
+        String v = q.get(name);
+        if (v == null || v.trim().isEmpty()) throw new BadRequest(400, "missing parameter: " + name);
+        return v;
+    }
+
+    static Map<String, String> query(HttpExchange ex) throws UnsupportedEncodingException {
+        Map<String, String> out = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return out;
+        for (String kv : raw.split("&")) {
+            int eq = kv.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(kv.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(kv.substring(eq + 1), "UTF-8"));
+        }
+        return out;
+    }
+
+    static void respond(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SimilarityServer <indexDir> [port=8080] [threads=16] [cacheSize=10000]");
+            System.exit(1);
+        }
+        int port    = args.length >= 2 ? Integer.parseInt(args[1]) : 8080;
+        int threads = args.length >= 3 ? Integer.parseInt(args[2]) : 16;
+        int cache   = args.length >= 4 ? Integer.parseInt(args[3]) : 10000;
+
+        PredicateIndex index = PredicateIndex.open(new File(args[0]),
+                System.getProperty(Measures.KEY, Measures.DEFAULT).split(","));
+        SimilarityServer server = new SimilarityServer(index, cache);
+        server.start(port, threads);
+
+        System.out.println("Serving " + index.size() + " predicates on port " + server.port());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.serve;
+
+import com.example.helpers.Json;
+import com.example.helpers.PorterStemmer;
+import com.example.helpers.TestData;
+import com.example.serve.SimilarityServer.BadRequest;
+import com.example.similarity.Measures;
+import com.example.stream.FileTail;
+import com.example.stream.StreamingCounts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.serve.SimilarityServer.MAX_BATCH_LINES;
+import static com.example.serve.SimilarityServer.query;
+import static com.example.serve.SimilarityServer.required;
+import static com.example.serve.SimilarityServer.timed;
+
+/**
+ * Streaming DIRT service: follows a file of biarc lines (FileTail, the local stand-in for a
+ * queue), keeps the Step1 counts live in a StreamingCounts and answers similarity queries on
+ * them, without re-running the batch pipeline.
+ *
+ * Endpoints (all answers are JSON):
+ *   GET  /sim?p1=<pred>&p2=<pred>     scores of one pair (every measure of dirt.measures)
+ *   POST /batch                       body: one "pred1 \t pred2" per line -> similarity per pair
+ *                                     (at most SimilarityServer.MAX_BATCH_LINES pairs, else 413)
+ *   GET  /stats                       lines, predicates, tail offset, last snapshot, latencies
+ *   GET  /health
+ *
+ * Freshness: a line is counted as soon as the tail reads it (polled every pollMs once the file
+ * is caught up). A query sees it right away for the line's own predicate, and within refreshMs
+ * through the corpus-wide marginals of the other predicates (see StreamingCounts).
+ *
+ * Snapshots: every snapshotSeconds (and on shutdown) the counts go to <snapshotDir>/counts.seq
+ * (Step1 layout), with the source file and tail offset in its metadata; a restart restores both
+ * and only reads the lines appended since. snapshotDir "-" keeps everything in memory.
+ *
+ * Usage:
+ *   java [-Ddirt.measures=dirt,lin] -cp <jar> com.example.serve.StreamingServer \
+ *        <file> <snapshotDir|-> [port=8080] [threads=8] [snapshotSeconds=60] [refreshMs=1000]
+ */
+public class StreamingServer {
+
+    static final String SNAPSHOT_FILE = "counts.seq";
+
+    private static final int SHARDS = 64;
+    private static final long POLL_MS = 200;
+
+    private final StreamingCounts counts;
+    private final Configuration conf = new Configuration();
+    private final ThreadLocal<Measures> measures;
+    private final List<String> measureNames = new ArrayList<>();
+    private final PorterStemmer stemmer = new PorterStemmer();
+    private final Map<String, LatencyHistogram> latency = new LinkedHashMap<>();
+
+    private final File source;
+    private final Path snapshotDir;
+    private final long snapshotMs;
+    private volatile long lastSnapshot = System.currentTimeMillis();
+    private volatile long snapshotRecords;
+    private long restoredLines;   // lines counted before the last restart
+
+    private FileTail tail;
+    private Thread tailThread;
+    private HttpServer http;
+    private ExecutorService pool;
+
+    public StreamingServer(File source, Path snapshotDir, long snapshotMs, long refreshMs, String measureList) {
+        this.source = source;
+        this.snapshotDir = snapshotDir;
+        this.snapshotMs = snapshotMs;
+        this.counts = new StreamingCounts(SHARDS, refreshMs);
+
+        conf.set(Measures.KEY, measureList);
+        this.measures = ThreadLocal.withInitial(() -> Measures.load(conf));
+        measures.get().list().forEach(m -> measureNames.add(m.name()));
+        for (String ep : new String[]{"/sim", "/batch", "/stats"}) latency.put(ep, new LatencyHistogram());
+    }
+
+    public StreamingCounts counts() {
+        return counts;
+    }
+
+    /** restores the last snapshot, then follows the source file from its offset */
+    public void start(int port, int threads) throws IOException {
+        long offset = restore();
+
+        tail = new FileTail(source.toPath(), offset, new FileTail.Listener() {
+            @Override
+            public void line(String line) {
+                counts.ingest(line);
+            }
+
+            @Override
+            public void caughtUp(long offset) throws IOException {
+                // on the tail thread between lines: the snapshot matches the offset
+                if (snapshotDir != null && System.currentTimeMillis() - lastSnapshot >= snapshotMs) {
+                    snapshot(offset);
+                }
+            }
+        }, POLL_MS);
+        tailThread = new Thread(tail, "tail-" + source.getName());
+        tailThread.setDaemon(true);
+        tailThread.start();
+
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/sim", timed(latency.get("/sim"), this::handleSim));
+        http.createContext("/batch", timed(latency.get("/batch"), this::handleBatch));
+        http.createContext("/stats", timed(latency.get("/stats"), this::handleStats));
+        http.createContext("/health", ex -> SimilarityServer.respond(ex, 200, "{\"status\":\"ok\"}"));
+
+        pool = Executors.newFixedThreadPool(threads);
+        http.setExecutor(pool);
+        http.start();
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    /** stops the tail, writes a last snapshot, stops serving */
+    public void stop() throws IOException, InterruptedException {
+        if (tail != null) {
+            tail.close();
+            tailThread.join();
+            if (snapshotDir != null) snapshot(tail.offset());
+        }
+        if (http != null) http.stop(0);
+        if (pool != null) pool.shutdown();
+    }
+
+    // ------------------------------------------------------------
+    // snapshots
+    // ------------------------------------------------------------
+
+    private long restore() throws IOException {
+        if (snapshotDir == null) return 0;
+        Path file = new Path(snapshotDir, SNAPSHOT_FILE);
+        if (!file.getFileSystem(conf).exists(file)) return 0;
+
+        SequenceFile.Metadata meta = counts.restore(conf, file);
+        long offset = Long.parseLong(value(meta, "offset", "0"));
+        restoredLines = Long.parseLong(value(meta, "lines", "0"));
+        boolean sameSource = source.getAbsolutePath().equals(value(meta, "source", null));
+        System.out.println("Restored the counts of " + restoredLines + " lines from " + file +
+                (sameSource ? ", resuming at offset " + offset : " (other source: reading it from the start)"));
+        return sameSource ? offset : 0;
+    }
+
+    private static String value(SequenceFile.Metadata meta, String name, String dflt) {
+        Text v = meta.get(new Text(name));
+        return v != null ? v.toString() : dflt;
+    }
+
+    private void snapshot(long offset) throws IOException {
+        snapshotDir.getFileSystem(conf).mkdirs(snapshotDir);
+        SequenceFile.Metadata meta = new SequenceFile.Metadata();
+        meta.set(new Text("source"), new Text(source.getAbsolutePath()));
+        meta.set(new Text("offset"), new Text(Long.toString(offset)));
+        meta.set(new Text("lines"), new Text(Long.toString(restoredLines + counts.lines())));
+        snapshotRecords = counts.snapshot(conf, new Path(snapshotDir, SNAPSHOT_FILE), meta);
+        lastSnapshot = System.currentTimeMillis();
+    }
+
+    // ------------------------------------------------------------
+    // handlers
+    // ------------------------------------------------------------
+
+    private String handleSim(HttpExchange ex) throws IOException {
+        Map<String, String> q = query(ex);
+        String p1 = required(q, "p1");
+        String p2 = required(q, "p2");
+
+        double[] scores = new double[measureNames.size()];
+        boolean known = counts.similarity(resolve(p1), resolve(p2), measures.get(), scores);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"p1\":").append(Json.quote(p1)).append(",\"p2\":").append(Json.quote(p2))
+          .append(",\"known\":").append(known)
+          .append(",\"similarity\":").append(Json.number(scores[0]))
+          .append(",\"measures\":{");
+        for (int m = 0; m < scores.length; m++) {
+            if (m > 0) sb.append(',');
+            sb.append(Json.quote(measureNames.get(m))).append(':').append(Json.number(scores[m]));
+        }
+        return sb.append("}}").toString();
+    }
+
+    private String handleBatch(HttpExchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+            throw new BadRequest(405, "POST one 'pred1<TAB>pred2' per line");
+        }
+
+        double[] scores = new double[measureNames.size()];
+        StringBuilder sb = new StringBuilder("{\"results\":[");
+        int n = 0;
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                String[] f = line.split("\t", -1);
+                if (f.length < 2) throw new BadRequest(400, "expected 'pred1<TAB>pred2': " + line);
+                if (n == MAX_BATCH_LINES) throw new BadRequest(413, "at most " + MAX_BATCH_LINES + " pairs per batch");
+
+                counts.similarity(resolve(f[0]), resolve(f[1]), measures.get(), scores);
+
+                if (n++ > 0) sb.append(',');
+                sb.append("{\"p1\":").append(Json.quote(f[0]))
+                  .append(",\"p2\":").append(Json.quote(f[1]))
+                  .append(",\"similarity\":").append(Json.number(scores[0])).append('}');
+            }
+        }
+        return sb.append("],\"count\":").append(n).append('}').toString();
+    }
+
+    private String handleStats(HttpExchange ex) {
+        StringBuilder sb = new StringBuilder("{\"latency\":{");
+        int i = 0;
+        for (Map.Entry<String, LatencyHistogram> e : latency.entrySet()) {
+            if (i++ > 0) sb.append(',');
+            sb.append(Json.quote(e.getKey())).append(':').append(e.getValue().toJson());
+        }
+        sb.append("},\"source\":").append(Json.quote(source.getPath()))
+          .append(",\"offset\":").append(tail.offset())
+          .append(",\"lines\":").append(restoredLines + counts.lines())
+          .append(",\"instances\":").append(counts.instances())
+          .append(",\"rejected\":").append(counts.rejected())
+          .append(",\"predicates\":").append(counts.predicates())
+          .append(",\"features\":").append(counts.features())
+          .append(",\"snapshot\":{\"records\":").append(snapshotRecords)
+          .append(",\"ageMs\":").append(System.currentTimeMillis() - lastSnapshot).append("}}");
+        return sb.toString();
+    }
+
+    /** exact predicate if counted, else normalized like the test pair files ("X controls Y") */
+    private String resolve(String pred) {
+        String p = pred.trim();
+        if (counts.contains(p)) return p;
+        synchronized (stemmer) {
+            return TestData.normalizePredicate(p, stemmer);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: StreamingServer <file> <snapshotDir|-> [port=8080] [threads=8] " +
+                               "[snapshotSeconds=60] [refreshMs=1000]");
+            System.exit(1);
+        }
+        int port         = args.length >= 3 ? Integer.parseInt(args[2]) : 8080;
+        int threads      = args.length >= 4 ? Integer.parseInt(args[3]) : 8;
+        long snapshotSec = args.length >= 5 ? Long.parseLong(args[4]) : 60;
+        long refreshMs   = args.length >= 6 ? Long.parseLong(args[5]) : 1000;
+
+        Path snapshotDir = "-".equals(args[1]) ? null : new Path(args[1]);
+        StreamingServer server = new StreamingServer(new File(args[0]), snapshotDir, snapshotSec * 1000, refreshMs,
+                System.getProperty(Measures.KEY, Measures.DEFAULT));
+        server.start(port, threads);
+
+        System.out.println("Following " + args[0] + ", serving on port " + server.port());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (Exception e) {
+                System.err.println("WARN: last snapshot failed: " + e);
+            }
+        }));
+    }
+}
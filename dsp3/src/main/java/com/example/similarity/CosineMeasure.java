@@ -0,0 +1,28 @@
+package com.example.similarity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Cosine of the (positive) MI vectors:
+ *   sim(p1, p2) = sum over shared f of mi1(f) * mi2(f) / (|mi1| * |mi2|)
+ */
+public class CosineMeasure implements SimilarityMeasure {
+
+    @Override
+    public String name() {
+        return "cosine";
+    }
+
+    @Override
+    public Set<PairAggregate> pairAggregates() {
+        return EnumSet.of(PairAggregate.PRODUCT);
+    }
+
+    @Override
+    public double score(double[] pair, double[] left, double[] right) {
+        double norms = Math.sqrt(PredicateAggregate.SUM_SQUARES.in(left))
+                     * Math.sqrt(PredicateAggregate.SUM_SQUARES.in(right));
+        return norms > 0.0 ? PairAggregate.PRODUCT.in(pair) / norms : 0.0;
+    }
+}
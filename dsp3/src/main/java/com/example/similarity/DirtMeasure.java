@@ -0,0 +1,21 @@
+package com.example.similarity;
+
+/**
+ * DIRT (Lin and Pantel, 2001): Lin similarity computed separately for the X and the Y slot,
+ * combined with a geometric mean
+ *   sim(p1, p2) = sqrt(lin_X(p1, p2) * lin_Y(p1, p2))
+ * where lin_S sums only over the features (S, word) of slot S, numerator and denominator.
+ * A pair that shares no feature in one of the slots scores 0.
+ */
+public class DirtMeasure extends LinMeasure {
+
+    @Override
+    public String name() {
+        return "dirt";
+    }
+
+    @Override
+    public SlotMode slotMode() {
+        return SlotMode.GEOMETRIC_MEAN;
+    }
+}
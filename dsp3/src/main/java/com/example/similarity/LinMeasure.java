@@ -0,0 +1,27 @@
+package com.example.similarity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Lin similarity, features of both slots pooled (the measure of Steps 4-5 before DirtMeasure):
+ *   sim(p1, p2) = sum over shared f of (mi1(f) + mi2(f)) / (sum over f of mi1(f) + sum over f of mi2(f))
+ */
+public class LinMeasure implements SimilarityMeasure {
+
+    @Override
+    public String name() {
+        return "lin";
+    }
+
+    @Override
+    public Set<PairAggregate> pairAggregates() {
+        return EnumSet.of(PairAggregate.SUM);
+    }
+
+    @Override
+    public double score(double[] pair, double[] left, double[] right) {
+        double denom = PredicateAggregate.SUM.in(left) + PredicateAggregate.SUM.in(right);
+        return denom > 0.0 ? PairAggregate.SUM.in(pair) / denom : 0.0;
+    }
+}
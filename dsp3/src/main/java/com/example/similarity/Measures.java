@@ -0,0 +1,195 @@
+package com.example.similarity;
+
+import com.example.similarity.SimilarityMeasure.PairAggregate;
+import com.example.similarity.SimilarityMeasure.PredicateAggregate;
+import com.example.similarity.SimilarityMeasure.SlotMode;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * The measures of one run (dirt.measures, comma separated, default "dirt"; the first one is
+ * the "similarity" column of Step5) and the packed layout of their aggregates.
+ *
+ * Every vector is split by slot, X first: [X aggregates | Y aggregates].
+ *
+ * Step4 emits, per (test pair, shared feature), only the union of the pair aggregates the
+ * measures declared, in PairAggregate order, for both slots (the other slot's half is 0): with
+ * the default "dirt" that is [num X, num Y], two doubles, and still one record per feature.
+ * Step3 always writes every PredicateAggregate per slot (one small row per predicate), so a
+ * denominator table can be reused by any measure.
+ *
+ * Names: dirt, lin, cosine, jaccard, weeds, or the class name of any other SimilarityMeasure.
+ *
+ * Not thread safe (score() reuses scratch arrays).
+ */
+public class Measures {
+
+    public static final String KEY = "dirt.measures";
+    public static final String DEFAULT = "dirt";
+
+    /** X, Y */
+    public static final int SLOTS = 2;
+
+    private static final int PRED_AGGS = PredicateAggregate.values().length;
+
+    private final List<SimilarityMeasure> measures;
+    private final PairAggregate[] layout;
+
+    private final double[] pairScratch = new double[PairAggregate.values().length];
+    private final double[] leftScratch = new double[PRED_AGGS];
+    private final double[] rightScratch = new double[PRED_AGGS];
+
+    public Measures(List<SimilarityMeasure> measures) {
+        if (measures.isEmpty()) throw new IllegalArgumentException("no similarity measure");
+        this.measures = Collections.unmodifiableList(new ArrayList<>(measures));
+
+        EnumSet<PairAggregate> needed = EnumSet.noneOf(PairAggregate.class);
+        for (SimilarityMeasure m : measures) needed.addAll(m.pairAggregates());
+        this.layout = needed.toArray(new PairAggregate[0]);
+    }
+
+    public static Measures load(Configuration conf) {
+        return of(conf.getTrimmedStrings(KEY, DEFAULT));
+    }
+
+    /** the measures of a dirt.measures list, e.g. of("dirt", "cosine") */
+    public static Measures of(String... names) {
+        List<SimilarityMeasure> list = new ArrayList<>();
+        for (String name : names) {
+            if (!name.trim().isEmpty()) list.add(forName(name.trim()));
+        }
+        return new Measures(list);
+    }
+
+    public static SimilarityMeasure forName(String name) {
+        switch (name.toLowerCase()) {
+            case "dirt":    return new DirtMeasure();
+            case "lin":     return new LinMeasure();
+            case "cosine":  return new CosineMeasure();
+            case "jaccard": return new WeightedJaccardMeasure();
+            case "weeds":   return new WeedsPrecisionMeasure();
+            default:
+                try {
+                    return Class.forName(name).asSubclass(SimilarityMeasure.class).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("unknown similarity measure: " + name, e);
+                }
+        }
+    }
+
+    /** 0 for X, 1 for Y, -1 for anything else */
+    public static int slotIndex(String slot) {
+        if ("X".equals(slot)) return 0;
+        if ("Y".equals(slot)) return 1;
+        return -1;
+    }
+
+    /** slotIndex of the UTF-8 bytes b[start, end), e.g. the slot of a Step4 key */
+    public static int slotIndex(byte[] b, int start, int end) {
+        if (end - start != 1) return -1;
+        if (b[start] == 'X') return 0;
+        if (b[start] == 'Y') return 1;
+        return -1;
+    }
+
+    public List<SimilarityMeasure> list() {
+        return measures;
+    }
+
+    public int size() {
+        return measures.size();
+    }
+
+    /** doubles per packed pair vector (both slots) */
+    public int pairWidth() {
+        return SLOTS * layout.length;
+    }
+
+    /**
+     * Packed terms of one shared feature of the given slot.
+     * @param miFirst MI of the first predicate of the canonical pair key, miSecond of the second
+     */
+    public void pairTerms(int slot, double miFirst, double miSecond, double[] packed) {
+        int w = layout.length;
+        for (int i = 0; i < w; i++) {
+            double t = layout[i].term(miFirst, miSecond);
+            packed[i] = slot == 0 ? t : 0.0;
+            packed[w + i] = slot == 0 ? 0.0 : t;
+        }
+    }
+
+    /** Adds the terms of one shared feature of the given slot to a packed pair vector (pairTerms, summed). */
+    public void addPairTerms(int slot, double miFirst, double miSecond, double[] packed, int offset) {
+        int w = layout.length;
+        int base = offset + slot * w;
+        for (int i = 0; i < w; i++) packed[base + i] += layout[i].term(miFirst, miSecond);
+    }
+
+    /**
+     * Scores of all measures for one oriented test pair.
+     *
+     * @param packed  summed pair vector (canonical orientation); all zeros = no shared feature
+     * @param swapped the test pair is (second, first) of the canonical key
+     * @param left    predicate vector (both slots) of the test pair's pred1
+     * @param right   the same for pred2
+     * @param out     one score per measure, in list() order
+     */
+    public void score(double[] packed, boolean swapped, double[] left, double[] right, double[] out) {
+        for (int m = 0; m < measures.size(); m++) {
+            SimilarityMeasure measure = measures.get(m);
+            if (measure.slotMode() == SlotMode.GEOMETRIC_MEAN) {
+                double x = scoreSlot(measure, packed, swapped, left, right, 0);
+                double y = scoreSlot(measure, packed, swapped, left, right, 1);
+                out[m] = x > 0.0 && y > 0.0 ? Math.sqrt(x * y) : 0.0;
+            } else {
+                out[m] = scoreSlot(measure, packed, swapped, left, right, -1);
+            }
+        }
+    }
+
+    /** one slot, or both slots pooled (slot = -1) */
+    private double scoreSlot(SimilarityMeasure measure, double[] packed, boolean swapped,
+                             double[] left, double[] right, int slot) {
+        Arrays.fill(pairScratch, 0.0);
+        int w = layout.length;
+        for (int s = 0; s < SLOTS; s++) {
+            if (slot >= 0 && s != slot) continue;
+            for (int i = 0; i < w; i++) {
+                pairScratch[(swapped ? layout[i].mirrored() : layout[i]).ordinal()] += packed[s * w + i];
+            }
+        }
+        slotStats(left, slot, leftScratch);
+        slotStats(right, slot, rightScratch);
+        return measure.score(pairScratch, leftScratch, rightScratch);
+    }
+
+    private static void slotStats(double[] stats, int slot, double[] out) {
+        for (int a = 0; a < PRED_AGGS; a++) {
+            out[a] = slot >= 0 ? stats[slot * PRED_AGGS + a] : stats[a] + stats[PRED_AGGS + a];
+        }
+    }
+
+    /** one predicate aggregate summed over both slots */
+    public static double predicateTotal(double[] stats, PredicateAggregate a) {
+        return stats[a.ordinal()] + stats[PRED_AGGS + a.ordinal()];
+    }
+
+    /** predicate vector (both slots) of one positive MI value of the given slot */
+    public static void predicateTerms(int slot, double mi, double[] out) {
+        for (PredicateAggregate a : PredicateAggregate.values()) {
+            double t = a.term(mi);
+            out[a.ordinal()] = slot == 0 ? t : 0.0;
+            out[PRED_AGGS + a.ordinal()] = slot == 0 ? 0.0 : t;
+        }
+    }
+
+    public static int predicateWidth() {
+        return SLOTS * PRED_AGGS;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.similarity;
+
+import java.util.Set;
+
+/**
+ * A predicate similarity computed from partial aggregates, so that Steps 3-5 can compute any
+ * number of measures in one pass:
+ *
+ *  - pair aggregates: summed over the features (slot, word) the two predicates share.
+ *    Step4 adds one term per shared feature, Step5 sums them per pair.
+ *  - predicate aggregates: summed over all (positive MI) features of one predicate, by Step3.
+ *
+ * Only features with MI > 0 take part (the same filter the Lin numerator / denominator use).
+ *
+ * All aggregates are kept per slot (X, Y). slotMode() decides how a measure uses them: POOLED
+ * scores once over the features of both slots, GEOMETRIC_MEAN scores each slot on its own and
+ * returns sqrt(score_X * score_Y) (the DIRT combination, see DirtMeasure).
+ *
+ * score() sees the aggregates in the orientation of the test pair (left = pred1, right = pred2),
+ * which matters for directional measures (WeedsPrecisionMeasure). Vectors are indexed by the
+ * aggregate ordinal. A measure declares the pair aggregates it reads (Step4 emits only their
+ * union); the predicate vectors always hold every PredicateAggregate, since Step3, LocalScorer
+ * and the index compute all of them (two per slot) so that one table serves any measure.
+ *
+ * Implementations need a public no-arg constructor (see Measures.forName).
+ */
+public interface SimilarityMeasure {
+
+    /** Terms added per shared feature, mi1 = MI of the left predicate, mi2 of the right one. */
+    enum PairAggregate {
+        SUM,         // mi1 + mi2
+        SUM_LEFT,    // mi1
+        SUM_RIGHT,   // mi2
+        PRODUCT,     // mi1 * mi2
+        MIN;         // min(mi1, mi2)
+
+        public double term(double mi1, double mi2) {
+            switch (this) {
+                case SUM:       return mi1 + mi2;
+                case SUM_LEFT:  return mi1;
+                case SUM_RIGHT: return mi2;
+                case PRODUCT:   return mi1 * mi2;
+                default:        return Math.min(mi1, mi2);
+            }
+        }
+
+        /** the same aggregate with left and right exchanged */
+        public PairAggregate mirrored() {
+            return this == SUM_LEFT ? SUM_RIGHT : this == SUM_RIGHT ? SUM_LEFT : this;
+        }
+
+        public double in(double[] pair) {
+            return pair[ordinal()];
+        }
+    }
+
+    /** Terms added per feature of one predicate. */
+    enum PredicateAggregate {
+        SUM,           // mi           (the Lin denominator)
+        SUM_SQUARES;   // mi * mi      (squared L2 norm of the MI vector)
+
+        public double term(double mi) {
+            return this == SUM ? mi : mi * mi;
+        }
+
+        public double in(double[] pred) {
+            return pred[ordinal()];
+        }
+    }
+
+    /** How the X and Y slots are combined. */
+    enum SlotMode {
+        POOLED,           // aggregates summed over both slots, scored once
+        GEOMETRIC_MEAN    // scored per slot, sqrt(score_X * score_Y)
+    }
+
+    /** short name, used in dirt.measures and reports */
+    String name();
+
+    Set<PairAggregate> pairAggregates();
+
+    default SlotMode slotMode() {
+        return SlotMode.POOLED;
+    }
+
+    /**
+     * Scores one slot (or both pooled, see slotMode()).
+     *
+     * @param pair  shared-feature aggregates of (left, right), by PairAggregate ordinal
+     * @param left  aggregates of the left predicate, by PredicateAggregate ordinal
+     * @param right aggregates of the right predicate
+     * @return the similarity; 0.0 when it is undefined (e.g. a zero norm)
+     */
+    double score(double[] pair, double[] left, double[] right);
+}
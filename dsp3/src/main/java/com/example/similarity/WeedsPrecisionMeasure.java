@@ -0,0 +1,31 @@
+package com.example.similarity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Weeds precision, directional (does pred1 entail pred2?): the share of pred1's MI mass that
+ * lies on features pred2 also has.
+ *   sim(p1 -> p2) = sum over shared f of mi1(f) / sum over f of mi1(f)
+ *
+ * Not symmetric: Step5 scores every test pair in the orientation of the test file.
+ */
+public class WeedsPrecisionMeasure implements SimilarityMeasure {
+
+    @Override
+    public String name() {
+        return "weeds";
+    }
+
+    @Override
+    public Set<PairAggregate> pairAggregates() {
+        // both directions: the shuffle key is the canonical (unordered) pair
+        return EnumSet.of(PairAggregate.SUM_LEFT, PairAggregate.SUM_RIGHT);
+    }
+
+    @Override
+    public double score(double[] pair, double[] left, double[] right) {
+        double mass = PredicateAggregate.SUM.in(left);
+        return mass > 0.0 ? PairAggregate.SUM_LEFT.in(pair) / mass : 0.0;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.similarity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Weighted Jaccard (Ruzicka) of the MI vectors:
+ *   sim(p1, p2) = sum over f of min(mi1(f), mi2(f)) / sum over f of max(mi1(f), mi2(f))
+ *
+ * Features of only one predicate add 0 to the min and their MI to the max, so the denominator
+ * is |mi1|_1 + |mi2|_1 - sum over shared f of min: only the shared min is a pair aggregate.
+ */
+public class WeightedJaccardMeasure implements SimilarityMeasure {
+
+    @Override
+    public String name() {
+        return "jaccard";
+    }
+
+    @Override
+    public Set<PairAggregate> pairAggregates() {
+        return EnumSet.of(PairAggregate.MIN);
+    }
+
+    @Override
+    public double score(double[] pair, double[] left, double[] right) {
+        double min = PairAggregate.MIN.in(pair);
+        double max = PredicateAggregate.SUM.in(left) + PredicateAggregate.SUM.in(right) - min;
+        return max > 0.0 ? min / max : 0.0;
+    }
+}
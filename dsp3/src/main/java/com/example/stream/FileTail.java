@@ -0,0 +1,145 @@
+package com.example.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Follows a local file like "tail -F": every complete line appended to it goes to the listener,
+ * in order, exactly once (a trailing line without its newline waits for it). The stand-in for
+ * a queue consumer of the streaming mode: the parser appends its biarc lines to the file.
+ *
+ * Positions are byte offsets, so a restarted tail resumes where a snapshot stopped. When the
+ * file shrinks or is replaced (rotation, a different file key), it restarts at offset 0.
+ */
+public class FileTail implements Runnable, Closeable {
+
+    public interface Listener {
+        void line(String line);
+
+        /** after the lines of one read; offset = position after the last complete line */
+        void caughtUp(long offset) throws IOException;
+    }
+
+    private final Path file;
+    private final Listener listener;
+    private final long pollMs;
+
+    private volatile boolean running = true;
+    private volatile long offset;
+
+    public FileTail(Path file, long offset, Listener listener, long pollMs) {
+        this.file = file;
+        this.offset = offset;
+        this.listener = listener;
+        this.pollMs = pollMs;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        byte[] line = new byte[1024];
+        int lineLen = 0;
+        FileChannel ch = null;
+        Object key = null;
+
+        try {
+            while (running) {
+                if (ch == null) {
+                    try {
+                        ch = FileChannel.open(file, StandardOpenOption.READ);
+                        key = fileKey();
+                        if (ch.size() < offset) offset = 0;   // truncated while we were down
+                        ch.position(offset);
+                        lineLen = 0;
+                    } catch (NoSuchFileException e) {
+                        sleep();
+                        continue;
+                    }
+                }
+
+                buf.clear();
+                int n = ch.read(buf);
+                if (n <= 0) {
+                    listener.caughtUp(offset);
+                    // rotated or truncated: start over on the file now at that path
+                    Object now = fileKeyOrNull();
+                    if (now == null || !Objects.equals(now, key) || ch.size() < offset) {
+                        ch.close();
+                        ch = null;
+                        if (now != null) offset = 0;
+                    } else {
+                        sleep();
+                    }
+                    continue;
+                }
+
+                buf.flip();
+                long pos = offset + lineLen;
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    pos++;
+                    if (b == '\n') {
+                        int len = lineLen > 0 && line[lineLen - 1] == '\r' ? lineLen - 1 : lineLen;
+                        listener.line(new String(line, 0, len, StandardCharsets.UTF_8));
+                        lineLen = 0;
+                        offset = pos;
+                    } else {
+                        if (lineLen == line.length) {
+                            byte[] bigger = new byte[line.length * 2];
+                            System.arraycopy(line, 0, bigger, 0, lineLen);
+                            line = bigger;
+                        }
+                        line[lineLen++] = b;
+                    }
+                }
+                listener.caughtUp(offset);
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: tail of " + file + " stopped: " + e);
+        } finally {
+            if (ch != null) {
+                try { ch.close(); } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private Object fileKey() throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        return key != null ? key : file;   // file systems without keys: rotation by size only
+    }
+
+    private Object fileKeyOrNull() {
+        try {
+            return fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(pollMs);
+        } catch (InterruptedException e) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.stream;
+
+import com.example.helpers.Parser;
+import com.example.helpers.PorterStemmer;
+import com.example.jobs.Step1_ExtractAndTotals;
+import com.example.jobs.Step2_ComputeMI;
+import com.example.similarity.Measures;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live DIRT statistics for the streaming mode (serve.StreamingServer): the counts of Step1
+ * (C(p,slot,w), C(p,slot), C(slot,w), C(slot)), updated one biarc line at a time with the same
+ * extraction as Step1 (Step1_ExtractAndTotals.extractClean: Parser + PorterStemmer).
+ *
+ * Predicate counts live in a sharded map (one lock per shard, by predicate hash); the marginals
+ * C(slot,w) and C(slot) are concurrent counters. A similarity query reads the MI vector and the
+ * Step3 aggregates of its two predicates, which are derived from the counts on demand and cached
+ * per predicate. The cache of a predicate is dropped as soon as one of its own counts changes,
+ * and otherwise reused for at most refreshMs (its MI also depends on the corpus-wide marginals,
+ * which every new line moves a little). So new lines are visible to the next query of their
+ * predicate, and to all queries within refreshMs; only the queried predicates are recomputed.
+ *
+ * MI is Step2's (rounded to the 6 decimals Step2 writes), the aggregates Step3's and the pair
+ * terms Step4's, so on the same lines the scores equal the batch pipeline's (dirt.measures).
+ *
+ * Snapshots use Step1's output layout: one SequenceFile (Text -> LongWritable) of
+ * PSW / PS / SW / SLOT records, with the caller's state (e.g. the tail offset) in its metadata,
+ * so counts and state are replaced together.
+ */
+public class StreamingCounts {
+
+    private static final int SLOTS = Measures.SLOTS;
+    private static final String[] SLOT_NAMES = {"X", "Y"};
+
+    /** MI vector (positive MI only, as Steps 3-4 use it) + Step3 aggregates of one predicate. */
+    static final class Vector {
+        final Map<String, Double>[] mi;
+        final double[] stats = new double[Measures.predicateWidth()];
+        final long version;
+        final long at;
+
+        @SuppressWarnings("unchecked")
+        Vector(long version, long at) {
+            this.mi = new Map[SLOTS];
+            for (int s = 0; s < SLOTS; s++) mi[s] = new HashMap<>();
+            this.version = version;
+            this.at = at;
+        }
+    }
+
+    private static final class PredicateCounts {
+        @SuppressWarnings("unchecked")
+        final Map<String, long[]>[] words = new Map[SLOTS];   // per slot: word -> C(p,slot,w)
+        final long[] ps = new long[SLOTS];                     // C(p,slot)
+        long version;                                          // bumped by every update
+        Vector cached;
+
+        PredicateCounts() {
+            for (int s = 0; s < SLOTS; s++) words[s] = new HashMap<>();
+        }
+    }
+
+    private static final class Shard {
+        final Map<String, PredicateCounts> preds = new HashMap<>();
+    }
+
+    private final Shard[] shards;
+    private final ConcurrentHashMap<String, AtomicLong> slotWord = new ConcurrentHashMap<>();
+    private final AtomicLongArray slotTotals = new AtomicLongArray(SLOTS);
+    private final long refreshMs;
+
+    // ingest side (one thread: the tail)
+    private final PorterStemmer stemmer = new PorterStemmer();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong instances = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public StreamingCounts(int shards, long refreshMs) {
+        this.shards = new Shard[Math.max(1, shards)];
+        for (int i = 0; i < this.shards.length; i++) this.shards[i] = new Shard();
+        this.refreshMs = refreshMs;
+    }
+
+    private Shard shard(String pred) {
+        return shards[(pred.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private static String feature(int slot, String word) {
+        return SLOT_NAMES[slot] + "\t" + word;
+    }
+
+    // ------------------------------------------------------------
+    // updates
+    // ------------------------------------------------------------
+
+    /**
+     * Counts one biarc line, with Step1's parsing and filters.
+     *
+     * @return false when the line yields no predicate
+     */
+    public boolean ingest(String line) {
+        lines.incrementAndGet();
+        Parser.PredicateInstance inst = null;
+        long count = 0;
+        if (line != null && !line.isEmpty()) {
+            try {
+                Parser.ParsedLine pl = Parser.parseLine(line);
+                if (pl != null && pl.count > 0) {
+                    count = pl.count;
+                    inst = Step1_ExtractAndTotals.extractClean(pl, stemmer);
+                }
+            } catch (Exception e) {
+                // malformed line: rejected like Step1 does
+            }
+        }
+        if (inst == null) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        if (inst.xWordStem != null) add(inst.template, 0, inst.xWordStem, count);
+        if (inst.yWordStem != null) add(inst.template, 1, inst.yWordStem, count);
+        instances.incrementAndGet();
+        return true;
+    }
+
+    /** C(p,slot,w), C(p,slot), C(slot,w) and C(slot) += count */
+    public void add(String pred, int slot, String word, long count) {
+        addPredicate(pred, slot, word, count, count);
+        slotWord.computeIfAbsent(feature(slot, word), k -> new AtomicLong()).addAndGet(count);
+        slotTotals.addAndGet(slot, count);
+    }
+
+    /** word == null: C(p,slot) only */
+    private void addPredicate(String pred, int slot, String word, long cpsw, long cps) {
+        Shard s = shard(pred);
+        synchronized (s) {
+            PredicateCounts pc = s.preds.computeIfAbsent(pred, k -> new PredicateCounts());
+            if (word != null) pc.words[slot].computeIfAbsent(word, k -> new long[1])[0] += cpsw;
+            pc.ps[slot] += cps;
+            pc.version++;
+            pc.cached = null;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // queries
+    // ------------------------------------------------------------
+
+    public boolean contains(String pred) {
+        Shard s = shard(pred);
+        synchronized (s) {
+            return s.preds.containsKey(pred);
+        }
+    }
+
+    /** MI vector + aggregates of a predicate (null if never seen), at most refreshMs old */
+    Vector vector(String pred) {
+        Shard s = shard(pred);
+        synchronized (s) {
+            PredicateCounts pc = s.preds.get(pred);
+            if (pc == null) return null;
+            long now = System.currentTimeMillis();
+            Vector v = pc.cached;
+            if (v == null || v.version != pc.version || now - v.at >= refreshMs) {
+                v = compute(pc, now);
+                pc.cached = v;
+            }
+            return v;
+        }
+    }
+
+    private Vector compute(PredicateCounts pc, long now) {
+        Vector v = new Vector(pc.version, now);
+        double[] terms = new double[Measures.predicateWidth()];
+        for (int s = 0; s < SLOTS; s++) {
+            long cslot = slotTotals.get(s);
+            long cps = pc.ps[s];
+            if (cslot <= 0 || cps <= 0) continue;
+            for (Map.Entry<String, long[]> e : pc.words[s].entrySet()) {
+                AtomicLong csw = slotWord.get(feature(s, e.getKey()));
+                long cpsw = e.getValue()[0];
+                if (csw == null || csw.get() <= 0 || cpsw <= 0) continue;
+
+                // the precision of Step2's text output, which Steps 3-4 parse
+                double mi = Double.parseDouble(String.format(Locale.US, "%.6f",
+                        Step2_ComputeMI.mi(cpsw, cslot, cps, csw.get())));
+                if (mi <= 0.0) continue;
+
+                v.mi[s].put(e.getKey(), mi);
+                Measures.predicateTerms(s, mi, terms);
+                for (int i = 0; i < terms.length; i++) v.stats[i] += terms[i];
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Scores of all measures for (p1, p2), oriented p1 -> p2 like a test pair (Step5).
+     *
+     * @param measures not thread-safe: one instance per thread
+     * @return false when a predicate was never seen (scores are 0.0 then)
+     */
+    public boolean similarity(String p1, String p2, Measures measures, double[] out) {
+        Vector a = vector(p1);
+        Vector b = vector(p2);
+        if (a == null || b == null) {
+            Arrays.fill(out, 0, measures.size(), 0.0);
+            return false;
+        }
+
+        double[] packed = new double[measures.pairWidth()];
+        double[] terms = new double[measures.pairWidth()];
+        for (int s = 0; s < SLOTS; s++) {
+            boolean aSmaller = a.mi[s].size() <= b.mi[s].size();
+            Map<String, Double> small = aSmaller ? a.mi[s] : b.mi[s];
+            Map<String, Double> large = aSmaller ? b.mi[s] : a.mi[s];
+            for (Map.Entry<String, Double> e : small.entrySet()) {
+                Double other = large.get(e.getKey());
+                if (other == null) continue;
+                double miA = aSmaller ? e.getValue() : other;
+                double miB = aSmaller ? other : e.getValue();
+                measures.pairTerms(s, miA, miB, terms);
+                for (int i = 0; i < terms.length; i++) packed[i] += terms[i];
+            }
+        }
+        measures.score(packed, false, a.stats, b.stats, out);
+        return true;
+    }
+
+    public long lines() {
+        return lines.get();
+    }
+
+    public long instances() {
+        return instances.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public int predicates() {
+        int n = 0;
+        for (Shard s : shards) {
+            synchronized (s) {
+                n += s.preds.size();
+            }
+        }
+        return n;
+    }
+
+    public int features() {
+        return slotWord.size();
+    }
+
+    // ------------------------------------------------------------
+    // snapshots (Step1 layout)
+    // ------------------------------------------------------------
+
+    /**
+     * Writes all counts + meta to file (replaced through a temp file). Updates must be paused by
+     * the caller for a consistent snapshot; queries may go on.
+     *
+     * @return number of records written
+     */
+    public long snapshot(Configuration conf, Path file, SequenceFile.Metadata meta) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        Path tmp = new Path(file.getParent(), "." + file.getName() + ".tmp");
+        Text key = new Text();
+        LongWritable val = new LongWritable();
+        long n = 0;
+
+        try (SequenceFile.Writer w = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(tmp),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(LongWritable.class),
+                SequenceFile.Writer.metadata(meta))) {
+            for (int s = 0; s < SLOTS; s++) {
+                key.set("SLOT\t" + SLOT_NAMES[s]);
+                val.set(slotTotals.get(s));
+                w.append(key, val);
+                n++;
+            }
+            for (Map.Entry<String, AtomicLong> e : slotWord.entrySet()) {
+                key.set("SW\t" + e.getKey());
+                val.set(e.getValue().get());
+                w.append(key, val);
+                n++;
+            }
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    for (Map.Entry<String, PredicateCounts> e : shard.preds.entrySet()) {
+                        PredicateCounts pc = e.getValue();
+                        for (int s = 0; s < SLOTS; s++) {
+                            if (pc.ps[s] == 0) continue;
+                            key.set("PS\t" + e.getKey() + "\t" + SLOT_NAMES[s]);
+                            val.set(pc.ps[s]);
+                            w.append(key, val);
+                            n++;
+                            for (Map.Entry<String, long[]> wc : pc.words[s].entrySet()) {
+                                key.set("PSW\t" + e.getKey() + "\t" + SLOT_NAMES[s] + "\t" + wc.getKey());
+                                val.set(wc.getValue()[0]);
+                                w.append(key, val);
+                                n++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        fs.delete(file, false);
+        if (!fs.rename(tmp, file)) throw new IOException("could not rename " + tmp + " to " + file);
+        return n;
+    }
+
+    /**
+     * Adds the counts of a snapshot (or of any Step1 output file) to this state.
+     *
+     * @return the metadata written with the snapshot
+     */
+    public SequenceFile.Metadata restore(Configuration conf, Path file) throws IOException {
+        Text key = new Text();
+        LongWritable val = new LongWritable();
+        try (SequenceFile.Reader r = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file))) {
+            while (r.next(key, val)) {
+                String[] p = key.toString().split("\t", -1);
+                long c = val.get();
+                int slotField = p[0].startsWith("P") ? 2 : 1;   // PS / PSW: pred first
+                int slot = p.length > slotField ? Measures.slotIndex(p[slotField]) : -1;
+                if (slot < 0) continue;
+
+                if ("SLOT".equals(p[0]) && p.length == 2) {
+                    slotTotals.addAndGet(slot, c);
+                } else if ("SW".equals(p[0]) && p.length == 3) {
+                    slotWord.computeIfAbsent(feature(slot, p[2]), k -> new AtomicLong()).addAndGet(c);
+                } else if ("PS".equals(p[0]) && p.length == 3) {
+                    addPredicate(p[1], slot, null, 0, c);
+                } else if ("PSW".equals(p[0]) && p.length == 4) {
+                    addPredicate(p[1], slot, p[3], c, 0);
+                }
+            }
+            return r.getMetadata();
+        }
+    }
+}
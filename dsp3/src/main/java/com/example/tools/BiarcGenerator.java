@@ -0,0 +1,504 @@
+package com.example.tools;
+
+import com.example.helpers.PorterStemmer;
+import com.example.helpers.TestData;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BiarcGenerator: synthetic Google Syntactic N-Grams biarc corpus + matching test-pair files,
+ * for load-testing the pipeline and the local engine without access to the real S3 inputs.
+ *
+ * Output (under <outDir>, local or any Hadoop FileSystem):
+ *   biarcs/part-NNNNN[.gz]   head \t word/POS/dep/head ... \t count \t year,count ...
+ *   positive.txt             X verb [prep] Y \t X verb [prep] Y   (same paraphrase cluster)
+ *   negative.txt             X verb [prep] Y \t X verb [prep] Y   (different clusters)
+ *   generator.properties     the options used, so a corpus can be regenerated exactly
+ *
+ * Model:
+ *  - verbs and nouns are synthetic pseudo-words (distinct Porter stems, never auxiliaries),
+ *    drawn with Zipfian rank frequencies (verbSkew / nounSkew);
+ *  - every verb belongs to one of <clusters> paraphrase clusters (rank % clusters, so each
+ *    cluster mixes frequent and rare verbs) and has a preferred preposition;
+ *  - arguments of a cluster come from a cluster-specific rotation of the noun ranks, except a
+ *    <sharedArgs> fraction drawn from the global ranking (the common nouns every verb takes).
+ *    Verbs of one cluster therefore share features, verbs of different clusters mostly do not;
+ *  - a <prepFraction> of the lines use "root --prep--> IN --pobj--> noun" (the verb's preferred
+ *    preposition, or one from the <preps> mix), the rest a direct object;
+ *  - a <noise> fraction of the lines is rejected by Step1 (auxiliary root, no subject,
+ *    non-noun object, non-alphabetic argument), like the real data.
+ *
+ * Each shard has its own Random derived from (seed, shard), so the corpus depends only on the
+ * options, not on the number of threads; shards are streamed, so size is bounded by disk only.
+ *
+ * Usage:
+ *   java -cp <jar> com.example.tools.BiarcGenerator <outDir> [key=value ...]
+ *
+ * Keys (defaults in brackets):
+ *   size [64M] total bytes (K/M/G/T suffix), shards [4], threads [1], seed [42], gzip [false],
+ *   verbs [2000], nouns [50000], verbSkew [1.0], nounSkew [1.1], clusters [100],
+ *   sharedArgs [0.3], prepFraction [0.5], preps [in:5,of:4,from:3,with:3,to:2,by:2,for:2,into:1,on:1],
+ *   noise [0.05], positives [500], negatives [500], pairVerbs [verbs/4]
+ */
+public class BiarcGenerator {
+
+    private static final String CONSONANTS = "bdfgklmnprstvz";
+    private static final String VOWELS = "aiou";
+
+    public static class Options {
+        public long size = 64L << 20;
+        public int shards = 4;
+        public int threads = 1;
+        public long seed = 42L;
+        public boolean gzip = false;
+
+        public int verbs = 2000;
+        public int nouns = 50000;
+        public double verbSkew = 1.0;
+        public double nounSkew = 1.1;
+        public int clusters = 100;
+        public double sharedArgs = 0.3;
+        public double prepFraction = 0.5;
+        public String preps = "in:5,of:4,from:3,with:3,to:2,by:2,for:2,into:1,on:1";
+        public double noise = 0.05;
+
+        public int positives = 500;
+        public int negatives = 500;
+        /** pairs are drawn among the top pairVerbs verbs (0 = verbs/4), so they occur in the corpus */
+        public int pairVerbs = 0;
+
+        public void set(String key, String value) {
+            switch (key) {
+                case "size":         size = parseSize(value); break;
+                case "shards":       shards = Integer.parseInt(value); break;
+                case "threads":      threads = Integer.parseInt(value); break;
+                case "seed":         seed = Long.parseLong(value); break;
+                case "gzip":         gzip = Boolean.parseBoolean(value); break;
+                case "verbs":        verbs = Integer.parseInt(value); break;
+                case "nouns":        nouns = Integer.parseInt(value); break;
+                case "verbSkew":     verbSkew = Double.parseDouble(value); break;
+                case "nounSkew":     nounSkew = Double.parseDouble(value); break;
+                case "clusters":     clusters = Integer.parseInt(value); break;
+                case "sharedArgs":   sharedArgs = Double.parseDouble(value); break;
+                case "prepFraction": prepFraction = Double.parseDouble(value); break;
+                case "preps":        preps = value; break;
+                case "noise":        noise = Double.parseDouble(value); break;
+                case "positives":    positives = Integer.parseInt(value); break;
+                case "negatives":    negatives = Integer.parseInt(value); break;
+                case "pairVerbs":    pairVerbs = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("unknown option: " + key);
+            }
+        }
+
+        public Map<String, String> asMap() {
+            Map<String, String> m = new LinkedHashMap<>();
+            m.put("size", Long.toString(size));
+            m.put("shards", Integer.toString(shards));
+            m.put("seed", Long.toString(seed));
+            m.put("gzip", Boolean.toString(gzip));
+            m.put("verbs", Integer.toString(verbs));
+            m.put("nouns", Integer.toString(nouns));
+            m.put("verbSkew", Double.toString(verbSkew));
+            m.put("nounSkew", Double.toString(nounSkew));
+            m.put("clusters", Integer.toString(clusters));
+            m.put("sharedArgs", Double.toString(sharedArgs));
+            m.put("prepFraction", Double.toString(prepFraction));
+            m.put("preps", preps);
+            m.put("noise", Double.toString(noise));
+            m.put("positives", Integer.toString(positives));
+            m.put("negatives", Integer.toString(negatives));
+            m.put("pairVerbs", Integer.toString(pairVerbs));
+            return m;
+        }
+
+        private void validate() {
+            if (shards <= 0 || threads <= 0) throw new IllegalArgumentException("shards/threads must be > 0");
+            if (verbs < 2 || nouns < 2) throw new IllegalArgumentException("need at least 2 verbs and 2 nouns");
+            if (clusters <= 0 || clusters > verbs) throw new IllegalArgumentException("clusters must be in [1, verbs]");
+        }
+    }
+
+    public static class Stats {
+        public long lines;
+        public long bytes;
+        public int positives;
+        public int negatives;
+    }
+
+    public static long parseSize(String s) {
+        s = s.trim().toUpperCase();
+        long mult = 1;
+        char last = s.charAt(s.length() - 1);
+        if (last == 'B') {
+            s = s.substring(0, s.length() - 1);
+            last = s.charAt(s.length() - 1);
+        }
+        switch (last) {
+            case 'K': mult = 1L << 10; break;
+            case 'M': mult = 1L << 20; break;
+            case 'G': mult = 1L << 30; break;
+            case 'T': mult = 1L << 40; break;
+            default: break;
+        }
+        if (mult > 1) s = s.substring(0, s.length() - 1);
+        return (long) (Double.parseDouble(s) * mult);
+    }
+
+    /**
+     * Deterministic vocabulary + cluster structure (depends on the options and the seed only).
+     */
+    static class Lexicon {
+        final String[] verbs;
+        final int[] verbCluster;
+        final String[] verbPrep;
+        final String[] nouns;
+        final String[] preps;
+        final double[] prepCdf;
+        /** [cluster][slot] rotation of the noun ranks */
+        final int[][] argOffset;
+
+        Lexicon(Options o) {
+            Random rnd = new Random(o.seed);
+            PorterStemmer stemmer = new PorterStemmer();
+
+            if (o.preps == null || o.preps.trim().isEmpty()) throw new IllegalArgumentException("empty preps");
+            List<String> ps = new ArrayList<>();
+            List<Double> ws = new ArrayList<>();
+            for (String part : o.preps.split(",")) {
+                String[] kv = part.trim().split(":");
+                ps.add(kv[0].trim().toLowerCase());
+                ws.add(kv.length > 1 ? Double.parseDouble(kv[1]) : 1.0);
+            }
+            preps = ps.toArray(new String[0]);
+            prepCdf = new double[preps.length];
+            double sum = 0;
+            for (int i = 0; i < preps.length; i++) {
+                sum += ws.get(i);
+                prepCdf[i] = sum;
+            }
+            for (int i = 0; i < preps.length; i++) prepCdf[i] /= sum;
+
+            Set<String> stems = new HashSet<>();
+            verbs = words(rnd, stemmer, stems, o.verbs, 2, true);
+            nouns = words(rnd, stemmer, stems, o.nouns, 2, false);
+
+            verbCluster = new int[o.verbs];
+            verbPrep = new String[o.verbs];
+            for (int v = 0; v < o.verbs; v++) {
+                verbCluster[v] = v % o.clusters;
+                verbPrep[v] = prep(rnd);
+            }
+
+            argOffset = new int[o.clusters][2];
+            for (int c = 0; c < o.clusters; c++) {
+                argOffset[c][0] = rnd.nextInt(o.nouns);
+                argOffset[c][1] = rnd.nextInt(o.nouns);
+            }
+        }
+
+        String prep(Random rnd) {
+            double u = rnd.nextDouble();
+            for (int i = 0; i < prepCdf.length; i++) if (u < prepCdf[i]) return preps[i];
+            return preps[preps.length - 1];
+        }
+
+        String template(int v, boolean withPrep) {
+            return withPrep ? "X " + verbs[v] + " " + verbPrep[v] + " Y" : "X " + verbs[v] + " Y";
+        }
+
+        /**
+         * n distinct pseudo-words (consonant-vowel syllables, no 'e'/'y' so Porter leaves them alone),
+         * with pairwise distinct stems; shorter words first so frequent ranks get short words.
+         */
+        private static String[] words(Random rnd, PorterStemmer stemmer, Set<String> stems,
+                                      int n, int minSyllables, boolean verb) {
+            String[] out = new String[n];
+            int syllables = minSyllables;
+            int misses = 0;
+            for (int i = 0; i < n; ) {
+                StringBuilder sb = new StringBuilder();
+                for (int s = 0; s < syllables; s++) {
+                    sb.append(CONSONANTS.charAt(rnd.nextInt(CONSONANTS.length())));
+                    sb.append(VOWELS.charAt(rnd.nextInt(VOWELS.length())));
+                }
+                String w = sb.toString();
+                String stem = stemmer.stem(w);
+                boolean ok = stems.add(stem) && stemmer.stem(w + "s").equals(stem)
+                        && (!verb || (!TestData.isAuxiliary(w, stemmer) && stemmer.stem(w + "ed").equals(stem)));
+                if (ok) {
+                    out[i++] = w;
+                    misses = 0;
+                } else if (++misses > 50) {
+                    // this length is (nearly) exhausted
+                    syllables++;
+                    misses = 0;
+                }
+            }
+            return out;
+        }
+    }
+
+    /** One shard: streams lines until its byte budget is reached. */
+    static class ShardWriter {
+        private final Options o;
+        private final Lexicon lex;
+        private final Zipf verbZipf;
+        private final Zipf nounZipf;
+        private final Random rnd;
+        private final StringBuilder sb = new StringBuilder(256);
+
+        ShardWriter(Options o, Lexicon lex, Zipf verbZipf, Zipf nounZipf, int shard) {
+            this.o = o;
+            this.lex = lex;
+            this.verbZipf = verbZipf;
+            this.nounZipf = nounZipf;
+            this.rnd = new Random(o.seed ^ ((shard + 1) * 0x9E3779B97F4A7C15L));
+        }
+
+        long[] write(Writer w, long budget) throws IOException {
+            long lines = 0, bytes = 0;
+            while (bytes < budget) {
+                sb.setLength(0);
+                if (rnd.nextDouble() < o.noise) noiseLine();
+                else line();
+                sb.append('\n');
+                w.append(sb);
+                bytes += sb.length();
+                lines++;
+            }
+            return new long[]{lines, bytes};
+        }
+
+        private String noun(int cluster, int slot) {
+            int r = nounZipf.next(rnd);
+            if (rnd.nextDouble() < o.sharedArgs) return lex.nouns[r];
+            return lex.nouns[(r + lex.argOffset[cluster][slot]) % lex.nouns.length];
+        }
+
+        private String verbForm(String v) {
+            switch (rnd.nextInt(4)) {
+                case 0: return v + "/VB";
+                case 1: return v + "s/VBZ";
+                case 2: return v + "ed/VBD";
+                default: return v + "/VBP";
+            }
+        }
+
+        private String nounForm(String n) {
+            return rnd.nextInt(3) == 0 ? n + "s/NNS" : n + "/NN";
+        }
+
+        private void line() {
+            int v = verbZipf.next(rnd);
+            int c = lex.verbCluster[v];
+            String x = nounForm(noun(c, 0));
+            String y = nounForm(noun(c, 1));
+            String verb = verbForm(lex.verbs[v]);
+
+            String prep = null;
+            if (rnd.nextDouble() < o.prepFraction) {
+                prep = rnd.nextInt(5) == 0 ? lex.prep(rnd) : lex.verbPrep[v];
+            }
+
+            sb.append(lex.verbs[v]).append('\t');
+            if (prep == null) {
+                if (rnd.nextBoolean()) {
+                    // X V Y
+                    sb.append(x).append("/nsubj/2 ").append(verb).append("/ROOT/0 ").append(y).append("/dobj/2");
+                } else {
+                    // the X V new Y
+                    sb.append("the/DT/det/2 ").append(x).append("/nsubj/3 ").append(verb).append("/ROOT/0 ")
+                      .append("new/JJ/amod/5 ").append(y).append("/dobj/3");
+                }
+            } else {
+                // X V P Y
+                sb.append(x).append("/nsubj/2 ").append(verb).append("/ROOT/0 ")
+                  .append(prep).append(prep.equals("to") ? "/TO" : "/IN").append("/prep/2 ")
+                  .append(y).append("/pobj/3");
+            }
+            counts();
+        }
+
+        private void noiseLine() {
+            int c = rnd.nextInt(o.clusters);
+            String x = noun(c, 0);
+            String y = noun(c, 1);
+            String v = lex.verbs[verbZipf.next(rnd)];
+            switch (rnd.nextInt(4)) {
+                case 0:   // auxiliary root
+                    sb.append("is\t").append(x).append("/NN/nsubj/2 is/VBZ/ROOT/0 ").append(y).append("/NN/attr/2");
+                    break;
+                case 1:   // no subject
+                    sb.append(v).append('\t').append(v).append("/VB/ROOT/0 ").append(y).append("/NN/dobj/1");
+                    break;
+                case 2:   // non-noun object
+                    sb.append(v).append('\t').append(x).append("/NN/nsubj/2 ").append(v)
+                      .append("s/VBZ/ROOT/0 ").append("quickly/RB/advmod/2");
+                    break;
+                default:  // non-alphabetic argument
+                    sb.append(v).append('\t').append(x).append(rnd.nextInt(100)).append("/CD/nsubj/2 ").append(v)
+                      .append("ed/VBD/ROOT/0 ").append(y).append("/NN/dobj/2");
+            }
+            counts();
+        }
+
+        /** total count (heavy tailed, >= 10 like the published n-grams) + 1-3 year buckets */
+        private void counts() {
+            int total = (int) Math.min(1_000_000, 10 / Math.pow(1 - rnd.nextDouble(), 1 / 1.3));
+            sb.append('\t').append(total);
+            int years = 1 + rnd.nextInt(3);
+            int left = total;
+            int year = 1950 + rnd.nextInt(50);
+            for (int i = 0; i < years; i++) {
+                int cnt = i == years - 1 ? left : left / 2;
+                left -= cnt;
+                sb.append('\t').append(year).append(',').append(cnt);
+                year += 1 + rnd.nextInt(10);
+            }
+        }
+    }
+
+    public static Stats generate(Configuration conf, Path outDir, Options o) throws Exception {
+        o.validate();
+        Lexicon lex = new Lexicon(o);
+        Zipf verbZipf = new Zipf(o.verbs, o.verbSkew);
+        Zipf nounZipf = new Zipf(o.nouns, o.nounSkew);
+
+        FileSystem fs = outDir.getFileSystem(conf);
+        Path biarcs = new Path(outDir, "biarcs");
+        if (fs.exists(biarcs)) fs.delete(biarcs, true);
+        fs.mkdirs(biarcs);
+
+        Stats stats = new Stats();
+        long perShard = (o.size + o.shards - 1) / o.shards;
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(o.threads, o.shards));
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int s = 0; s < o.shards; s++) {
+                final int shard = s;
+                final Path file = new Path(biarcs, String.format("part-%05d%s", s, o.gzip ? ".gz" : ""));
+                results.add(pool.submit(() -> {
+                    OutputStream os = fs.create(file, true);
+                    if (o.gzip) os = new GZIPOutputStream(os, 1 << 16);
+                    try (Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16)) {
+                        return new ShardWriter(o, lex, verbZipf, nounZipf, shard).write(w, perShard);
+                    }
+                }));
+            }
+            for (Future<long[]> f : results) {
+                long[] r = f.get();
+                stats.lines += r[0];
+                stats.bytes += r[1];
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        writePairs(fs, outDir, o, lex, stats);
+
+        try (Writer w = new OutputStreamWriter(fs.create(new Path(outDir, "generator.properties"), true),
+                StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> e : o.asMap().entrySet()) {
+                w.write(e.getKey() + "=" + e.getValue() + "\n");
+            }
+            w.write("lines=" + stats.lines + "\n");
+            w.write("bytes=" + stats.bytes + "\n");
+        }
+        return stats;
+    }
+
+    /**
+     * Positive pairs: two frequent verbs of the same cluster; negative pairs: different clusters.
+     * Each side independently uses the direct-object or the preferred-preposition template.
+     */
+    private static void writePairs(FileSystem fs, Path outDir, Options o, Lexicon lex, Stats stats) throws IOException {
+        Random rnd = new Random(o.seed * 31 + 7);
+        int top = o.pairVerbs > 0 ? Math.min(o.pairVerbs, o.verbs) : Math.max(2 * o.clusters, o.verbs / 4);
+        top = Math.min(top, o.verbs);
+
+        Set<String> seen = new HashSet<>();
+        List<String> pos = new ArrayList<>();
+        List<String> neg = new ArrayList<>();
+
+        int attempts = 0;
+        while (pos.size() < o.positives && attempts++ < o.positives * 50) {
+            int a = rnd.nextInt(top);
+            int members = (top - 1 - lex.verbCluster[a]) / o.clusters + 1;
+            if (members < 2) continue;
+            int b = lex.verbCluster[a] + o.clusters * rnd.nextInt(members);
+            if (b == a) continue;
+            addPair(pos, seen, lex.template(a, rnd.nextBoolean()), lex.template(b, rnd.nextBoolean()));
+        }
+
+        attempts = 0;
+        while (neg.size() < o.negatives && attempts++ < o.negatives * 50) {
+            int a = rnd.nextInt(top);
+            int b = rnd.nextInt(top);
+            if (lex.verbCluster[a] == lex.verbCluster[b]) continue;
+            addPair(neg, seen, lex.template(a, rnd.nextBoolean()), lex.template(b, rnd.nextBoolean()));
+        }
+
+        writeLines(fs, new Path(outDir, "positive.txt"), pos);
+        writeLines(fs, new Path(outDir, "negative.txt"), neg);
+        stats.positives = pos.size();
+        stats.negatives = neg.size();
+    }
+
+    private static void addPair(List<String> out, Set<String> seen, String p1, String p2) {
+        if (p1.equals(p2)) return;
+        if (seen.add(TestData.canonicalPairKey(p1, p2))) out.add(p1 + "\t" + p2);
+    }
+
+    private static void writeLines(FileSystem fs, Path p, List<String> lines) throws IOException {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(fs.create(p, true), StandardCharsets.UTF_8))) {
+            for (String l : lines) {
+                w.write(l);
+                w.write('\n');
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BiarcGenerator <outDir> [key=value ...]   (see class javadoc for keys)");
+            System.exit(1);
+        }
+
+        Options o = new Options();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                System.err.println("ERROR: expected key=value, got: " + args[i]);
+                System.exit(1);
+            }
+            o.set(args[i].substring(0, eq).trim(), args[i].substring(eq + 1).trim());
+        }
+
+        long t0 = System.currentTimeMillis();
+        Stats s = generate(new Configuration(), new Path(args[0]), o);
+        System.err.println("Generated " + s.lines + " lines (" + s.bytes + " bytes, " + o.shards + " shards), " +
+                s.positives + " positive / " + s.negatives + " negative pairs in " +
+                (System.currentTimeMillis() - t0) + " ms");
+    }
+}
@@ -0,0 +1,415 @@
+package com.example.tools;
+
+import com.example.DirtDriver;
+import com.example.helpers.DataFiles;
+import com.example.helpers.Json;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PipelineBenchmark: end-to-end scaling benchmark of DirtDriver over generated corpora.
+ *
+ * Generates one BiarcGenerator corpus with max(scales) shards, then for every scale k runs the
+ * full pipeline over the first k shards (the same way the real input is a list of biarc shards)
+ * and collects, per step, the wall time and the job counters.
+ *
+ * Runs in whatever framework the Configuration selects: Hadoop local mode by default, or a
+ * cluster with -D mapreduce.framework.name=yarn. Any -D dirt.* option is passed to the driver.
+ * Note: in local mode all tasks share one JVM, so GC / CPU ms are process-wide, not per task.
+ *
+ * Usage:
+ *   java -cp <jar> com.example.tools.PipelineBenchmark [-D ...] <workRoot> [key=value ...]
+ *
+ * Keys (defaults in brackets):
+ *   scales [1,4,16]        shard counts to run
+ *   shardSize [4M]         bytes per generated shard
+ *   reducers [2]
+ *   repeat [1]             runs per scale; the fastest run (total wall time) is reported
+ *   report [<workRoot>/pipeline-report]   writes <report>.json and <report>.csv
+ *   baseline               CSV of an earlier run: exit code 1 on regressions
+ *   timeTolerance [25]     % allowed increase of wallMs / cpuMs
+ *   volumeTolerance [2]    % allowed increase of record / byte counters (deterministic)
+ *   gen.<key>=<value>      BiarcGenerator option (e.g. gen.verbs=500 gen.seed=7)
+ */
+public class PipelineBenchmark extends Configured implements Tool {
+
+    /** counters reported per step (CSV column name -> counter) */
+    private static final Map<String, TaskCounter> COUNTERS = new LinkedHashMap<>();
+    static {
+        COUNTERS.put("mapInputRecords", TaskCounter.MAP_INPUT_RECORDS);
+        COUNTERS.put("mapOutputRecords", TaskCounter.MAP_OUTPUT_RECORDS);
+        COUNTERS.put("mapOutputBytes", TaskCounter.MAP_OUTPUT_BYTES);
+        COUNTERS.put("mapOutputMaterializedBytes", TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES);
+        COUNTERS.put("combineInputRecords", TaskCounter.COMBINE_INPUT_RECORDS);
+        COUNTERS.put("combineOutputRecords", TaskCounter.COMBINE_OUTPUT_RECORDS);
+        COUNTERS.put("shuffleBytes", TaskCounter.REDUCE_SHUFFLE_BYTES);
+        COUNTERS.put("spilledRecords", TaskCounter.SPILLED_RECORDS);
+        COUNTERS.put("reduceInputGroups", TaskCounter.REDUCE_INPUT_GROUPS);
+        COUNTERS.put("reduceOutputRecords", TaskCounter.REDUCE_OUTPUT_RECORDS);
+        COUNTERS.put("gcMs", TaskCounter.GC_TIME_MILLIS);
+        COUNTERS.put("cpuMs", TaskCounter.CPU_MILLISECONDS);
+    }
+
+    /** regression-checked columns */
+    private static final String[] TIME_COLUMNS = {"wallMs", "cpuMs"};
+    private static final String[] VOLUME_COLUMNS = {"mapOutputRecords", "mapOutputBytes", "shuffleBytes",
+            "spilledRecords", "reduceOutputRecords"};
+
+    /** one CSV row: shards + step + metrics */
+    static class Row {
+        final int shards;
+        final String step;
+        final Map<String, Long> metrics = new LinkedHashMap<>();
+
+        Row(int shards, String step) {
+            this.shards = shards;
+            this.step = step;
+        }
+
+        String key() {
+            return shards + "/" + step;
+        }
+    }
+
+    static class ScaleRun {
+        int shards;
+        long inputBytes;
+        long totalWallMs;
+        final List<Row> steps = new ArrayList<>();
+    }
+
+    private static void usage() {
+        System.err.println(
+            "Usage:\n" +
+            "  java -cp <jar> com.example.tools.PipelineBenchmark [-D ...] <workRoot> [key=value ...]\n" +
+            "  keys: scales, shardSize, reducers, repeat, report, baseline, timeTolerance,\n" +
+            "        volumeTolerance, gen.<BiarcGenerator option>   (see class javadoc)\n"
+        );
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length < 1) {
+            usage();
+            return 1;
+        }
+
+        Path root = new Path(args[0]);
+        String scalesStr = "1,4,16";
+        long shardSize = 4L << 20;
+        int reducers = 2;
+        int repeat = 1;
+        Path report = new Path(root, "pipeline-report");
+        Path baseline = null;
+        double timeTolerance = 25.0;
+        double volumeTolerance = 2.0;
+        BiarcGenerator.Options gen = new BiarcGenerator.Options();
+
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                System.err.println("ERROR: expected key=value, got: " + args[i]);
+                usage();
+                return 1;
+            }
+            String k = args[i].substring(0, eq).trim();
+            String v = args[i].substring(eq + 1).trim();
+            switch (k) {
+                case "scales":          scalesStr = v; break;
+                case "shardSize":       shardSize = BiarcGenerator.parseSize(v); break;
+                case "reducers":        reducers = Integer.parseInt(v); break;
+                case "repeat":          repeat = Integer.parseInt(v); break;
+                case "report":          report = new Path(v); break;
+                case "baseline":        baseline = new Path(v); break;
+                case "timeTolerance":   timeTolerance = Double.parseDouble(v); break;
+                case "volumeTolerance": volumeTolerance = Double.parseDouble(v); break;
+                default:
+                    if (!k.startsWith("gen.")) {
+                        System.err.println("ERROR: unknown option: " + k);
+                        usage();
+                        return 1;
+                    }
+                    gen.set(k.substring(4), v);
+            }
+        }
+
+        List<Integer> scales = new ArrayList<>();
+        int maxShards = 0;
+        for (String s : scalesStr.split(",")) {
+            int k = Integer.parseInt(s.trim());
+            scales.add(k);
+            maxShards = Math.max(maxShards, k);
+        }
+        gen.shards = maxShards;
+        gen.size = shardSize * maxShards;
+
+        Configuration conf = getConf();
+        FileSystem fs = root.getFileSystem(conf);
+
+        // ---- corpus (reused when the generator options did not change) ----
+        Path corpus = new Path(root, "corpus");
+        if (!sameCorpus(fs, corpus, gen)) {
+            System.err.println("Generating " + maxShards + " x " + shardSize + " bytes under " + corpus);
+            BiarcGenerator.generate(conf, corpus, gen);
+        }
+        List<Path> shardFiles = DataFiles.list(conf, new Path(corpus, "biarcs"));
+        Path positive = new Path(corpus, "positive.txt");
+        Path negative = new Path(corpus, "negative.txt");
+
+        // ---- runs ----
+        List<ScaleRun> runs = new ArrayList<>();
+        for (int k : scales) {
+            ScaleRun best = null;
+            for (int r = 0; r < repeat; r++) {
+                ScaleRun run = runScale(conf, root, shardFiles.subList(0, k), positive, negative, reducers);
+                if (run == null) {
+                    System.err.println("ERROR: pipeline failed at " + k + " shard(s)");
+                    return 2;
+                }
+                if (best == null || run.totalWallMs < best.totalWallMs) best = run;
+            }
+            runs.add(best);
+        }
+
+        writeJson(fs, report.suffix(".json"), gen, reducers, runs);
+        writeCsv(fs, report.suffix(".csv"), gen, runs);
+        printSummary(runs);
+        System.err.println("Report: " + report.suffix(".json") + " , " + report.suffix(".csv"));
+
+        if (baseline == null) return 0;
+
+        Map<String, Row> base = loadCsv(fs, baseline);
+        Map<String, Row> now = loadCsv(fs, report.suffix(".csv"));
+        int regressions = compare(base, now, timeTolerance, volumeTolerance);
+        if (regressions > 0) {
+            System.err.println(regressions + " regression(s)");
+            return 1;
+        }
+        return 0;
+    }
+
+    private static boolean sameCorpus(FileSystem fs, Path corpus, BiarcGenerator.Options gen) throws IOException {
+        Path props = new Path(corpus, "generator.properties");
+        if (!fs.exists(props)) return false;
+        Map<String, String> existing = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(fs.open(props), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq > 0) existing.put(line.substring(0, eq), line.substring(eq + 1));
+            }
+        }
+        for (Map.Entry<String, String> e : gen.asMap().entrySet()) {
+            if (!e.getValue().equals(existing.get(e.getKey()))) return false;
+        }
+        return true;
+    }
+
+    private static ScaleRun runScale(Configuration base, Path root, List<Path> shards,
+                                     Path positive, Path negative, int reducers) throws Exception {
+        Configuration conf = new Configuration(base);
+        FileSystem fs = root.getFileSystem(conf);
+        Path work = new Path(root, "run-" + shards.size());
+
+        StringBuilder input = new StringBuilder();
+        long inputBytes = 0;
+        for (Path p : shards) {
+            if (input.length() > 0) input.append(',');
+            input.append(p.toString());
+            inputBytes += fs.getFileStatus(p).getLen();
+        }
+
+        DirtDriver driver = new DirtDriver();
+        long t0 = System.currentTimeMillis();
+        int code = ToolRunner.run(conf, driver, new String[]{
+                input.toString(), work.toString(), positive.toString(), negative.toString(),
+                Integer.toString(reducers)});
+        long wall = System.currentTimeMillis() - t0;
+        if (code != 0) return null;
+
+        ScaleRun run = new ScaleRun();
+        run.shards = shards.size();
+        run.inputBytes = inputBytes;
+        run.totalWallMs = wall;
+
+        Row total = new Row(run.shards, "total");
+        total.metrics.put("wallMs", wall);
+        total.metrics.put("recordsPerSec", 0L);
+        for (DirtDriver.StepRun sr : driver.getStepRuns()) {
+            Row row = new Row(run.shards, sr.step);
+            Counters c = sr.job.getCounters();
+            row.metrics.put("wallMs", sr.wallMs);
+            long in = c.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+            row.metrics.put("recordsPerSec", sr.wallMs > 0 ? in * 1000 / sr.wallMs : 0);
+            for (Map.Entry<String, TaskCounter> e : COUNTERS.entrySet()) {
+                long v = c.findCounter(e.getValue()).getValue();
+                row.metrics.put(e.getKey(), v);
+                if (!"wallMs".equals(e.getKey())) total.metrics.merge(e.getKey(), v, Long::sum);
+            }
+            run.steps.add(row);
+        }
+        total.metrics.put("recordsPerSec", wall > 0 ? run.steps.get(0).metrics.get("mapInputRecords") * 1000 / wall : 0);
+        run.steps.add(total);
+        return run;
+    }
+
+    /** log(wall_k / wall_1) / log(bytes_k / bytes_1) between the smallest and the largest scale */
+    private static double exponent(ScaleRun small, ScaleRun large, String step) {
+        Row a = find(small, step), b = find(large, step);
+        if (a == null || b == null || large.inputBytes <= small.inputBytes) return Double.NaN;
+        double wa = Math.max(1, a.metrics.get("wallMs")), wb = Math.max(1, b.metrics.get("wallMs"));
+        return Math.log(wb / wa) / Math.log((double) large.inputBytes / small.inputBytes);
+    }
+
+    private static Row find(ScaleRun run, String step) {
+        for (Row r : run.steps) if (r.step.equals(step)) return r;
+        return null;
+    }
+
+    private static void writeJson(FileSystem fs, Path out, BiarcGenerator.Options gen, int reducers,
+                                  List<ScaleRun> runs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"corpus\": {");
+        boolean first = true;
+        for (Map.Entry<String, String> e : gen.asMap().entrySet()) {
+            sb.append(first ? "" : ", ").append(Json.quote(e.getKey())).append(": ").append(Json.quote(e.getValue()));
+            first = false;
+        }
+        sb.append("},\n  \"reducers\": ").append(reducers).append(",\n  \"runs\": [\n");
+        for (int i = 0; i < runs.size(); i++) {
+            ScaleRun run = runs.get(i);
+            sb.append("    {\"shards\": ").append(run.shards)
+              .append(", \"inputBytes\": ").append(run.inputBytes)
+              .append(", \"totalWallMs\": ").append(run.totalWallMs)
+              .append(", \"steps\": [\n");
+            for (int j = 0; j < run.steps.size(); j++) {
+                Row row = run.steps.get(j);
+                sb.append("      {\"step\": ").append(Json.quote(row.step));
+                for (Map.Entry<String, Long> m : row.metrics.entrySet()) {
+                    sb.append(", ").append(Json.quote(m.getKey())).append(": ").append(m.getValue());
+                }
+                sb.append(j + 1 < run.steps.size() ? "},\n" : "}\n");
+            }
+            sb.append(i + 1 < runs.size() ? "    ]},\n" : "    ]}\n");
+        }
+        sb.append("  ],\n  \"scalingExponent\": {");
+        if (runs.size() > 1) {
+            ScaleRun small = runs.get(0), large = runs.get(runs.size() - 1);
+            first = true;
+            for (Row row : large.steps) {
+                sb.append(first ? "" : ", ").append(Json.quote(row.step)).append(": ")
+                  .append(Json.number(exponent(small, large, row.step)));
+                first = false;
+            }
+        }
+        sb.append("}\n}\n");
+
+        try (Writer w = new OutputStreamWriter(fs.create(out, true), StandardCharsets.UTF_8)) {
+            w.write(sb.toString());
+        }
+    }
+
+    private static void writeCsv(FileSystem fs, Path out, BiarcGenerator.Options gen, List<ScaleRun> runs) throws IOException {
+        try (Writer w = new OutputStreamWriter(fs.create(out, true), StandardCharsets.UTF_8)) {
+            w.write("# corpus: " + gen.asMap() + "\n");
+            boolean header = true;
+            for (ScaleRun run : runs) {
+                for (Row row : run.steps) {
+                    if (header) {
+                        w.write("shards,inputBytes,step");
+                        for (String k : row.metrics.keySet()) w.write("," + k);
+                        w.write('\n');
+                        header = false;
+                    }
+                    w.write(run.shards + "," + run.inputBytes + "," + row.step);
+                    for (long v : row.metrics.values()) w.write("," + v);
+                    w.write('\n');
+                }
+            }
+        }
+    }
+
+    static Map<String, Row> loadCsv(FileSystem fs, Path csv) throws IOException {
+        Map<String, Row> out = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(fs.open(csv), StandardCharsets.UTF_8))) {
+            String[] cols = null;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] f = line.split(",");
+                if (cols == null) {
+                    cols = f;
+                    continue;
+                }
+                Row row = new Row(Integer.parseInt(f[0]), f[2]);
+                for (int i = 3; i < f.length && i < cols.length; i++) row.metrics.put(cols[i], Long.parseLong(f[i]));
+                out.put(row.key(), row);
+            }
+        }
+        return out;
+    }
+
+    static int compare(Map<String, Row> base, Map<String, Row> now, double timeTolerancePct, double volumeTolerancePct) {
+        int regressions = 0;
+        System.out.println(String.format("%-34s %14s %14s %9s", "shards/step metric", "baseline", "current", "change"));
+        for (Row row : now.values()) {
+            Row b = base.get(row.key());
+            if (b == null) {
+                System.out.println(String.format("%-34s %14s %14s %9s", row.key(), "-", "-", "new"));
+                continue;
+            }
+            regressions += compareColumns(b, row, TIME_COLUMNS, timeTolerancePct);
+            regressions += compareColumns(b, row, VOLUME_COLUMNS, volumeTolerancePct);
+        }
+        return regressions;
+    }
+
+    private static int compareColumns(Row base, Row now, String[] columns, double tolerancePct) {
+        int regressions = 0;
+        for (String col : columns) {
+            Long b = base.metrics.get(col), v = now.metrics.get(col);
+            if (b == null || v == null) continue;
+            double change = b == 0 ? (v == 0 ? 0 : 100) : (v - b) * 100.0 / b;
+            boolean worse = change > tolerancePct;
+            if (worse) regressions++;
+            System.out.println(String.format("%-34s %14d %14d %8.1f%%%s",
+                    now.key() + " " + col, b, v, change, worse ? "  <-- REGRESSION" : ""));
+        }
+        return regressions;
+    }
+
+    private static void printSummary(List<ScaleRun> runs) {
+        System.out.println(String.format("%7s %12s %-6s %10s %14s %14s %14s %8s",
+                "shards", "inputBytes", "step", "wallMs", "records/s", "mapOutBytes", "shuffleBytes", "gcMs"));
+        for (ScaleRun run : runs) {
+            for (Row row : run.steps) {
+                System.out.println(String.format("%7d %12d %-6s %10d %14d %14d %14d %8d",
+                        run.shards, run.inputBytes, row.step, row.metrics.get("wallMs"),
+                        row.metrics.get("recordsPerSec"), row.metrics.get("mapOutputBytes"),
+                        row.metrics.get("shuffleBytes"), row.metrics.get("gcMs")));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new PipelineBenchmark(), args));
+    }
+}
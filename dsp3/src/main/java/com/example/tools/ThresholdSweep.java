@@ -0,0 +1,109 @@
+package com.example.tools;
+
+import com.example.helpers.DataFiles;
+import com.example.helpers.PrCurve;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ThresholdSweep: local equivalent of jobs.Step7_EvaluateThresholds.
+ *
+ * Reads a scored pair file or output directory (Step5 / Step6 / LocalScorer format):
+ *   pred1 \t pred2 \t similarity \t label
+ * counts the labels per distinct similarity (one pass, O(#thresholds) memory, any input order)
+ * and feeds them, highest first, to a PrCurve.
+ *
+ * Usage:
+ *   java -cp <jar> com.example.tools.ThresholdSweep <scored> [out=<prefix>]
+ *
+ *  - with out: writes <prefix>.csv (threshold,precision,recall,f1) and <prefix>.json (summary)
+ *  - without:  CSV to stdout, summary to stderr
+ */
+public class ThresholdSweep {
+
+    /** Lines without a numeric similarity and a 0/1 label are skipped (and counted). */
+    public static PrCurve sweep(Configuration conf, Path scored, long[] skipped) throws IOException {
+        // similarity -> {positives, negatives}, highest similarity first
+        TreeMap<Double, long[]> counts = new TreeMap<>((a, b) -> Double.compare(b, a));
+
+        for (Path f : DataFiles.list(conf, scored)) {
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(DataFiles.open(conf, f), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = line.split("\t", -1);
+                    double sim;
+                    try {
+                        sim = p.length < 4 ? Double.NaN : Double.parseDouble(p[2].trim());
+                    } catch (NumberFormatException e) {
+                        sim = Double.NaN;
+                    }
+                    String label = p.length < 4 ? "" : p[3].trim();
+                    if (Double.isNaN(sim) || !("1".equals(label) || "0".equals(label))) {
+                        if (skipped != null) skipped[0]++;
+                        continue;
+                    }
+                    counts.computeIfAbsent(sim, k -> new long[2])["1".equals(label) ? 0 : 1]++;
+                }
+            }
+        }
+
+        PrCurve curve = new PrCurve();
+        for (Map.Entry<Double, long[]> e : counts.entrySet()) {
+            curve.add(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
+        return curve.finish();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ThresholdSweep <scored> [out=<prefix>]   (see class javadoc)");
+            System.exit(1);
+        }
+        String out = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("out=")) {
+                out = args[i].substring(4).trim();
+            } else {
+                System.err.println("ERROR: unknown argument: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        Configuration conf = new Configuration();
+        long[] skipped = new long[1];
+        PrCurve curve = sweep(conf, new Path(args[0]), skipped);
+        if (skipped[0] > 0) System.err.println("WARN: skipped " + skipped[0] + " lines without similarity / label");
+
+        if (out == null) {
+            Writer w = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            curve.writeCsv(w);
+            w.flush();
+            System.err.print(curve.summaryJson());
+            return;
+        }
+
+        Path csv = new Path(out + ".csv");
+        Path json = new Path(out + ".json");
+        FileSystem fs = csv.getFileSystem(conf);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(fs.create(csv, true), StandardCharsets.UTF_8))) {
+            curve.writeCsv(w);
+        }
+        try (Writer w = new OutputStreamWriter(fs.create(json, true), StandardCharsets.UTF_8)) {
+            w.write(curve.summaryJson());
+        }
+        System.err.println("Wrote " + curve.size() + " thresholds to " + csv + " and the summary to " + json);
+    }
+}
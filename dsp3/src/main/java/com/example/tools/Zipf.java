@@ -0,0 +1,38 @@
+package com.example.tools;
+
+import java.util.Random;
+
+/**
+ * Zipf(s) sampler over ranks [0, n): P(rank r) ~ 1 / (r+1)^s.
+ * Precomputed CDF + binary search, so one draw is O(log n) and allocation-free.
+ */
+public class Zipf {
+
+    private final double[] cdf;
+
+    public Zipf(int n, double s) {
+        if (n <= 0) throw new IllegalArgumentException("n must be > 0");
+        cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) cdf[i] /= sum;
+    }
+
+    public int size() {
+        return cdf.length;
+    }
+
+    public int next(Random rnd) {
+        double u = rnd.nextDouble();
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
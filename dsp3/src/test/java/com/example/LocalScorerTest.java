@@ -0,0 +1,103 @@
+package com.example;
+
+import com.example.helpers.DoubleVectorWritable;
+import com.example.helpers.TestData;
+import com.example.similarity.Measures;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/** LocalScorer against an MI table, with a Step3 table covering all, some or none of the test predicates. */
+public class LocalScorerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+    private final Measures measures = Measures.of("dirt", "lin", "cosine");
+
+    @Test
+    public void predicatesMissingFromStep3AreSummedFromTheMiTable() throws IOException {
+        Path mi = mi();
+        double[] summed = score(mi, null);
+        assertTrue(summed[0] > 0);
+
+        // a Step3 table with the correct row of "X eat Y" only, and one of an unrelated predicate
+        Map<String, double[]> rows = rows(mi);
+        Map<String, double[]> some = new HashMap<>();
+        some.put("X eat Y", rows.get("X eat Y"));
+        some.put("X sell Y", new double[Measures.predicateWidth()]);
+        assertArrayEquals(summed, score(mi, denoms(some)), 1e-12);
+
+        assertArrayEquals(summed, score(mi, denoms(rows)), 1e-12);
+    }
+
+    private double[] score(Path mi, Path denomDir) throws IOException {
+        Map<String, List<TestData.PairInfo>> pairs = new HashMap<>();
+        pairs.put("X eat Y\tX devour Y", Collections.singletonList(new TestData.PairInfo("X eat Y", "X devour Y", 1)));
+        LocalScorer scorer = new LocalScorer(pairs, measures);
+        scorer.load(conf, mi, denomDir);
+        return scorer.scores("X eat Y", "X devour Y").clone();
+    }
+
+    private Path mi() throws IOException {
+        File f = tmp.newFile("mi.txt");
+        Files.write(f.toPath(), Arrays.asList(
+                "X eat Y\tX\tcat\t1.5",
+                "X eat Y\tY\tfish\t2.0",
+                "X eat Y\tY\tmouse\t0.5",
+                "X devour Y\tX\tcat\t1.0",
+                "X devour Y\tX\tdog\t0.25",
+                "X devour Y\tY\tfish\t1.25",
+                "X devour Y\tY\tcar\t-0.5"), StandardCharsets.UTF_8);
+        return new Path(f.toURI());
+    }
+
+    /** the Step3 rows: Measures.predicateTerms summed over the positive MI of each predicate */
+    private static Map<String, double[]> rows(Path mi) throws IOException {
+        Map<String, double[]> rows = new HashMap<>();
+        double[] terms = new double[Measures.predicateWidth()];
+        for (String line : Files.readAllLines(new File(mi.toUri()).toPath(), StandardCharsets.UTF_8)) {
+            String[] f = line.split("\t");
+            double v = Double.parseDouble(f[3]);
+            if (v <= 0) continue;
+            Measures.predicateTerms(Measures.slotIndex(f[1]), v, terms);
+            double[] row = rows.computeIfAbsent(f[0], k -> new double[terms.length]);
+            for (int i = 0; i < terms.length; i++) row[i] += terms[i];
+        }
+        return rows;
+    }
+
+    private Path denoms(Map<String, double[]> rows) throws IOException {
+        Path dir = new Path(tmp.newFolder().toURI());
+        try (SequenceFile.Writer w = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(new Path(dir, "part-r-00000")),
+                SequenceFile.Writer.keyClass(Text.class),
+                SequenceFile.Writer.valueClass(DoubleVectorWritable.class))) {
+            DoubleVectorWritable v = new DoubleVectorWritable();
+            for (Map.Entry<String, double[]> e : rows.entrySet()) {
+                v.set(e.getValue(), e.getValue().length);
+                w.append(new Text(e.getKey()), v);
+            }
+        }
+        return dir;
+    }
+}
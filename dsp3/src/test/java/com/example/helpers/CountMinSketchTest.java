@@ -0,0 +1,96 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CountMinSketchTest {
+
+    @Test
+    public void defaultsGiveASmallSketch() {
+        CountMinSketch sketch = CountMinSketch.fromConf(new Configuration());
+        assertEquals(2719, sketch.width());
+        assertEquals(5, sketch.depth());
+        assertTrue(sketch.epsilon() <= CountMinSketch.DEFAULT_EPSILON);
+        assertTrue(sketch.delta() <= CountMinSketch.DEFAULT_DELTA);
+    }
+
+    @Test
+    public void estimatesStayWithinTheErrorBound() {
+        CountMinSketch sketch = new CountMinSketch(272, 5);   // epsilon = 0.01
+        Map<String, Long> exact = zipf(sketch, 5000, 50_000, 1);
+
+        long n = sketch.total();
+        double bound = sketch.epsilon() * n;
+        int over = 0;
+        for (Map.Entry<String, Long> e : exact.entrySet()) {
+            long est = sketch.estimate(e.getKey());
+            assertTrue(e.getKey() + " undercounted", est >= e.getValue());
+            if (est - e.getValue() > bound) over++;
+        }
+        // the bound fails with probability <= delta = e^-5 per key
+        assertTrue(over + " keys over the bound", over <= exact.size() * 2 * sketch.delta());
+        assertEquals(0, sketch.estimate("never added \t X \t word"), bound);
+    }
+
+    @Test
+    public void mergingCellRecordsEqualsOneSketchOfAllCounts() {
+        CountMinSketch all = new CountMinSketch(100, 4);
+        CountMinSketch[] parts = {new CountMinSketch(100, 4), new CountMinSketch(100, 4), new CountMinSketch(100, 4)};
+        Random rnd = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            String key = "pred" + rnd.nextInt(400) + "\tX\tword" + rnd.nextInt(50);
+            long c = 1 + rnd.nextInt(5);
+            all.add(key, c);
+            parts[i % parts.length].add(key, c);
+        }
+
+        // what Step1's mappers write and SumReducer / Step2 read back
+        CountMinSketch merged = new CountMinSketch(100, 4);
+        for (CountMinSketch part : parts) {
+            for (int row = 0; row < part.depth(); row++) {
+                for (int col = 0; col < part.width(); col++) {
+                    long c = part.cell(row, col);
+                    if (c != 0) assertTrue(merged.addRecord(CountMinSketch.recordKey(row, col), c));
+                }
+            }
+        }
+        for (int row = 0; row < all.depth(); row++) {
+            for (int col = 0; col < all.width(); col++) {
+                assertEquals(all.cell(row, col), merged.cell(row, col));
+            }
+        }
+        assertEquals(all.total(), merged.total());
+    }
+
+    @Test
+    public void rejectsRecordsOfAnotherSketch() {
+        CountMinSketch sketch = new CountMinSketch(100, 4);
+        assertFalse(sketch.addRecord(CountMinSketch.recordKey(4, 0), 1));
+        assertFalse(sketch.addRecord(CountMinSketch.recordKey(0, 100), 1));
+        assertFalse(sketch.addRecord("CMS\t1", 1));
+        assertFalse(sketch.addRecord("CMS\tx\t1", 1));
+        assertFalse(sketch.addRecord("PSW\tX eat Y\tX\tcat", 1));
+        assertEquals(0, sketch.total());
+    }
+
+    /** adds a Zipf-like stream over the given number of keys; returns the exact counts */
+    static Map<String, Long> zipf(CountMinSketch sketch, int keys, int events, long seed) {
+        Random rnd = new Random(seed);
+        Map<String, Long> exact = new HashMap<>();
+        for (int i = 0; i < events; i++) {
+            int k = (int) Math.floor(Math.pow(keys, rnd.nextDouble())) - 1;
+            String key = "X verb" + k + " Y\tY\tword" + (k % 17);
+            sketch.add(key, 1);
+            exact.merge(key, 1L, Long::sum);
+        }
+        return exact;
+    }
+}
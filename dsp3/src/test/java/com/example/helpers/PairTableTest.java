@@ -0,0 +1,107 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PairTableTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private TestSet testSet;
+    private PairTable table;
+
+    @Before
+    public void build() throws IOException {
+        Path positive = pairFile("positive.txt",
+                "X confuse with Y\tY confound with X",
+                "X release into Y\tX secrete into Y",
+                "X confuse with Y\tY confound with X",
+                "X prevent Y\tX stop Y");
+        Path negative = pairFile("negative.txt",
+                "X stop Y\tX prevent Y",
+                "X suffer from Y\tX get Y");
+        testSet = TestSet.read(new Configuration(), positive, negative);
+        table = new PairTable(testSet);
+    }
+
+    @Test
+    public void groupsEveryPairUnderItsCanonicalKey() {
+        assertEquals(4, table.size());
+
+        int total = 0;
+        for (int k = 0; k < table.size(); k++) {
+            assertTrue(table.first(k) <= table.second(k));
+            if (k > 0) {
+                assertTrue(PairTable.key(table.first(k - 1), table.second(k - 1))
+                         < PairTable.key(table.first(k), table.second(k)));
+            }
+            int last = -1;
+            for (int j = 0; j < table.count(k); j++) {
+                int pair = table.pair(k, j);
+                assertEquals(PairTable.key(table.first(k), table.second(k)),
+                             PairTable.key(testSet.left(pair), testSet.right(pair)));
+                assertTrue("test set order within a key", pair > last);
+                last = pair;
+            }
+            total += table.count(k);
+        }
+        assertEquals(testSet.size(), total);
+    }
+
+    @Test
+    public void findIsSymmetricAndKeepsDuplicatesAndOrientations() {
+        for (int i = 0; i < testSet.size(); i++) {
+            int k = table.find(testSet.left(i), testSet.right(i));
+            assertTrue(k >= 0);
+            assertEquals(k, table.find(testSet.right(i), testSet.left(i)));
+        }
+
+        // "prevent / stop" is in both files, once each way round
+        int prevent = testSet.indexOf("X prevent Y");
+        int stop = testSet.indexOf("X stop Y");
+        int k = table.find(prevent, stop);
+        assertEquals(2, table.count(k));
+        assertEquals(1, testSet.label(table.pair(k, 0)));
+        assertEquals(0, testSet.label(table.pair(k, 1)));
+        assertEquals(testSet.left(table.pair(k, 0)), testSet.right(table.pair(k, 1)));
+    }
+
+    @Test
+    public void findRejectsPairsOutsideTheTestSet() {
+        int n = testSet.predicateCount();
+        int found = 0;
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                boolean isPair = false;
+                for (int i = 0; i < testSet.size(); i++) {
+                    isPair |= PairTable.key(a, b) == PairTable.key(testSet.left(i), testSet.right(i));
+                }
+                assertEquals(a + "," + b, isPair, table.find(a, b) >= 0);
+                if (isPair) found++;
+            }
+        }
+        assertEquals(2 * table.size(), found);
+        assertEquals(-1, table.find(-1, 0));
+        assertEquals(-1, table.find(0, -1));
+    }
+
+    private Path pairFile(String name, String... lines) throws IOException {
+        File f = tmp.newFile(name);
+        Files.write(f.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return new Path(f.toURI());
+    }
+}
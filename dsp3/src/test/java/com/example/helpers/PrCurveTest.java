@@ -0,0 +1,123 @@
+package com.example.helpers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrCurveTest {
+
+    private static final double EPS = 1e-12;
+
+    @Test
+    public void tiedSimilaritiesShareOneThreshold() {
+        PrCurve curve = new PrCurve();
+        curve.add(0.9, true, 1);
+        curve.add(0.9, false, 1);
+        curve.add(0.5, true, 2);
+        curve.add(0.1, false, 1);
+        curve.finish();
+
+        assertEquals(3, curve.size());
+        assertEquals(3, curve.positives());
+        assertEquals(2, curve.negatives());
+
+        // >= 0.9: tp 1, fp 1    >= 0.5: tp 3, fp 1    >= 0.1: tp 3, fp 2
+        assertPoint(curve, 0, 0.9, 1.0 / 2, 1.0 / 3, 0.4);
+        assertPoint(curve, 1, 0.5, 3.0 / 4, 1.0, 6.0 / 7);
+        assertPoint(curve, 2, 0.1, 3.0 / 5, 1.0, 3.0 / 4);
+        assertEquals(1, curve.best());
+
+        // the order of the labels within a tie does not matter
+        PrCurve counts = new PrCurve();
+        counts.add(0.9, 1, 1);
+        counts.add(0.5, 2, 0);
+        counts.add(0.1, 0, 1);
+        counts.finish();
+        for (int i = 0; i < curve.size(); i++) assertEquals(curve.csvLine(i), counts.csvLine(i));
+    }
+
+    @Test
+    public void averagePrecisionSumsTheRecallSteps() {
+        PrCurve curve = new PrCurve();
+        curve.add(0.9, 1, 1);
+        curve.add(0.5, 2, 0);
+        curve.add(0.1, 0, 1);
+        // recall 1/3 at precision 1/2, then 2/3 more at precision 3/4; no step at 0.1
+        assertEquals(1.0 / 3 * 1 / 2 + 2.0 / 3 * 3 / 4, curve.finish().averagePrecision(), EPS);
+
+        PrCurve perfect = new PrCurve();
+        perfect.add(0.8, 2, 0);
+        perfect.add(0.7, 1, 0);
+        perfect.add(0.2, 0, 3);
+        assertEquals(1.0, perfect.finish().averagePrecision(), EPS);
+
+        PrCurve reversed = new PrCurve();
+        reversed.add(0.8, 0, 1);
+        reversed.add(0.2, 1, 0);
+        assertEquals(0.5, reversed.finish().averagePrecision(), EPS);
+    }
+
+    @Test
+    public void allNegativeInputScoresZeroWithoutNaN() throws IOException {
+        PrCurve curve = new PrCurve();
+        curve.add(0.8, false, 1);
+        curve.add(0.3, false, 2);
+        curve.finish();
+
+        assertEquals(2, curve.size());
+        assertEquals(0, curve.positives());
+        for (int i = 0; i < curve.size(); i++) assertPoint(curve, i, curve.threshold(i), 0, 0, 0);
+        assertEquals(0.0, curve.averagePrecision(), 0.0);
+        assertEquals(0, curve.best());
+
+        String json = curve.summaryJson();
+        assertFalse(json, json.contains("NaN"));
+        assertTrue(json, json.contains("\"positives\": 0"));
+        assertTrue(json, json.contains("\"tn\": 2"));
+
+        StringWriter csv = new StringWriter();
+        curve.writeCsv(csv);
+        assertEquals(PrCurve.csvHeader() + "\n0.8,0.0,0.0,0.0\n0.3,0.0,0.0,0.0\n", csv.toString());
+    }
+
+    @Test
+    public void emptyCurveHasNoBestPoint() {
+        PrCurve curve = new PrCurve().finish();
+        assertEquals(0, curve.size());
+        assertEquals(-1, curve.best());
+        assertEquals(0.0, curve.averagePrecision(), 0.0);
+        assertFalse(curve.summaryJson().contains("best"));
+    }
+
+    @Test
+    public void rejectsAscendingSimilaritiesAndAddsAfterFinish() {
+        PrCurve curve = new PrCurve();
+        curve.add(0.4, true, 1);
+        try {
+            curve.add(0.5, true, 1);
+            fail("ascending similarity accepted");
+        } catch (IllegalArgumentException expected) {
+            // Step7 turns this into an IOException on unsorted Step6 output
+        }
+        curve.finish();
+        try {
+            curve.add(0.1, true, 1);
+            fail("add after finish accepted");
+        } catch (IllegalStateException expected) {
+            // finished curves are read only
+        }
+    }
+
+    private static void assertPoint(PrCurve c, int i, double threshold, double precision, double recall, double f1) {
+        assertEquals(threshold, c.threshold(i), 0.0);
+        assertEquals("precision " + i, precision, c.precision(i), EPS);
+        assertEquals("recall " + i, recall, c.recall(i), EPS);
+        assertEquals("f1 " + i, f1, c.f1(i), EPS);
+    }
+}
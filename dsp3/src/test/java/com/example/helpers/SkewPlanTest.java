@@ -0,0 +1,122 @@
+package com.example.helpers;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SkewPlanTest {
+
+    @Test
+    public void cellsNumberTheBlockPairsDenselyAndInvertibly() {
+        for (int b = 1; b <= 20; b++) {
+            boolean[] used = new boolean[SkewPlan.cells(b)];
+            for (int a = 0; a < b; a++) {
+                for (int c = a; c < b; c++) {
+                    int cell = SkewPlan.cell(a, c, b);
+                    assertTrue("b=" + b + " cell " + cell, cell >= 0 && cell < used.length);
+                    assertTrue("b=" + b + " cell " + cell + " used twice", !used[cell]);
+                    used[cell] = true;
+                    assertArrayEquals(new int[]{a, c}, SkewPlan.blockPair(cell, b));
+                }
+            }
+        }
+    }
+
+    /** Step4's replication and cell reducer: every predicate pair is formed in exactly one cell. */
+    @Test
+    public void everyPredicatePairIsFormedExactlyOnce() {
+        int n = 60;
+        String[] preds = new String[n];
+        for (int i = 0; i < n; i++) preds[i] = "X verb" + i + " Y";
+
+        for (int b = 2; b <= 8; b++) {
+            // mapper: a predicate of block a goes to cell (min(a,c), max(a,c)) for every c
+            @SuppressWarnings("unchecked")
+            Set<Integer>[] cellPreds = new Set[SkewPlan.cells(b)];
+            for (int k = 0; k < cellPreds.length; k++) cellPreds[k] = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                int a = SkewPlan.bucket(preds[i], b);
+                for (int c = 0; c < b; c++) {
+                    cellPreds[SkewPlan.cell(Math.min(a, c), Math.max(a, c), b)].add(i);
+                }
+            }
+
+            // reducer of cell (a, c): pairs within a (a == c) or across a and c (a < c)
+            int[][] formed = new int[n][n];
+            for (int cell = 0; cell < cellPreds.length; cell++) {
+                int[] ac = SkewPlan.blockPair(cell, b);
+                for (int i : cellPreds[cell]) {
+                    for (int j : cellPreds[cell]) {
+                        if (i >= j) continue;
+                        int bi = SkewPlan.bucket(preds[i], b);
+                        int bj = SkewPlan.bucket(preds[j], b);
+                        boolean within = ac[0] == ac[1] && bi == ac[0] && bj == ac[0];
+                        boolean across = ac[0] < ac[1] && bi != bj;
+                        if (within || across) formed[i][j]++;
+                    }
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    assertEquals("b=" + b + " pair " + i + "," + j, 1, formed[i][j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maxBlocksIsTheLargestThatFits() {
+        for (int m = 1; m <= 200; m++) {
+            int b = SkewPlan.maxBlocks(m);
+            assertTrue(b >= 1);
+            assertTrue(b == 1 || SkewPlan.cells(b) <= m);
+            assertTrue(SkewPlan.cells(b + 1) > m);
+        }
+    }
+
+    @Test
+    public void saltedKeysRoundTrip() {
+        String feature = "X\tcompany";
+        String key = SkewPlan.salted(feature, 17);
+        assertEquals(feature, SkewPlan.feature(key));
+        assertEquals(17, SkewPlan.salt(key));
+        assertEquals(feature, SkewPlan.feature(feature));
+        assertEquals(-1, SkewPlan.salt(feature));
+
+        // the byte form Step4's reducer reads, on a reused (longer) buffer
+        Text t = new Text("Y\tsomething much longer\t#3");
+        t.set(key);
+        assertEquals(17, SkewPlan.salt(t.getBytes(), t.getLength()));
+        assertEquals(feature.length(), SkewPlan.saltStart(t.getBytes(), t.getLength()));
+        for (String k : new String[]{feature, "X\t#", "Y\tword#12", "X"}) {
+            t.set(k);
+            assertEquals(k, -1, SkewPlan.salt(t.getBytes(), t.getLength()));
+        }
+    }
+
+    @Test
+    public void partitionerPlacesSaltsOnConsecutiveReducers() {
+        SkewPlan.SaltedPartitioner<Text> salted = new SkewPlan.SaltedPartitioner<>();
+        HashPartitioner<Text, Text> hash = new HashPartitioner<>();
+        int reducers = 7;
+
+        for (String key : new String[]{"X\tcompany", "Y\tit", "X\t#", "Y\tword#12", "X"}) {
+            Text k = new Text(key);
+            assertEquals(key, hash.getPartition(k, null, reducers), salted.getPartition(k, null, reducers));
+        }
+
+        String feature = "Y\tit";
+        int first = salted.getPartition(new Text(SkewPlan.salted(feature, 0)), null, reducers);
+        for (int s = 1; s < reducers; s++) {
+            assertEquals((first + s) % reducers,
+                    salted.getPartition(new Text(SkewPlan.salted(feature, s)), null, reducers));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.helpers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void evictedKeySpillsTheCountItGainedInTheTable() throws Exception {
+        Map<String, Long> spilled = new HashMap<>();
+        SpaceSaving table = new SpaceSaving(2, (k, c) -> spilled.merge(k, c, Long::sum));
+
+        table.add("a", 5);
+        table.add("b", 3);
+        table.add("c", 1);          // replaces b (smallest): b spills its exact 3, c enters at 3 + 1
+
+        assertEquals(1, table.spilledKeys());
+        assertEquals(3, table.spilledMass());
+        assertEquals(Long.valueOf(3), spilled.get("b"));
+
+        table.add("c", 1);          // c: count 5, error 3
+        table.add("d", 2);          // ties a (5) vs c (5): the older a goes, spilling its exact 5
+        assertEquals(Long.valueOf(5), spilled.get("a"));
+
+        table.add("e", 1);          // c (5, exact 2) goes, not d (7)
+        assertEquals(Long.valueOf(2), spilled.get("c"));
+
+        Map<String, Long> kept = exact(table);
+        assertEquals(2, kept.size());
+        assertEquals(Long.valueOf(2), kept.get("d"));
+        assertEquals(Long.valueOf(1), kept.get("e"));
+    }
+
+    @Test
+    public void everyUnitIsKeptOrSpilledOnce() throws Exception {
+        Map<String, Long> spilled = new HashMap<>();
+        SpaceSaving table = new SpaceSaving(50, (k, c) -> spilled.merge(k, c, Long::sum));
+
+        Random rnd = new Random(3);
+        Map<String, Long> truth = new HashMap<>();
+        long total = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String key = "k" + (int) Math.floor(Math.pow(2000, rnd.nextDouble()));
+            long c = 1 + rnd.nextInt(3);
+            table.add(key, c);
+            truth.merge(key, c, Long::sum);
+            total += c;
+        }
+
+        Map<String, Long> kept = exact(table);
+        assertEquals(50, kept.size());
+        long keptMass = 0;
+        for (long c : kept.values()) keptMass += c;
+        assertEquals(total, keptMass + table.spilledMass());
+
+        for (Map.Entry<String, Long> e : truth.entrySet()) {
+            long k = kept.getOrDefault(e.getKey(), 0L);
+            long s = spilled.getOrDefault(e.getKey(), 0L);
+            assertEquals(e.getKey(), (long) e.getValue(), k + s);
+        }
+    }
+
+    @Test
+    public void spilledCountsReachTheSketchAsInStep1() throws Exception {
+        CountMinSketch tail = new CountMinSketch(2719, 5);
+        SpaceSaving table = new SpaceSaving(10, tail::add);
+        Map<String, Long> truth = new HashMap<>();
+        Random rnd = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            String key = "X verb" + rnd.nextInt(200) + " Y\tX\tword";
+            table.add(key, 1);
+            truth.merge(key, 1L, Long::sum);
+        }
+
+        assertEquals(table.spilledMass(), tail.total());
+        Map<String, Long> kept = exact(table);
+        double bound = tail.epsilon() * tail.total();
+        for (Map.Entry<String, Long> e : truth.entrySet()) {
+            // Step2: C(p,slot,w) = exact count + sketch estimate, never below the true count
+            long est = kept.getOrDefault(e.getKey(), 0L) + tail.estimate(e.getKey());
+            assertTrue(e.getKey(), est >= e.getValue());
+            assertTrue(e.getKey(), est <= e.getValue() + bound);
+        }
+    }
+
+    private static Map<String, Long> exact(SpaceSaving table) throws IOException, InterruptedException {
+        Map<String, Long> kept = new HashMap<>();
+        table.forEachExact((k, c) -> kept.put(k, c));
+        return kept;
+    }
+}
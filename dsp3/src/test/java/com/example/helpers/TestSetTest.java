@@ -0,0 +1,138 @@
+package com.example.helpers;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestSetTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+    private Path positive;
+    private Path negative;
+
+    @Before
+    public void writePairFiles() throws IOException {
+        // a duplicate, a reversed duplicate across the files, and a non-ASCII predicate
+        positive = pairFile("positive.txt",
+                "X confuse with Y\tY confound with X",
+                "X release into Y\tX secrete into Y",
+                "X confuse with Y\tY confound with X",
+                "X prevent Y\tX stop Y");
+        negative = pairFile("negative.txt",
+                "X stop Y\tX prevent Y",
+                "X suffer from Y\tX get Y",
+                "X mögen Y\tX like Y");
+    }
+
+    @Test
+    public void binaryFileRoundTripsTheParsedPairs() throws IOException {
+        File bin = new File(tmp.getRoot(), TestSet.CACHE_NAME);
+        int written = TestSet.write(conf, positive, negative, new Path(bin.toURI()));
+
+        TestSet read = TestSet.read(conf, positive, negative);
+
+        assertEquals(7, written);
+        assertSame(read, TestSet.open(bin));
+        assertSame(read, TestSet.read(conf, new Path(bin.toURI())));
+    }
+
+    private static void assertSame(TestSet expected, TestSet actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.predicateCount(), actual.predicateCount());
+        for (int id = 0; id < expected.predicateCount(); id++) {
+            assertEquals(expected.predicate(id), actual.predicate(id));
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.left(i), actual.left(i));
+            assertEquals(expected.right(i), actual.right(i));
+            assertEquals(expected.label(i), actual.label(i));
+        }
+    }
+
+    @Test
+    public void pairsMatchThePairFileReader() throws IOException {
+        TestSet set = TestSet.read(conf, positive, negative);
+        Map<String, List<TestData.PairInfo>> expected =
+                TestData.loadPairsWithDuplicates(conf, positive, negative, new PorterStemmer());
+        Map<String, List<TestData.PairInfo>> actual = set.pairsWithDuplicates();
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, List<TestData.PairInfo>> e : expected.entrySet()) {
+            assertEquals(e.getKey(), describe(e.getValue()), describe(actual.get(e.getKey())));
+        }
+    }
+
+    @Test
+    public void idsFollowStringOrder() throws IOException {
+        TestSet set = TestSet.read(conf, positive, negative);
+        for (int id = 1; id < set.predicateCount(); id++) {
+            assertTrue(set.predicate(id - 1).compareTo(set.predicate(id)) < 0);
+        }
+        for (int id = 0; id < set.predicateCount(); id++) {
+            assertEquals(id, set.indexOf(set.predicate(id)));
+        }
+        assertTrue(set.indexOf("X unknown Y") < 0);
+    }
+
+    @Test
+    public void byteLookupFindsEveryPredicateInsideALargerBuffer() throws IOException {
+        TestSet set = TestSet.read(conf, positive, negative);
+        for (int id = 0; id < set.predicateCount(); id++) {
+            byte[] name = set.predicate(id).getBytes(StandardCharsets.UTF_8);
+            assertEquals(Arrays.toString(name), Arrays.toString(set.predicateBytes(id)));
+
+            byte[] buf = new byte[name.length + 5];
+            Arrays.fill(buf, (byte) 'z');
+            System.arraycopy(name, 0, buf, 3, name.length);
+            assertEquals(set.predicate(id), id, set.indexOf(buf, 3, name.length));
+            assertEquals(-1, set.indexOf(buf, 3, name.length - 1));
+        }
+        byte[] unknown = "X unknown Y".getBytes(StandardCharsets.UTF_8);
+        assertEquals(-1, set.indexOf(unknown, 0, unknown.length));
+        assertEquals(-1, set.indexOf(unknown, 0, 0));
+    }
+
+    @Test
+    public void rejectsAFileThatIsNotATestSet() throws IOException {
+        File junk = tmp.newFile("junk.bin");
+        Files.write(junk.toPath(), "not a test set".getBytes(StandardCharsets.UTF_8));
+        try {
+            TestSet.open(junk);
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("not a test set"));
+        }
+    }
+
+    private Path pairFile(String name, String... lines) throws IOException {
+        File f = tmp.newFile(name);
+        Files.write(f.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return new Path(f.toURI());
+    }
+
+    private static String describe(List<TestData.PairInfo> infos) {
+        StringBuilder sb = new StringBuilder();
+        for (TestData.PairInfo info : infos) {
+            sb.append(info.p1).append(" | ").append(info.p2).append(" | ").append(info.label).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.jobs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** dirt.ingest: an ingest dir is reused only while its _MANIFEST matches the inputs. */
+public class Step0IngestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+
+    @Test
+    public void manifestListsTheFilesTheJobReads() throws IOException {
+        File in = tmp.newFolder("in");
+        write(new File(in, "a.txt"), "x");
+        write(new File(in, "b.txt"), "yy");
+        write(new File(in, "_SUCCESS"), "");
+        write(new File(in, ".a.txt.crc"), "");
+
+        List<String> lines = Step0_Ingest.manifest(conf, dirs(in));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains("a.txt\t1\t"));
+        assertTrue(lines.get(1), lines.get(1).contains("b.txt\t2\t"));
+
+        // a glob over the same files gives the same manifest
+        assertEquals(lines, Step0_Ingest.manifest(conf, Collections.singletonList(new Path(new Path(in.toURI()), "*.txt"))));
+        assertTrue(Step0_Ingest.manifest(conf, dirs(new File(in, "none"))).get(0).endsWith("\tmissing"));
+    }
+
+    @Test
+    public void reusedOnlyWhileTheInputsMatch() throws IOException {
+        File in = tmp.newFolder("in");
+        File shard = new File(in, "a.txt");
+        write(shard, "x");
+        File other = tmp.newFolder("other");
+        write(new File(other, "a.txt"), "x");
+        File out = tmp.newFolder("step0_ingest");
+        Path out0 = new Path(out.toURI());
+
+        Step0_Ingest.writeManifest(conf, dirs(in), out0);
+        assertFalse("no _SUCCESS", Step0_Ingest.isCurrent(conf, dirs(in), out0));
+
+        write(new File(out, "_SUCCESS"), "");
+        assertTrue(Step0_Ingest.isCurrent(conf, dirs(in), out0));
+        assertFalse(Step0_Ingest.isCurrent(conf, dirs(other), out0));
+        assertFalse(Step0_Ingest.isCurrent(conf, dirs(in, other), out0));
+
+        write(new File(in, "b.txt"), "y");
+        assertFalse("added shard", Step0_Ingest.isCurrent(conf, dirs(in), out0));
+        assertTrue(new File(in, "b.txt").delete());
+        assertTrue(Step0_Ingest.isCurrent(conf, dirs(in), out0));
+
+        write(shard, "xy");
+        assertFalse("changed shard", Step0_Ingest.isCurrent(conf, dirs(in), out0));
+    }
+
+    private static List<Path> dirs(File... files) {
+        Path[] paths = new Path[files.length];
+        for (int i = 0; i < files.length; i++) paths[i] = new Path(files[i].toURI());
+        return Arrays.asList(paths);
+    }
+
+    private static void write(File f, String s) throws IOException {
+        Files.write(f.toPath(), s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.jobs;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** dirt.prune.min.preds: Step1's feature-grouped sort order and partitioning. */
+public class Step1FeatureOrderTest {
+
+    private static final List<String> SORTED = Arrays.asList(
+            // other keys first, by bytes
+            "CMS\t0\t3",
+            "PS\tX eat Y\tX",
+            "SLOT\tX",
+            // then feature by feature ("slot \t word" bytes): its PSW keys, then its SW key
+            "PSW\tX eat Y\tX\tcat",
+            "PSW\tX see Y\tX\tcat",
+            "SW\tX\tcat",
+            "SW\tX\tcats",
+            "PSW\tX eat Y\tY\tfish",
+            "PSW\tX eat a Y\tY\tfish",
+            "SW\tY\tfish");
+
+    private final Step1_ExtractAndTotals.FeatureComparator cmp = new Step1_ExtractAndTotals.FeatureComparator();
+
+    @Test
+    public void sortsFeatureByFeatureWithTheTotalLast() {
+        List<Text> keys = shuffled();
+        keys.sort(cmp::compare);
+        assertEquals(SORTED, strings(keys));
+    }
+
+    @Test
+    public void rawComparisonAgreesWithObjectComparison() throws IOException {
+        for (String a : SORTED) {
+            for (String b : SORTED) {
+                byte[] x = serialized(a);
+                byte[] y = serialized(b);
+                int raw = cmp.compare(x, 0, x.length, y, 0, y.length);
+                int obj = cmp.compare(new Text(a), new Text(b));
+                assertEquals(a + " vs " + b, Integer.signum(obj), Integer.signum(raw));
+                assertEquals(a + " vs " + b, a.equals(b), raw == 0);
+                assertEquals(Integer.signum(SORTED.indexOf(a) - SORTED.indexOf(b)), Integer.signum(raw));
+            }
+        }
+    }
+
+    @Test
+    public void featureRecordsShareAPartition() {
+        Step1_ExtractAndTotals.FeaturePartitioner p = new Step1_ExtractAndTotals.FeaturePartitioner();
+        for (int reducers = 1; reducers <= 13; reducers++) {
+            int sw = p.getPartition(new Text("SW\tY\tfish"), null, reducers);
+            assertEquals(sw, p.getPartition(new Text("PSW\tX eat Y\tY\tfish"), null, reducers));
+            assertEquals(sw, p.getPartition(new Text("PSW\tX eat a Y\tY\tfish"), null, reducers));
+            int ps = p.getPartition(new Text("PS\tX eat Y\tX"), null, reducers);
+            assertTrue(ps >= 0 && ps < reducers);
+        }
+    }
+
+    private static List<Text> shuffled() {
+        List<Text> keys = new ArrayList<>();
+        for (String s : SORTED) keys.add(new Text(s));
+        Collections.reverse(keys);
+        Collections.swap(keys, 1, 6);
+        return keys;
+    }
+
+    private static List<String> strings(List<Text> keys) {
+        List<String> out = new ArrayList<>();
+        for (Text t : keys) out.add(t.toString());
+        return out;
+    }
+
+    private static byte[] serialized(String s) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        new Text(s).write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.serve;
+
+import com.example.helpers.Json;
+import com.example.index.PredicateIndex;
+import com.example.index.PredicateIndexBuilder;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The HTTP endpoints on an ephemeral port, against a small index built from an MI table. */
+public class SimilarityServerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private PredicateIndex index;
+    private SimilarityServer server;
+
+    private static final class Answer {
+        final int status;
+        final String body;
+
+        Answer(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void start() throws IOException {
+        File mi = tmp.newFile("mi.txt");
+        Files.write(mi.toPath(), Arrays.asList(
+                "X eat Y\tX\tcat\t1.5",
+                "X eat Y\tY\tfish\t2.0",
+                "X eat Y\tY\tmouse\t0.5",
+                "X devour Y\tX\tcat\t1.0",
+                "X devour Y\tY\tfish\t1.25",
+                "X buy Y\tX\tman\t0.75",
+                "X buy Y\tY\tfish\t0.25",
+                "X sell Y\tX\tman\t0.5",
+                "X sell Y\tY\tcar\t-0.5"), StandardCharsets.UTF_8);
+        File dir = tmp.newFolder("index");
+        PredicateIndexBuilder.build(new Configuration(), new Path(mi.toURI()), null, dir);
+
+        index = PredicateIndex.open(dir);
+        server = new SimilarityServer(index, 100);
+        server.start(0, 2);
+    }
+
+    @After
+    public void stop() {
+        if (server != null) server.stop();
+        if (index != null) index.close();
+    }
+
+    @Test
+    public void health() throws IOException {
+        Answer a = get("/health");
+        assertEquals(200, a.status);
+        assertEquals("{\"status\":\"ok\"}", a.body);
+    }
+
+    @Test
+    public void simAnswersTheIndexScores() throws IOException {
+        int eat = index.lookup("X eat Y");
+        int devour = index.lookup("X devour Y");
+        assertTrue(eat >= 0 && devour >= 0);
+        double expected = index.similarity(eat, devour);
+        assertTrue(expected > 0);
+
+        // raw templates are normalized like the pair files
+        Answer a = get("/sim?p1=" + enc("X eats Y") + "&p2=" + enc("X devour Y"));
+        assertEquals(200, a.status);
+        assertTrue(a.body, a.body.contains("\"known\":true"));
+        assertTrue(a.body, a.body.contains("\"similarity\":" + Json.number(expected)));
+
+        a = get("/sim?p1=" + enc("X eat Y") + "&p2=" + enc("X unknown Y"));
+        assertEquals(200, a.status);
+        assertTrue(a.body, a.body.contains("\"known\":false"));
+        assertTrue(a.body, a.body.contains("\"similarity\":" + Json.number(0.0)));
+
+        assertEquals(400, get("/sim?p1=" + enc("X eat Y")).status);
+    }
+
+    @Test
+    public void unknownPredicatesAreNotCached() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            get("/sim?p1=" + enc("X eat Y") + "&p2=" + enc("X nonsense" + i + " Y"));
+        }
+        // only "X eat Y" is in the id cache
+        assertTrue(get("/metrics").body, get("/metrics").body.contains("\"ids\":{\"size\":1,"));
+    }
+
+    @Test
+    public void batchScoresEveryLineAndIsCapped() throws IOException {
+        Answer a = post("/batch", "X eat Y\tX devour Y\nX buy Y\tX sell Y\n\nX eat Y\tX unknown Y\n");
+        assertEquals(200, a.status);
+        assertTrue(a.body, a.body.endsWith("\"count\":3}"));
+        double expected = index.similarity(index.lookup("X eat Y"), index.lookup("X devour Y"));
+        assertTrue(a.body, a.body.contains("\"similarity\":" + Json.number(expected)));
+
+        assertEquals(400, post("/batch", "X eat Y\n").status);
+        assertEquals(405, get("/batch").status);
+
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i <= SimilarityServer.MAX_BATCH_LINES; i++) big.append("X eat Y\tX devour Y\n");
+        Answer tooBig = post("/batch", big.toString());
+        assertEquals(413, tooBig.status);
+        assertTrue(tooBig.body, tooBig.body.contains("error"));
+    }
+
+    @Test
+    public void rulesListTheTopPredicates() throws IOException {
+        Answer a = get("/rules?p=" + enc("X eat Y") + "&k=1");
+        assertEquals(200, a.status);
+        String top = index.topRules(index.lookup("X eat Y"), 1).get(0).pred;
+        assertTrue(a.body, a.body.startsWith("{\"pred\":\"X eat Y\",\"rules\":[{\"pred\":" + Json.quote(top)));
+
+        assertEquals(404, get("/rules?p=" + enc("X unknown Y")).status);
+        assertEquals(400, get("/rules?p=" + enc("X eat Y") + "&k=0").status);
+    }
+
+    private Answer get(String pathAndQuery) throws IOException {
+        return send(open(pathAndQuery), null);
+    }
+
+    private Answer post(String path, String body) throws IOException {
+        HttpURLConnection c = open(path);
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        return send(c, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HttpURLConnection open(String pathAndQuery) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.port() + pathAndQuery).openConnection();
+    }
+
+    private static Answer send(HttpURLConnection c, byte[] body) throws IOException {
+        try {
+            if (body != null) {
+                try (OutputStream os = c.getOutputStream()) {
+                    os.write(body);
+                }
+            }
+            int status = c.getResponseCode();
+            try (InputStream in = status < 400 ? c.getInputStream() : c.getErrorStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                for (int r; in != null && (r = in.read(buf)) > 0; ) bytes.write(buf, 0, r);
+                return new Answer(status, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    private static String enc(String s) throws IOException {
+        return URLEncoder.encode(s, "UTF-8");
+    }
+}
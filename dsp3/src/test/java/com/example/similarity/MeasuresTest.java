@@ -0,0 +1,119 @@
+package com.example.similarity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Every measure against hand-computed values, in both orientations of a test pair.
+ *
+ *   A: X cat 2, X dog 1, Y fish 4, Y car 1     sums X 3, Y 5; squares X 5, Y 17
+ *   B: X cat 1, X man 3, Y fish 2              sums X 4, Y 2; squares X 10, Y 4
+ *   shared: X cat (2, 1), Y fish (4, 2)
+ */
+public class MeasuresTest {
+
+    private static final double EPS = 1e-12;
+
+    private final Measures measures = Measures.of("dirt", "lin", "cosine", "jaccard", "weeds");
+
+    private final double[] a = stats(0, 2, 0, 1, 1, 4, 1, 1);
+    private final double[] b = stats(0, 1, 0, 3, 1, 2);
+
+    /** canonical pair (A, B): one addPairTerms per shared feature, MI of A first */
+    private double[] packedAB() {
+        double[] packed = new double[measures.pairWidth()];
+        measures.addPairTerms(0, 2, 1, packed, 0);
+        measures.addPairTerms(1, 4, 2, packed, 0);
+        return packed;
+    }
+
+    @Test
+    public void scoresOfThePairAsWritten() {
+        double[] out = new double[measures.size()];
+        measures.score(packedAB(), false, a, b, out);
+
+        assertArrayEquals(new double[]{
+                Math.sqrt(3.0 / 7 * (6.0 / 7)),     // dirt: lin_X = (2+1)/(3+4), lin_Y = (4+2)/(5+2)
+                9.0 / 14,                           // lin: (3 + 6) / (8 + 6)
+                10 / Math.sqrt(22 * 14),            // cosine: (2*1 + 4*2) / (|A| |B|)
+                3.0 / 11,                           // jaccard: (1 + 2) / (8 + 6 - 3)
+                6.0 / 8                             // weeds A -> B: (2 + 4) / 8
+        }, out, EPS);
+    }
+
+    @Test
+    public void scoresOfThePairReversed() {
+        double[] out = new double[measures.size()];
+        // test pair (B, A) against the canonical key (A, B)
+        measures.score(packedAB(), true, b, a, out);
+
+        assertArrayEquals(new double[]{
+                Math.sqrt(3.0 / 7 * (6.0 / 7)),
+                9.0 / 14,
+                10 / Math.sqrt(22 * 14),
+                3.0 / 11,
+                3.0 / 6                             // weeds B -> A: (1 + 2) / 6
+        }, out, EPS);
+
+        // the same as packing with B first
+        double[] packedBA = new double[measures.pairWidth()];
+        measures.addPairTerms(0, 1, 2, packedBA, 0);
+        measures.addPairTerms(1, 2, 4, packedBA, 0);
+        double[] direct = new double[measures.size()];
+        measures.score(packedBA, false, b, a, direct);
+        assertArrayEquals(out, direct, EPS);
+    }
+
+    @Test
+    public void pairTermsSumToThePackedVector() {
+        double[] sum = new double[measures.pairWidth()];
+        double[] terms = new double[measures.pairWidth()];
+        measures.pairTerms(0, 2, 1, terms);
+        for (int i = 0; i < sum.length; i++) sum[i] += terms[i];
+        measures.pairTerms(1, 4, 2, terms);
+        for (int i = 0; i < sum.length; i++) sum[i] += terms[i];
+        assertArrayEquals(packedAB(), sum, EPS);
+    }
+
+    @Test
+    public void dirtNeedsASharedFeatureInBothSlots() {
+        double[] packed = new double[measures.pairWidth()];
+        measures.addPairTerms(0, 2, 1, packed, 0);
+        double[] out = new double[measures.size()];
+        measures.score(packed, false, a, b, out);
+
+        assertEquals(0.0, out[0], 0.0);
+        assertEquals(3.0 / 14, out[1], EPS);        // lin pools: (2+1) / (8+6)
+        assertEquals(2.0 / 8, out[4], EPS);
+    }
+
+    @Test
+    public void undefinedScoresAreZero() {
+        double[] zero = new double[Measures.predicateWidth()];
+        double[] out = new double[measures.size()];
+        measures.score(new double[measures.pairWidth()], false, zero, zero, out);
+        assertArrayEquals(new double[measures.size()], out, 0.0);
+    }
+
+    @Test
+    public void defaultPacksOneSumPerSlot() {
+        Measures dirt = Measures.of(Measures.DEFAULT);
+        assertEquals(2, dirt.pairWidth());
+        double[] packed = new double[2];
+        dirt.pairTerms(1, 4, 2, packed);
+        assertArrayEquals(new double[]{0, 6}, packed, 0.0);
+    }
+
+    /** predicate vector from (slot, mi) pairs, summed as Step3 does */
+    private static double[] stats(double... slotMi) {
+        double[] row = new double[Measures.predicateWidth()];
+        double[] terms = new double[row.length];
+        for (int i = 0; i < slotMi.length; i += 2) {
+            Measures.predicateTerms((int) slotMi[i], slotMi[i + 1], terms);
+            for (int t = 0; t < row.length; t++) row[t] += terms[t];
+        }
+        return row;
+    }
+}